@@ -14,6 +14,7 @@
 
 package io.openlena.ctl.common;
 
+import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
 /**
@@ -24,6 +25,19 @@ import org.apache.commons.cli.Options;
 public class InstallCommandCtl {
 	final String CREATE = "CREATE";
 	final String CLONE = "CLONE";
+	final String SYNC = "SYNC";
+	final String MULTICLONE = "MULTICLONE";
+	final String EXPORT = "EXPORT";
+	final String IMPORT = "IMPORT";
+	final String SEND = "SEND";
+	final String RECEIVE = "RECEIVE";
+	public static final String EXCLUDE = "exclude";
+	public static final String BWLIMIT = "bwlimit";
+	public static final String IOPS_LIMIT = "iops-limit";
+	public static final String LINKS = "links";
+	public static final String BIND_ADDRESS = "bind-address";
+	public static final String INCLUDE_CONFIG = "include-config";
+	public static final String DRY_RUN = "dry-run";
 
 	Options options = null;
 
@@ -37,6 +51,20 @@ public class InstallCommandCtl {
 	public void initCommandOptions() {
 		options = new Options();
 		options.addOption(CREATE, true, "create server");
+		options.addOption(Option.builder().longOpt(EXCLUDE).hasArg().argName("patterns")
+				.desc("comma separated glob patterns of files which are not cloned").build());
+		options.addOption(Option.builder().longOpt(BWLIMIT).hasArg().argName("rate")
+				.desc("bytes copied per second, with an optional K, M or G suffix").build());
+		options.addOption(Option.builder().longOpt(IOPS_LIMIT).hasArg().argName("count")
+				.desc("files and directories created per second").build());
+		options.addOption(Option.builder().longOpt(LINKS).hasArg().argName("policy")
+				.desc("how symbolic links are cloned : preserve, follow or skip").build());
+		options.addOption(Option.builder().longOpt(INCLUDE_CONFIG)
+				.desc("sync also overwrites env.sh and conf/ of the clone, which are kept by default").build());
+		options.addOption(Option.builder().longOpt(DRY_RUN)
+				.desc("sync only prints the entries of the clone it would delete").build());
+		options.addOption(Option.builder().longOpt(BIND_ADDRESS).hasArg().argName("address")
+				.desc("address receive listens on (default 127.0.0.1), reach it from the sending host through an SSH tunnel").build());
 	}
 
 	/**
@@ -51,6 +79,24 @@ public class InstallCommandCtl {
 		if(CLONE.toLowerCase().equals(command.toLowerCase())) {
 			result = true;
 		}
+		if(SYNC.toLowerCase().equals(command.toLowerCase())) {
+			result = true;
+		}
+		if(MULTICLONE.toLowerCase().equals(command.toLowerCase())) {
+			result = true;
+		}
+		if(EXPORT.toLowerCase().equals(command.toLowerCase())) {
+			result = true;
+		}
+		if(IMPORT.toLowerCase().equals(command.toLowerCase())) {
+			result = true;
+		}
+		if(SEND.toLowerCase().equals(command.toLowerCase())) {
+			result = true;
+		}
+		if(RECEIVE.toLowerCase().equals(command.toLowerCase())) {
+			result = true;
+		}
 		return result;
 	}
 
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.exception;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a directory copy stops part way.
+ * Reports the entry that failed and how much had been copied until then.
+ */
+public class PartialCopyException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String failedPath;
+	private final long copiedFiles;
+	private final long copiedBytes;
+
+	public PartialCopyException(String failedPath, long copiedFiles, long copiedBytes, Throwable cause) {
+		super("Copy failed at '" + failedPath + "' after " + copiedFiles + " files (" + copiedBytes + " bytes) were copied : "
+				+ (cause == null ? "" : cause.getMessage()), cause);
+		this.failedPath = failedPath;
+		this.copiedFiles = copiedFiles;
+		this.copiedBytes = copiedBytes;
+	}
+
+	/**
+	 * @return path of the entry that could not be copied
+	 */
+	public String getFailedPath() {
+		return failedPath;
+	}
+
+	/**
+	 * @return number of files completely copied before the failure
+	 */
+	public long getCopiedFiles() {
+		return copiedFiles;
+	}
+
+	/**
+	 * @return number of bytes completely copied before the failure
+	 */
+	public long getCopiedBytes() {
+		return copiedBytes;
+	}
+}
@@ -41,6 +41,27 @@ public class InstallerMapper {
 		installerServerType = InstallerServerType.getInstallServerType(serverType);
 		installerCommandType = InstallerCommandType.valueOf(command.toUpperCase());
 
+		if (installerServerType == null) {
+			return null;
+		}
+
+		switch (installerCommandType) {
+			case SYNC:
+				return new LenaServerSyncInstaller(installerCommandType, installerServerType, getCloneInstaller(installerServerType));
+			case MULTICLONE:
+				return new LenaServerMultiCloneInstaller(installerCommandType, installerServerType, getCloneInstaller(installerServerType));
+			case EXPORT:
+				return new LenaServerExportInstaller(installerCommandType, installerServerType);
+			case IMPORT:
+				return new LenaServerImportInstaller(installerCommandType, installerServerType, getCloneInstaller(installerServerType));
+			case SEND:
+				return new LenaServerSendInstaller(installerCommandType, installerServerType);
+			case RECEIVE:
+				return new LenaServerReceiveInstaller(installerCommandType, installerServerType, getCloneInstaller(installerServerType));
+			default:
+				break;
+		}
+
 		switch (installerServerType) {
 		case LENA_WEB:
 			switch (installerCommandType) {
@@ -59,4 +80,15 @@ public class InstallerMapper {
 		}
 		return null;
 	}
+
+	/**
+	 * @param installerServerType server type
+	 * @return installer configuring the servers cloned, synchronized, imported or received
+	 */
+	private static LenaServerCloneInstaller getCloneInstaller(InstallerServerType installerServerType) {
+		if (installerServerType == InstallerServerType.LENA_WEB) {
+			return new LenaWebServerCloneInstaller(InstallerCommandType.CLONE, installerServerType);
+		}
+		return new LenaWasServerCloneInstaller(InstallerCommandType.CLONE, installerServerType);
+	}
 }
@@ -14,16 +14,40 @@
 
 package io.openlena.ctl.installer;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.IOUtils;
+
+import io.openlena.ctl.common.InstallCommandCtl;
 import io.openlena.ctl.common.vo.Server;
+import io.openlena.ctl.exception.LenaException;
 import io.openlena.ctl.type.InstallerCommandType;
 import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.CopyOptions;
+import io.openlena.ctl.util.CopyPlan;
+import io.openlena.ctl.util.CopyStatistics;
+import io.openlena.ctl.util.CustomFileUtils;
 import io.openlena.ctl.util.EnvUtil;
 import io.openlena.ctl.util.FileUtil;
 import io.openlena.ctl.util.InstallConfigUtil;
 import io.openlena.ctl.util.InstallInfoUtil;
+import io.openlena.ctl.util.IoRateLimiter;
+import io.openlena.ctl.util.LinkPolicy;
+import io.openlena.ctl.util.PathPatternMatcher;
 import io.openlena.ctl.util.ReleaseInfoUtil;
 import io.openlena.ctl.util.StringUtil;
 
@@ -33,10 +57,21 @@ import io.openlena.ctl.util.StringUtil;
  *
  */
 public abstract class LenaInstaller implements Installer {
+	private static final String HARDLINK_INCLUDES_DEFAULT = "*.jar,*.so,*.so.*,bin/**,lib/**";
+	private static final String HARDLINK_EXCLUDES_DEFAULT = "env.sh,conf/**,logs/**,temp/**,work/**";
+	private static final String WAS_CLONE_EXCLUDES_DEFAULT = "logs/**,temp/**,work/**,*.hprof";
+	private static final String WEB_CLONE_EXCLUDES_DEFAULT = "logs/**";
+	private static final String TEMPLATE_INCLUDES_DEFAULT = "env.sh,bin/**,conf/**";
+	private static final String TEMPLATE_PLACEHOLDER_PREFIX = "LENA_";
+	// copies smaller than this are too short to measure a throughput
+	private static final String SERVER_ID_PATTERN = "[A-Za-z0-9_][A-Za-z0-9_.-]*";
+	private static final long THROUGHPUT_MIN_BYTES = 16L * 1024 * 1024;
+
 	private InstallerCommandType installerCommandType;
 	private InstallerServerType installerServerType;
 
 	private String depotPath;
+	private CommandLine commandLine;
 
 	private Map<String, String> resultMap;
 	private Map<String, String> defaultValueMap;
@@ -71,7 +106,7 @@ public abstract class LenaInstaller implements Installer {
 		server.setPort(servicePort);
 		server.setPath(path);
 		server.setType(getServerType());
-		InstallInfoUtil.addInstallInfo(server);
+		InstallInfoUtil.addInstallInfo(getLenaHome(), Collections.singletonList(server));
 	}
 	
 	/**
@@ -82,6 +117,18 @@ public abstract class LenaInstaller implements Installer {
 	 * @param hotfix version
 	 */
 	protected void addInstallInfo(String serverId, String servicePort, String path, String version, String hotfix){
+		InstallInfoUtil.addInstallInfo(getLenaHome(), Collections.singletonList(newServer(serverId, servicePort, path, version, hotfix)));
+	}
+
+	/**
+	 * @param serverId
+	 * @param servicePort
+	 * @param path install path
+	 * @param version
+	 * @param hotfix version
+	 * @return server of the installer type
+	 */
+	protected Server newServer(String serverId, String servicePort, String path, String version, String hotfix) {
 		Server server = new Server();
 		server.setId(serverId);
 		server.setPort(servicePort);
@@ -89,7 +136,21 @@ public abstract class LenaInstaller implements Installer {
 		server.setType(getServerType());
 		server.setVersion(version);
 		server.setHotfix(hotfix);
-		InstallInfoUtil.addInstallInfo(server);
+		return server;
+	}
+
+	/**
+	 * @return LENA_HOME whose install-info.xml registers the servers of this installer
+	 */
+	protected String getLenaHome() {
+		return EnvUtil.getLenaHome();
+	}
+
+	/**
+	 * @return command
+	 */
+	protected InstallerCommandType getInstallerCommandType() {
+		return installerCommandType;
 	}
 
 	/**
@@ -99,6 +160,51 @@ public abstract class LenaInstaller implements Installer {
 		return installerServerType.getServerType();
 	}
 	
+	/**
+	 * Returns an installed server of this type, checking that its install path exists.
+	 *
+	 * @param serverId id of the server
+	 * @return the server
+	 */
+	protected Server getInstalledServer(String serverId) {
+		// server exists check
+		if (!InstallInfoUtil.existsServer(getLenaHome(), serverId)) {
+			throw new LenaException(serverId + " doesn't exist.");
+		}
+
+		Server server = InstallInfoUtil.getServer(getLenaHome(), serverId);
+
+		// server exists check
+		if (!FileUtil.exists(server.getPath())) {
+			throw new LenaException(server.getPath() + " doesn't exist.");
+		}
+
+		// server type check
+		if (!server.getType().equals(getServerType())) {
+			throw new LenaException("Server Type matching error");
+		}
+		return server;
+	}
+
+	/**
+	 * @param clone true for the example of a cloned server
+	 * @return example of a service port of this server type, shown by the prompts
+	 */
+	protected String getExampleServicePort(boolean clone) {
+		if (installerServerType == InstallerServerType.LENA_WEB) {
+			return clone ? "7190" : "7180";
+		}
+		return clone ? "8090" : "8080";
+	}
+
+	/**
+	 * @param clone true for the example of a cloned server
+	 * @return example of a server id of this server type, shown by the prompts
+	 */
+	protected String getExampleServerId(boolean clone) {
+		return getServerType().replace('-', '_') + "-" + getExampleServicePort(clone);
+	}
+
 	/**
 	 * Return install path.
 	 * @param serverId Server ID
@@ -130,14 +236,47 @@ public abstract class LenaInstaller implements Installer {
 	 * @param args arguments
 	 */
 	private void load(String args[]) {
-		this.depotPath = ReleaseInfoUtil.getDepotPath(getServerType());
+		this.depotPath = ReleaseInfoUtil.getDepotPath(getLenaHome(), getServerType());
+		try {
+			this.commandLine = new DefaultParser().parse(new InstallCommandCtl().getCommandOption(), args);
+		}
+		catch (ParseException e) {
+			throw new LenaException("Invalid option : " + e.getMessage(), e);
+		}
 
 		resultMap = new LinkedHashMap<String, String>();
 		defaultValueMap = getDefaultValueMap();
-		resultMap.put("LENA_HOME", EnvUtil.getLenaHome());
+		resultMap.put("LENA_HOME", getLenaHome());
 		resultMap.put("JAVA_HOME", EnvUtil.getUserJavahome());
 	}
 
+	/**
+	 * @param name long name of the option
+	 * @param defaultValue value if the option is not given
+	 * @return value of a command line option, the values of a repeated option are joined with ','
+	 */
+	protected String getCommandOption(String name, String defaultValue) {
+		if (commandLine == null || !commandLine.hasOption(name)) {
+			return defaultValue;
+		}
+		StringBuilder value = new StringBuilder();
+		for (String optionValue : commandLine.getOptionValues(name)) {
+			if (value.length() > 0) {
+				value.append(',');
+			}
+			value.append(optionValue);
+		}
+		return value.toString();
+	}
+
+	/**
+	 * @param name long name of the option
+	 * @return true if a command line option without value is given
+	 */
+	protected boolean hasCommandOption(String name) {
+		return commandLine != null && commandLine.hasOption(name);
+	}
+
 	/**
 	 * @param key
 	 * @return default value already defined
@@ -158,15 +297,342 @@ public abstract class LenaInstaller implements Installer {
 		map.put("lena-was.ajp-address", InstallConfigUtil.getProperty("lena-was.ajp-address.default", "127.0.0.1"));
 		map.put("lena-was.jvm-route", InstallConfigUtil.getProperty("lena-was.jvm-route.default", "host1_8180"));
 		map.put("lena-was.template.dirname", InstallConfigUtil.getProperty("lena-was.template.dirname", "base"));
+		map.put("lena-was.clone.excludes", InstallConfigUtil.getProperty("lena-was.clone.excludes", WAS_CLONE_EXCLUDES_DEFAULT));
 
 		// lena-web default value
 		map.put("lena-web.service-port", InstallConfigUtil.getProperty("lena-web.service-port.default", "80"));
 		map.put("lena-web.run-user", InstallConfigUtil.getProperty("lena-web.run-user.default", "lenaw"));
 		map.put("lena-web.template.dirname", InstallConfigUtil.getProperty("lena-web.template.dirname", "base"));
+		map.put("lena-web.clone.excludes", InstallConfigUtil.getProperty("lena-web.clone.excludes", WEB_CLONE_EXCLUDES_DEFAULT));
 
 		return map;
 	}
 
+	/**
+	 * Returns copy options of this server type configured in installer.info.
+	 * <ul>
+	 * <li>[server-type].hardlink.enabled : hard link immutable depot files instead of copying them (default false)</li>
+	 * <li>[server-type].hardlink.includes : immutable files (default {@value #HARDLINK_INCLUDES_DEFAULT})</li>
+	 * <li>[server-type].hardlink.excludes : mutable files which are always copied (default {@value #HARDLINK_EXCLUDES_DEFAULT})</li>
+	 * </ul>
+	 * The --bwlimit and --iops-limit options override the rate limit of installer.info.
+	 *
+	 * @return copy options
+	 */
+	protected CopyOptions getCopyOptions() {
+		CopyOptions options = FileUtil.getDefaultCopyOptions();
+		if (getCommandOption(InstallCommandCtl.BWLIMIT, null) != null || getCommandOption(InstallCommandCtl.IOPS_LIMIT, null) != null) {
+			options.setRateLimiter(IoRateLimiter.create(
+					getCommandOption(InstallCommandCtl.BWLIMIT, InstallConfigUtil.getProperty("filecopy.limit.bandwidth")),
+					getCommandOption(InstallCommandCtl.IOPS_LIMIT, InstallConfigUtil.getProperty("filecopy.limit.iops"))));
+		}
+
+		if (Boolean.parseBoolean(InstallConfigUtil.getProperty(getServerType() + ".hardlink.enabled", "false"))) {
+			options.setHardLinkIncludes(PathPatternMatcher.compile(InstallConfigUtil.getProperty(getServerType() + ".hardlink.includes", HARDLINK_INCLUDES_DEFAULT)));
+			options.setHardLinkExcludes(PathPatternMatcher.compile(InstallConfigUtil.getProperty(getServerType() + ".hardlink.excludes", HARDLINK_EXCLUDES_DEFAULT)));
+		}
+		return options;
+	}
+
+	/**
+	 * Returns copy options to copy the depot template of a new server, which render the
+	 * template while it is copied instead of patching the copied files.
+	 * <ul>
+	 * <li>the declarations of env.sh get the given variables, the copy fails if one is missing</li>
+	 * <li>${LENA_[NAME]} placeholders get the value of the variable [NAME], in the files matching
+	 * lena-was.template.includes or lena-web.template.includes : default {@value #TEMPLATE_INCLUDES_DEFAULT}</li>
+	 * </ul>
+	 * Variables whose name starts with LENA_ have no placeholder, as ${LENA_HOME} is a shell variable of the scripts.
+	 * Other files are copied as they are.
+	 *
+	 * @param variables the variables of the new server
+	 * @return copy options
+	 */
+	protected CopyOptions getTemplateCopyOptions(Map<String, String> variables) {
+		Map<String, String> placeholders = new HashMap<String, String>();
+		for (Map.Entry<String, String> variable : variables.entrySet()) {
+			if (!variable.getKey().startsWith(TEMPLATE_PLACEHOLDER_PREFIX)) {
+				placeholders.put("${" + TEMPLATE_PLACEHOLDER_PREFIX + variable.getKey() + "}", variable.getValue());
+			}
+		}
+		CopyOptions options = getCopyOptions();
+		options.setSubstitutions(PathPatternMatcher.compile(
+				InstallConfigUtil.getProperty(getServerType() + ".template.includes", TEMPLATE_INCLUDES_DEFAULT)), placeholders);
+		options.setShellVariables(variables);
+		return options;
+	}
+
+	/**
+	 * Returns copy options to clone a server.
+	 * <p>
+	 * Files matching the exclude patterns are not cloned, the patterns are taken from the
+	 * --exclude command line option, or else from installer.info.
+	 * <ul>
+	 * <li>lena-was.clone.excludes : default {@value #WAS_CLONE_EXCLUDES_DEFAULT}</li>
+	 * <li>lena-web.clone.excludes : default {@value #WEB_CLONE_EXCLUDES_DEFAULT}</li>
+	 * </ul>
+	 * pid files are never cloned. File dates are kept, so that a sync only transfers what changed.
+	 * Files are always copied, even when [server-type].hardlink.enabled is set : hard links are only
+	 * made to the depot, a clone never shares files with the running server it is cloned from.
+	 * <p>
+	 * Symbolic links, such as a logs directory linked to a shared volume, are handled as told by the
+	 * --links command line option, or else by [server-type].clone.links in installer.info :
+	 * preserve (default), follow or skip.
+	 *
+	 * @return copy options
+	 */
+	protected CopyOptions getCloneCopyOptions() {
+		CopyOptions options = getCopyOptions();
+		PathPatternMatcher excludes = PathPatternMatcher.compile(getCommandOption(InstallCommandCtl.EXCLUDE, getDefaultValue(getServerType() + ".clone.excludes")));
+		excludes.add("*.pid");
+		options.setExcludes(excludes);
+		options.setPreserveFileDate(true);
+		options.setHardLinkIncludes(null);
+		options.setHardLinkExcludes(null);
+		options.setLinkPolicy(LinkPolicy.parse(getCommandOption(InstallCommandCtl.LINKS,
+				InstallConfigUtil.getProperty(getServerType() + ".clone.links", LinkPolicy.PRESERVE.name()))));
+		return options;
+	}
+
+	/**
+	 * filecopy.resume in installer.info (default false) : a clone which fails or is interrupted
+	 * keeps its staging directory, and cloning the same server again resumes the copy.
+	 *
+	 * @return true if clones are resumable
+	 */
+	protected boolean isCloneResumable() {
+		return Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.resume", "false"));
+	}
+
+	/**
+	 * Check that the filesystem of targetPath can hold the copies before starting them, and print
+	 * the files and the estimated duration of the copies in text format.
+	 * <p>
+	 * The sources are walked with the exclusions, link policy and hard links of the options, as
+	 * the copies will do. The duration is estimated from the throughput of the last copies of the
+	 * same operation. Sources which are not directories, such as packed depot directories, are not
+	 * planned.
+	 * <ul>
+	 * <li>filecopy.plan : check the capacity of the target before copying (default true)</li>
+	 * </ul>
+	 *
+	 * @param operation create, clone or multiclone
+	 * @param srcPaths the directories to copy into targetPath
+	 * @param options the copy options
+	 * @param targetPath the server directory, which may not exist yet
+	 * @param copies number of copies of the sources written to the filesystem of targetPath
+	 */
+	protected void planCopy(String operation, List<String> srcPaths, CopyOptions options, String targetPath, int copies) {
+		if (!Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.plan", "true"))) {
+			return;
+		}
+		CopyPlan plan = new CopyPlan();
+		for (String srcPath : srcPaths) {
+			File srcDir = new File(srcPath);
+			if (!srcDir.isDirectory()) {
+				continue;
+			}
+			try {
+				plan.add(CustomFileUtils.planCopy(srcDir, options));
+			}
+			catch (IOException e) {
+				throw new LenaException("Failed to read directory '" + srcPath + "'", e);
+			}
+		}
+		plan.checkCapacity(targetPath, copies);
+
+		if (!"json".equals(EnvUtil.getResultFormat())) {
+			long estimatedMillis = plan.estimateMillis(getCopyThroughput(operation));
+			System.out.println("| " + targetPath + " : " + operation + " of " + plan.getFileCount() * copies + " files, " + plan.getByteCount() * copies
+					+ " bytes, " + plan.getRequiredInodes() * copies + " inodes"
+					+ (estimatedMillis < 0 ? "" : ", estimated " + (estimatedMillis * copies + 999) / 1000 + " s"));
+		}
+	}
+
+	/**
+	 * @return file keeping the throughput of the last copies of each operation
+	 */
+	private File getCopyThroughputFile() {
+		return new File(FileUtil.getConcatPath(getLenaHome(), "etc", "info", "copy-throughput.properties"));
+	}
+
+	/**
+	 * @param operation create, clone, multiclone or sync
+	 * @return throughput in bytes per second of the last copies of the operation, 0 if unknown
+	 */
+	private long getCopyThroughput(String operation) {
+		Properties throughputs = readCopyThroughputs();
+		try {
+			return Long.parseLong(throughputs.getProperty(getServerType() + "." + operation, "0"));
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private Properties readCopyThroughputs() {
+		Properties throughputs = new Properties();
+		File file = getCopyThroughputFile();
+		if (file.isFile()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(file);
+				throughputs.load(in);
+			}
+			catch (IOException e) {
+				// estimated again from the next copies
+			}
+			finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+		return throughputs;
+	}
+
+	/**
+	 * Record the throughput of a copy, averaged with the throughput of the previous copies so that
+	 * a single slow or fast copy does not drive the estimates.
+	 *
+	 * @param operation create, clone, multiclone or sync
+	 * @param statistics statistics of the completed copies
+	 */
+	private void recordCopyThroughput(String operation, CopyStatistics statistics) {
+		if (statistics.getByteCount() < THROUGHPUT_MIN_BYTES || statistics.getThroughput() <= 0) {
+			return;
+		}
+		File file = getCopyThroughputFile();
+		if (!file.getParentFile().isDirectory()) {
+			return;
+		}
+		long previous = getCopyThroughput(operation);
+		long throughput = previous > 0 ? (previous + statistics.getThroughput()) / 2 : statistics.getThroughput();
+		Properties throughputs = readCopyThroughputs();
+		throughputs.setProperty(getServerType() + "." + operation, String.valueOf(throughput));
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			throughputs.store(out, "bytes per second of the last copies");
+		}
+		catch (IOException e) {
+			// the estimates only use the previous throughput
+		}
+		finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Check the id of a new server, which names its install directory.
+	 *
+	 * @param serverId id of a new server
+	 */
+	protected void checkServerId(String serverId) {
+		if (serverId == null || !serverId.matches(SERVER_ID_PATTERN)) {
+			throw new LenaException("Invalid server id : '" + serverId + "'");
+		}
+	}
+
+	/**
+	 * @param serverId id of a new server
+	 * @param servicePort port of the new server
+	 * @return install path of the new server, under [server-type].install-root-path.default
+	 * (default LENA_HOME/servers)
+	 */
+	protected String getNewServerPath(String serverId, String servicePort) {
+		if (!StringUtil.isNumeric(servicePort)) {
+			throw new LenaException("Service Port should be numeric");
+		}
+		if (InstallInfoUtil.existsServer(getLenaHome(), serverId)) {
+			throw new LenaException(serverId + " already exists.");
+		}
+		String installRootPath = InstallConfigUtil.getProperty(getServerType() + ".install-root-path.default", FileUtil.getConcatPath(getLenaHome(), "servers"));
+		String targetPath = FileUtil.getConcatPath(installRootPath, getTargetDirName(serverId, servicePort));
+		if (FileUtil.exists(targetPath)) {
+			throw new LenaException(targetPath + " already exists.");
+		}
+		return targetPath;
+	}
+
+	/**
+	 * filecopy.transfer.token in installer.info : secret a sender gives and a receiver requires,
+	 * the same on both hosts. The token is sent in clear, as the rest of the transfer.
+	 *
+	 * @return the transfer token, null if it is not set
+	 */
+	protected String getTransferToken() {
+		return InstallConfigUtil.getProperty("filecopy.transfer.token");
+	}
+
+	/**
+	 * @return copy options extracting an exported or received server, which keeps the
+	 * permissions and dates of its files
+	 */
+	protected CopyOptions getArchiveExtractOptions() {
+		CopyOptions options = getCopyOptions();
+		options.setPreservePermissions(true);
+		options.setPreserveFileDate(true);
+		return options;
+	}
+
+	/**
+	 * @param server an installed server
+	 * @return id, port, type, path, version and hotfix of the server
+	 */
+	protected Properties getServerDescription(Server server) {
+		Properties description = new Properties();
+		description.setProperty("id", server.getId());
+		description.setProperty("port", server.getPort());
+		description.setProperty("type", server.getType());
+		description.setProperty("path", server.getPath());
+		description.setProperty("version", StringUtil.isBlank(server.getVersion()) ? "" : server.getVersion());
+		description.setProperty("hotfix", StringUtil.isBlank(server.getHotfix()) ? "" : server.getHotfix());
+		return description;
+	}
+
+	/**
+	 * @return filecopy.compress.threads in installer.info (default the number of processors)
+	 */
+	protected int getCompressThreads() {
+		return InstallConfigUtil.getIntProperty("filecopy.compress.threads", Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Print the statistics of the copies of a create, clone or sync, as text or as json
+	 * depending on the result format, and record their throughput for the next estimates.
+	 *
+	 * @param operation create, clone, sync, export, import, send or receive
+	 * @param targetPath the copied server directory, the archive of an export or the receiver of a send
+	 * @param statistics statistics of the copies
+	 */
+	protected void printCopySummary(String operation, String targetPath, CopyStatistics statistics) {
+		recordCopyThroughput(operation, statistics);
+		if ("json".equals(EnvUtil.getResultFormat())) {
+			System.out.println("{\"operation\":\"" + operation + "\",\"target\":\"" + StringUtil.escapeJson(targetPath) + "\",\"copy\":"
+					+ statistics.toJson() + "}");
+			return;
+		}
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| " + targetPath + " : " + operation + " completed in " + statistics.getElapsedMillis() + " ms.");
+		System.out.println("|    transferred : " + statistics.getFileCount() + " files, " + statistics.getByteCount() + " bytes, "
+				+ statistics.getThroughput() + " bytes/s");
+		System.out.println("|    linked      : " + statistics.getLinkCount() + " files");
+		if (statistics.getSparseByteCount() > 0) {
+			System.out.println("|    sparse      : " + statistics.getSparseByteCount() + " bytes left as holes");
+		}
+		if (statistics.getSymlinkCount() > 0) {
+			System.out.println("|    symlinks    : " + statistics.getSymlinkCount() + " links");
+		}
+		if (statistics.getUnchangedCount() > 0 || statistics.getDeletedCount() > 0) {
+			System.out.println("|    unchanged   : " + statistics.getUnchangedCount() + " files");
+			System.out.println("|    deleted     : " + statistics.getDeletedCount() + " entries");
+		}
+		System.out.println("|    listing     : " + statistics.getListingMillis() + " ms, transfer : " + statistics.getTransferMillis() + " ms");
+		for (CopyStatistics.SlowFile slowFile : statistics.getSlowestFiles()) {
+			System.out.println("|    slowest     : " + slowFile.getPath() + " (" + slowFile.getBytes() + " bytes, " + slowFile.getMillis() + " ms)");
+		}
+		System.out.println("+-------------------------------------------------------------------------------------");
+	}
+
 	/**
 	 * @param value
 	 * @param defaultValue
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.installer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+import io.openlena.ctl.common.vo.Server;
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.CopyOptions;
+import io.openlena.ctl.util.CopyStatistics;
+import io.openlena.ctl.util.FileUtil;
+import io.openlena.ctl.util.InstallConfigUtil;
+import io.openlena.ctl.util.InstallInfoUtil;
+import io.openlena.ctl.util.StagedDirectory;
+import io.openlena.ctl.util.StringUtil;
+
+/**
+ * 서버를 복제하는 공통 로직을 담고 있는 Installer class.
+ * 복제된 서버의 env.sh 에서 서버 종류별로 바뀌는 변수는 하위 class 에서 정한다.
+ * <p>
+ * sync, multiclone, import, receive 도 복제된 서버를 이 class 의
+ * {@link #configureServer(String, String, String, String)} 로 설정한다.
+ */
+public abstract class LenaServerCloneInstaller extends LenaInstaller {
+	/**
+	 * 기본생성자
+	 * @param installCommandType
+	 * @param installServerType
+	 */
+	public LenaServerCloneInstaller(InstallerCommandType installCommandType, InstallerServerType installServerType) {
+		super(installCommandType, installServerType);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see argo.install.installer.ArgoInstaller#execute()
+	 */
+	public void execute() {
+		// get options from user
+		HashMap<String, String> commandMap = getServerInfoFromUser();
+
+		String srcServerId = commandMap.get("SERVER_ID");
+		String cloneServerId = commandMap.get("CLONE_SERVER_ID");
+		String cloneServicePort = commandMap.get("CLONE_SERVICE_PORT");
+
+		// validate options
+		if(!StringUtil.isNumeric(cloneServicePort)){
+			throw new LenaException("Service Port should be numeric");
+		}
+
+		Server srcServer = getInstalledServer(srcServerId);
+		String srcInstallPath = srcServer.getPath();
+
+		String cloneInstallRootPath = InstallConfigUtil.getProperty(getServerType() + ".install-root-path.default", FileUtil.getParentPath(srcInstallPath));
+
+		String targetPath = FileUtil.getConcatPath(cloneInstallRootPath, getTargetDirName(cloneServerId, cloneServicePort));
+
+		// server exists check
+		if(InstallInfoUtil.existsServer(cloneServerId)){
+			throw new LenaException(cloneServerId + " already exists.");
+		}
+
+		// server exists check
+		if(FileUtil.exists(targetPath)){
+			throw new LenaException(targetPath + " already exists.");
+		}
+
+		CopyOptions options = getCloneCopyOptions();
+		planCopy("clone", Collections.singletonList(srcInstallPath), options, targetPath, 1);
+
+		// the server is built in a staging directory and published once it is complete
+		StagedDirectory stagedDirectory = StagedDirectory.create(targetPath, isCloneResumable());
+		String stagingPath = stagedDirectory.getPath();
+		try{
+			// copy install files, skipping the files copied by an interrupted clone
+			options.setCheckpoint(stagedDirectory.getCheckpoint());
+			CopyStatistics statistics = FileUtil.copyDirectory(srcInstallPath, stagingPath, options);
+
+			configureServer(stagingPath, targetPath, cloneServerId, cloneServicePort);
+
+			stagedDirectory.publish();
+
+			// update install-info.xml
+			addInstallInfo(cloneServerId, cloneServicePort, targetPath, srcServer.getVersion(), srcServer.getHotfix());
+
+			printCopySummary("clone", targetPath, statistics);
+		} catch(Throwable e){
+			stagedDirectory.discard();
+			throw new LenaException(e);
+		}
+	}
+
+	/**
+	 * 복제된 서버의 env.sh 를 설정한다.
+	 * @param serverPath path of the cloned files, the staging directory of a new server
+	 * @param targetPath cloned server install path
+	 * @param cloneServerId cloned server id
+	 * @param cloneServicePort cloned server port
+	 */
+	protected void configureServer(String serverPath, String targetPath, String cloneServerId, String cloneServicePort) {
+		String envPath = FileUtil.getConcatPath(serverPath, "env.sh");
+
+		// replace text with user inputs.
+		Map<String, String> envVariables = new LinkedHashMap<String, String>();
+		envVariables.put("SERVER_ID", cloneServerId);
+		envVariables.put("SERVICE_PORT", cloneServicePort);
+		envVariables.put("INSTALL_PATH", targetPath);
+		putEnvVariables(envVariables, envPath, targetPath, cloneServerId, cloneServicePort);
+		FileUtil.setShellVariables(envPath, envVariables, getOptionalEnvVariables());
+	}
+
+	/**
+	 * 서버 종류별로 복제된 서버의 env.sh 에 설정할 변수를 추가한다.
+	 * @param envVariables SERVER_ID, SERVICE_PORT and INSTALL_PATH of the cloned server
+	 * @param envPath env.sh of the cloned files
+	 * @param targetPath cloned server install path
+	 * @param cloneServerId cloned server id
+	 * @param cloneServicePort cloned server port
+	 */
+	protected abstract void putEnvVariables(Map<String, String> envVariables, String envPath, String targetPath, String cloneServerId,
+			String cloneServicePort);
+
+	/**
+	 * @return env.sh 에 없을 수 있는 변수
+	 */
+	protected String[] getOptionalEnvVariables() {
+		return new String[0];
+	}
+
+	/**
+	 * @return Server information to be created
+	 */
+	protected HashMap<String, String> getServerInfoFromUser() {
+		HashMap<String, String> commandMap = new HashMap<String, String>();
+		Scanner scan = new Scanner(System.in);
+
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| 1. SERVER_ID means business code of system and its number of letter is from 3 to 5. ");
+		System.out.println("|    ex : " + getExampleServerId(false));
+		System.out.print("|: ");
+		commandMap.put("SERVER_ID", scan.nextLine());
+		System.out.println("| 2. CLONE_SERVER_ID is clone target server's id                                      ");
+		System.out.println("|    ex : " + getExampleServerId(true));
+		System.out.print("|: ");
+		commandMap.put("CLONE_SERVER_ID", scan.nextLine());
+		System.out.println("| 3. CLONE_SERVICE_PORT is the target server's port number used by HTTP Connector.    ");
+		System.out.println("|    ex : " + getExampleServicePort(true));
+		System.out.print("|: ");
+		commandMap.put("CLONE_SERVICE_PORT", scan.nextLine());
+		System.out.println("+-------------------------------------------------------------------------------------");
+
+		return commandMap;
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.installer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Scanner;
+
+import io.openlena.ctl.common.vo.Server;
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.ArchiveWriter;
+import io.openlena.ctl.util.CopyStatistics;
+
+/**
+ * 설치된 서버를 하나의 압축 파일로 내보내는 Installer class.
+ * 복제 시 제외되는 파일은 포함하지 않는다.
+ */
+public class LenaServerExportInstaller extends LenaInstaller {
+	// first entry of an exported server archive, describing the server
+	static final String EXPORT_INFO_ENTRY = ".lena-export.properties";
+
+	/**
+	 * @param installCommandType export
+	 * @param installServerType server type
+	 */
+	public LenaServerExportInstaller(InstallerCommandType installCommandType, InstallerServerType installServerType) {
+		super(installCommandType, installServerType);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see argo.install.installer.ArgoInstaller#execute()
+	 */
+	public void execute() {
+		// get options from user
+		HashMap<String, String> commandMap = getExportInfoFromUser();
+
+		String srcServerId = commandMap.get("SERVER_ID");
+		String archivePath = getParameterValue(commandMap.get("ARCHIVE_PATH"), new File(srcServerId + ".tar.gz").getAbsolutePath());
+
+		Server srcServer = getInstalledServer(srcServerId);
+
+		CopyStatistics statistics = exportServer(srcServer, archivePath);
+
+		printCopySummary("export", archivePath, statistics);
+	}
+
+	/**
+	 * Write an installed server to an archive, with the files a clone would copy.
+	 * <p>
+	 * The archive starts with a description of the server read back by
+	 * {@link LenaServerImportInstaller}. A .tar.gz or .tgz archive is compressed by
+	 * filecopy.compress.threads threads (default the number of processors).
+	 *
+	 * @param server the installed server
+	 * @param archivePath the .tar.gz, .tgz or .tar file to write
+	 * @return statistics of the archived files
+	 */
+	protected CopyStatistics exportServer(Server server, String archivePath) {
+		Properties exportInfo = getServerDescription(server);
+		ArchiveWriter writer = null;
+		try {
+			ByteArrayOutputStream exportInfoBytes = new ByteArrayOutputStream();
+			exportInfo.store(exportInfoBytes, "exported server");
+			writer = ArchiveWriter.open(new File(archivePath), getCompressThreads());
+			writer.addEntry(EXPORT_INFO_ENTRY, exportInfoBytes.toByteArray());
+			CopyStatistics statistics = writer.addDirectory(new File(server.getPath()), getCloneCopyOptions(), new CopyStatistics());
+			writer.finish();
+			return statistics;
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to export '" + server.getPath() + "', '" + archivePath + "'", e);
+		}
+		finally {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * @return Server to be exported
+	 */
+	protected HashMap<String, String> getExportInfoFromUser() {
+		HashMap<String, String> commandMap = new HashMap<String, String>();
+		Scanner scan = new Scanner(System.in);
+
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| 1. SERVER_ID is the id of the server to export                                      ");
+		System.out.println("|    ex : " + getExampleServerId(false));
+		System.out.print("|: ");
+		commandMap.put("SERVER_ID", scan.nextLine());
+		System.out.println("| 2. ARCHIVE_PATH is the .tar.gz, .tgz or .tar file written (default SERVER_ID.tar.gz)");
+		System.out.println("|    ex : /tmp/" + getExampleServerId(false) + ".tar.gz");
+		System.out.print("|: ");
+		commandMap.put("ARCHIVE_PATH", scan.nextLine());
+		System.out.println("+-------------------------------------------------------------------------------------");
+
+		return commandMap;
+	}
+}
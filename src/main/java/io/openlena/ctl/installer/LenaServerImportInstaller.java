@@ -0,0 +1,150 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Scanner;
+
+import org.apache.commons.io.IOUtils;
+
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.ArchiveExtractor;
+import io.openlena.ctl.util.CopyStatistics;
+import io.openlena.ctl.util.StagedDirectory;
+
+/**
+ * 내보낸 서버 압축 파일을 새 서버로 설치하는 Installer class.
+ * env.sh 의 경로는 새 서버에 맞게 변경한다.
+ */
+public class LenaServerImportInstaller extends LenaInstaller {
+	private final LenaServerCloneInstaller cloneInstaller;
+
+	/**
+	 * @param installCommandType import
+	 * @param installServerType server type
+	 * @param cloneInstaller installer configuring the imported server
+	 */
+	public LenaServerImportInstaller(InstallerCommandType installCommandType, InstallerServerType installServerType,
+			LenaServerCloneInstaller cloneInstaller) {
+		super(installCommandType, installServerType);
+		this.cloneInstaller = cloneInstaller;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see argo.install.installer.ArgoInstaller#execute()
+	 */
+	public void execute() {
+		// get options from user
+		HashMap<String, String> commandMap = getImportInfoFromUser();
+
+		String archivePath = commandMap.get("ARCHIVE_PATH");
+		String serverId = commandMap.get("SERVER_ID");
+		String servicePort = commandMap.get("SERVICE_PORT");
+
+		// validate options and check that the server does not exist
+		String targetPath = getNewServerPath(serverId, servicePort);
+
+		// the server is extracted in a staging directory and published once it is complete
+		StagedDirectory stagedDirectory = StagedDirectory.create(targetPath);
+		String stagingPath = stagedDirectory.getPath();
+		try{
+			CopyStatistics statistics = new CopyStatistics();
+			Properties exportInfo = extractServerArchive(archivePath, stagingPath, statistics);
+
+			cloneInstaller.configureServer(stagingPath, targetPath, serverId, servicePort);
+
+			stagedDirectory.publish();
+
+			// update install-info.xml
+			addInstallInfo(serverId, servicePort, targetPath, exportInfo.getProperty("version", ""), exportInfo.getProperty("hotfix", ""));
+
+			printCopySummary("import", targetPath, statistics);
+		} catch(Throwable e){
+			stagedDirectory.discard();
+			throw new LenaException(e);
+		}
+	}
+
+	/**
+	 * Extract a server archive written by {@link LenaServerExportInstaller}, keeping the
+	 * permissions and dates of its files.
+	 *
+	 * @param archivePath the archive
+	 * @param serverPath the directory to extract to, the staging directory of the imported server
+	 * @param statistics statistics updated while extracting
+	 * @return the description of the exported server : id, port, type, path, version and hotfix
+	 */
+	protected Properties extractServerArchive(String archivePath, String serverPath, CopyStatistics statistics) {
+		File archive = new File(archivePath);
+		if (!archive.isFile()) {
+			throw new LenaException(archivePath + " doesn't exist.");
+		}
+		File exportInfoFile = new File(serverPath, LenaServerExportInstaller.EXPORT_INFO_ENTRY);
+		Properties exportInfo = new Properties();
+		InputStream in = null;
+		try {
+			ArchiveExtractor.extract(archive, new File(serverPath), getArchiveExtractOptions(), statistics);
+			if (!exportInfoFile.isFile()) {
+				throw new LenaException(archivePath + " is not an exported server");
+			}
+			in = new FileInputStream(exportInfoFile);
+			exportInfo.load(in);
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to extract '" + archivePath + "', '" + serverPath + "'", e);
+		}
+		finally {
+			IOUtils.closeQuietly(in);
+			exportInfoFile.delete();
+		}
+		if (!getServerType().equals(exportInfo.getProperty("type"))) {
+			throw new LenaException("Server Type matching error");
+		}
+		return exportInfo;
+	}
+
+	/**
+	 * @return Server to be imported
+	 */
+	protected HashMap<String, String> getImportInfoFromUser() {
+		HashMap<String, String> commandMap = new HashMap<String, String>();
+		Scanner scan = new Scanner(System.in);
+
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| 1. ARCHIVE_PATH is the file written by export                                       ");
+		System.out.println("|    ex : /tmp/" + getExampleServerId(false) + ".tar.gz");
+		System.out.print("|: ");
+		commandMap.put("ARCHIVE_PATH", scan.nextLine());
+		System.out.println("| 2. SERVER_ID is the id of the imported server                                       ");
+		System.out.println("|    ex : " + getExampleServerId(true));
+		System.out.print("|: ");
+		commandMap.put("SERVER_ID", scan.nextLine());
+		System.out.println("| 3. SERVICE_PORT is the port number of the imported server                           ");
+		System.out.println("|    ex : " + getExampleServicePort(true));
+		System.out.print("|: ");
+		commandMap.put("SERVICE_PORT", scan.nextLine());
+		System.out.println("+-------------------------------------------------------------------------------------");
+
+		return commandMap;
+	}
+}
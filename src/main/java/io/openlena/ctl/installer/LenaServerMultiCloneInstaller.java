@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.installer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+import io.openlena.ctl.common.vo.Server;
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.CopyOptions;
+import io.openlena.ctl.util.CopyStatistics;
+import io.openlena.ctl.util.FileUtil;
+import io.openlena.ctl.util.InstallConfigUtil;
+import io.openlena.ctl.util.InstallInfoUtil;
+import io.openlena.ctl.util.StagedDirectory;
+import io.openlena.ctl.util.StringUtil;
+
+/**
+ * 하나의 원본 서버를 여러 서버로 복제하는 Installer class.
+ * 원본 파일은 한 번만 읽어서 모든 대상 서버에 쓴다.
+ */
+public class LenaServerMultiCloneInstaller extends LenaInstaller {
+	private final LenaServerCloneInstaller cloneInstaller;
+
+	/**
+	 * @param installCommandType multiclone
+	 * @param installServerType server type
+	 * @param cloneInstaller installer configuring the clones
+	 */
+	public LenaServerMultiCloneInstaller(InstallerCommandType installCommandType, InstallerServerType installServerType,
+			LenaServerCloneInstaller cloneInstaller) {
+		super(installCommandType, installServerType);
+		this.cloneInstaller = cloneInstaller;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see argo.install.installer.ArgoInstaller#execute()
+	 */
+	public void execute() {
+		// get options from user
+		HashMap<String, String> commandMap = getMultiCloneInfoFromUser();
+
+		String srcServerId = commandMap.get("SERVER_ID");
+		LinkedHashMap<String, String> cloneTargets = parseCloneTargets(commandMap.get("CLONE_SERVERS"));
+
+		Server srcServer = getInstalledServer(srcServerId);
+		String srcInstallPath = srcServer.getPath();
+
+		String cloneInstallRootPath = InstallConfigUtil.getProperty(getServerType() + ".install-root-path.default", FileUtil.getParentPath(srcInstallPath));
+
+		// validate all targets before copying
+		List<String> targetPaths = new ArrayList<String>();
+		List<Server> cloneServers = new ArrayList<Server>();
+		for (Map.Entry<String, String> cloneTarget : cloneTargets.entrySet()) {
+			String targetPath = FileUtil.getConcatPath(cloneInstallRootPath, getTargetDirName(cloneTarget.getKey(), cloneTarget.getValue()));
+			if(InstallInfoUtil.existsServer(getLenaHome(), cloneTarget.getKey())){
+				throw new LenaException(cloneTarget.getKey() + " already exists.");
+			}
+			if(FileUtil.exists(targetPath) || targetPaths.contains(targetPath)){
+				throw new LenaException(targetPath + " already exists.");
+			}
+			targetPaths.add(targetPath);
+			cloneServers.add(newServer(cloneTarget.getKey(), cloneTarget.getValue(), targetPath, srcServer.getVersion(), srcServer.getHotfix()));
+		}
+
+		CopyOptions options = getCloneCopyOptions();
+		planCopy("multiclone", Collections.singletonList(srcInstallPath), options, cloneInstallRootPath, targetPaths.size());
+
+		// the servers are built in staging directories and published once they are all complete
+		List<StagedDirectory> stagedDirectories = new ArrayList<StagedDirectory>();
+		List<String> stagingPaths = new ArrayList<String>();
+		try{
+			for (String targetPath : targetPaths) {
+				StagedDirectory stagedDirectory = StagedDirectory.create(targetPath);
+				stagedDirectories.add(stagedDirectory);
+				stagingPaths.add(stagedDirectory.getPath());
+			}
+
+			// copy install files
+			CopyStatistics statistics = FileUtil.copyDirectory(srcInstallPath, stagingPaths, options, new CopyStatistics());
+
+			for (int i = 0; i < cloneServers.size(); i++) {
+				Server cloneServer = cloneServers.get(i);
+				cloneInstaller.configureServer(stagingPaths.get(i), cloneServer.getPath(), cloneServer.getId(), cloneServer.getPort());
+			}
+
+			for (StagedDirectory stagedDirectory : stagedDirectories) {
+				stagedDirectory.publish();
+			}
+
+			// update install-info.xml
+			InstallInfoUtil.addInstallInfo(getLenaHome(), cloneServers);
+
+			printCopySummary("multiclone", cloneInstallRootPath, statistics);
+		} catch(Throwable e){
+			for (StagedDirectory stagedDirectory : stagedDirectories) {
+				stagedDirectory.discard();
+			}
+			throw new LenaException(e);
+		}
+	}
+
+	/**
+	 * Parse the clone targets of a multiclone.
+	 *
+	 * @param targets comma separated id:port pairs, ex : lena_was-8090:8090,lena_was-8091:8091
+	 * @return service ports by server id, in the given order
+	 */
+	protected LinkedHashMap<String, String> parseCloneTargets(String targets) {
+		LinkedHashMap<String, String> cloneTargets = new LinkedHashMap<String, String>();
+		if (targets != null) {
+			for (String target : targets.split(",")) {
+				if (StringUtil.isBlank(target)) {
+					continue;
+				}
+				int separator = target.lastIndexOf(':');
+				if (separator < 0) {
+					throw new LenaException("Clone target should be id:port. '" + target.trim() + "'");
+				}
+				String serverId = target.substring(0, separator).trim();
+				String servicePort = target.substring(separator + 1).trim();
+				checkServerId(serverId);
+				if (!StringUtil.isNumeric(servicePort)) {
+					throw new LenaException("Service Port should be numeric");
+				}
+				if (cloneTargets.put(serverId, servicePort) != null) {
+					throw new LenaException("Clone target is duplicated. '" + serverId + "'");
+				}
+			}
+		}
+		if (cloneTargets.isEmpty()) {
+			throw new LenaException("No clone target");
+		}
+		return cloneTargets;
+	}
+
+	/**
+	 * @return Servers to be cloned from the source server
+	 */
+	protected HashMap<String, String> getMultiCloneInfoFromUser() {
+		HashMap<String, String> commandMap = new HashMap<String, String>();
+		Scanner scan = new Scanner(System.in);
+		String port = getExampleServicePort(true);
+		String nextPort = String.valueOf(Integer.parseInt(port) + 1);
+
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| 1. SERVER_ID is the source server's id                                              ");
+		System.out.println("|    ex : " + getExampleServerId(false));
+		System.out.print("|: ");
+		commandMap.put("SERVER_ID", scan.nextLine());
+		System.out.println("| 2. CLONE_SERVERS are the clone target servers' id and port separated by comma       ");
+		System.out.println("|    ex : " + getExampleServerId(true) + ":" + port + "," + getExampleServerId(true).replace(port, nextPort) + ":" + nextPort);
+		System.out.print("|: ");
+		commandMap.put("CLONE_SERVERS", scan.nextLine());
+		System.out.println("+-------------------------------------------------------------------------------------");
+
+		return commandMap;
+	}
+}
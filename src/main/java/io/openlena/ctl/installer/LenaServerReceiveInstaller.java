@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Scanner;
+
+import org.apache.commons.io.IOUtils;
+
+import io.openlena.ctl.common.InstallCommandCtl;
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.CopyStatistics;
+import io.openlena.ctl.util.InstallConfigUtil;
+import io.openlena.ctl.util.ServerTransfer;
+import io.openlena.ctl.util.StagedDirectory;
+import io.openlena.ctl.util.StringUtil;
+
+/**
+ * 다른 호스트에서 send 로 전송되는 서버 하나를 받아 복제 서버로 설치하는 Installer class.
+ * <p>
+ * 전송은 암호화되지 않으며, installer.info 의 filecopy.transfer.token 이 설정되어 있어야 받는다.
+ * 기본으로 127.0.0.1 에서만 받으므로 보내는 호스트에서는 SSH 터널로 연결한다.
+ * <pre>
+ * host2$ lena-ctl.sh install receive lena-was            (LISTEN_PORT 9700)
+ * host1$ ssh -N -L 9700:127.0.0.1:9700 host2 &amp;
+ * host1$ lena-ctl.sh install send lena-was               (RECEIVER localhost:9700)
+ * </pre>
+ */
+public class LenaServerReceiveInstaller extends LenaInstaller {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final LenaServerCloneInstaller cloneInstaller;
+
+	/**
+	 * @param installCommandType receive
+	 * @param installServerType server type
+	 * @param cloneInstaller installer configuring the received server
+	 */
+	public LenaServerReceiveInstaller(InstallerCommandType installCommandType, InstallerServerType installServerType,
+			LenaServerCloneInstaller cloneInstaller) {
+		super(installCommandType, installServerType);
+		this.cloneInstaller = cloneInstaller;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see argo.install.installer.ArgoInstaller#execute()
+	 */
+	public void execute() {
+		// the sender is only known by the token
+		if (StringUtil.isBlank(getTransferToken())) {
+			throw new LenaException("filecopy.transfer.token should be set in installer.info to receive a server");
+		}
+
+		// get options from user
+		HashMap<String, String> commandMap = getReceiveInfoFromUser();
+
+		String listenPort = commandMap.get("LISTEN_PORT");
+		String bindAddress = getBindAddress();
+
+		// validate options
+		if(!StringUtil.isNumeric(listenPort)){
+			throw new LenaException("Listen Port should be numeric");
+		}
+
+		CloneReceiver receiver = new CloneReceiver();
+		ServerSocket serverSocket = null;
+		try{
+			serverSocket = new ServerSocket(Integer.parseInt(listenPort), 1, InetAddress.getByName(bindAddress));
+			System.out.println("Receiving on " + bindAddress + ":" + listenPort);
+			CopyStatistics statistics = ServerTransfer.receive(serverSocket, getArchiveExtractOptions(), receiver);
+
+			printCopySummary("receive", receiver.targetPath, statistics);
+		} catch(IOException e){
+			throw new LenaException("Failed to receive a server on " + bindAddress + ":" + listenPort, e);
+		} finally {
+			IOUtils.closeQuietly(serverSocket);
+		}
+	}
+
+	/**
+	 * The address receive listens on, from the --bind-address command line option, or else
+	 * filecopy.transfer.bind-address in installer.info : default 127.0.0.1, reached from the
+	 * sending host through an SSH tunnel. Listen on another interface only on a trusted network.
+	 *
+	 * @return the bind address
+	 */
+	protected String getBindAddress() {
+		return getCommandOption(InstallCommandCtl.BIND_ADDRESS, InstallConfigUtil.getProperty("filecopy.transfer.bind-address", "127.0.0.1"));
+	}
+
+	/**
+	 * Check the request of a sender before receiving its server.
+	 *
+	 * @param request the request of {@link LenaServerSendInstaller}
+	 * @return install path of the received server
+	 */
+	protected String acceptTransfer(Properties request) {
+		String token = getTransferToken();
+		String requestToken = request.getProperty("token", "");
+		// compared in constant time, the time taken does not tell how much of the token matched
+		if (StringUtil.isBlank(token) || !MessageDigest.isEqual(token.getBytes(UTF_8), requestToken.getBytes(UTF_8))) {
+			throw new LenaException("Invalid transfer token");
+		}
+		if (!getServerType().equals(request.getProperty("type"))) {
+			throw new LenaException("Server Type matching error");
+		}
+		String serverId = request.getProperty("clone.id", "");
+		checkServerId(serverId);
+		return getNewServerPath(serverId, request.getProperty("clone.port"));
+	}
+
+	/**
+	 * @return Port receiving a server
+	 */
+	protected HashMap<String, String> getReceiveInfoFromUser() {
+		HashMap<String, String> commandMap = new HashMap<String, String>();
+		Scanner scan = new Scanner(System.in);
+
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| 1. LISTEN_PORT is the TCP port the sending lena-ctl connects to                     ");
+		System.out.println("|    ex : 9700                                                                        ");
+		System.out.print("|: ");
+		commandMap.put("LISTEN_PORT", scan.nextLine());
+		System.out.println("+-------------------------------------------------------------------------------------");
+
+		return commandMap;
+	}
+
+	/**
+	 * 전송된 서버를 staging 디렉토리에 받고, 검증이 끝나면 복제 서버로 설정하여 등록한다.
+	 */
+	private class CloneReceiver implements ServerTransfer.Receiver {
+		private String targetPath;
+		private StagedDirectory stagedDirectory;
+
+		public File accept(Properties request) {
+			targetPath = acceptTransfer(request);
+			stagedDirectory = StagedDirectory.create(targetPath);
+			return new File(stagedDirectory.getPath());
+		}
+
+		public void complete(Properties request, CopyStatistics statistics) {
+			String serverId = request.getProperty("clone.id");
+			String servicePort = request.getProperty("clone.port");
+			cloneInstaller.configureServer(stagedDirectory.getPath(), targetPath, serverId, servicePort);
+
+			stagedDirectory.publish();
+
+			// update install-info.xml
+			addInstallInfo(serverId, servicePort, targetPath, request.getProperty("version", ""), request.getProperty("hotfix", ""));
+		}
+
+		public void discard(Properties request) {
+			stagedDirectory.discard();
+		}
+	}
+}
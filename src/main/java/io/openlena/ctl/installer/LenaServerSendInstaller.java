@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Scanner;
+
+import io.openlena.ctl.common.vo.Server;
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.CopyStatistics;
+import io.openlena.ctl.util.ServerTransfer;
+import io.openlena.ctl.util.StringUtil;
+
+/**
+ * 설치된 서버를 다른 호스트에서 receive 중인 lena-ctl 로 전송하는 Installer class.
+ * 받는 쪽에서 복제 서버로 설치된다, {@link LenaServerReceiveInstaller} 참고.
+ * 전송은 암호화되지 않으므로 받는 호스트로의 SSH 터널을 통해 보낸다.
+ */
+public class LenaServerSendInstaller extends LenaInstaller {
+
+	/**
+	 * @param installCommandType send
+	 * @param installServerType server type
+	 */
+	public LenaServerSendInstaller(InstallerCommandType installCommandType, InstallerServerType installServerType) {
+		super(installCommandType, installServerType);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see argo.install.installer.ArgoInstaller#execute()
+	 */
+	public void execute() {
+		// get options from user
+		HashMap<String, String> commandMap = getSendInfoFromUser();
+
+		String srcServerId = commandMap.get("SERVER_ID");
+		String cloneServerId = commandMap.get("CLONE_SERVER_ID");
+		String cloneServicePort = commandMap.get("CLONE_SERVICE_PORT");
+		String receiverAddress = commandMap.get("RECEIVER");
+
+		// validate options
+		if(!StringUtil.isNumeric(cloneServicePort)){
+			throw new LenaException("Service Port should be numeric");
+		}
+
+		Server srcServer = getInstalledServer(srcServerId);
+
+		CopyStatistics statistics = sendServer(srcServer, cloneServerId, cloneServicePort, receiverAddress);
+
+		printCopySummary("send", receiverAddress, statistics);
+	}
+
+	/**
+	 * Send an installed server to a lena-ctl receiving on another host, which installs it as a
+	 * clone, see {@link ServerTransfer}. The files a clone would skip are not sent.
+	 * <ul>
+	 * <li>filecopy.transfer.token : secret the receiver requires from the sender, the same on both hosts</li>
+	 * </ul>
+	 * The transfer is not encrypted, the receiver is reached through an SSH tunnel.
+	 *
+	 * @param server the installed server
+	 * @param cloneServerId id of the server created on the receiver
+	 * @param cloneServicePort port of the server created on the receiver
+	 * @param receiverAddress host:port of the receiver
+	 * @return statistics of the sent files
+	 */
+	protected CopyStatistics sendServer(Server server, String cloneServerId, String cloneServicePort, String receiverAddress) {
+		int separator = receiverAddress == null ? -1 : receiverAddress.lastIndexOf(':');
+		if (separator < 0 || !StringUtil.isNumeric(receiverAddress.substring(separator + 1).trim())) {
+			throw new LenaException("Receiver should be host:port. '" + receiverAddress + "'");
+		}
+		Properties request = getServerDescription(server);
+		request.setProperty("clone.id", cloneServerId);
+		request.setProperty("clone.port", cloneServicePort);
+		String token = getTransferToken();
+		if (StringUtil.isBlank(token)) {
+			throw new LenaException("filecopy.transfer.token should be set in installer.info to send a server");
+		}
+		request.setProperty("token", token);
+		try {
+			return ServerTransfer.send(receiverAddress.substring(0, separator).trim(), Integer.parseInt(receiverAddress.substring(separator + 1).trim()),
+					request, new File(server.getPath()), getCloneCopyOptions(), getCompressThreads());
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to send '" + server.getPath() + "' to " + receiverAddress, e);
+		}
+	}
+
+	/**
+	 * @return Server to be sent
+	 */
+	protected HashMap<String, String> getSendInfoFromUser() {
+		HashMap<String, String> commandMap = new HashMap<String, String>();
+		Scanner scan = new Scanner(System.in);
+
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| 1. SERVER_ID is the id of the server to send                                        ");
+		System.out.println("|    ex : " + getExampleServerId(false));
+		System.out.print("|: ");
+		commandMap.put("SERVER_ID", scan.nextLine());
+		System.out.println("| 2. CLONE_SERVER_ID is the id of the server created on the receiving host            ");
+		System.out.println("|    ex : " + getExampleServerId(true));
+		System.out.print("|: ");
+		commandMap.put("CLONE_SERVER_ID", scan.nextLine());
+		System.out.println("| 3. CLONE_SERVICE_PORT is the port number of the server created on the receiving host");
+		System.out.println("|    ex : " + getExampleServicePort(true));
+		System.out.print("|: ");
+		commandMap.put("CLONE_SERVICE_PORT", scan.nextLine());
+		System.out.println("| 4. RECEIVER is the host and port of the lena-ctl running receive                    ");
+		System.out.println("|    ex : localhost:9700 (SSH tunnel to the receiving host)                           ");
+		System.out.print("|: ");
+		commandMap.put("RECEIVER", scan.nextLine());
+		System.out.println("+-------------------------------------------------------------------------------------");
+
+		return commandMap;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+
+import io.openlena.ctl.common.InstallCommandCtl;
+import io.openlena.ctl.common.vo.Server;
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.CopyOptions;
+import io.openlena.ctl.util.CopyStatistics;
+import io.openlena.ctl.util.CustomFileUtils;
+import io.openlena.ctl.util.FileUtil;
+import io.openlena.ctl.util.InstallConfigUtil;
+import io.openlena.ctl.util.InstallInfoUtil;
+
+/**
+ * 복제된 서버를 원본 서버와 동기화하는 Installer class.
+ * 변경된 파일만 복사하고 원본에 없는 파일은 삭제한다, 삭제할 파일은 먼저 출력한다.
+ * 복제 서버의 설정(env.sh, conf/)은 --include-config 옵션이 없으면 유지한다.
+ * --dry-run 옵션은 삭제할 파일만 출력하고 복제 서버를 변경하지 않는다.
+ */
+public class LenaServerSyncInstaller extends LenaInstaller {
+	private static final String SYNC_CONFIG_DEFAULT = "env.sh,conf/**";
+
+	private final LenaServerCloneInstaller cloneInstaller;
+
+	/**
+	 * @param installCommandType sync
+	 * @param installServerType server type
+	 * @param cloneInstaller installer configuring the synchronized clone
+	 */
+	public LenaServerSyncInstaller(InstallerCommandType installCommandType, InstallerServerType installServerType,
+			LenaServerCloneInstaller cloneInstaller) {
+		super(installCommandType, installServerType);
+		this.cloneInstaller = cloneInstaller;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see argo.install.installer.ArgoInstaller#execute()
+	 */
+	public void execute() {
+		// get options from user
+		HashMap<String, String> commandMap = getSyncInfoFromUser();
+
+		String srcServerId = commandMap.get("SERVER_ID");
+		String cloneServerId = commandMap.get("CLONE_SERVER_ID");
+
+		Server srcServer = getInstalledServer(srcServerId);
+		Server cloneServer = getInstalledServer(cloneServerId);
+		String targetPath = cloneServer.getPath();
+
+		CopyOptions options = getSyncCopyOptions();
+		printDeletedEntries(srcServer.getPath(), targetPath, options);
+		if (hasCommandOption(InstallCommandCtl.DRY_RUN)) {
+			return;
+		}
+
+		try{
+			CopyStatistics statistics = FileUtil.copyDirectory(srcServer.getPath(), targetPath, options);
+
+			cloneInstaller.configureServer(targetPath, targetPath, cloneServerId, InstallInfoUtil.getServicePort(cloneServerId));
+
+			printCopySummary("sync", targetPath, statistics);
+		} catch(Throwable e){
+			throw new LenaException(e);
+		}
+	}
+
+	/**
+	 * Returns copy options to synchronize a cloned server with its source server.
+	 * <ul>
+	 * <li>[server-type].sync.checksum : compare the contents of files instead of their modification time (default false)</li>
+	 * <li>[server-type].sync.config : configuration of the clone, kept unless the --include-config
+	 * command line option is given (default {@value #SYNC_CONFIG_DEFAULT})</li>
+	 * </ul>
+	 * Excluded files such as pid files are neither copied nor deleted, because the synchronized server may be running.
+	 * The configuration is excluded the same way, it holds the id, port and paths of the clone.
+	 *
+	 * @return copy options
+	 */
+	protected CopyOptions getSyncCopyOptions() {
+		CopyOptions options = getCloneCopyOptions();
+		if (!hasCommandOption(InstallCommandCtl.INCLUDE_CONFIG)) {
+			for (String pattern : InstallConfigUtil.getProperty(getServerType() + ".sync.config", SYNC_CONFIG_DEFAULT).split(",")) {
+				options.getExcludes().add(pattern);
+			}
+		}
+		options.setSync(true);
+		options.setChecksum(Boolean.parseBoolean(InstallConfigUtil.getProperty(getServerType() + ".sync.checksum", "false")));
+		return options;
+	}
+
+	/**
+	 * Print the entries of the clone which the sync deletes, before anything is deleted.
+	 *
+	 * @param srcPath install path of the source server
+	 * @param targetPath install path of the clone
+	 * @param options the copy options of the sync
+	 */
+	protected void printDeletedEntries(String srcPath, String targetPath, CopyOptions options) {
+		List<String> deletedEntries;
+		try {
+			deletedEntries = CustomFileUtils.listExtraneous(new File(srcPath), new File(targetPath), options);
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to compare '" + srcPath + "' and '" + targetPath + "'", e);
+		}
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| Entries deleted from " + targetPath + " : " + deletedEntries.size());
+		for (String deletedEntry : deletedEntries) {
+			System.out.println("|    " + deletedEntry);
+		}
+		System.out.println("+-------------------------------------------------------------------------------------");
+	}
+
+	/**
+	 * @return Servers to be synchronized
+	 */
+	protected HashMap<String, String> getSyncInfoFromUser() {
+		HashMap<String, String> commandMap = new HashMap<String, String>();
+		Scanner scan = new Scanner(System.in);
+
+		System.out.println("+-------------------------------------------------------------------------------------");
+		System.out.println("| 1. SERVER_ID is the source server's id                                              ");
+		System.out.println("|    ex : " + getExampleServerId(false));
+		System.out.print("|: ");
+		commandMap.put("SERVER_ID", scan.nextLine());
+		System.out.println("| 2. CLONE_SERVER_ID is the id of the server cloned from the source server            ");
+		System.out.println("|    ex : " + getExampleServerId(true));
+		System.out.print("|: ");
+		commandMap.put("CLONE_SERVER_ID", scan.nextLine());
+		System.out.println("+-------------------------------------------------------------------------------------");
+
+		return commandMap;
+	}
+}
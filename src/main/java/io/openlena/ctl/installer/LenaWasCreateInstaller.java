@@ -15,17 +15,29 @@
 package io.openlena.ctl.installer;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
+import io.openlena.ctl.exception.LenaException;
 import io.openlena.ctl.type.InstallerCommandType;
 import io.openlena.ctl.type.InstallerServerType;
 import io.openlena.ctl.util.CipherUtil;
+import io.openlena.ctl.util.CopyOptions;
+import io.openlena.ctl.util.CopyStatistics;
 import io.openlena.ctl.util.EnvUtil;
 import io.openlena.ctl.util.FileUtil;
+import io.openlena.ctl.util.InstallConfigUtil;
+import io.openlena.ctl.util.InstallInfoUtil;
+import io.openlena.ctl.util.ReleaseInfoUtil;
+import io.openlena.ctl.util.StagedDirectory;
+import io.openlena.ctl.util.StringUtil;
 import io.openlena.ctl.util.XmlUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +53,19 @@ public class LenaWasCreateInstaller extends LenaInstaller {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(LenaWasCreateInstaller.class);
 
+	/**
+	 * Every server has its own copy of the depot module (default)
+	 */
+	private static final String LAYOUT_STANDALONE = "standalone";
+
+	/**
+	 * Servers of the same version share a read-only copy of the depot module as CATALINA_HOME
+	 * and only have their own CATALINA_BASE
+	 */
+	private static final String LAYOUT_SHARED = "shared";
+
+	private static final String LAYOUT_BASE_DIRS_DEFAULT = "conf,logs,temp,work,webapps";
+
 	public LenaWasCreateInstaller(InstallerCommandType installerCommandType, InstallerServerType installerServerType) {
 		super(installerCommandType, installerServerType);
 		// TODO Auto-generated constructor stub
@@ -61,31 +86,181 @@ public class LenaWasCreateInstaller extends LenaInstaller {
 		String logHome = getParameterValue(commandMap.get("LOG_HOME"), FileUtil.getConcatPath(targetPath, "logs"));
 		String jvmRoute = getParameterValue(commandMap.get("JVM_ROUTE"), getDefaultValue(getServerType() + ".jvm-route"));
 
-		FileUtil.copyDirectory(FileUtil.getConcatPath(getDepotPath(), "module"), targetPath);
-		FileUtil.copyDirectory(FileUtil.getConcatPath(getDepotPath(), "template", getDefaultValue(getServerType() + ".template.dirname")), targetPath);
+		String modulePath = FileUtil.getConcatPath(getDepotPath(), "module");
+		boolean sharedLayout = isSharedLayout();
 
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "JAVA_HOME", EnvUtil.getUserJavahome());
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "LENA_HOME", EnvUtil.getLenaHome());
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "SERVER_ID", serverId);
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "SERVICE_PORT", servicePort);
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "INSTALL_PATH", targetPath);
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "WAS_USER", runUser);
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "JVM_ROUTE", jvmRoute);
+		if (InstallInfoUtil.existsServer(serverId)) {
+			throw new LenaException(serverId + " already exists.");
+		}
 
-		if (!logHome.equals(FileUtil.getConcatPath(targetPath, "logs"))) {
-			FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "LOG_HOME", logHome + "/${SERVER_ID}");
+		String templatePath = FileUtil.getConcatPath(getDepotPath(), "template", getDefaultValue(getServerType() + ".template.dirname"));
+		List<String> srcPaths = new ArrayList<String>();
+		if (sharedLayout) {
+			for (String baseDir : getSharedLayoutBaseDirs()) {
+				srcPaths.add(FileUtil.getConcatPath(modulePath, baseDir));
+			}
 		}
+		else {
+			srcPaths.add(modulePath);
+		}
+		srcPaths.add(templatePath);
+		planCopy("create", srcPaths, getCopyOptions(), targetPath, 1);
 
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "AJP_ADDRESS", ajpAddress);
-		FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "AJP_SECRET", ajpSecret);
+		// the server is built in a staging directory and published once it is complete
+		StagedDirectory stagedDirectory = StagedDirectory.create(targetPath);
+		String stagingPath = stagedDirectory.getPath();
+		try {
+			CopyStatistics statistics = new CopyStatistics();
+			String enginePath = null;
+			if (sharedLayout) {
+				enginePath = publishEngine(modulePath, statistics);
+				copySharedLayoutBase(enginePath, stagingPath, statistics);
+			}
+			else {
+				FileUtil.copyDepotDirectory(modulePath, stagingPath, getCopyOptions(), statistics);
+			}
+
+			Map<String, String> envVariables = new LinkedHashMap<String, String>();
+			envVariables.put("JAVA_HOME", EnvUtil.getUserJavahome());
+			envVariables.put("LENA_HOME", EnvUtil.getLenaHome());
+			envVariables.put("SERVER_ID", serverId);
+			envVariables.put("SERVICE_PORT", servicePort);
+			envVariables.put("INSTALL_PATH", targetPath);
+			envVariables.put("WAS_USER", runUser);
+			envVariables.put("JVM_ROUTE", jvmRoute);
 
-		// Change directory authorization to 700 and files under the directory to 600
-		FileUtil.chmodF600OD700(new File(FileUtil.getConcatPath(targetPath, "conf")));
+			if (!logHome.equals(FileUtil.getConcatPath(targetPath, "logs"))) {
+				envVariables.put("LOG_HOME", logHome + "/${SERVER_ID}");
+			}
 
-		setSampleApplicationDocBase(targetPath);
+			envVariables.put("AJP_ADDRESS", ajpAddress);
+			envVariables.put("AJP_SECRET", ajpSecret);
+
+			// env.sh and the template files are rendered while they are copied
+			FileUtil.copyDepotDirectory(templatePath, stagingPath, getTemplateCopyOptions(envVariables), statistics);
+
+			String envPath = FileUtil.getConcatPath(stagingPath, "env.sh");
+			if (!serverId.equals(FileUtil.getShellVariable(envPath, "SERVER_ID"))) {
+				// the template has no env.sh, it comes from the module
+				FileUtil.setShellVariables(envPath, envVariables);
+			}
+
+			if (sharedLayout) {
+				Map<String, String> layoutVariables = new LinkedHashMap<String, String>();
+				layoutVariables.put("CATALINA_HOME", enginePath);
+				layoutVariables.put("CATALINA_BASE", "${INSTALL_PATH}");
+				FileUtil.putShellVariables(envPath, layoutVariables, "INSTALL_PATH");
+			}
+
+			// Change directory authorization to 700 and files under the directory to 600
+			FileUtil.chmodF600OD700(new File(FileUtil.getConcatPath(stagingPath, "conf")));
+
+			setSampleApplicationDocBase(stagingPath);
+
+			stagedDirectory.publish();
+
+			// update install-info.xml
+			addInstallInfo(serverId, servicePort, targetPath);
+
+			printCopySummary("create", targetPath, statistics);
+		}
+		catch (RuntimeException e) {
+			stagedDirectory.discard();
+			throw e;
+		}
+	}
 
-		// update install-info.xml
-		addInstallInfo(serverId, servicePort, targetPath);
+	/**
+	 * @return true if lena-was.layout is shared, false if it is standalone (default)
+	 */
+	protected boolean isSharedLayout() {
+		return LAYOUT_SHARED.equals(InstallConfigUtil.getProperty(getServerType() + ".layout", LAYOUT_STANDALONE));
+	}
+
+	/**
+	 * Publish the engine of the depot module version, the CATALINA_HOME shared by the servers
+	 * using the shared layout, unless it is already published.
+	 * The engine is a copy of the depot module in
+	 * [lena-was.layout.engine-root-path (default LENA_HOME/engines)]/lena-was-[version], whose
+	 * write permissions are removed before it is published, so that neither a server nor an
+	 * update of the depot changes the engine running the other servers.
+	 *
+	 * @param modulePath depot module path, which may be packed
+	 * @param statistics statistics of the copies
+	 * @return engine path
+	 */
+	private String publishEngine(String modulePath, CopyStatistics statistics) {
+		String engineRootPath = InstallConfigUtil.getProperty(getServerType() + ".layout.engine-root-path", FileUtil.getConcatPath(EnvUtil.getLenaHome(), "engines"));
+		String enginePath = FileUtil.getConcatPath(engineRootPath, getServerType() + "-" + ReleaseInfoUtil.getModuleVersion(getServerType()));
+		if (FileUtil.exists(enginePath)) {
+			return enginePath;
+		}
+
+		StagedDirectory stagedEngine;
+		try {
+			stagedEngine = StagedDirectory.create(enginePath);
+		}
+		catch (LenaException e) {
+			if (FileUtil.exists(enginePath)) {
+				// published by a concurrent install
+				return enginePath;
+			}
+			throw e;
+		}
+		try {
+			// hard links would share their permissions with the depot
+			CopyOptions options = getCopyOptions();
+			options.setHardLinkIncludes(null);
+			options.setHardLinkExcludes(null);
+			FileUtil.copyDepotDirectory(modulePath, stagedEngine.getPath(), options, statistics);
+			FileUtil.removeWritePermissions(new File(stagedEngine.getPath()));
+			stagedEngine.publish();
+		}
+		catch (RuntimeException e) {
+			stagedEngine.discard();
+			throw e;
+		}
+		return enginePath;
+	}
+
+	/**
+	 * @return the directories of the depot module copied to each server using the shared layout,
+	 * from lena-was.layout.base-dirs
+	 */
+	private List<String> getSharedLayoutBaseDirs() {
+		List<String> baseDirs = new ArrayList<String>();
+		for (String baseDir : InstallConfigUtil.getProperty(getServerType() + ".layout.base-dirs", LAYOUT_BASE_DIRS_DEFAULT).split(",")) {
+			if (!StringUtil.isBlank(baseDir)) {
+				baseDirs.add(baseDir.trim());
+			}
+		}
+		return baseDirs;
+	}
+
+	/**
+	 * Create the CATALINA_BASE of a server using the shared layout.
+	 * Only the directories listed in lena-was.layout.base-dirs are copied from the engine, with
+	 * the permissions of copied files, as the engine is read-only.
+	 *
+	 * @param enginePath engine path used as CATALINA_HOME
+	 * @param targetPath server install path used as CATALINA_BASE
+	 * @param statistics statistics of the copies
+	 */
+	private void copySharedLayoutBase(String enginePath, String targetPath, CopyStatistics statistics) {
+		CopyOptions options = getCopyOptions();
+		options.setPreservePermissions(false);
+		options.setHardLinkIncludes(null);
+		options.setHardLinkExcludes(null);
+		for (String baseDir : getSharedLayoutBaseDirs()) {
+			String srcPath = FileUtil.getConcatPath(enginePath, baseDir);
+			String destPath = FileUtil.getConcatPath(targetPath, baseDir);
+			if (FileUtil.exists(srcPath)) {
+				FileUtil.copyDirectory(srcPath, destPath, options, statistics);
+			}
+			else {
+				FileUtil.mkdirs(destPath);
+			}
+		}
 	}
 
 	/**
@@ -16,15 +16,21 @@
 
 package io.openlena.ctl.installer;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Scanner;
 
 import io.openlena.ctl.exception.LenaException;
 import io.openlena.ctl.type.InstallerCommandType;
 import io.openlena.ctl.type.InstallerServerType;
 import io.openlena.ctl.util.CipherUtil;
+import io.openlena.ctl.util.CopyStatistics;
 import io.openlena.ctl.util.EnvUtil;
 import io.openlena.ctl.util.FileUtil;
+import io.openlena.ctl.util.InstallInfoUtil;
+import io.openlena.ctl.util.StagedDirectory;
 
 /**
  * Installer that can create LENA Web.
@@ -52,23 +58,45 @@ public class LenaWebCreateInstaller extends LenaInstaller {
 		String logHome = getParameterValue(commandMap.get("LOG_HOME"), FileUtil.getConcatPath(targetPath, "logs"));
 		String documentRootPath = getParameterValue(commandMap.get("DOCUMENT_ROOT_PATH"), FileUtil.getConcatPath(targetPath, "htdocs"));
 
-		try {
-			FileUtil.copyDirectory(FileUtil.getConcatPath(getDepotPath(), "template", getDefaultValue(getServerType() + ".template.dirname")), targetPath);
+		if (InstallInfoUtil.existsServer(serverId)) {
+			throw new LenaException(serverId + " already exists.");
+		}
 
-			FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "ENGN_HOME", apacheEnginePath);
-			FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "SERVER_ID", serverId);
-			FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "SERVICE_PORT", servicePort);
-			FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "RUN_USER", runUser);
-			FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "INSTALL_PATH", targetPath);
-			FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "DOC_ROOT", documentRootPath);
+		String templatePath = FileUtil.getConcatPath(getDepotPath(), "template", getDefaultValue(getServerType() + ".template.dirname"));
+		planCopy("create", Collections.singletonList(templatePath), getCopyOptions(), targetPath, 1);
+
+		// the server is built in a staging directory and published once it is complete
+		StagedDirectory stagedDirectory = StagedDirectory.create(targetPath);
+		String stagingPath = stagedDirectory.getPath();
+		try {
+			Map<String, String> envVariables = new LinkedHashMap<String, String>();
+			envVariables.put("ENGN_HOME", apacheEnginePath);
+			envVariables.put("SERVER_ID", serverId);
+			envVariables.put("SERVICE_PORT", servicePort);
+			envVariables.put("RUN_USER", runUser);
+			envVariables.put("INSTALL_PATH", targetPath);
+			envVariables.put("DOC_ROOT", documentRootPath);
 
 			if (!logHome.equals(FileUtil.getConcatPath(targetPath, "logs"))) {
-				FileUtil.setShellVariable(FileUtil.getConcatPath(targetPath, "env.sh"), "LOG_HOME", logHome + "/${SERVER_ID}");
+				envVariables.put("LOG_HOME", logHome + "/${SERVER_ID}");
 			}
 
+			// env.sh and the template files are rendered while they are copied
+			CopyStatistics statistics = FileUtil.copyDepotDirectory(templatePath, stagingPath, getTemplateCopyOptions(envVariables));
+
+			String envPath = FileUtil.getConcatPath(stagingPath, "env.sh");
+			if (!serverId.equals(FileUtil.getShellVariable(envPath, "SERVER_ID"))) {
+				FileUtil.setShellVariables(envPath, envVariables);
+			}
+
+			stagedDirectory.publish();
+
 			addInstallInfo(serverId, servicePort, targetPath);
+
+			printCopySummary("create", targetPath, statistics);
 		}
 		catch (Throwable e) {
+			stagedDirectory.discard();
 			throw new LenaException(e);
 		}
 	}
@@ -21,7 +21,13 @@ package io.openlena.ctl.type;
  */
 public enum InstallerCommandType {
 	CREATE("create"),
-	CLONE("clone");
+	CLONE("clone"),
+	SYNC("sync"),
+	MULTICLONE("multiclone"),
+	EXPORT("export"),
+	IMPORT("import"),
+	SEND("send"),
+	RECEIVE("receive");
 
 	private String command;
 
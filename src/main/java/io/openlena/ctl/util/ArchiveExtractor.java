@@ -0,0 +1,734 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import io.openlena.ctl.exception.PartialCopyException;
+
+/**
+ * Extracts the packed form of a depot directory, a zip or tar archive next to it.
+ * <p>
+ * The archive is read once as a stream, every entry is written to the destination with its
+ * permissions, date and substitutions applied in the same pass.
+ * <ul>
+ * <li>tar entries keep their mode when {@link CopyOptions#isPreservePermissions()} is set, zip
+ * entries do not carry any. Other entries get 755, like {@link FileUtil#chmod755(File)} gives
+ * to copied files.</li>
+ * <li>excluded entries are skipped.</li>
+ * <li>template entries are rendered, see {@link TemplateRenderer}.</li>
+ * <li>entries listed in {@link CopyOptions#getManifest()} are digested as they are read and must match.</li>
+ * <li>files count against {@link CopyOptions#getRateLimiter()}.</li>
+ * <li>entries stay inside the destination : links must point inside it, absolute links are
+ * refused, and nothing is written through a link.</li>
+ * </ul>
+ */
+public class ArchiveExtractor {
+	/**
+	 * Supported archive extensions, in lookup order
+	 */
+	public static final String[] EXTENSIONS = { ".tar.gz", ".tgz", ".tar", ".zip" };
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int BLOCK_SIZE = 512;
+	private static final int DEFAULT_MODE = 0755;
+	// long names and pax records, read in memory
+	private static final int MAX_HEADER_SIZE = 1024 * 1024;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * @param dirPath path of a depot directory
+	 * @return the packed form of the directory, null if there is none
+	 */
+	public static File findArchive(String dirPath) {
+		for (String extension : EXTENSIONS) {
+			File archive = new File(dirPath + extension);
+			if (archive.isFile()) {
+				return archive;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Extract an archive into a directory.
+	 *
+	 * @param archive a zip, tar, tar.gz or tgz file
+	 * @param destDir the destination directory, created if it does not exist
+	 * @param options the copy options
+	 * @return statistics of the extraction
+	 * @throws IOException if the archive cannot be read
+	 * @throws PartialCopyException if an entry cannot be extracted
+	 */
+	public static CopyStatistics extract(File archive, File destDir, CopyOptions options) throws IOException {
+		return extract(archive, destDir, options, new CopyStatistics());
+	}
+
+	/**
+	 * Extract an archive into a directory.
+	 *
+	 * @param archive a zip, tar, tar.gz or tgz file
+	 * @param destDir the destination directory, created if it does not exist
+	 * @param options the copy options
+	 * @param statistics statistics updated while extracting
+	 * @return statistics of the extraction
+	 * @throws IOException if the archive cannot be read
+	 * @throws PartialCopyException if an entry cannot be extracted
+	 */
+	public static CopyStatistics extract(File archive, File destDir, CopyOptions options, CopyStatistics statistics) throws IOException {
+		return extract(new BufferedInputStream(new FileInputStream(archive), BUFFER_SIZE), archive.getName(), destDir, options, statistics);
+	}
+
+	/**
+	 * Extract an archive read from a stream into a directory.
+	 *
+	 * @param input the archive, closed when extracted
+	 * @param archiveName file name of the archive, its extension tells the format
+	 * @param destDir the destination directory, created if it does not exist
+	 * @param options the copy options
+	 * @param statistics statistics updated while extracting
+	 * @return statistics of the extraction
+	 * @throws IOException if the archive cannot be read
+	 * @throws PartialCopyException if an entry cannot be extracted
+	 */
+	public static CopyStatistics extract(InputStream input, String archiveName, File destDir, CopyOptions options, CopyStatistics statistics)
+			throws IOException {
+		String name = archiveName.toLowerCase();
+		long start = System.nanoTime();
+		long transferTime = 0;
+		Path destRoot;
+		// directory permissions are applied last, a read-only directory would refuse its entries
+		List<Object[]> directoryModes = new ArrayList<Object[]>();
+
+		String entryName = null;
+		try {
+			Files.createDirectories(destDir.toPath());
+			// entries are checked against the real path, the destination may itself be reached through a link
+			destRoot = destDir.toPath().toRealPath();
+			boolean posix = Files.getFileStore(destRoot).supportsFileAttributeView("posix");
+			if (name.endsWith(".gz") || name.endsWith(".tgz")) {
+				input = new GZIPInputStream(input, BUFFER_SIZE);
+			}
+			if (name.endsWith(".zip")) {
+				ZipInputStream zip = new ZipInputStream(input);
+				input = zip;
+				for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+					entryName = entry.getName();
+					ArchiveEntry archiveEntry = new ArchiveEntry();
+					archiveEntry.name = entryName;
+					archiveEntry.type = entry.isDirectory() ? ArchiveEntry.DIRECTORY : ArchiveEntry.FILE;
+					archiveEntry.mode = -1;
+					archiveEntry.modifiedTime = entry.getTime();
+					transferTime += extractEntry(archiveEntry, zip, destRoot, options, posix, statistics, directoryModes);
+				}
+			}
+			else {
+				TarReader tar = new TarReader(input);
+				for (ArchiveEntry entry = tar.next(); entry != null; entry = tar.next()) {
+					entryName = entry.name;
+					transferTime += extractEntry(entry, tar.stream(), destRoot, options, posix, statistics, directoryModes);
+				}
+			}
+			entryName = null;
+			for (int i = directoryModes.size() - 1; i >= 0; i--) {
+				Object[] directoryMode = directoryModes.get(i);
+				entryName = directoryMode[0].toString();
+				setAttributes((Path) directoryMode[0], (ArchiveEntry) directoryMode[1], options, posix);
+			}
+		}
+		catch (IOException e) {
+			if (entryName == null) {
+				throw e;
+			}
+			throw new PartialCopyException(entryName, statistics.getFileCount(), statistics.getByteCount(), e);
+		}
+		finally {
+			IOUtils.closeQuietly(input);
+			// reading and decompressing the archive is accounted as listing
+			statistics.addListingTime(System.nanoTime() - start - transferTime);
+			statistics.finish();
+		}
+		return statistics;
+	}
+
+	/**
+	 * Write one entry to the destination.
+	 *
+	 * @return nanoseconds spent writing the data of the entry
+	 */
+	private static long extractEntry(ArchiveEntry entry, InputStream input, Path destRoot, CopyOptions options, boolean posix,
+			CopyStatistics statistics, List<Object[]> directoryModes) throws IOException {
+		String relativePath = normalize(entry.name);
+		if (relativePath.length() == 0) {
+			return 0;
+		}
+		PathPatternMatcher excludes = options.getExcludes();
+		if (excludes != null && excludes.matches(relativePath) && !(entry.type == ArchiveEntry.DIRECTORY && excludes.matchesContents(relativePath))) {
+			return 0;
+		}
+
+		Path dest = destRoot.resolve(relativePath);
+		createParentDirectories(destRoot, dest, entry.name);
+		switch (entry.type) {
+		case ArchiveEntry.DIRECTORY:
+			if (Files.isSymbolicLink(dest)) {
+				throw new IOException("Directory '" + entry.name + "' is a symbolic link in the destination");
+			}
+			Files.createDirectories(dest);
+			directoryModes.add(new Object[] { dest, entry });
+			statistics.addDirectory();
+			break;
+		case ArchiveEntry.SYMBOLIC_LINK:
+			Path target = destRoot.getFileSystem().getPath(entry.linkName);
+			// a link leaving the destination would let the next entries write through it
+			if (target.isAbsolute() || !isInside(destRoot, dest.getParent().resolve(target))) {
+				throw new IOException("Link '" + entry.name + "' -> '" + entry.linkName + "' is outside of the destination directory,"
+						+ " export the server with --links follow or --links skip");
+			}
+			Files.deleteIfExists(dest);
+			Files.createSymbolicLink(dest, target);
+			statistics.addLink();
+			break;
+		case ArchiveEntry.HARD_LINK:
+			Path linked = destRoot.resolve(normalize(entry.linkName));
+			if (!isInside(destRoot, linked)) {
+				throw new IOException("Link '" + entry.name + "' -> '" + entry.linkName + "' is outside of the destination directory");
+			}
+			Files.deleteIfExists(dest);
+			Files.createLink(dest, linked);
+			statistics.addLink();
+			break;
+		default:
+			if (Files.isSymbolicLink(dest)) {
+				// replaced, the file is never written through a link
+				Files.delete(dest);
+			}
+			long start = System.nanoTime();
+			String expectedDigest = options.getManifest() == null ? null : options.getManifest().getDigest(relativePath);
+			DigestInputStream digestInput = null;
+			if (expectedDigest != null) {
+				digestInput = new DigestInputStream(input, options.getManifest().newDigest());
+				input = digestInput;
+			}
+			long size;
+			if (TemplateRenderer.isTemplate(relativePath, options)) {
+				size = writeRendered(input, dest, relativePath, options);
+				statistics.addRenderedFile();
+			}
+			else {
+				size = write(input, dest);
+			}
+			if (digestInput != null) {
+				String actualDigest = digestInput.digest.toHex();
+				if (!actualDigest.equals(expectedDigest)) {
+					Files.deleteIfExists(dest);
+					throw new IOException("Checksum mismatch of '" + relativePath + "' : expected " + expectedDigest + " but was " + actualDigest);
+				}
+				statistics.addVerified();
+			}
+			if (options.getRateLimiter() != null) {
+				// paid after the write, the limiter lets the next entries wait for it
+				options.getRateLimiter().acquireOperation();
+				options.getRateLimiter().acquireBytes(size);
+			}
+			long nanos = System.nanoTime() - start;
+			statistics.addTransferTime(relativePath, size, nanos);
+			setAttributes(dest, entry, options, posix);
+			statistics.addFile(size);
+			return nanos;
+		}
+		return 0;
+	}
+
+	/**
+	 * @param name name of an archive entry
+	 * @return path of the entry relative to the destination, using '/' as separator
+	 * @throws IOException if the entry is outside of the destination
+	 */
+	private static String normalize(String name) throws IOException {
+		StringBuilder path = new StringBuilder(name.length());
+		for (String segment : name.replace('\\', '/').split("/")) {
+			if (segment.length() == 0 || ".".equals(segment)) {
+				continue;
+			}
+			if ("..".equals(segment)) {
+				throw new IOException("Entry '" + name + "' is outside of the destination directory");
+			}
+			if (path.length() > 0) {
+				path.append('/');
+			}
+			path.append(segment);
+		}
+		return path.toString();
+	}
+
+	/**
+	 * Create the missing parent directories of an entry, once the existing ones are known to be
+	 * inside the destination, an earlier link entry may point elsewhere.
+	 *
+	 * @throws IOException if the parent of the entry is outside of the destination
+	 */
+	private static void createParentDirectories(Path destRoot, Path dest, String name) throws IOException {
+		Path parent = dest.getParent();
+		Path existing = parent;
+		while (!Files.exists(existing)) {
+			existing = existing.getParent();
+		}
+		if (!existing.toRealPath().startsWith(destRoot)) {
+			throw new IOException("Entry '" + name + "' is outside of the destination directory");
+		}
+		Files.createDirectories(parent);
+	}
+
+	/**
+	 * @param destRoot real path of the destination
+	 * @param path a path under the destination
+	 * @return true if the path stays inside the destination, following the links it goes through
+	 */
+	private static boolean isInside(Path destRoot, Path path) throws IOException {
+		Path normalized = path.normalize();
+		if (!normalized.startsWith(destRoot)) {
+			return false;
+		}
+		Path existing = normalized;
+		while (!Files.exists(existing)) {
+			existing = existing.getParent();
+		}
+		return existing.toRealPath().startsWith(destRoot);
+	}
+
+	private static OutputStream newOutputStream(Path dest) throws IOException {
+		return Files.newOutputStream(dest, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE,
+				LinkOption.NOFOLLOW_LINKS);
+	}
+
+	private static long write(InputStream input, Path dest) throws IOException {
+		OutputStream output = newOutputStream(dest);
+		try {
+			return IOUtils.copyLarge(input, output);
+		}
+		finally {
+			output.close();
+		}
+	}
+
+	private static long writeRendered(InputStream input, Path dest, String relativePath, CopyOptions options) throws IOException {
+		CountingOutputStream output = new CountingOutputStream(new BufferedOutputStream(newOutputStream(dest), BUFFER_SIZE));
+		try {
+			TemplateRenderer.render(input, output, relativePath, options);
+		}
+		finally {
+			output.close();
+		}
+		return output.getByteCount();
+	}
+
+	private static void setAttributes(Path dest, ArchiveEntry entry, CopyOptions options, boolean posix) throws IOException {
+		if (posix) {
+			int mode = options.isPreservePermissions() && entry.mode >= 0 ? entry.mode : DEFAULT_MODE;
+			Files.getFileAttributeView(dest, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).setPermissions(toPermissions(mode));
+		}
+		if (options.isPreserveFileDate() && entry.modifiedTime > 0) {
+			Files.setAttribute(dest, "lastModifiedTime", FileTime.fromMillis(entry.modifiedTime), LinkOption.NOFOLLOW_LINKS);
+		}
+	}
+
+	/**
+	 * @param mode unix file mode
+	 * @return the permissions of the mode
+	 */
+	static Set<PosixFilePermission> toPermissions(int mode) {
+		Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+		PosixFilePermission[] values = PosixFilePermission.values();
+		// values are declared from OWNER_READ (0400) to OTHERS_EXECUTE (0001)
+		for (int i = 0; i < values.length; i++) {
+			if ((mode & (0400 >> i)) != 0) {
+				permissions.add(values[i]);
+			}
+		}
+		return permissions;
+	}
+
+	/**
+	 * An entry of an archive.
+	 */
+	private static class ArchiveEntry {
+		private static final int FILE = 0;
+		private static final int DIRECTORY = 1;
+		private static final int SYMBOLIC_LINK = 2;
+		private static final int HARD_LINK = 3;
+
+		private String name;
+		private int type;
+		// -1 if the archive does not tell
+		private int mode;
+		private long modifiedTime;
+		private long size;
+		private String linkName;
+	}
+
+	/**
+	 * Minimal streaming reader of ustar, GNU long name and pax tar archives.
+	 */
+	private static class TarReader {
+		private final InputStream input;
+		private final byte[] header = new byte[BLOCK_SIZE];
+		private EntryInputStream entryStream;
+
+		private TarReader(InputStream input) {
+			this.input = input;
+		}
+
+		/**
+		 * @return the next entry, null at the end of the archive
+		 * @throws IOException if the archive cannot be read
+		 */
+		private ArchiveEntry next() throws IOException {
+			String longName = null;
+			String longLinkName = null;
+			while (true) {
+				skipEntry();
+				if (!readBlock(header)) {
+					return null;
+				}
+				if (isZeroBlock(header)) {
+					return null;
+				}
+
+				ArchiveEntry entry = new ArchiveEntry();
+				entry.name = readString(header, 0, 100);
+				entry.mode = (int) readNumber(header, 100, 8);
+				entry.size = readNumber(header, 124, 12);
+				entry.modifiedTime = readNumber(header, 136, 12) * 1000L;
+				entry.linkName = readString(header, 157, 100);
+				if ("ustar".equals(readString(header, 257, 5))) {
+					String prefix = readString(header, 345, 155);
+					if (prefix.length() > 0) {
+						entry.name = prefix + "/" + entry.name;
+					}
+				}
+				char typeFlag = (char) header[156];
+				entryStream = new EntryInputStream(input, entry.size);
+
+				switch (typeFlag) {
+				case 'L':
+					longName = readString(readContents(), 0, Integer.MAX_VALUE);
+					continue;
+				case 'K':
+					longLinkName = readString(readContents(), 0, Integer.MAX_VALUE);
+					continue;
+				case 'x':
+					String[] pax = readPaxHeaders(readContents());
+					if (pax[0] != null) {
+						longName = pax[0];
+					}
+					if (pax[1] != null) {
+						longLinkName = pax[1];
+					}
+					continue;
+				case 'g':
+					continue;
+				case '5':
+					entry.type = ArchiveEntry.DIRECTORY;
+					break;
+				case '2':
+					entry.type = ArchiveEntry.SYMBOLIC_LINK;
+					break;
+				case '1':
+					entry.type = ArchiveEntry.HARD_LINK;
+					break;
+				case '0':
+				case '\0':
+				case '7':
+					entry.type = entry.name.endsWith("/") ? ArchiveEntry.DIRECTORY : ArchiveEntry.FILE;
+					break;
+				default:
+					// devices and fifos are not part of a depot
+					continue;
+				}
+				if (longName != null) {
+					entry.name = longName;
+				}
+				if (longLinkName != null) {
+					entry.linkName = longLinkName;
+				}
+				return entry;
+			}
+		}
+
+		/**
+		 * @return contents of the current entry
+		 */
+		private InputStream stream() {
+			return entryStream;
+		}
+
+		private byte[] readContents() throws IOException {
+			if (entryStream.size > MAX_HEADER_SIZE) {
+				throw new IOException("Invalid tar header, extended header of " + entryStream.size + " bytes");
+			}
+			ByteArrayOutputStream contents = new ByteArrayOutputStream();
+			IOUtils.copyLarge(entryStream, contents);
+			return contents.toByteArray();
+		}
+
+		/**
+		 * Skip what is left of the current entry and its padding.
+		 */
+		private void skipEntry() throws IOException {
+			if (entryStream == null) {
+				return;
+			}
+			while (entryStream.skip(Long.MAX_VALUE) > 0) {
+				// skip until the end of the entry
+			}
+			long padding = (BLOCK_SIZE - entryStream.size % BLOCK_SIZE) % BLOCK_SIZE;
+			skipFully(padding);
+			entryStream = null;
+		}
+
+		private void skipFully(long count) throws IOException {
+			while (count > 0) {
+				long skipped = input.skip(count);
+				if (skipped <= 0) {
+					if (input.read() < 0) {
+						throw new EOFException("Unexpected end of tar archive");
+					}
+					skipped = 1;
+				}
+				count -= skipped;
+			}
+		}
+
+		private boolean readBlock(byte[] block) throws IOException {
+			int read = 0;
+			while (read < block.length) {
+				int count = input.read(block, read, block.length - read);
+				if (count < 0) {
+					if (read == 0) {
+						return false;
+					}
+					throw new EOFException("Unexpected end of tar archive");
+				}
+				read += count;
+			}
+			return true;
+		}
+
+		private static boolean isZeroBlock(byte[] block) {
+			for (byte b : block) {
+				if (b != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static String readString(byte[] buffer, int offset, int length) {
+			int end = offset;
+			int limit = (int) Math.min((long) offset + length, buffer.length);
+			while (end < limit && buffer[end] != 0) {
+				end++;
+			}
+			return new String(buffer, offset, end - offset, UTF_8);
+		}
+
+		private static long readNumber(byte[] buffer, int offset, int length) {
+			if ((buffer[offset] & 0x80) != 0) {
+				// base-256 encoding of large numbers
+				long value = buffer[offset] & 0x7f;
+				for (int i = offset + 1; i < offset + length; i++) {
+					value = (value << 8) | (buffer[i] & 0xff);
+				}
+				return value;
+			}
+			long value = 0;
+			for (int i = offset; i < offset + length; i++) {
+				byte b = buffer[i];
+				if (b >= '0' && b <= '7') {
+					value = (value << 3) + (b - '0');
+				}
+				else if (b == 0 || (b == ' ' && value > 0)) {
+					break;
+				}
+			}
+			return value;
+		}
+
+		/**
+		 * @param contents records of a pax extended header
+		 * @return path and linkpath, null when they are not given
+		 * @throws IOException if a record is malformed
+		 */
+		private static String[] readPaxHeaders(byte[] contents) throws IOException {
+			String[] headers = new String[2];
+			int offset = 0;
+			while (offset < contents.length) {
+				int space = offset;
+				while (space < contents.length && contents[space] != ' ') {
+					space++;
+				}
+				int length;
+				try {
+					length = Integer.parseInt(new String(contents, offset, space - offset, UTF_8));
+				}
+				catch (NumberFormatException e) {
+					throw new IOException("Invalid pax header", e);
+				}
+				// a record is "<length> <key>=<value>\n", its length counting itself
+				if (space >= contents.length || length < space - offset + 3 || length > contents.length - offset
+						|| contents[offset + length - 1] != '\n') {
+					throw new IOException("Invalid pax header");
+				}
+				String record = new String(contents, space + 1, offset + length - space - 2, UTF_8);
+				int equals = record.indexOf('=');
+				if (equals <= 0) {
+					throw new IOException("Invalid pax header");
+				}
+				String key = record.substring(0, equals);
+				if ("path".equals(key)) {
+					headers[0] = record.substring(equals + 1);
+				}
+				else if ("linkpath".equals(key)) {
+					headers[1] = record.substring(equals + 1);
+				}
+				offset += length;
+			}
+			return headers;
+		}
+	}
+
+	/**
+	 * Updates a digest with the bytes read through it.
+	 */
+	static class DigestInputStream extends FilterInputStream {
+		private final ChecksumManifest.StreamDigest digest;
+
+		DigestInputStream(InputStream input, ChecksumManifest.StreamDigest digest) {
+			super(input);
+			this.digest = digest;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count > 0) {
+				digest.update(b, off, count);
+			}
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			// skipped bytes would be missing from the digest
+			return 0;
+		}
+
+		@Override
+		public void close() {
+			// the archive is closed by the extractor
+		}
+	}
+
+	/**
+	 * Contents of one tar entry, the underlying stream stays open.
+	 */
+	private static class EntryInputStream extends FilterInputStream {
+		private final long size;
+		private long remaining;
+
+		private EntryInputStream(InputStream input, long size) {
+			super(input);
+			this.size = size;
+			this.remaining = size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = super.read();
+			if (b < 0) {
+				throw new EOFException("Unexpected end of tar archive");
+			}
+			remaining--;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int count = super.read(b, off, (int) Math.min(len, remaining));
+			if (count < 0) {
+				throw new EOFException("Unexpected end of tar archive");
+			}
+			remaining -= count;
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(Math.min(n, remaining));
+			remaining -= skipped;
+			return skipped;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(super.available(), remaining);
+		}
+
+		@Override
+		public void close() {
+			// the archive is closed by the extractor
+		}
+	}
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a directory as a tar archive, the counterpart of {@link ArchiveExtractor}.
+ * <p>
+ * The archive is written as a stream in one pass over the directory. A .tar.gz or .tgz archive
+ * is compressed in parallel: the tar stream is cut in blocks of 1MB, each compressed by a worker
+ * thread as a separate gzip member and written in order. Concatenated members are a valid gzip
+ * file which any gzip reader, {@link java.util.zip.GZIPInputStream} included, reads as one.
+ * <p>
+ * File contents are read with a {@link FileChannel} straight into the block being filled. The
+ * archive is written next to its final name and renamed by {@link #finish()}, so an interrupted
+ * export never leaves a truncated archive.
+ */
+public class ArchiveWriter implements Closeable {
+	private static final int BLOCK_SIZE = 512;
+	private static final int COMPRESS_BLOCK_SIZE = 1024 * 1024;
+	private static final int DEFAULT_FILE_MODE = 0644;
+	private static final int DEFAULT_DIRECTORY_MODE = 0755;
+	// largest size written as 11 octal digits, larger sizes use the base-256 encoding
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File archive;
+	private final File tempFile;
+	private final BlockOutputStream output;
+	private boolean finished;
+
+	private ArchiveWriter(File archive, File tempFile, BlockOutputStream output) {
+		this.archive = archive;
+		this.tempFile = tempFile;
+		this.output = output;
+	}
+
+	/**
+	 * Start writing an archive.
+	 *
+	 * @param archive the tar, tar.gz or tgz file to write, replaced if it exists
+	 * @param threads number of threads compressing a tar.gz or tgz archive
+	 * @return the writer, to close after use
+	 * @throws IOException if the archive cannot be created
+	 */
+	public static ArchiveWriter open(File archive, int threads) throws IOException {
+		String name = archive.getName().toLowerCase();
+		boolean compress = name.endsWith(".tar.gz") || name.endsWith(".tgz");
+		if (!compress && !name.endsWith(".tar")) {
+			throw new IOException("Unsupported archive '" + archive + "', expected .tar.gz, .tgz or .tar");
+		}
+		File parent = archive.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			Files.createDirectories(parent.toPath());
+		}
+		File tempFile = new File(parent, "." + archive.getName() + ".part-" + System.nanoTime());
+		OutputStream file = new FileOutputStream(tempFile);
+		return new ArchiveWriter(archive, tempFile, new BlockOutputStream(file, compress ? Math.max(threads, 1) : 0));
+	}
+
+	/**
+	 * Start writing an archive to a stream, which is closed by {@link #finish()}.
+	 *
+	 * @param output the stream receiving the archive
+	 * @param compress true to write a tar.gz archive, false for a tar archive
+	 * @param threads number of threads compressing the archive
+	 * @return the writer, to close after use
+	 */
+	public static ArchiveWriter open(OutputStream output, boolean compress, int threads) {
+		return new ArchiveWriter(null, null, new BlockOutputStream(output, compress ? Math.max(threads, 1) : 0));
+	}
+
+	/**
+	 * Add a file with the given contents.
+	 *
+	 * @param name path of the entry in the archive, using '/' as separator
+	 * @param contents contents of the entry
+	 * @throws IOException if the archive cannot be written
+	 */
+	public void addEntry(String name, byte[] contents) throws IOException {
+		writeHeader(name, '0', contents.length, DEFAULT_FILE_MODE, System.currentTimeMillis(), null);
+		output.write(contents);
+		writePadding(contents.length);
+	}
+
+	/**
+	 * Add the contents of a directory, the directory itself is the root of the archive.
+	 * <ul>
+	 * <li>entries matching {@link CopyOptions#getExcludes()} are skipped like a copy skips them.</li>
+	 * <li>symbolic links are handled as told by {@link CopyOptions#getLinkPolicy()}.</li>
+	 * <li>entries keep their permissions and modification time.</li>
+	 * <li>files count against {@link CopyOptions#getRateLimiter()}.</li>
+	 * </ul>
+	 *
+	 * @param srcDir the directory to archive
+	 * @param options the copy options
+	 * @param statistics statistics updated while archiving
+	 * @return statistics of the archived entries
+	 * @throws IOException if a file cannot be read or the archive cannot be written
+	 */
+	public CopyStatistics addDirectory(File srcDir, CopyOptions options, CopyStatistics statistics) throws IOException {
+		Path srcRoot = srcDir.toPath();
+		boolean posix = Files.getFileStore(srcRoot).supportsFileAttributeView("posix");
+		Set<FileVisitOption> visitOptions = options.getLinkPolicy() == LinkPolicy.FOLLOW ? EnumSet.of(FileVisitOption.FOLLOW_LINKS)
+				: EnumSet.noneOf(FileVisitOption.class);
+		long start = System.nanoTime();
+		ArchiveFileVisitor visitor = new ArchiveFileVisitor(srcRoot, options, posix, statistics);
+		try {
+			Files.walkFileTree(srcRoot, visitOptions, Integer.MAX_VALUE, visitor);
+		}
+		finally {
+			// walking and compressing is accounted as listing
+			statistics.addListingTime(System.nanoTime() - start - visitor.transferTime);
+			statistics.finish();
+		}
+		return statistics;
+	}
+
+	/**
+	 * Write the end of the archive and move an archive file to its name.
+	 *
+	 * @throws IOException if the archive cannot be written
+	 */
+	public void finish() throws IOException {
+		output.write(new byte[BLOCK_SIZE * 2]);
+		output.finish();
+		output.close();
+		if (archive != null) {
+			Files.move(tempFile.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finished = true;
+	}
+
+	/**
+	 * Stop writing, an archive file which is not finished is deleted.
+	 */
+	@Override
+	public void close() {
+		if (!finished) {
+			output.abort();
+			if (tempFile != null) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	private void writeHeader(String name, char type, long size, int mode, long modifiedTime, String linkName) throws IOException {
+		if (name.getBytes(UTF_8).length > 100) {
+			writeLongName('L', name);
+		}
+		if (linkName != null && linkName.getBytes(UTF_8).length > 100) {
+			writeLongName('K', linkName);
+		}
+		byte[] header = new byte[BLOCK_SIZE];
+		putString(header, 0, 100, name);
+		putOctal(header, 100, 8, mode);
+		putOctal(header, 108, 8, 0);
+		putOctal(header, 116, 8, 0);
+		if (size > MAX_OCTAL_SIZE) {
+			header[124] = (byte) 0x80;
+			for (int i = 0; i < 8; i++) {
+				header[135 - i] = (byte) (size >>> (8 * i));
+			}
+		}
+		else {
+			putOctal(header, 124, 12, size);
+		}
+		putOctal(header, 136, 12, modifiedTime / 1000);
+		header[156] = (byte) type;
+		if (linkName != null) {
+			putString(header, 157, 100, linkName);
+		}
+		putString(header, 257, 6, "ustar");
+		header[263] = '0';
+		header[264] = '0';
+
+		// the checksum is computed with its own field filled with spaces
+		Arrays.fill(header, 148, 156, (byte) ' ');
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xff;
+		}
+		putOctal(header, 148, 7, checksum);
+		output.write(header);
+	}
+
+	/**
+	 * Write a GNU long name entry for a name which does not fit in the header.
+	 */
+	private void writeLongName(char type, String name) throws IOException {
+		byte[] bytes = (name + '\0').getBytes(UTF_8);
+		writeHeader("././@LongLink", type, bytes.length, DEFAULT_FILE_MODE, 0, null);
+		output.write(bytes);
+		writePadding(bytes.length);
+	}
+
+	private void writePadding(long size) throws IOException {
+		int padding = (int) ((BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE);
+		if (padding > 0) {
+			output.write(new byte[padding]);
+		}
+	}
+
+	private static void putString(byte[] header, int offset, int length, String value) {
+		byte[] bytes = value.getBytes(UTF_8);
+		System.arraycopy(bytes, 0, header, offset, Math.min(bytes.length, length));
+	}
+
+	/**
+	 * Write a number as length - 1 octal digits followed by a NUL.
+	 */
+	private static void putOctal(byte[] header, int offset, int length, long value) {
+		int end = offset + length - 1;
+		header[end] = 0;
+		for (int i = end - 1; i >= offset; i--) {
+			header[i] = (byte) ('0' + (value & 7));
+			value >>>= 3;
+		}
+	}
+
+	/**
+	 * @param permissions posix permissions
+	 * @return the unix file mode of the permissions
+	 */
+	static int toMode(Set<PosixFilePermission> permissions) {
+		int mode = 0;
+		PosixFilePermission[] values = PosixFilePermission.values();
+		// values are declared from OWNER_READ (0400) to OTHERS_EXECUTE (0001)
+		for (int i = 0; i < values.length; i++) {
+			if (permissions.contains(values[i])) {
+				mode |= 0400 >> i;
+			}
+		}
+		return mode;
+	}
+
+	/**
+	 * Writes the entries of a walked tree.
+	 */
+	private class ArchiveFileVisitor extends SimpleFileVisitor<Path> {
+		private final Path srcRoot;
+		private final CopyOptions options;
+		private final boolean posix;
+		private final CopyStatistics statistics;
+		private long transferTime;
+
+		private ArchiveFileVisitor(Path srcRoot, CopyOptions options, boolean posix, CopyStatistics statistics) {
+			this.srcRoot = srcRoot;
+			this.options = options;
+			this.posix = posix;
+			this.statistics = statistics;
+		}
+
+		private String relativePath(Path file) {
+			return srcRoot.relativize(file).toString().replace(File.separatorChar, '/');
+		}
+
+		private int mode(Path file, int defaultMode) throws IOException {
+			if (!posix) {
+				return defaultMode;
+			}
+			// links reach here only when they are followed
+			return toMode(Files.getPosixFilePermissions(file));
+		}
+
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+			if (dir.equals(srcRoot)) {
+				return FileVisitResult.CONTINUE;
+			}
+			String relativePath = relativePath(dir);
+			PathPatternMatcher excludes = options.getExcludes();
+			if (excludes != null && excludes.matches(relativePath)) {
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+			writeHeader(relativePath + "/", '5', 0, mode(dir, DEFAULT_DIRECTORY_MODE), attrs.lastModifiedTime().toMillis(), null);
+			statistics.addDirectory();
+			if (excludes != null && excludes.matchesContents(relativePath)) {
+				// keep the directory, but never descend into excluded contents
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+			String relativePath = relativePath(file);
+			PathPatternMatcher excludes = options.getExcludes();
+			if (excludes != null && excludes.matches(relativePath)) {
+				return FileVisitResult.CONTINUE;
+			}
+			if (attrs.isSymbolicLink()) {
+				if (options.getLinkPolicy() == LinkPolicy.PRESERVE) {
+					String target = Files.readSymbolicLink(file).toString();
+					writeHeader(relativePath, '2', 0, 0777, attrs.lastModifiedTime().toMillis(), target);
+					statistics.addSymlink();
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			if (!attrs.isRegularFile()) {
+				// sockets and fifos are not part of a server
+				return FileVisitResult.CONTINUE;
+			}
+			long size = attrs.size();
+			long start = System.nanoTime();
+			writeHeader(relativePath, '0', size, mode(file, DEFAULT_FILE_MODE), attrs.lastModifiedTime().toMillis(), null);
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				output.transferFrom(channel, size, relativePath);
+			}
+			finally {
+				channel.close();
+			}
+			writePadding(size);
+			if (options.getRateLimiter() != null) {
+				options.getRateLimiter().acquireOperation();
+				options.getRateLimiter().acquireBytes(size);
+			}
+			long nanos = System.nanoTime() - start;
+			transferTime += nanos;
+			statistics.addTransferTime(relativePath, size, nanos);
+			statistics.addFile(size);
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+			throw e;
+		}
+	}
+
+	/**
+	 * Cuts what is written in blocks, compressed in parallel as gzip members when there are
+	 * compressing threads, and writes the blocks in order.
+	 */
+	private static class BlockOutputStream extends OutputStream {
+		private final OutputStream output;
+		private final ExecutorService executor;
+		private final Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		private final int maxPending;
+		private byte[] block = new byte[COMPRESS_BLOCK_SIZE];
+		private int count;
+
+		/**
+		 * @param output the archive file
+		 * @param threads number of compressing threads, 0 to write the blocks as they are
+		 */
+		private BlockOutputStream(OutputStream output, int threads) {
+			this.output = output;
+			this.executor = threads > 0 ? Executors.newFixedThreadPool(threads) : null;
+			// bounds the memory used by blocks waiting to be written
+			this.maxPending = threads * 2;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == block.length) {
+				writeBlock();
+			}
+			block[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == block.length) {
+					writeBlock();
+				}
+				int length = Math.min(len, block.length - count);
+				System.arraycopy(b, off, block, count, length);
+				count += length;
+				off += length;
+				len -= length;
+			}
+		}
+
+		/**
+		 * Read the contents of a file into the blocks.
+		 *
+		 * @param channel the file
+		 * @param size number of bytes to read, the size of the file when its header was written
+		 * @param relativePath path of the file in the archive
+		 * @throws IOException if the file cannot be read or was truncated while being read
+		 */
+		private void transferFrom(FileChannel channel, long size, String relativePath) throws IOException {
+			long remaining = size;
+			while (remaining > 0) {
+				if (count == block.length) {
+					writeBlock();
+				}
+				ByteBuffer buffer = ByteBuffer.wrap(block, count, (int) Math.min(block.length - count, remaining));
+				int read = channel.read(buffer);
+				if (read < 0) {
+					throw new EOFException("File '" + relativePath + "' was truncated while being archived");
+				}
+				count += read;
+				remaining -= read;
+			}
+		}
+
+		private void writeBlock() throws IOException {
+			if (count == 0) {
+				return;
+			}
+			final byte[] data = block;
+			final int length = count;
+			block = new byte[COMPRESS_BLOCK_SIZE];
+			count = 0;
+			if (executor == null) {
+				output.write(data, 0, length);
+				return;
+			}
+			pending.add(executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+					GZIPOutputStream gzip = new GZIPOutputStream(member, 64 * 1024);
+					gzip.write(data, 0, length);
+					gzip.finish();
+					return member.toByteArray();
+				}
+			}));
+			while (pending.size() > maxPending) {
+				writeCompressed();
+			}
+		}
+
+		private void writeCompressed() throws IOException {
+			try {
+				output.write(pending.poll().get());
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while compressing");
+			}
+			catch (ExecutionException e) {
+				throw new IOException("Failed to compress", e.getCause());
+			}
+		}
+
+		/**
+		 * Write the last block and wait for the blocks being compressed.
+		 */
+		private void finish() throws IOException {
+			writeBlock();
+			while (!pending.isEmpty()) {
+				writeCompressed();
+			}
+			output.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (executor != null) {
+				executor.shutdown();
+			}
+			output.close();
+		}
+
+		private void abort() {
+			if (executor != null) {
+				executor.shutdownNow();
+			}
+			try {
+				output.close();
+			}
+			catch (IOException e) {
+				// the archive is deleted
+			}
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Expected digests of the files of a depot directory.
+ * <p>
+ * The manifest is a file next to the directory, <code>&lt;dir&gt;.sha256</code> in the format of
+ * <code>sha256sum</code>, or <code>&lt;dir&gt;.crc32</code> with the same layout and 8 hex digits
+ * per file. For example, from the depot directory:
+ * <pre>
+ * (cd module &amp;&amp; find . -type f -exec sha256sum {} +) &gt; module.sha256
+ * </pre>
+ */
+public class ChecksumManifest {
+	public static final String SHA256 = "SHA-256";
+	public static final String CRC32 = "CRC32";
+
+	private final String algorithm;
+	private final Map<String, String> digests;
+
+	private ChecksumManifest(String algorithm, Map<String, String> digests) {
+		this.algorithm = algorithm;
+		this.digests = digests;
+	}
+
+	/**
+	 * @param dirPath path of a depot directory
+	 * @return the manifest of the directory, null if there is none
+	 * @throws IOException if the manifest cannot be read
+	 */
+	public static ChecksumManifest find(String dirPath) throws IOException {
+		File sha256 = new File(dirPath + ".sha256");
+		if (sha256.isFile()) {
+			return read(sha256, SHA256);
+		}
+		File crc32 = new File(dirPath + ".crc32");
+		if (crc32.isFile()) {
+			return read(crc32, CRC32);
+		}
+		return null;
+	}
+
+	/**
+	 * @param file manifest file
+	 * @param algorithm {@link #SHA256} or {@link #CRC32}
+	 * @return the manifest
+	 * @throws IOException if the manifest cannot be read
+	 */
+	public static ChecksumManifest read(File file, String algorithm) throws IOException {
+		Map<String, String> digests = new HashMap<String, String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				int separator = line.indexOf(' ');
+				if (separator <= 0 || line.startsWith("#")) {
+					continue;
+				}
+				String path = line.substring(separator + 1);
+				// sha256sum marks binary mode with '*' and text mode with a second space
+				if (path.startsWith("*") || path.startsWith(" ")) {
+					path = path.substring(1);
+				}
+				while (path.startsWith("./")) {
+					path = path.substring(2);
+				}
+				digests.put(path, line.substring(0, separator).toLowerCase());
+			}
+		}
+		finally {
+			IOUtils.closeQuietly(reader);
+		}
+		return new ChecksumManifest(algorithm, digests);
+	}
+
+	/**
+	 * @param relativePath path of a file relative to the depot directory, using '/' as separator
+	 * @return the expected digest in lower case hex, null if the file is not listed
+	 */
+	public String getDigest(String relativePath) {
+		return digests.get(relativePath);
+	}
+
+	/**
+	 * @return a new digest of the manifest algorithm
+	 */
+	public StreamDigest newDigest() {
+		return new StreamDigest(algorithm);
+	}
+
+	/**
+	 * Digest updated with the bytes of a file while they are copied.
+	 */
+	public static class StreamDigest {
+		private final CRC32 crc32;
+		private final MessageDigest messageDigest;
+
+		private StreamDigest(String algorithm) {
+			if (CRC32.equals(algorithm)) {
+				crc32 = new CRC32();
+				messageDigest = null;
+			}
+			else {
+				crc32 = null;
+				try {
+					messageDigest = MessageDigest.getInstance(algorithm);
+				}
+				catch (NoSuchAlgorithmException e) {
+					throw new IllegalArgumentException("Unsupported digest algorithm : " + algorithm, e);
+				}
+			}
+		}
+
+		public void update(byte[] bytes, int offset, int length) {
+			if (crc32 != null) {
+				crc32.update(bytes, offset, length);
+			}
+			else {
+				messageDigest.update(bytes, offset, length);
+			}
+		}
+
+		/**
+		 * @return the digest in lower case hex
+		 */
+		public String toHex() {
+			if (crc32 != null) {
+				return String.format("%08x", crc32.getValue());
+			}
+			StringBuilder hex = new StringBuilder();
+			for (byte b : messageDigest.digest()) {
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+	}
+}
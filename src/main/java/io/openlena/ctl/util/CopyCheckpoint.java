@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Journal of the files completed by a copy, so that an interrupted copy to the same destination
+ * resumes instead of starting over.
+ * <p>
+ * Each line records a copied file as <code>size lastModified path</code>, with the size and
+ * modification time of its source. The copy forces each file to the disk before it is recorded,
+ * so a recorded file survives a crash of the system. The journal is appended after each file and
+ * flushed every second, a file copied after the last flush is copied again. A line cut by a crash
+ * is removed.
+ * <p>
+ * The contents of a recorded file are not read again when the copy resumes: a file is skipped
+ * when its source and the size of its copy are unchanged.
+ */
+public class CopyCheckpoint implements Closeable {
+	private static final long FLUSH_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Map<String, long[]> completed;
+	private final Writer writer;
+	private long flushTime = System.nanoTime();
+
+	private CopyCheckpoint(Map<String, long[]> completed, Writer writer) {
+		this.completed = completed;
+		this.writer = writer;
+	}
+
+	/**
+	 * Read the checkpoint of an interrupted copy and open it to record the files of the copy.
+	 *
+	 * @param file checkpoint file, created if it does not exist
+	 * @return the checkpoint
+	 * @throws IOException if the checkpoint cannot be read or written
+	 */
+	public static CopyCheckpoint open(File file) throws IOException {
+		Map<String, long[]> completed = new HashMap<String, long[]>();
+		if (file.isFile() && file.length() > 0) {
+			removeCutLine(file);
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					parse(line, completed);
+				}
+			}
+			finally {
+				IOUtils.closeQuietly(reader);
+			}
+		}
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+		return new CopyCheckpoint(completed, writer);
+	}
+
+	private static void parse(String line, Map<String, long[]> completed) {
+		int sizeEnd = line.indexOf(' ');
+		int dateEnd = sizeEnd < 0 ? -1 : line.indexOf(' ', sizeEnd + 1);
+		if (dateEnd < 0) {
+			return;
+		}
+		try {
+			completed.put(line.substring(dateEnd + 1),
+					new long[] { Long.parseLong(line.substring(0, sizeEnd)), Long.parseLong(line.substring(sizeEnd + 1, dateEnd)) });
+		}
+		catch (NumberFormatException e) {
+			// not a checkpoint line
+		}
+	}
+
+	/**
+	 * Truncate the file after its last complete line.
+	 */
+	private static void removeCutLine(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			long length = randomAccessFile.length();
+			while (length > 0) {
+				randomAccessFile.seek(length - 1);
+				if (randomAccessFile.read() == '\n') {
+					break;
+				}
+				length--;
+			}
+			if (length < randomAccessFile.length()) {
+				randomAccessFile.setLength(length);
+			}
+		}
+		finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * @param relativePath path of the file relative to the copy root, using '/' as separator
+	 * @param size size of the source file
+	 * @param lastModified modification time of the source file in milliseconds
+	 * @return true if the file was copied by the interrupted copy and its source has not changed
+	 */
+	public boolean isCompleted(String relativePath, long size, long lastModified) {
+		long[] entry = completed.get(relativePath);
+		return entry != null && entry[0] == size && entry[1] == lastModified;
+	}
+
+	/**
+	 * @return number of files completed by the interrupted copy
+	 */
+	public int getCompletedCount() {
+		return completed.size();
+	}
+
+	/**
+	 * Record a copied file, which must already be on the disk.
+	 *
+	 * @param relativePath path of the file relative to the copy root, using '/' as separator
+	 * @param size size of the source file
+	 * @param lastModified modification time of the source file in milliseconds
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public synchronized void add(String relativePath, long size, long lastModified) throws IOException {
+		if (relativePath.indexOf('\n') >= 0) {
+			return;
+		}
+		writer.write(size + " " + lastModified + " " + relativePath + "\n");
+		long now = System.nanoTime();
+		if (now - flushTime > FLUSH_NANOS) {
+			writer.flush();
+			flushTime = now;
+		}
+	}
+
+	/**
+	 * Write the recorded files to the checkpoint file.
+	 *
+	 * @throws IOException if the checkpoint cannot be written
+	 */
+	public synchronized void flush() throws IOException {
+		writer.flush();
+		flushTime = System.nanoTime();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.FileFilter;
+import java.util.Map;
+
+/**
+ * Options for {@link CustomFileUtils#copyDirectory(java.io.File, java.io.File, CopyOptions)}.
+ */
+public class CopyOptions {
+	private FileFilter filter;
+	private PathPatternMatcher excludes;
+	private boolean preserveFileDate;
+	private boolean preservePermissions;
+	private boolean preserveOwner;
+	private int threads = 1;
+	private boolean sync;
+	private boolean checksum;
+	private PathPatternMatcher hardLinkIncludes;
+	private PathPatternMatcher hardLinkExcludes;
+	private PathPatternMatcher substitutionIncludes;
+	private Map<String, String> substitutions;
+	private TextReplacer substitutionReplacer;
+	private Map<String, String> shellVariables;
+	private ChecksumManifest manifest;
+	private IoRateLimiter rateLimiter;
+	private CopyCheckpoint checkpoint;
+	private LinkPolicy linkPolicy = LinkPolicy.FOLLOW;
+
+	/**
+	 * @return the filter to apply, null means copy all directories and files
+	 */
+	public FileFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @param filter the filter to apply, null means copy all directories and files
+	 */
+	public void setFilter(FileFilter filter) {
+		this.filter = filter;
+	}
+
+	/**
+	 * @return entries which are not copied, null means none
+	 */
+	public PathPatternMatcher getExcludes() {
+		return excludes;
+	}
+
+	/**
+	 * Excluded entries are neither copied nor deleted by a sync. A directory matched by a
+	 * pattern ending with '/**' is created empty and the walk does not descend into it.
+	 *
+	 * @param excludes entries which are not copied, null means none
+	 */
+	public void setExcludes(PathPatternMatcher excludes) {
+		this.excludes = excludes;
+	}
+
+	/**
+	 * @return true if the file date of the copy should be the same as the original
+	 */
+	public boolean isPreserveFileDate() {
+		return preserveFileDate || sync;
+	}
+
+	/**
+	 * @param preserveFileDate true if the file date of the copy should be the same as the original
+	 */
+	public void setPreserveFileDate(boolean preserveFileDate) {
+		this.preserveFileDate = preserveFileDate;
+	}
+
+	/**
+	 * @return true if the POSIX permissions of the copy should be the same as the original
+	 */
+	public boolean isPreservePermissions() {
+		return preservePermissions;
+	}
+
+	/**
+	 * Permissions are ignored on filesystems without POSIX permissions.
+	 *
+	 * @param preservePermissions true if the POSIX permissions of the copy should be the same as the original
+	 */
+	public void setPreservePermissions(boolean preservePermissions) {
+		this.preservePermissions = preservePermissions;
+	}
+
+	/**
+	 * @return true if the owner and group of the copy should be the same as the original
+	 */
+	public boolean isPreserveOwner() {
+		return preserveOwner;
+	}
+
+	/**
+	 * Changing the owner usually requires root privileges.
+	 *
+	 * @param preserveOwner true if the owner and group of the copy should be the same as the original
+	 */
+	public void setPreserveOwner(boolean preserveOwner) {
+		this.preserveOwner = preserveOwner;
+	}
+
+	/**
+	 * @return number of worker threads, 1 means the directory is copied on the calling thread
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param threads number of worker threads, values lower than 1 are treated as 1
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads < 1 ? 1 : threads;
+	}
+
+	/**
+	 * @return true if only the differences with an existing destination are copied
+	 */
+	public boolean isSync() {
+		return sync;
+	}
+
+	/**
+	 * Files with the same size and modification time in the source and the destination are
+	 * left as they are, and destination entries which do not exist in the source are deleted.
+	 * Entries rejected by the filter or excluded are neither copied nor deleted.
+	 * File dates are always preserved by a sync, so that the next sync can compare them.
+	 *
+	 * @param sync true if only the differences with an existing destination are copied
+	 */
+	public void setSync(boolean sync) {
+		this.sync = sync;
+	}
+
+	/**
+	 * @return true if a sync compares the contents of files instead of their modification time
+	 */
+	public boolean isChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * @param checksum true if a sync compares the contents of files instead of their modification time
+	 */
+	public void setChecksum(boolean checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * @return files that are hard linked to the source instead of being copied, null means none
+	 */
+	public PathPatternMatcher getHardLinkIncludes() {
+		return hardLinkIncludes;
+	}
+
+	/**
+	 * Files matching these patterns must be immutable, because the source and the copy share
+	 * their contents. When the source and destination are on different filesystems the files
+	 * are copied.
+	 *
+	 * @param hardLinkIncludes files that are hard linked to the source instead of being copied
+	 */
+	public void setHardLinkIncludes(PathPatternMatcher hardLinkIncludes) {
+		this.hardLinkIncludes = hardLinkIncludes;
+	}
+
+	/**
+	 * @return files that are always copied even if they match the hard link includes
+	 */
+	public PathPatternMatcher getHardLinkExcludes() {
+		return hardLinkExcludes;
+	}
+
+	/**
+	 * @param hardLinkExcludes files that are always copied even if they match the hard link includes
+	 */
+	public void setHardLinkExcludes(PathPatternMatcher hardLinkExcludes) {
+		this.hardLinkExcludes = hardLinkExcludes;
+	}
+
+	/**
+	 * @return true if some files may be hard linked
+	 */
+	public boolean isHardLinkEnabled() {
+		return hardLinkIncludes != null && !hardLinkIncludes.isEmpty();
+	}
+
+	/**
+	 * @return files whose text is substituted while they are copied or extracted, null means none
+	 */
+	public PathPatternMatcher getSubstitutionIncludes() {
+		return substitutionIncludes;
+	}
+
+	/**
+	 * @return the text to replace mapped to its replacement
+	 */
+	public Map<String, String> getSubstitutions() {
+		return substitutions;
+	}
+
+	/**
+	 * @return the substitutions compiled once for all files, null means none
+	 */
+	public TextReplacer getSubstitutionReplacer() {
+		return substitutionReplacer;
+	}
+
+	/**
+	 * Files matching the includes are streamed through a {@link TextReplacer}, every key of
+	 * substitutions is replaced with its value in one pass.
+	 *
+	 * @param substitutionIncludes files whose text is substituted
+	 * @param substitutions the text to replace mapped to its replacement
+	 */
+	public void setSubstitutions(PathPatternMatcher substitutionIncludes, Map<String, String> substitutions) {
+		this.substitutionIncludes = substitutionIncludes;
+		this.substitutions = substitutions;
+		this.substitutionReplacer = substitutions == null ? null : new TextReplacer(substitutions);
+	}
+
+	/**
+	 * @return variables set in the shell files while they are copied or extracted, null means none
+	 */
+	public Map<String, String> getShellVariables() {
+		return shellVariables;
+	}
+
+	/**
+	 * The declarations of the variables in env.sh are changed to the given values while the file
+	 * is copied, see {@link ShellEnvironment}. The copy fails if a variable is not declared.
+	 * env.bat is copied as it is.
+	 *
+	 * @param shellVariables shell variable names mapped to their value, null means none
+	 */
+	public void setShellVariables(Map<String, String> shellVariables) {
+		this.shellVariables = shellVariables;
+	}
+
+	/**
+	 * @return expected digests of the source files, null means no verification
+	 */
+	public ChecksumManifest getManifest() {
+		return manifest;
+	}
+
+	/**
+	 * Files listed in the manifest are digested while they are copied, a copy whose digest does
+	 * not match is deleted and fails the copy. Hard linked and unchanged files are not read, so
+	 * they are not verified.
+	 *
+	 * @param manifest expected digests of the source files
+	 */
+	public void setManifest(ChecksumManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	/**
+	 * @return the bandwidth and file operations limit of the copy, null means no limit
+	 */
+	public IoRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @param rateLimiter the bandwidth and file operations limit of the copy, shared by its threads
+	 */
+	public void setRateLimiter(IoRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * @return the completed files of an interrupted copy to the same destination, null means none
+	 */
+	public CopyCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Files recorded in the checkpoint whose source and copy are unchanged are not copied again,
+	 * every file copied is forced to the disk and recorded in it.
+	 *
+	 * @param checkpoint the completed files of an interrupted copy to the same destination
+	 */
+	public void setCheckpoint(CopyCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * @return how symbolic links are copied, {@link LinkPolicy#FOLLOW} by default
+	 */
+	public LinkPolicy getLinkPolicy() {
+		return linkPolicy;
+	}
+
+	/**
+	 * @param linkPolicy how symbolic links are copied
+	 */
+	public void setLinkPolicy(LinkPolicy linkPolicy) {
+		this.linkPolicy = linkPolicy;
+	}
+}
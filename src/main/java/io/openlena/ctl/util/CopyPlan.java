@@ -0,0 +1,203 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.openlena.ctl.exception.LenaException;
+
+/**
+ * What a copy will write, computed before copying by
+ * {@link CustomFileUtils#planCopy(File, CopyOptions)} with the exclusion, link and hard link rules
+ * of the copy, so that a copy which cannot fit fails before it starts.
+ * <p>
+ * The space of a file is its size rounded up to a {@value #BLOCK_SIZE} bytes block, each
+ * directory takes a block. Every directory, file and symbolic link takes an inode, hard links
+ * take neither space nor inode.
+ */
+public class CopyPlan {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CopyPlan.class);
+
+	static final long BLOCK_SIZE = 4096;
+
+	private long fileCount;
+	private long directoryCount;
+	private long symlinkCount;
+	private long byteCount;
+	private long blockCount;
+
+	void addFile(long bytes) {
+		fileCount++;
+		byteCount += bytes;
+		blockCount += (bytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+	}
+
+	void addDirectory() {
+		directoryCount++;
+		blockCount++;
+	}
+
+	void addSymlink() {
+		symlinkCount++;
+	}
+
+	/**
+	 * Add the entries of another copy to the same destination.
+	 *
+	 * @param plan plan of the other copy
+	 */
+	public void add(CopyPlan plan) {
+		fileCount += plan.fileCount;
+		directoryCount += plan.directoryCount;
+		symlinkCount += plan.symlinkCount;
+		byteCount += plan.byteCount;
+		blockCount += plan.blockCount;
+	}
+
+	/**
+	 * @return number of files to copy
+	 */
+	public long getFileCount() {
+		return fileCount;
+	}
+
+	/**
+	 * @return number of directories to create
+	 */
+	public long getDirectoryCount() {
+		return directoryCount;
+	}
+
+	/**
+	 * @return bytes of the files to copy
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * @return disk space needed by the copy in bytes
+	 */
+	public long getRequiredSpace() {
+		return blockCount * BLOCK_SIZE;
+	}
+
+	/**
+	 * @return inodes needed by the copy
+	 */
+	public long getRequiredInodes() {
+		return fileCount + directoryCount + symlinkCount;
+	}
+
+	/**
+	 * @param bytesPerSecond throughput measured by previous copies, 0 if unknown
+	 * @return estimated duration of the copy in milliseconds, -1 if unknown
+	 */
+	public long estimateMillis(long bytesPerSecond) {
+		if (bytesPerSecond <= 0) {
+			return -1;
+		}
+		return byteCount * 1000 / bytesPerSecond;
+	}
+
+	/**
+	 * Check that the filesystem of targetPath has the space and the inodes for the copy.
+	 *
+	 * @param targetPath the destination of the copy, which may not exist yet
+	 * @param copies number of copies written to the same filesystem
+	 */
+	public void checkCapacity(String targetPath, int copies) {
+		File existing = new File(targetPath).getAbsoluteFile();
+		while (existing != null && !existing.exists()) {
+			existing = existing.getParentFile();
+		}
+		if (existing == null) {
+			return;
+		}
+		long requiredSpace = getRequiredSpace() * copies;
+		long requiredInodes = getRequiredInodes() * copies;
+		try {
+			FileStore store = Files.getFileStore(existing.toPath());
+			long usableSpace = store.getUsableSpace();
+			if (requiredSpace > usableSpace) {
+				throw new LenaException("Not enough space in '" + store + "' for '" + targetPath + "' : " + CopyProgress.formatBytes(requiredSpace)
+						+ " required, " + CopyProgress.formatBytes(usableSpace) + " available");
+			}
+		}
+		catch (IOException e) {
+			LOGGER.debug("Failed to read the space of '" + existing + "'", e);
+		}
+		long freeInodes = getFreeInodes(existing);
+		if (freeInodes >= 0 && requiredInodes > freeInodes) {
+			throw new LenaException("Not enough inodes for '" + targetPath + "' : " + requiredInodes + " required, " + freeInodes + " available");
+		}
+	}
+
+	/**
+	 * Java does not tell the free inodes of a filesystem, they are read from <code>df -Pi</code>.
+	 *
+	 * @param file an existing file of the filesystem
+	 * @return free inodes, -1 if unknown or unlimited
+	 */
+	static long getFreeInodes(File file) {
+		if (File.separatorChar == '\\') {
+			return -1;
+		}
+		Process process = null;
+		BufferedReader reader = null;
+		try {
+			process = new ProcessBuilder("df", "-Pi", file.getPath()).redirectErrorStream(true).start();
+			reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			String header = reader.readLine();
+			String line = reader.readLine();
+			if (process.waitFor() != 0 || header == null || line == null) {
+				return -1;
+			}
+			// Filesystem Inodes IUsed IFree IUse% Mounted on
+			String[] columns = line.trim().split("\\s+");
+			if (columns.length < 4 || "0".equals(columns[1])) {
+				// filesystems allocating inodes dynamically report none
+				return -1;
+			}
+			return Long.parseLong(columns[3]);
+		}
+		catch (IOException e) {
+			LOGGER.debug("Failed to read the inodes of '" + file + "'", e);
+			return -1;
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+		finally {
+			IOUtils.closeQuietly(reader);
+			if (process != null) {
+				process.destroy();
+			}
+		}
+	}
+}
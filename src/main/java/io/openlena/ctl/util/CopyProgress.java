@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress line of a running copy, rewritten on the console every second.
+ * <p>
+ * Only shown on an interactive console with the text result format, so that scripts and json
+ * output are not mixed with it. filecopy.progress=false in installer.info turns it off.
+ */
+public class CopyProgress {
+	private static final long INTERVAL_MILLIS = 1000;
+
+	private final CopyStatistics statistics;
+	private final PrintStream out;
+	private final String label;
+	private ScheduledExecutorService scheduler;
+	private int lineLength;
+
+	/**
+	 * @param statistics statistics of the running copy
+	 * @param out the console
+	 * @param label what is copied
+	 */
+	public CopyProgress(CopyStatistics statistics, PrintStream out, String label) {
+		this.statistics = statistics;
+		this.out = out;
+		this.label = label;
+	}
+
+	/**
+	 * @return true if the progress of copies is shown
+	 */
+	public static boolean isEnabled() {
+		return System.console() != null && "text".equals(EnvUtil.getResultFormat())
+				&& Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.progress", "true"));
+	}
+
+	/**
+	 * Start printing the progress line.
+	 */
+	public void start() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "copy-progress");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				print();
+			}
+		}, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop printing and clear the progress line.
+	 */
+	public void stop() {
+		if (scheduler == null) {
+			return;
+		}
+		scheduler.shutdownNow();
+		try {
+			scheduler.awaitTermination(INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized (this) {
+			if (lineLength > 0) {
+				out.print("\r" + String.format("%" + lineLength + "s", "") + "\r");
+				out.flush();
+			}
+		}
+	}
+
+	private synchronized void print() {
+		String line = "| " + label + " : " + statistics.getFileCount() + " files, " + formatBytes(statistics.getByteCount()) + ", "
+				+ formatBytes(statistics.getThroughput()) + "/s, " + statistics.getElapsedMillis() / 1000 + "s";
+		// pad to erase the end of a longer previous line
+		out.print("\r" + line + (line.length() < lineLength ? String.format("%" + (lineLength - line.length()) + "s", "") : ""));
+		out.flush();
+		lineLength = Math.max(lineLength, line.length());
+	}
+
+	/**
+	 * @param bytes number of bytes
+	 * @return the number in B, KB, MB or GB
+	 */
+	static String formatBytes(long bytes) {
+		if (bytes < CustomFileUtils.ONE_KB) {
+			return bytes + " B";
+		}
+		if (bytes < CustomFileUtils.ONE_MB) {
+			return String.format("%.1f KB", (double) bytes / CustomFileUtils.ONE_KB);
+		}
+		if (bytes < CustomFileUtils.ONE_GB) {
+			return String.format("%.1f MB", (double) bytes / CustomFileUtils.ONE_MB);
+		}
+		return String.format("%.1f GB", (double) bytes / CustomFileUtils.ONE_GB);
+	}
+}
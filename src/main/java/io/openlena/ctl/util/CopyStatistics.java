@@ -0,0 +1,417 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters collected while a directory is copied.
+ * Safe to update from several copy threads at once.
+ * <p>
+ * The same statistics may be passed to several copies, for example the module and the template
+ * of a server, the elapsed time then runs from the creation of the statistics to the end of the
+ * last copy.
+ */
+public class CopyStatistics {
+	/**
+	 * Number of the slowest files that are kept
+	 */
+	public static final int SLOWEST_FILES = 5;
+
+	private final long startTime = System.nanoTime();
+	private volatile long endTime;
+	private final AtomicLong fileCount = new AtomicLong();
+	private final AtomicLong byteCount = new AtomicLong();
+	private final AtomicLong directoryCount = new AtomicLong();
+	private final AtomicLong linkCount = new AtomicLong();
+	private final AtomicLong symlinkCount = new AtomicLong();
+	private final AtomicLong unchangedCount = new AtomicLong();
+	private final AtomicLong deletedCount = new AtomicLong();
+	private final AtomicLong verifiedCount = new AtomicLong();
+	private final AtomicLong bufferedFileCount = new AtomicLong();
+	private final AtomicLong transferredFileCount = new AtomicLong();
+	private final AtomicLong jdkCopiedFileCount = new AtomicLong();
+	private final AtomicLong largeFileCount = new AtomicLong();
+	private final AtomicLong renderedFileCount = new AtomicLong();
+	private final AtomicLong sparseByteCount = new AtomicLong();
+	private final AtomicLong listingTime = new AtomicLong();
+	private final AtomicLong transferTime = new AtomicLong();
+	private final SlowFile[] slowestFiles = new SlowFile[SLOWEST_FILES];
+	// the shortest time of slowestFiles once it is full, checked without the lock
+	private volatile long slowFileThreshold;
+
+	/**
+	 * Record a copied file.
+	 *
+	 * @param bytes size of the copied file
+	 */
+	public void addFile(long bytes) {
+		fileCount.incrementAndGet();
+		byteCount.addAndGet(bytes);
+	}
+
+	/**
+	 * Record a copied directory.
+	 */
+	public void addDirectory() {
+		directoryCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a file hard linked to its source instead of being copied.
+	 */
+	public void addLink() {
+		linkCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a symbolic link copied as a link.
+	 */
+	public void addSymlink() {
+		symlinkCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a file left as it is because the destination is up to date.
+	 */
+	public void addUnchanged() {
+		unchangedCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a destination entry deleted because it does not exist in the source.
+	 */
+	public void addDeleted() {
+		deletedCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a copied file whose digest matched the manifest.
+	 */
+	public void addVerified() {
+		verifiedCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a small file copied with one read into a direct buffer.
+	 */
+	public void addBufferedFile() {
+		bufferedFileCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a file copied with {@link java.nio.channels.FileChannel#transferFrom}.
+	 */
+	public void addTransferredFile() {
+		transferredFileCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a file copied with {@link java.nio.file.Files#copy(java.nio.file.Path, java.nio.file.Path, java.nio.file.CopyOption...)}.
+	 */
+	public void addJdkCopiedFile() {
+		jdkCopiedFileCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a large file copied block by block, leaving its blocks of zeros as holes.
+	 */
+	public void addLargeFile() {
+		largeFileCount.incrementAndGet();
+	}
+
+	/**
+	 * Record a template file rendered while it was copied.
+	 */
+	public void addRenderedFile() {
+		renderedFileCount.incrementAndGet();
+	}
+
+	/**
+	 * Record blocks of zeros left as holes instead of being written.
+	 *
+	 * @param bytes size of the blocks
+	 */
+	public void addSparseBytes(long bytes) {
+		sparseByteCount.addAndGet(bytes);
+	}
+
+	/**
+	 * Record time spent walking the source tree and reading or setting metadata.
+	 *
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void addListingTime(long nanos) {
+		listingTime.addAndGet(nanos);
+	}
+
+	/**
+	 * Record time spent copying or linking the data of a file.
+	 *
+	 * @param path path of the file
+	 * @param bytes size of the file
+	 * @param nanos elapsed time in nanoseconds
+	 */
+	public void addTransferTime(String path, long bytes, long nanos) {
+		transferTime.addAndGet(nanos);
+		if (nanos <= slowFileThreshold) {
+			return;
+		}
+		synchronized (slowestFiles) {
+			int shortest = 0;
+			for (int i = 0; i < slowestFiles.length; i++) {
+				if (slowestFiles[i] == null) {
+					slowestFiles[i] = new SlowFile(path, bytes, nanos);
+					return;
+				}
+				if (slowestFiles[i].nanos < slowestFiles[shortest].nanos) {
+					shortest = i;
+				}
+			}
+			if (nanos > slowestFiles[shortest].nanos) {
+				slowestFiles[shortest] = new SlowFile(path, bytes, nanos);
+			}
+			long threshold = Long.MAX_VALUE;
+			for (SlowFile slowFile : slowestFiles) {
+				threshold = Math.min(threshold, slowFile.nanos);
+			}
+			slowFileThreshold = threshold;
+		}
+	}
+
+	/**
+	 * Record the end of a copy.
+	 */
+	public void finish() {
+		endTime = System.nanoTime();
+	}
+
+	/**
+	 * @return number of copied files
+	 */
+	public long getFileCount() {
+		return fileCount.get();
+	}
+
+	/**
+	 * @return number of copied bytes
+	 */
+	public long getByteCount() {
+		return byteCount.get();
+	}
+
+	/**
+	 * @return number of copied directories
+	 */
+	public long getDirectoryCount() {
+		return directoryCount.get();
+	}
+
+	/**
+	 * @return number of files hard linked to their source
+	 */
+	public long getLinkCount() {
+		return linkCount.get();
+	}
+
+	/**
+	 * @return number of symbolic links copied as links
+	 */
+	public long getSymlinkCount() {
+		return symlinkCount.get();
+	}
+
+	/**
+	 * @return number of files left as they are because the destination was up to date
+	 */
+	public long getUnchangedCount() {
+		return unchangedCount.get();
+	}
+
+	/**
+	 * @return number of destination entries deleted because they did not exist in the source
+	 */
+	public long getDeletedCount() {
+		return deletedCount.get();
+	}
+
+	/**
+	 * @return number of copied files whose digest matched the manifest
+	 */
+	public long getVerifiedCount() {
+		return verifiedCount.get();
+	}
+
+	/**
+	 * @return number of small files copied with one read into a direct buffer
+	 */
+	public long getBufferedFileCount() {
+		return bufferedFileCount.get();
+	}
+
+	/**
+	 * @return number of files copied with FileChannel.transferFrom
+	 */
+	public long getTransferredFileCount() {
+		return transferredFileCount.get();
+	}
+
+	/**
+	 * @return number of files copied with Files.copy
+	 */
+	public long getJdkCopiedFileCount() {
+		return jdkCopiedFileCount.get();
+	}
+
+	/**
+	 * @return number of large files copied block by block
+	 */
+	public long getLargeFileCount() {
+		return largeFileCount.get();
+	}
+
+	/**
+	 * @return number of template files rendered while they were copied
+	 */
+	public long getRenderedFileCount() {
+		return renderedFileCount.get();
+	}
+
+	/**
+	 * @return bytes of zeros left as holes in the copies, included in the copied bytes
+	 */
+	public long getSparseByteCount() {
+		return sparseByteCount.get();
+	}
+
+	/**
+	 * @return milliseconds from the creation of the statistics to the end of the last copy, or
+	 * until now while copying
+	 */
+	public long getElapsedMillis() {
+		long end = endTime == 0 ? System.nanoTime() : endTime;
+		return TimeUnit.NANOSECONDS.toMillis(end - startTime);
+	}
+
+	/**
+	 * @return milliseconds spent walking the source tree and handling metadata, summed over the
+	 * copy threads
+	 */
+	public long getListingMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(listingTime.get());
+	}
+
+	/**
+	 * @return milliseconds spent copying the data of files, summed over the copy threads
+	 */
+	public long getTransferMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(transferTime.get());
+	}
+
+	/**
+	 * @return copied bytes per second over the elapsed time
+	 */
+	public long getThroughput() {
+		return getByteCount() * 1000 / Math.max(getElapsedMillis(), 1);
+	}
+
+	/**
+	 * @return the files whose copy took the longest, slowest first
+	 */
+	public List<SlowFile> getSlowestFiles() {
+		List<SlowFile> files = new ArrayList<SlowFile>(SLOWEST_FILES);
+		synchronized (slowestFiles) {
+			for (SlowFile slowFile : slowestFiles) {
+				if (slowFile != null) {
+					files.add(slowFile);
+				}
+			}
+		}
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * @return the statistics as a JSON object
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{");
+		json.append("\"files\":").append(getFileCount());
+		json.append(",\"bytes\":").append(getByteCount());
+		json.append(",\"directories\":").append(getDirectoryCount());
+		json.append(",\"links\":").append(getLinkCount());
+		json.append(",\"symlinks\":").append(getSymlinkCount());
+		json.append(",\"unchanged\":").append(getUnchangedCount());
+		json.append(",\"deleted\":").append(getDeletedCount());
+		json.append(",\"verified\":").append(getVerifiedCount());
+		json.append(",\"sparseBytes\":").append(getSparseByteCount());
+		json.append(",\"elapsedMillis\":").append(getElapsedMillis());
+		json.append(",\"listingMillis\":").append(getListingMillis());
+		json.append(",\"transferMillis\":").append(getTransferMillis());
+		json.append(",\"bytesPerSecond\":").append(getThroughput());
+		json.append(",\"copyMethods\":{\"buffered\":").append(getBufferedFileCount());
+		json.append(",\"transferred\":").append(getTransferredFileCount());
+		json.append(",\"jdkCopied\":").append(getJdkCopiedFileCount());
+		json.append(",\"large\":").append(getLargeFileCount());
+		json.append(",\"rendered\":").append(getRenderedFileCount()).append("}");
+		json.append(",\"slowestFiles\":[");
+		List<SlowFile> files = getSlowestFiles();
+		for (int i = 0; i < files.size(); i++) {
+			SlowFile slowFile = files.get(i);
+			json.append(i == 0 ? "{" : ",{");
+			json.append("\"path\":\"").append(StringUtil.escapeJson(slowFile.getPath())).append("\"");
+			json.append(",\"bytes\":").append(slowFile.getBytes());
+			json.append(",\"millis\":").append(slowFile.getMillis()).append("}");
+		}
+		json.append("]}");
+		return json.toString();
+	}
+
+	/**
+	 * A file among the slowest to copy.
+	 */
+	public static class SlowFile implements Comparable<SlowFile> {
+		private final String path;
+		private final long bytes;
+		private final long nanos;
+
+		private SlowFile(String path, long bytes, long nanos) {
+			this.path = path;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getMillis() {
+			return TimeUnit.NANOSECONDS.toMillis(nanos);
+		}
+
+		@Override
+		public int compareTo(SlowFile other) {
+			return nanos > other.nanos ? -1 : (nanos == other.nanos ? 0 : 1);
+		}
+	}
+}
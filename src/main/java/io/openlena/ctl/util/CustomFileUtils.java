@@ -21,6 +21,8 @@
 
 package io.openlena.ctl.util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -30,17 +32,46 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileVisitor;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.filefilter.DirectoryFileFilter;
 import org.apache.commons.io.filefilter.FalseFileFilter;
 import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.IOFileFilter;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.apache.commons.io.output.CountingOutputStream;
+
+import io.openlena.ctl.exception.PartialCopyException;
 
 /**
  * General file manipulation utilities.
@@ -80,6 +111,11 @@ public class CustomFileUtils {
 	 */
 	private static final long FILE_COPY_BUFFER_SIZE = ONE_MB * 30;
 
+	/**
+	 * The buffer size of a copy verified against a manifest (64 KB)
+	 */
+	private static final int VERIFY_BUFFER_SIZE = (int) ONE_KB * 64;
+
 	/**
 	 * The number of bytes in a gigabyte.
 	 */
@@ -112,6 +148,49 @@ public class CustomFileUtils {
 
 	private static final boolean USE_NIO = Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.use.nio", "true"));
 
+	/**
+	 * Files up to this size are copied with one read into a reused direct buffer (64 KB by default,
+	 * at least 4 KB)
+	 */
+	private static final int SMALL_FILE_SIZE = Math.max((int) ONE_KB * 4, InstallConfigUtil.getIntProperty("filecopy.small.file.size", (int) ONE_KB * 64));
+
+	/**
+	 * Larger files are copied with {@link Files#copy(Path, Path, java.nio.file.CopyOption...)}, which
+	 * recent JDKs run in the kernel, instead of {@link FileChannel#transferFrom}
+	 */
+	private static final boolean USE_JDK_COPY = Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.use.jdk.copy", "false"));
+
+	/**
+	 * Files from this size are copied block by block, leaving their blocks of zeros as holes (64 MB by default)
+	 */
+	private static final long LARGE_FILE_SIZE = IoRateLimiter.parseSize(InstallConfigUtil.getProperty("filecopy.large.file.size", "64M"));
+
+	/**
+	 * Blocks of zeros of large files are not written, so that holes stay holes in the copy (true by default)
+	 */
+	private static final boolean SPARSE = Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.sparse", "true"));
+
+	private static final int SPARSE_BLOCK_SIZE = (int) (64 * ONE_KB);
+
+	/**
+	 * The buffer size of a copy to several destinations or of a large file (1 MB)
+	 */
+	private static final int COPY_BUFFER_SIZE = (int) ONE_MB;
+
+	private static final ThreadLocal<ByteBuffer> SMALL_FILE_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(SMALL_FILE_SIZE);
+		}
+	};
+
+	private static final ThreadLocal<ByteBuffer> COPY_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+		}
+	};
+
 	// -----------------------------------------------------------------------
 	/**
 	 * Deletes a directory recursively.
@@ -362,9 +441,6 @@ public class CustomFileUtils {
 	 * Will not return true if there is a Symbolic Link anywhere in the path, only if the
 	 * specific file is.
 	 * <p>
-	 * <b>Note:</b> the current implementation always returns {@code false} if the system
-	 * is detected as Windows using {@link FilenameUtils#isSystemWindows()}
-	 *
 	 * @param file the file to check
 	 * @return true if the file is a Symbolic Link
 	 * @throws IOException if an IO error occurs while checking the file
@@ -374,26 +450,18 @@ public class CustomFileUtils {
 		if (file == null) {
 			throw new NullPointerException("File must not be null");
 		}
-		// isWindows 대체
-		// 기존소스는 FileNamesUtils.isWindows
-		if (File.separatorChar == '\\') {
-			return false;
-		}
-		File fileInCanonicalDir = null;
-		if (file.getParent() == null) {
-			fileInCanonicalDir = file;
-		}
-		else {
-			File canonicalDir = file.getParentFile().getCanonicalFile();
-			fileInCanonicalDir = new File(canonicalDir, file.getName());
-		}
+		return isSymlink(file.toPath());
+	}
 
-		if (fileInCanonicalDir.getCanonicalFile().equals(fileInCanonicalDir.getAbsoluteFile())) {
-			return false;
-		}
-		else {
-			return true;
-		}
+	/**
+	 * Determines whether the specified path is a Symbolic Link, see {@link #isSymlink(File)}.
+	 * The link attribute is read without resolving the path, on every platform.
+	 *
+	 * @param path the path to check
+	 * @return true if the path is a Symbolic Link
+	 */
+	public static boolean isSymlink(Path path) {
+		return Files.isSymbolicLink(path);
 	}
 
 	/**
@@ -697,11 +765,98 @@ public class CustomFileUtils {
 	 * @since 1.4
 	 */
 	public static void copyDirectory(File srcDir, File destDir, FileFilter filter, boolean preserveFileDate) throws IOException {
+		CopyOptions options = new CopyOptions();
+		options.setFilter(filter);
+		options.setPreserveFileDate(preserveFileDate);
+		copyDirectory(srcDir, destDir, options);
+	}
+
+	/**
+	 * Copies a filtered directory to a new location using the given options.
+	 * <p>
+	 * The source tree is walked with {@link Files#walkFileTree(Path, FileVisitor)}, so the
+	 * attributes of each entry are read once and reused for the copy, its date and its
+	 * permissions. Symbolic links are not followed by the walk itself, they are handled as told by
+	 * {@link CopyOptions#getLinkPolicy()}: copied as links, skipped, or resolved explicitly so that
+	 * their target is copied in place of the link.
+	 * <p>
+	 * With {@link CopyOptions#isSync()} an existing destination is updated in place: up to
+	 * date files are left as they are and entries missing from the source are deleted.
+	 * <p>
+	 * With {@link CopyOptions#getCheckpoint()} every copied file is forced to the disk and recorded,
+	 * and the files an interrupted copy already completed are skipped when the copy is run again.
+	 * <p>
+	 * When {@link CopyOptions#getThreads()} is greater than 1 every subdirectory is copied
+	 * as a separate task of a {@link ForkJoinPool} with that many workers. The first failure
+	 * stops all workers and is reported as a {@link PartialCopyException} which tells how
+	 * much had been copied until then.
+	 *
+	 * @param srcDir an existing directory to copy, must not be <code>null</code>
+	 * @param destDir the new directory, must not be <code>null</code>
+	 * @param options the copy options, must not be <code>null</code>
+	 * @return statistics of the copy
+	 *
+	 * @throws NullPointerException if source or destination is <code>null</code>
+	 * @throws IOException if source or destination is invalid
+	 * @throws PartialCopyException if an IO error occurs during copying
+	 */
+	public static CopyStatistics copyDirectory(File srcDir, File destDir, CopyOptions options) throws IOException {
+		return copyDirectory(srcDir, destDir, options, new CopyStatistics());
+	}
+
+	/**
+	 * Copies a filtered directory to a new location using the given options, see
+	 * {@link #copyDirectory(File, File, CopyOptions)}.
+	 *
+	 * @param srcDir an existing directory to copy, must not be <code>null</code>
+	 * @param destDir the new directory, must not be <code>null</code>
+	 * @param options the copy options, must not be <code>null</code>
+	 * @param statistics statistics updated while copying, may be read by another thread to show progress
+	 * @return statistics of the copy
+	 *
+	 * @throws NullPointerException if source or destination is <code>null</code>
+	 * @throws IOException if source or destination is invalid
+	 * @throws PartialCopyException if an IO error occurs during copying
+	 */
+	public static CopyStatistics copyDirectory(File srcDir, File destDir, CopyOptions options, CopyStatistics statistics)
+			throws IOException {
+		if (destDir == null) {
+			throw new NullPointerException("Destination must not be null");
+		}
+		return copyDirectory(srcDir, Collections.singletonList(destDir), options, statistics);
+	}
+
+	/**
+	 * Copies a filtered directory to several new locations, walking and reading the source once.
+	 * Every directory is created and every file is written in all destinations from the same
+	 * read, see {@link #copyDirectory(File, File, CopyOptions)}.
+	 * <p>
+	 * The destinations are new copies: {@link CopyOptions#isSync()}, hard links and manifest
+	 * verification are only supported with a single destination. The statistics count the
+	 * files and bytes written to every destination.
+	 *
+	 * @param srcDir an existing directory to copy, must not be <code>null</code>
+	 * @param destDirs the new directories, must not be empty
+	 * @param options the copy options, must not be <code>null</code>
+	 * @param statistics statistics updated while copying, may be read by another thread to show progress
+	 * @return statistics of the copy
+	 *
+	 * @throws NullPointerException if source or a destination is <code>null</code>
+	 * @throws IllegalArgumentException if the options are not supported with several destinations
+	 * @throws IOException if source or destination is invalid
+	 * @throws PartialCopyException if an IO error occurs during copying
+	 */
+	public static CopyStatistics copyDirectory(File srcDir, List<File> destDirs, CopyOptions options, CopyStatistics statistics)
+			throws IOException {
 		if (srcDir == null) {
 			throw new NullPointerException("Source must not be null");
 		}
-		if (destDir == null) {
-			throw new NullPointerException("Destination must not be null");
+		if (destDirs.isEmpty()) {
+			throw new IllegalArgumentException("No destination");
+		}
+		if (destDirs.size() > 1 && (options.isSync() || options.isHardLinkEnabled() || options.getManifest() != null
+				|| options.getCheckpoint() != null)) {
+			throw new IllegalArgumentException("Sync, hard links, verification and checkpoints need a single destination");
 		}
 		if (!srcDir.exists()) {
 			throw new FileNotFoundException("Source '" + srcDir + "' does not exist");
@@ -709,128 +864,1040 @@ public class CustomFileUtils {
 		if (!srcDir.isDirectory()) {
 			throw new IOException("Source '" + srcDir + "' exists but is not a directory");
 		}
-		if (srcDir.getCanonicalPath().equals(destDir.getCanonicalPath())) {
-			throw new IOException("Source '" + srcDir + "' and destination '" + destDir + "' are the same");
+		String srcPath = srcDir.getCanonicalPath();
+		Set<String> nestedDestinations = new HashSet<String>();
+		List<Path> mirrorRoots = new ArrayList<Path>();
+		for (File destDir : destDirs) {
+			if (destDir == null) {
+				throw new NullPointerException("Destination must not be null");
+			}
+			String destPath = destDir.getCanonicalPath();
+			if (srcPath.equals(destPath)) {
+				throw new IOException("Source '" + srcDir + "' and destination '" + destDir + "' are the same");
+			}
+
+			// Cater for destination being directory within the source directory (see IO-141)
+			if (destPath.startsWith(srcPath + File.separator)) {
+				nestedDestinations.add(destPath.substring(srcPath.length() + 1).replace(File.separatorChar, '/'));
+			}
+			if (destDir != destDirs.get(0)) {
+				mirrorRoots.add(destDir.toPath());
+			}
 		}
 
-		// Cater for destination being directory within the source directory (see IO-141)
-		List<String> exclusionList = null;
-		if (destDir.getCanonicalPath().startsWith(srcDir.getCanonicalPath())) {
-			File[] srcFiles = filter == null ? srcDir.listFiles() : srcDir.listFiles(filter);
-			if (srcFiles != null && srcFiles.length > 0) {
-				exclusionList = new ArrayList<String>(srcFiles.length);
-				for (File srcFile : srcFiles) {
-					File copiedFile = new File(destDir, srcFile.getName());
-					exclusionList.add(copiedFile.getCanonicalPath());
+		CopyContext context = new CopyContext(options, nestedDestinations, mirrorRoots, statistics);
+		CopyDirectoryTask task = new CopyDirectoryTask(srcDir.toPath(), destDirs.get(0).toPath(), "", false, null, context);
+		try {
+			if (options.getThreads() > 1) {
+				ForkJoinPool pool = new ForkJoinPool(options.getThreads());
+				try {
+					pool.invoke(task);
 				}
+				finally {
+					pool.shutdown();
+				}
+			}
+			else {
+				task.compute();
 			}
 		}
-		doCopyDirectory(srcDir, destDir, filter, preserveFileDate, exclusionList);
+		finally {
+			statistics.finish();
+			if (options.getCheckpoint() != null) {
+				options.getCheckpoint().flush();
+			}
+		}
+
+		if (context.failedPath != null) {
+			throw new PartialCopyException(context.failedPath, statistics.getFileCount(), statistics.getByteCount(), context.failure);
+		}
+		return context.statistics;
 	}
 
 	/**
-	 * Internal copy directory method.
+	 * Walks a directory the way {@link #copyDirectory(File, File, CopyOptions)} would copy it,
+	 * with the same exclusions, link policy and hard links, and counts what the copy will
+	 * write without reading any file.
 	 *
-	 * @param srcDir the validated source directory, must not be <code>null</code>
-	 * @param destDir the validated destination directory, must not be <code>null</code>
-	 * @param filter the filter to apply, null means copy all directories and files
-	 * @param preserveFileDate whether to preserve the file date
-	 * @param exclusionList List of files and directories to exclude from the copy, may be null
-	 * @throws IOException if an error occurs
-	 * @since 1.1
+	 * @param srcDir an existing directory to copy, must not be <code>null</code>
+	 * @param options the options of the planned copy, must not be <code>null</code>
+	 * @return the entries and the space the copy needs
+	 *
+	 * @throws NullPointerException if source is <code>null</code>
+	 * @throws IOException if source is invalid or cannot be walked
 	 */
-	private static void doCopyDirectory(File srcDir, File destDir, FileFilter filter,
-			boolean preserveFileDate, List<String> exclusionList) throws IOException {
-		// recurse
-		File[] srcFiles = filter == null ? srcDir.listFiles() : srcDir.listFiles(filter);
-		if (srcFiles == null) { // null if abstract pathname does not denote a directory,
-								// or if an I/O
-								// error occurs
-			throw new IOException("Failed to list contents of " + srcDir);
-		}
-		if (destDir.exists()) {
-			if (!destDir.isDirectory()) {
-				throw new IOException("Destination '" + destDir + "' exists but is not a directory");
+	public static CopyPlan planCopy(File srcDir, CopyOptions options) throws IOException {
+		if (srcDir == null) {
+			throw new NullPointerException("Source must not be null");
+		}
+		if (!srcDir.exists()) {
+			throw new FileNotFoundException("Source '" + srcDir + "' does not exist");
+		}
+		if (!srcDir.isDirectory()) {
+			throw new IOException("Source '" + srcDir + "' exists but is not a directory");
+		}
+		CopyContext context = new CopyContext(options, Collections.<String> emptySet(), Collections.<Path> emptyList(), new CopyStatistics());
+		CopyPlan plan = new CopyPlan();
+		planDirectory(srcDir.toPath(), "", false, context, plan);
+		return plan;
+	}
+
+	/**
+	 * Lists the entries a sync of {@link #copyDirectory(File, File, CopyOptions)} would delete from
+	 * an existing destination: the entries missing from the source, which are not excluded or
+	 * rejected by the filter. The contents of a deleted directory are not listed.
+	 *
+	 * @param srcDir an existing directory to copy, must not be <code>null</code>
+	 * @param destDir the destination to synchronize, must not be <code>null</code>
+	 * @param options the options of the sync, must not be <code>null</code>
+	 * @return paths relative to the destination, sorted, empty if the destination does not exist
+	 *
+	 * @throws IOException if source or destination cannot be read
+	 */
+	public static List<String> listExtraneous(File srcDir, File destDir, CopyOptions options) throws IOException {
+		List<String> extraneous = new ArrayList<String>();
+		if (destDir.isDirectory()) {
+			listExtraneous(srcDir.toPath(), destDir.toPath(), "", options, extraneous);
+		}
+		Collections.sort(extraneous);
+		return extraneous;
+	}
+
+	private static void listExtraneous(Path srcDir, Path destDir, String relativeDir, CopyOptions options, List<String> extraneous)
+			throws IOException {
+		FileFilter filter = options.getFilter();
+		PathPatternMatcher excludes = options.getExcludes();
+		DirectoryStream<Path> entries = Files.newDirectoryStream(destDir);
+		try {
+			for (Path entry : entries) {
+				String name = entry.getFileName().toString();
+				String relativePath = relativeDir.length() == 0 ? name : relativeDir + "/" + name;
+				if (excludes != null && excludes.matches(relativePath) || filter != null && !filter.accept(entry.toFile())) {
+					continue;
+				}
+				Path srcEntry = srcDir.resolve(name);
+				if (!Files.exists(srcEntry, LinkOption.NOFOLLOW_LINKS)) {
+					extraneous.add(relativePath);
+				}
+				else if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) && Files.isDirectory(srcEntry)
+						&& (excludes == null || !excludes.matchesContents(relativePath))) {
+					listExtraneous(srcEntry, entry, relativePath, options, extraneous);
+				}
 			}
 		}
-		else {
-			if (!destDir.mkdirs() && !destDir.isDirectory()) {
-				throw new IOException("Destination '" + destDir + "' directory cannot be created");
+		finally {
+			entries.close();
+		}
+	}
+
+	private static void planDirectory(Path srcDir, String relativeDir, boolean followLinks, CopyContext context, CopyPlan plan)
+			throws IOException {
+		Set<FileVisitOption> visitOptions = followLinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+		Files.walkFileTree(srcDir, visitOptions, Integer.MAX_VALUE, new PlanFileVisitor(srcDir, relativeDir, context, plan));
+	}
+
+	/**
+	 * Counts the entries {@link CopyFileVisitor} would copy from a walked tree.
+	 */
+	private static class PlanFileVisitor extends SimpleFileVisitor<Path> {
+		private final Path srcDir;
+		private final String relativeDir;
+		private final CopyContext context;
+		private final CopyPlan plan;
+
+		private PlanFileVisitor(Path srcDir, String relativeDir, CopyContext context, CopyPlan plan) {
+			this.srcDir = srcDir;
+			this.relativeDir = relativeDir;
+			this.context = context;
+			this.plan = plan;
+		}
+
+		private String relativePath(Path file) {
+			String relativePath = srcDir.relativize(file).toString().replace(File.separatorChar, '/');
+			if (relativeDir.length() == 0) {
+				return relativePath;
 			}
+			return relativePath.length() == 0 ? relativeDir : relativeDir + '/' + relativePath;
 		}
-		if (!destDir.canWrite()) {
-			throw new IOException("Destination '" + destDir + "' cannot be written to");
+
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+			String relativePath = relativePath(dir);
+			if (dir.equals(srcDir)) {
+				plan.addDirectory();
+				return FileVisitResult.CONTINUE;
+			}
+			if (context.isExcluded(dir, relativePath)) {
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+			plan.addDirectory();
+			PathPatternMatcher excludes = context.options.getExcludes();
+			if (excludes != null && excludes.matchesContents(relativePath)) {
+				return FileVisitResult.SKIP_SUBTREE;
+			}
+			return FileVisitResult.CONTINUE;
 		}
-		for (File srcFile : srcFiles) {
-			File dstFile = new File(destDir, srcFile.getName());
-			if (exclusionList == null || !exclusionList.contains(srcFile.getCanonicalPath())) {
-				if (srcFile.isDirectory()) {
-					doCopyDirectory(srcFile, dstFile, filter, preserveFileDate, exclusionList);
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+			String relativePath = relativePath(file);
+			if (context.isExcluded(file, relativePath)) {
+				return FileVisitResult.CONTINUE;
+			}
+			if (attrs.isSymbolicLink()) {
+				LinkPolicy linkPolicy = context.options.getLinkPolicy();
+				if (linkPolicy == LinkPolicy.PRESERVE) {
+					plan.addSymlink();
+					return FileVisitResult.CONTINUE;
+				}
+				if (linkPolicy == LinkPolicy.SKIP) {
+					return FileVisitResult.CONTINUE;
+				}
+				attrs = Files.readAttributes(file, BasicFileAttributes.class);
+				if (attrs.isDirectory()) {
+					// the walk of the linked directory counts it
+					planDirectory(file, relativePath, true, context, plan);
+					return FileVisitResult.CONTINUE;
+				}
+			}
+			if (!context.isHardLink(relativePath)) {
+				plan.addFile(attrs.size());
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+			throw e;
+		}
+	}
+
+	/**
+	 * Hard link a file to its source.
+	 * <p>
+	 * The first failure, typically because source and destination are on different
+	 * filesystems, turns hard links off for the rest of the copy.
+	 *
+	 * @param srcFile the validated source file
+	 * @param destFile the validated destination file
+	 * @param merge false if the destination file is known not to exist
+	 * @param context the state shared by all directories of one copy
+	 * @return false if the file has to be copied instead
+	 * @throws IOException if an existing destination file cannot be replaced
+	 */
+	private static boolean doLinkFile(Path srcFile, Path destFile, boolean merge, CopyContext context) throws IOException {
+		if (merge) {
+			Files.deleteIfExists(destFile);
+		}
+		try {
+			Files.createLink(destFile, srcFile);
+			return true;
+		}
+		catch (IOException e) {
+			context.linkFailed = true;
+		}
+		catch (UnsupportedOperationException e) {
+			context.linkFailed = true;
+		}
+		return false;
+	}
+
+	/**
+	 * Determines whether the specified file shares its contents with other hard links.
+	 *
+	 * @param file an existing file
+	 * @return true if the file has more than one hard link
+	 */
+	public static boolean isHardLinked(File file) {
+		try {
+			return isHardLinked(file.toPath());
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Determines whether the specified file shares its contents with other hard links.
+	 *
+	 * @param file a file
+	 * @return true if the file has more than one hard link
+	 * @throws NoSuchFileException if the file does not exist
+	 * @throws IOException if the attributes of the file cannot be read
+	 */
+	private static boolean isHardLinked(Path file) throws IOException {
+		try {
+			return ((Integer) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS)) > 1;
+		}
+		catch (UnsupportedOperationException e) {
+			// not a unix filesystem
+			return false;
+		}
+		catch (IllegalArgumentException e) {
+			// not a unix filesystem
+			return false;
+		}
+	}
+
+	/**
+	 * State shared by all directories of one copy.
+	 */
+	private static class CopyContext {
+		private final CopyOptions options;
+		// destination paths relative to the source directory when they are inside it
+		private final Set<String> nestedDestinations;
+		// destinations written with the same data as the first one
+		private final List<Path> mirrorRoots;
+		private final CopyStatistics statistics;
+		private volatile String failedPath;
+		private Throwable failure;
+		private volatile boolean linkFailed;
+
+		private CopyContext(CopyOptions options, Set<String> nestedDestinations, List<Path> mirrorRoots, CopyStatistics statistics) {
+			this.options = options;
+			this.nestedDestinations = nestedDestinations;
+			this.mirrorRoots = mirrorRoots;
+			this.statistics = statistics;
+		}
+
+		/**
+		 * @param relativePath path of a file relative to the copy root
+		 * @return true if the file should be hard linked to its source
+		 */
+		private boolean isHardLink(String relativePath) {
+			if (linkFailed || !options.isHardLinkEnabled()) {
+				return false;
+			}
+			PathPatternMatcher excludes = options.getHardLinkExcludes();
+			return options.getHardLinkIncludes().matches(relativePath) && (excludes == null || !excludes.matches(relativePath));
+		}
+
+		/**
+		 * @param file a source entry
+		 * @param relativePath path of the entry relative to the copy root
+		 * @return true if the entry is not copied
+		 */
+		private boolean isExcluded(Path file, String relativePath) {
+			if (nestedDestinations.contains(relativePath)) {
+				return true;
+			}
+			PathPatternMatcher excludes = options.getExcludes();
+			if (excludes != null && excludes.matches(relativePath)) {
+				return true;
+			}
+			FileFilter filter = options.getFilter();
+			return filter != null && !filter.accept(file.toFile());
+		}
+
+		/**
+		 * @param relativePath path of an entry relative to the copy root, empty for the root
+		 * @return the entry in every mirrored destination
+		 */
+		private List<Path> mirrors(String relativePath) {
+			List<Path> mirrors = new ArrayList<Path>(mirrorRoots.size());
+			for (Path mirrorRoot : mirrorRoots) {
+				mirrors.add(relativePath.length() == 0 ? mirrorRoot : mirrorRoot.resolve(relativePath));
+			}
+			return mirrors;
+		}
+
+		private boolean isFailed() {
+			return failedPath != null;
+		}
+
+		/**
+		 * Record the first failure, later ones are caused by the stop and are ignored.
+		 */
+		private synchronized void fail(Path file, Throwable e) {
+			if (failedPath == null) {
+				failure = e;
+				failedPath = file.toString();
+			}
+		}
+	}
+
+	/**
+	 * Copies one directory tree.
+	 * <p>
+	 * Run directly it copies the whole tree on the current thread. Run in a
+	 * {@link ForkJoinPool} it forks a task for each subdirectory instead of descending.
+	 */
+	private static class CopyDirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final Path srcDir;
+		private final Path destDir;
+		private final String relativeDir;
+		private final boolean followLinks;
+		private final Boolean merge;
+		private final transient CopyContext context;
+
+		/**
+		 * @param srcDir the validated source directory
+		 * @param destDir the destination directory
+		 * @param relativeDir path of srcDir relative to the copy root, empty for the root
+		 * @param followLinks true if srcDir is reached through a symbolic link
+		 * @param merge whether destDir existed before the copy, <code>null</code> if destDir is not created yet
+		 * @param context the state shared by all directories of one copy
+		 */
+		private CopyDirectoryTask(Path srcDir, Path destDir, String relativeDir, boolean followLinks, Boolean merge,
+				CopyContext context) {
+			this.srcDir = srcDir;
+			this.destDir = destDir;
+			this.relativeDir = relativeDir;
+			this.followLinks = followLinks;
+			this.merge = merge;
+			this.context = context;
+		}
+
+		@Override
+		protected void compute() {
+			if (context.isFailed()) {
+				return;
+			}
+			List<CopyDirectoryTask> subdirectories = inForkJoinPool() ? new ArrayList<CopyDirectoryTask>() : null;
+			CopyFileVisitor visitor = new CopyFileVisitor(this, subdirectories);
+			Set<FileVisitOption> visitOptions = followLinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : EnumSet.noneOf(FileVisitOption.class);
+			long start = System.nanoTime();
+			try {
+				Files.walkFileTree(srcDir, visitOptions, Integer.MAX_VALUE, visitor);
+			}
+			catch (IOException e) {
+				context.fail(srcDir, e);
+			}
+			// everything but the transfers of this walk is listing and metadata
+			context.statistics.addListingTime(System.nanoTime() - start - visitor.transferTime - visitor.nestedTime);
+			if (subdirectories != null) {
+				invokeAll(subdirectories);
+			}
+		}
+	}
+
+	/**
+	 * Copies the entries of a walked tree.
+	 * <p>
+	 * Errors are recorded in the context instead of being thrown, so that every worker of a
+	 * parallel copy stops at its next entry.
+	 */
+	private static class CopyFileVisitor implements FileVisitor<Path> {
+		private final CopyDirectoryTask task;
+		private final CopyContext context;
+		private final LinkOption[] linkOptions;
+		private final List<CopyDirectoryTask> subdirectories;
+		private final Deque<CopiedDirectory> directories = new ArrayDeque<CopiedDirectory>();
+		// time spent in file transfers and in linked directories copied on the current thread
+		private long transferTime;
+		private long nestedTime;
+
+		/**
+		 * @param task the task walking the tree
+		 * @param subdirectories collects subdirectories to copy as separate tasks, <code>null</code>
+		 * means subdirectories are walked on the current thread
+		 */
+		private CopyFileVisitor(CopyDirectoryTask task, List<CopyDirectoryTask> subdirectories) {
+			this.task = task;
+			this.context = task.context;
+			this.linkOptions = task.followLinks ? new LinkOption[0] : new LinkOption[] { LinkOption.NOFOLLOW_LINKS };
+			this.subdirectories = subdirectories;
+		}
+
+		@Override
+		public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+			if (context.isFailed()) {
+				return FileVisitResult.TERMINATE;
+			}
+			try {
+				CopyOptions options = context.options;
+				CopiedDirectory parent = directories.peek();
+				if (parent == null) {
+					boolean merge = task.merge == null ? createDirectory(task.destDir, options.isSync()) : task.merge;
+					if (task.merge == null) {
+						createMirrorDirectories(task.relativeDir);
+					}
+					directories.push(new CopiedDirectory(task.destDir, task.relativeDir, merge, readAttributes(dir, attrs, options, linkOptions), options));
+					context.statistics.addDirectory();
+					return FileVisitResult.CONTINUE;
+				}
+				parent.addName(dir);
+				String relativeDir = parent.relativePath(dir);
+				if (context.isExcluded(dir, relativeDir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				Path destDir = parent.destDir.resolve(dir.getFileName().toString());
+				if (options.getRateLimiter() != null) {
+					options.getRateLimiter().acquireOperation();
+				}
+				boolean merge = createDirectory(destDir, options.isSync());
+				createMirrorDirectories(relativeDir);
+				if (options.getExcludes() != null && options.getExcludes().matchesContents(relativeDir)) {
+					// keep the directory, but never descend into excluded contents
+					attrs = readAttributes(dir, attrs, options, linkOptions);
+					copyAttributes(attrs, destDir, options);
+					for (Path mirror : context.mirrors(relativeDir)) {
+						copyAttributes(attrs, mirror, options);
+					}
+					context.statistics.addDirectory();
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				if (subdirectories != null) {
+					// created here, so that it exists before its parent gets its date
+					subdirectories.add(new CopyDirectoryTask(dir, destDir, relativeDir, task.followLinks, merge, context));
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				directories.push(new CopiedDirectory(destDir, relativeDir, merge, readAttributes(dir, attrs, options, linkOptions), options));
+				context.statistics.addDirectory();
+				return FileVisitResult.CONTINUE;
+			}
+			catch (IOException e) {
+				context.fail(dir, e);
+				return FileVisitResult.TERMINATE;
+			}
+		}
+
+		@Override
+		public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+			if (context.isFailed()) {
+				return FileVisitResult.TERMINATE;
+			}
+			try {
+				CopyOptions options = context.options;
+				CopiedDirectory parent = directories.peek();
+				parent.addName(file);
+				String relativePath = parent.relativePath(file);
+				if (context.isExcluded(file, relativePath)) {
+					return FileVisitResult.CONTINUE;
+				}
+				Path destFile = parent.destDir.resolve(file.getFileName().toString());
+				if (attrs.isSymbolicLink() && options.getLinkPolicy() == LinkPolicy.SKIP) {
+					return FileVisitResult.CONTINUE;
+				}
+				if (attrs.isSymbolicLink() && options.getLinkPolicy() == LinkPolicy.PRESERVE) {
+					long start = System.nanoTime();
+					copySymlink(file, destFile, parent.merge, relativePath);
+					addTransferTime(relativePath, 0, start);
+					return FileVisitResult.CONTINUE;
+				}
+				if (attrs.isSymbolicLink()) {
+					// links are copied as their target
+					attrs = Files.readAttributes(file, BasicFileAttributes.class);
+					if (attrs.isDirectory()) {
+						boolean merge = createDirectory(destFile, options.isSync());
+						createMirrorDirectories(relativePath);
+						CopyDirectoryTask linkedDir = new CopyDirectoryTask(file, destFile, relativePath, true, merge, context);
+						if (subdirectories != null) {
+							subdirectories.add(linkedDir);
+						}
+						else {
+							long start = System.nanoTime();
+							linkedDir.compute();
+							nestedTime += System.nanoTime() - start;
+						}
+						return FileVisitResult.CONTINUE;
+					}
+					attrs = readAttributes(file, attrs, options);
 				}
 				else {
-					doCopyFile(srcFile, dstFile, preserveFileDate);
+					attrs = readAttributes(file, attrs, options, linkOptions);
+				}
+				BasicFileAttributes destAttrs = parent.merge ? readDestinationAttributes(destFile, options) : null;
+				if (destAttrs != null && options.isSync() && (destAttrs.isDirectory() || destAttrs.isSymbolicLink())) {
+					deleteEntry(destFile, destAttrs);
+					destAttrs = null;
+				}
+				boolean template = TemplateRenderer.isTemplate(relativePath, options);
+				if (!template && context.isHardLink(relativePath)) {
+					if (destAttrs != null && options.isSync() && attrs.fileKey() != null && attrs.fileKey().equals(destAttrs.fileKey())) {
+						context.statistics.addUnchanged();
+						return FileVisitResult.CONTINUE;
+					}
+					long start = System.nanoTime();
+					boolean linked = doLinkFile(file, destFile, destAttrs != null, context);
+					addTransferTime(relativePath, 0, start);
+					if (linked) {
+						context.statistics.addLink();
+						return FileVisitResult.CONTINUE;
+					}
+					destAttrs = null;
 				}
+				else if (destAttrs != null && options.isSync() && isUpToDate(file, attrs, destFile, destAttrs, options)) {
+					updateAttributes(attrs, destFile, destAttrs, options);
+					context.statistics.addUnchanged();
+					return FileVisitResult.CONTINUE;
+				}
+				CopyCheckpoint checkpoint = options.getCheckpoint();
+				if (checkpoint != null && destAttrs != null && destAttrs.isRegularFile() && destAttrs.size() == attrs.size()
+						&& checkpoint.isCompleted(relativePath, attrs.size(), attrs.lastModifiedTime().toMillis())) {
+					// copied before the previous copy was interrupted
+					context.statistics.addUnchanged();
+					return FileVisitResult.CONTINUE;
+				}
+				String expectedDigest = options.getManifest() == null ? null : options.getManifest().getDigest(relativePath);
+				long start = System.nanoTime();
+				if (template) {
+					List<Path> destFiles = context.mirrorRoots.isEmpty() ? new ArrayList<Path>() : context.mirrors(relativePath);
+					destFiles.add(0, destFile);
+					long bytes = 0;
+					for (int i = 0; i < destFiles.size(); i++) {
+						long size = doRenderFile(file, attrs, destFiles.get(i), i == 0 ? destAttrs : null, relativePath, options,
+								i == 0 ? expectedDigest : null);
+						context.statistics.addFile(size);
+						context.statistics.addRenderedFile();
+						bytes += size;
+					}
+					addTransferTime(relativePath, bytes, start);
+					if (expectedDigest != null) {
+						context.statistics.addVerified();
+					}
+					return FileVisitResult.CONTINUE;
+				}
+				if (!context.mirrorRoots.isEmpty()) {
+					List<Path> destFiles = context.mirrors(relativePath);
+					destFiles.add(0, destFile);
+					long size = doCopyFile(file, attrs, destFiles, options);
+					addTransferTime(relativePath, size * destFiles.size(), start);
+					for (int i = 0; i < destFiles.size(); i++) {
+						context.statistics.addFile(size);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+				long size = doCopyFile(file, attrs, destFile, destAttrs, options, expectedDigest, context.statistics);
+				addTransferTime(relativePath, size, start);
+				context.statistics.addFile(size);
+				if (expectedDigest != null) {
+					context.statistics.addVerified();
+				}
+				if (checkpoint != null) {
+					// a file is recorded only once it is on the disk, so a crash cannot lose a recorded file
+					force(destFile);
+					checkpoint.add(relativePath, attrs.size(), attrs.lastModifiedTime().toMillis());
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			catch (IOException e) {
+				context.fail(file, e);
+				return FileVisitResult.TERMINATE;
+			}
+		}
+
+		/**
+		 * Copy a symbolic link as a link with the same target, in every destination.
+		 */
+		private void copySymlink(Path link, Path destFile, boolean merge, String relativePath) throws IOException {
+			CopyOptions options = context.options;
+			Path target = Files.readSymbolicLink(link);
+			BasicFileAttributes destAttrs = merge ? readDestinationAttributes(destFile, options) : null;
+			if (destAttrs != null) {
+				if (destAttrs.isSymbolicLink() && target.equals(Files.readSymbolicLink(destFile))) {
+					context.statistics.addUnchanged();
+					return;
+				}
+				if (destAttrs.isDirectory() && !options.isSync()) {
+					throw new IOException("Destination '" + destFile + "' exists but is a directory");
+				}
+				deleteEntry(destFile, destAttrs);
+			}
+			List<Path> destFiles = context.mirrors(relativePath);
+			destFiles.add(0, destFile);
+			for (Path dest : destFiles) {
+				if (options.getRateLimiter() != null) {
+					options.getRateLimiter().acquireOperation();
+				}
+				Files.createSymbolicLink(dest, target);
+				context.statistics.addSymlink();
+			}
+		}
+
+		private void createMirrorDirectories(String relativePath) throws IOException {
+			for (Path mirror : context.mirrors(relativePath)) {
+				createDirectory(mirror, false);
 			}
 		}
 
-		// Do this last, as the above has probably affected directory metadata
-		if (preserveFileDate) {
-			boolean result = destDir.setLastModified(srcDir.lastModified());
-			if (result == false) {
-				throw new IOException("Failed to set modified time of " + destDir.getName());
+		private void addTransferTime(String relativePath, long bytes, long start) {
+			long nanos = System.nanoTime() - start;
+			transferTime += nanos;
+			context.statistics.addTransferTime(relativePath, bytes, nanos);
+		}
+
+		@Override
+		public FileVisitResult visitFileFailed(Path file, IOException exc) {
+			context.fail(file, exc);
+			return FileVisitResult.TERMINATE;
+		}
+
+		@Override
+		public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+			CopiedDirectory directory = directories.pop();
+			if (exc != null) {
+				context.fail(dir, exc);
+				return FileVisitResult.TERMINATE;
+			}
+			if (context.isFailed()) {
+				return FileVisitResult.TERMINATE;
+			}
+			try {
+				if (directory.names != null) {
+					deleteExtraneous(directory, context);
+				}
+				// Do this last, as copying the children has probably affected directory metadata
+				copyAttributes(directory.attrs, directory.destDir, context.options);
+				for (Path mirror : context.mirrors(directory.relativeDir)) {
+					copyAttributes(directory.attrs, mirror, context.options);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+			catch (IOException e) {
+				context.fail(dir, e);
+				return FileVisitResult.TERMINATE;
 			}
 		}
 	}
 
+	/**
+	 * A destination directory being filled by a {@link CopyFileVisitor}.
+	 */
+	private static class CopiedDirectory {
+		private final Path destDir;
+		private final String relativeDir;
+		// false for a directory created by this copy, its entries cannot exist yet
+		private final boolean merge;
+		private final BasicFileAttributes attrs;
+		// names of the source entries, kept when a sync has to delete the others
+		private final Set<String> names;
+
+		private CopiedDirectory(Path destDir, String relativeDir, boolean merge, BasicFileAttributes attrs, CopyOptions options) {
+			this.destDir = destDir;
+			this.relativeDir = relativeDir;
+			this.merge = merge;
+			this.attrs = attrs;
+			this.names = merge && options.isSync() ? new HashSet<String>() : null;
+		}
+
+		/**
+		 * @param file an entry of the source directory, copied or not
+		 */
+		private void addName(Path file) {
+			if (names != null) {
+				names.add(file.getFileName().toString());
+			}
+		}
+
+		/**
+		 * @param file an entry of the source directory
+		 * @return path of the entry relative to the copy root
+		 */
+		private String relativePath(Path file) {
+			String name = file.getFileName().toString();
+			return relativeDir.length() == 0 ? name : relativeDir + "/" + name;
+		}
+	}
+
+	/**
+	 * Create a destination directory.
+	 *
+	 * @param destDir the destination directory
+	 * @param replace true if an existing file is replaced by the directory
+	 * @return true if the directory already existed
+	 * @throws IOException if the directory cannot be created
+	 */
+	private static boolean createDirectory(Path destDir, boolean replace) throws IOException {
+		try {
+			Files.createDirectory(destDir);
+			return false;
+		}
+		catch (NoSuchFileException e) {
+			Files.createDirectories(destDir);
+			return false;
+		}
+		catch (FileAlreadyExistsException e) {
+			if (Files.isDirectory(destDir)) {
+				return true;
+			}
+			if (!replace) {
+				throw new IOException("Destination '" + destDir + "' exists but is not a directory");
+			}
+			Files.delete(destDir);
+			Files.createDirectory(destDir);
+			return false;
+		}
+	}
+
+	/**
+	 * Read the attributes of a destination file which may already exist.
+	 *
+	 * @param destFile the destination file
+	 * @param options the copy options
+	 * @return attributes of the destination file, <code>null</code> if it does not exist
+	 * @throws IOException if the attributes cannot be read
+	 */
+	private static BasicFileAttributes readDestinationAttributes(Path destFile, CopyOptions options) throws IOException {
+		try {
+			if (options.isSync() && options.isPreservePermissions()) {
+				try {
+					return Files.readAttributes(destFile, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+				}
+				catch (UnsupportedOperationException e) {
+					// not a posix filesystem
+				}
+			}
+			return Files.readAttributes(destFile, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+		}
+		catch (NoSuchFileException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Determines whether a sync can leave a destination file as it is.
+	 *
+	 * @param srcFile the source file
+	 * @param attrs the attributes of the source file
+	 * @param destFile the existing destination file
+	 * @param destAttrs the attributes of the destination file
+	 * @param options the copy options
+	 * @return true if the destination file has the same size and modification time, or the
+	 * same contents when checksums are compared
+	 * @throws IOException if the files cannot be read
+	 */
+	private static boolean isUpToDate(Path srcFile, BasicFileAttributes attrs, Path destFile, BasicFileAttributes destAttrs,
+			CopyOptions options) throws IOException {
+		if (!destAttrs.isRegularFile() || attrs.size() != destAttrs.size()) {
+			return false;
+		}
+		if (options.isChecksum()) {
+			return contentEquals(srcFile, destFile);
+		}
+		return attrs.lastModifiedTime().toMillis() == destAttrs.lastModifiedTime().toMillis();
+	}
+
+	/**
+	 * Compare the contents of two files.
+	 *
+	 * @param file1 the first file
+	 * @param file2 the second file
+	 * @return true if the contents of the files are equal
+	 * @throws IOException if the files cannot be read
+	 */
+	private static boolean contentEquals(Path file1, Path file2) throws IOException {
+		InputStream input1 = null;
+		InputStream input2 = null;
+		try {
+			input1 = new BufferedInputStream(Files.newInputStream(file1));
+			input2 = new BufferedInputStream(Files.newInputStream(file2));
+			return IOUtils.contentEquals(input1, input2);
+		}
+		finally {
+			IOUtils.closeQuietly(input1);
+			IOUtils.closeQuietly(input2);
+		}
+	}
+
+	/**
+	 * Copy the permissions and date of a source file to an up to date destination file where they differ.
+	 *
+	 * @param attrs the attributes of the source file
+	 * @param destFile the destination file
+	 * @param destAttrs the attributes of the destination file
+	 * @param options the copy options
+	 * @throws IOException if an attribute cannot be set
+	 */
+	private static void updateAttributes(BasicFileAttributes attrs, Path destFile, BasicFileAttributes destAttrs, CopyOptions options)
+			throws IOException {
+		if (options.isPreservePermissions() && attrs instanceof PosixFileAttributes && destAttrs instanceof PosixFileAttributes) {
+			Set<PosixFilePermission> permissions = ((PosixFileAttributes) attrs).permissions();
+			if (!permissions.equals(((PosixFileAttributes) destAttrs).permissions())) {
+				Files.setPosixFilePermissions(destFile, permissions);
+			}
+		}
+		if (attrs.lastModifiedTime().toMillis() != destAttrs.lastModifiedTime().toMillis()) {
+			Files.setLastModifiedTime(destFile, attrs.lastModifiedTime());
+		}
+	}
+
+	/**
+	 * Delete the entries of a destination directory which do not exist in the source directory.
+	 * Entries rejected by the filter or excluded are kept.
+	 *
+	 * @param directory the destination directory and the names of the source entries
+	 * @param context the state shared by all directories of one copy
+	 * @throws IOException if an entry cannot be deleted
+	 */
+	private static void deleteExtraneous(CopiedDirectory directory, CopyContext context) throws IOException {
+		FileFilter filter = context.options.getFilter();
+		PathPatternMatcher excludes = context.options.getExcludes();
+		DirectoryStream<Path> entries = Files.newDirectoryStream(directory.destDir);
+		try {
+			for (Path entry : entries) {
+				if (directory.names.contains(entry.getFileName().toString())
+						|| excludes != null && excludes.matches(directory.relativePath(entry))
+						|| filter != null && !filter.accept(entry.toFile())) {
+					continue;
+				}
+				deleteEntry(entry, Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS));
+				context.statistics.addDeleted();
+			}
+		}
+		finally {
+			entries.close();
+		}
+	}
+
+	/**
+	 * Delete a destination entry, a directory is deleted with its contents.
+	 *
+	 * @param entry the destination entry
+	 * @param attrs the attributes of the entry, links not followed
+	 * @throws IOException if the entry cannot be deleted
+	 */
+	private static void deleteEntry(Path entry, BasicFileAttributes attrs) throws IOException {
+		if (attrs.isDirectory()) {
+			deleteDirectory(entry.toFile());
+		}
+		else {
+			Files.delete(entry);
+		}
+	}
+
+	/**
+	 * Complete the attributes read by the walk with the POSIX attributes needed by the options.
+	 *
+	 * @param file the source entry
+	 * @param attrs the attributes read by the walk
+	 * @param options the copy options
+	 * @param linkOptions options indicating how symbolic links are handled
+	 * @return attributes to copy to the destination
+	 * @throws IOException if the attributes cannot be read
+	 */
+	private static BasicFileAttributes readAttributes(Path file, BasicFileAttributes attrs, CopyOptions options,
+			LinkOption... linkOptions) throws IOException {
+		if (!options.isPreservePermissions() && !options.isPreserveOwner() || attrs instanceof PosixFileAttributes) {
+			return attrs;
+		}
+		try {
+			return Files.readAttributes(file, PosixFileAttributes.class, linkOptions);
+		}
+		catch (UnsupportedOperationException e) {
+			// not a posix filesystem, there is nothing more to copy
+			return attrs;
+		}
+	}
+
+	/**
+	 * Copy the date, permissions and owner of a source entry, as selected by the options.
+	 *
+	 * @param attrs the attributes of the source entry
+	 * @param dest the copied entry
+	 * @param options the copy options
+	 * @throws IOException if an attribute cannot be set
+	 */
+	private static void copyAttributes(BasicFileAttributes attrs, Path dest, CopyOptions options) throws IOException {
+		if (attrs instanceof PosixFileAttributes) {
+			PosixFileAttributes posixAttrs = (PosixFileAttributes) attrs;
+			if (options.isPreserveOwner()) {
+				// before the permissions, changing the owner clears the setuid and setgid bits
+				PosixFileAttributeView view = Files.getFileAttributeView(dest, PosixFileAttributeView.class);
+				view.setOwner(posixAttrs.owner());
+				view.setGroup(posixAttrs.group());
+			}
+			if (options.isPreservePermissions()) {
+				Files.setPosixFilePermissions(dest, posixAttrs.permissions());
+			}
+		}
+		if (options.isPreserveFileDate()) {
+			Files.setLastModifiedTime(dest, attrs.lastModifiedTime());
+		}
+	}
+
 	/**
 	 * Internal copy file method.
 	 *
 	 * @param srcFile the validated source file, must not be <code>null</code>
-	 * @param destFile the validated destination file, must not be <code>null</code>
-	 * @param preserveFileDate whether to preserve the file date
+	 * @param attrs the attributes of the source file
+	 * @param destFile the destination file, must not be <code>null</code>
+	 * @param destAttrs the attributes of the destination file, <code>null</code> if it does not exist
+	 * @param options the copy options
+	 * @param expectedDigest digest of the source in the manifest, <code>null</code> if it is not verified
+	 * @param statistics statistics recording the copy strategy
+	 * @return number of copied bytes
 	 * @throws IOException if an error occurs
 	 */
-	private static void doCopyFile(File srcFile, File destFile, boolean preserveFileDate)
-			throws IOException {
-		if (destFile.exists() && destFile.isDirectory()) {
-			throw new IOException("Destination '" + destFile + "' exists but is a directory");
+	private static long doCopyFile(Path srcFile, BasicFileAttributes attrs, Path destFile, BasicFileAttributes destAttrs,
+			CopyOptions options, String expectedDigest, CopyStatistics statistics) throws IOException {
+		if (destAttrs != null) {
+			if (destAttrs.isDirectory()) {
+				throw new IOException("Destination '" + destFile + "' exists but is a directory");
+			}
+			if (isHardLinked(destFile)) {
+				// never write through a link shared with another file
+				Files.delete(destFile);
+			}
 		}
 
-		if (USE_NIO) {
-			FileInputStream fis = null;
-			FileOutputStream fos = null;
+		long size = attrs.size();
+		long pos = 0;
+		IoRateLimiter limiter = options.getRateLimiter();
+		if (limiter != null) {
+			limiter.acquireOperation();
+		}
+		if (expectedDigest != null) {
+			pos = doCopyVerifiedFile(srcFile, destFile, options.getManifest().newDigest(), expectedDigest, limiter);
+		}
+		else if (USE_NIO && size <= SMALL_FILE_SIZE) {
+			if (limiter != null) {
+				limiter.acquireBytes(size);
+			}
+			pos = doCopySmallFile(srcFile, destFile, size);
+			statistics.addBufferedFile();
+		}
+		else if (USE_NIO && size >= LARGE_FILE_SIZE) {
+			pos = doCopyLargeFile(srcFile, destFile, size, limiter, statistics);
+			statistics.addLargeFile();
+		}
+		else if (USE_NIO && USE_JDK_COPY && limiter == null) {
+			Files.copy(srcFile, destFile, StandardCopyOption.REPLACE_EXISTING);
+			pos = Files.size(destFile);
+			statistics.addJdkCopiedFile();
+		}
+		else if (USE_NIO) {
+			statistics.addTransferredFile();
 			FileChannel input = null;
 			FileChannel output = null;
 			try {
-				fis = new FileInputStream(srcFile);
-				fos = new FileOutputStream(destFile);
-				input = fis.getChannel();
-				output = fos.getChannel();
-				long size = input.size();
-				long pos = 0;
-				long count = 0;
+				input = FileChannel.open(srcFile, StandardOpenOption.READ);
+				output = FileChannel.open(destFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
 				while (pos < size) {
-					count = size - pos > FILE_COPY_BUFFER_SIZE ? FILE_COPY_BUFFER_SIZE : size - pos;
-					pos += output.transferFrom(input, pos, count);
+					long chunkSize = limiter == null ? FILE_COPY_BUFFER_SIZE : limiter.getChunkSize(FILE_COPY_BUFFER_SIZE);
+					long count = size - pos > chunkSize ? chunkSize : size - pos;
+					if (limiter != null) {
+						limiter.acquireBytes(count);
+					}
+					long copied = output.transferFrom(input, pos, count);
+					if (copied <= 0) {
+						// the source file was truncated
+						break;
+					}
+					pos += copied;
 				}
 			}
 			finally {
 				IOUtils.closeQuietly(output);
-				IOUtils.closeQuietly(fos);
 				IOUtils.closeQuietly(input);
-				IOUtils.closeQuietly(fis);
 			}
 		}
 		else {
 			InputStream is = null;
 			OutputStream os = null;
 			try {
-				is = new FileInputStream(srcFile);
-				os = new FileOutputStream(destFile);
+				is = Files.newInputStream(srcFile);
+				os = Files.newOutputStream(destFile);
 				byte[] buffer = new byte[1024];
 				int length;
 				while ((length = is.read(buffer)) > 0) {
+					if (limiter != null) {
+						limiter.acquireBytes(length);
+					}
 					os.write(buffer, 0, length);
+					pos += length;
 				}
 			}
 			finally {
@@ -853,15 +1920,327 @@ public class CustomFileUtils {
 			}
 		}
 
-		if (srcFile.length() != destFile.length()) {
+		if (pos != size) {
 			throw new IOException("Failed to copy full contents from '" + srcFile + "' to '" + destFile + "'");
 		}
-		if (preserveFileDate) {
-			boolean result = destFile.setLastModified(srcFile.lastModified());
-			if (result == false) {
-				throw new IOException("Failed to set modified time of " + destFile.getName());
+		copyAttributes(attrs, destFile, options);
+		return size;
+	}
+
+	/**
+	 * Render a template file to its destination, see {@link TemplateRenderer}.
+	 *
+	 * @param srcFile the validated source file
+	 * @param attrs the attributes of the source file
+	 * @param destFile the destination file, must not be <code>null</code>
+	 * @param destAttrs the attributes of the destination file, <code>null</code> if it does not exist
+	 * @param relativePath path of the file relative to the copy root
+	 * @param options the copy options
+	 * @param expectedDigest digest of the source in the manifest, <code>null</code> if it is not verified
+	 * @return number of written bytes
+	 * @throws IOException if an error occurs
+	 */
+	private static long doRenderFile(Path srcFile, BasicFileAttributes attrs, Path destFile, BasicFileAttributes destAttrs,
+			String relativePath, CopyOptions options, String expectedDigest) throws IOException {
+		if (destAttrs != null) {
+			if (destAttrs.isDirectory()) {
+				throw new IOException("Destination '" + destFile + "' exists but is a directory");
+			}
+			if (isHardLinked(destFile)) {
+				// never write through a link shared with another file
+				Files.delete(destFile);
+			}
+		}
+		IoRateLimiter limiter = options.getRateLimiter();
+		if (limiter != null) {
+			limiter.acquireOperation();
+			limiter.acquireBytes(attrs.size());
+		}
+
+		ChecksumManifest.StreamDigest digest = expectedDigest == null ? null : options.getManifest().newDigest();
+		InputStream input = null;
+		CountingOutputStream output = null;
+		try {
+			input = Files.newInputStream(srcFile);
+			output = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(destFile), TextReplacer.CHUNK_SIZE));
+			TemplateRenderer.render(digest == null ? input : new ArchiveExtractor.DigestInputStream(input, digest), output, relativePath, options);
+			output.close();
+		}
+		finally {
+			IOUtils.closeQuietly(output);
+			IOUtils.closeQuietly(input);
+		}
+
+		if (digest != null && !digest.toHex().equals(expectedDigest)) {
+			Files.deleteIfExists(destFile);
+			throw new IOException("Checksum mismatch of '" + srcFile + "' : expected " + expectedDigest + " but was " + digest.toHex());
+		}
+		copyAttributes(attrs, destFile, options);
+		return output.getByteCount();
+	}
+
+	/**
+	 * Copy a file to several new destinations, each chunk read from the source is written to
+	 * all of them.
+	 *
+	 * @param srcFile the validated source file
+	 * @param attrs the attributes of the source file
+	 * @param destFiles the destination files, which do not exist
+	 * @param options the copy options
+	 * @return number of bytes copied to each destination
+	 * @throws IOException if an error occurs
+	 */
+	private static long doCopyFile(Path srcFile, BasicFileAttributes attrs, List<Path> destFiles, CopyOptions options)
+			throws IOException {
+		long size = attrs.size();
+		long pos = 0;
+		IoRateLimiter limiter = options.getRateLimiter();
+		FileChannel input = null;
+		FileChannel[] outputs = new FileChannel[destFiles.size()];
+		try {
+			input = FileChannel.open(srcFile, StandardOpenOption.READ);
+			for (int i = 0; i < outputs.length; i++) {
+				if (limiter != null) {
+					limiter.acquireOperation();
+				}
+				outputs[i] = FileChannel.open(destFiles.get(i), StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+			}
+			ByteBuffer buffer = COPY_BUFFER.get();
+			// every byte read is written once per destination
+			long chunkSize = limiter == null ? buffer.capacity() : Math.max(1, limiter.getChunkSize(buffer.capacity()) / outputs.length);
+			while (pos < size) {
+				buffer.clear();
+				buffer.limit((int) Math.min(chunkSize, size - pos));
+				int length = input.read(buffer);
+				if (length <= 0) {
+					// the source file was truncated
+					break;
+				}
+				if (limiter != null) {
+					limiter.acquireBytes((long) length * outputs.length);
+				}
+				for (FileChannel output : outputs) {
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						output.write(buffer);
+					}
+				}
+				pos += length;
+			}
+		}
+		finally {
+			for (FileChannel output : outputs) {
+				IOUtils.closeQuietly(output);
+			}
+			IOUtils.closeQuietly(input);
+		}
+
+		if (pos != size) {
+			throw new IOException("Failed to copy full contents from '" + srcFile + "' to '" + destFiles + "'");
+		}
+		for (Path destFile : destFiles) {
+			copyAttributes(attrs, destFile, options);
+		}
+		return size;
+	}
+
+	/**
+	 * Copy a large file through the copy buffer of the thread, written with positional writes.
+	 * <p>
+	 * Java has no SEEK_DATA, so holes are found by their contents: with filecopy.sparse, blocks of
+	 * {@value #SPARSE_BLOCK_SIZE} zero bytes are not written and left as holes in the copy, and the
+	 * runs of data between them are written at once. Reading the hole of a sparse source returns
+	 * zeros without any disk read.
+	 *
+	 * @param srcFile the validated source file
+	 * @param destFile the destination file
+	 * @param size size of the source file
+	 * @param limiter the rate limit of the copy, null if none
+	 * @param statistics statistics recording the skipped bytes
+	 * @return number of copied bytes, holes included
+	 * @throws IOException if an error occurs
+	 */
+	private static long doCopyLargeFile(Path srcFile, Path destFile, long size, IoRateLimiter limiter, CopyStatistics statistics)
+			throws IOException {
+		long pos = 0;
+		long sparseBytes = 0;
+		boolean endWritten = true;
+		ByteBuffer buffer = COPY_BUFFER.get();
+		long chunkSize = limiter == null ? buffer.capacity() : limiter.getChunkSize(buffer.capacity());
+		FileChannel input = null;
+		FileChannel output = null;
+		try {
+			input = FileChannel.open(srcFile, StandardOpenOption.READ);
+			output = FileChannel.open(destFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			while (pos < size) {
+				buffer.clear();
+				buffer.limit((int) Math.min(chunkSize, size - pos));
+				while (buffer.hasRemaining() && input.read(buffer, pos + buffer.position()) > 0) {
+					// read the whole chunk
+				}
+				int length = buffer.position();
+				if (length == 0) {
+					// the source file was truncated
+					break;
+				}
+				int dataStart = 0;
+				for (int offset = 0; offset < length && SPARSE; offset += SPARSE_BLOCK_SIZE) {
+					int blockLength = Math.min(SPARSE_BLOCK_SIZE, length - offset);
+					if (isZeroBlock(buffer, offset, blockLength)) {
+						writeRange(output, buffer, dataStart, offset, pos, limiter);
+						sparseBytes += blockLength;
+						dataStart = offset + blockLength;
+					}
+				}
+				writeRange(output, buffer, dataStart, length, pos, limiter);
+				endWritten = dataStart < length;
+				pos += length;
+			}
+			if (!endWritten) {
+				// extend the copy to the size of the source, leaving a hole
+				output.write(ByteBuffer.allocate(1), size - 1);
+			}
+		}
+		finally {
+			IOUtils.closeQuietly(output);
+			IOUtils.closeQuietly(input);
+		}
+		statistics.addSparseBytes(sparseBytes);
+		return pos;
+	}
+
+	/**
+	 * Write a range of a buffer holding the chunk of a file read at chunkPos.
+	 */
+	private static void writeRange(FileChannel output, ByteBuffer buffer, int from, int to, long chunkPos, IoRateLimiter limiter)
+			throws IOException {
+		if (from >= to) {
+			return;
+		}
+		if (limiter != null) {
+			limiter.acquireBytes(to - from);
+		}
+		ByteBuffer range = buffer.duplicate();
+		range.limit(to);
+		range.position(from);
+		long writePos = chunkPos + from;
+		while (range.hasRemaining()) {
+			writePos += output.write(range, writePos);
+		}
+	}
+
+	/**
+	 * Write the contents and the metadata of a file to the disk.
+	 *
+	 * @param file a regular file
+	 * @throws IOException if an error occurs
+	 */
+	private static void force(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+		try {
+			channel.force(true);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private static boolean isZeroBlock(ByteBuffer buffer, int offset, int length) {
+		int end = offset + length;
+		int i = offset;
+		for (; i + 8 <= end; i += 8) {
+			if (buffer.getLong(i) != 0) {
+				return false;
+			}
+		}
+		for (; i < end; i++) {
+			if (buffer.get(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copy a small file with one read and one write through the direct buffer of the thread, which
+	 * saves the setup of a transfer and the copy of a heap buffer into native memory.
+	 *
+	 * @param srcFile the source file
+	 * @param destFile the destination file
+	 * @param size size of the source file, at most {@link #SMALL_FILE_SIZE}
+	 * @return number of copied bytes
+	 * @throws IOException if an error occurs
+	 */
+	private static long doCopySmallFile(Path srcFile, Path destFile, long size) throws IOException {
+		ByteBuffer buffer = SMALL_FILE_BUFFER.get();
+		buffer.clear();
+		buffer.limit((int) size);
+		FileChannel input = null;
+		FileChannel output = null;
+		try {
+			input = FileChannel.open(srcFile, StandardOpenOption.READ);
+			while (buffer.hasRemaining() && input.read(buffer) > 0) {
+				// the source may be truncated, read until the end of the file
 			}
+			output = FileChannel.open(destFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				output.write(buffer);
+			}
+			return buffer.limit();
+		}
+		finally {
+			IOUtils.closeQuietly(output);
+			IOUtils.closeQuietly(input);
+		}
+	}
+
+	/**
+	 * Copy a file through a user space buffer, the digest is updated with the same bytes that are
+	 * written so the file is read only once.
+	 *
+	 * @param srcFile the source file
+	 * @param destFile the destination file
+	 * @param digest digest updated with the contents of the file
+	 * @param expectedDigest digest of the source in the manifest
+	 * @param limiter the rate limit of the copy, <code>null</code> if there is none
+	 * @return number of copied bytes
+	 * @throws IOException if the copy fails or the digest does not match
+	 */
+	private static long doCopyVerifiedFile(Path srcFile, Path destFile, ChecksumManifest.StreamDigest digest, String expectedDigest,
+			IoRateLimiter limiter) throws IOException {
+		long pos = 0;
+		FileChannel input = null;
+		FileChannel output = null;
+		try {
+			input = FileChannel.open(srcFile, StandardOpenOption.READ);
+			output = FileChannel.open(destFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			ByteBuffer buffer = ByteBuffer.allocate(VERIFY_BUFFER_SIZE);
+			int length;
+			while ((length = input.read(buffer)) > 0) {
+				if (limiter != null) {
+					limiter.acquireBytes(length);
+				}
+				digest.update(buffer.array(), 0, length);
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					output.write(buffer);
+				}
+				buffer.clear();
+				pos += length;
+			}
+		}
+		finally {
+			IOUtils.closeQuietly(output);
+			IOUtils.closeQuietly(input);
+		}
+
+		String actualDigest = digest.toHex();
+		if (!actualDigest.equals(expectedDigest)) {
+			Files.deleteIfExists(destFile);
+			throw new IOException("Checksum mismatch of '" + srcFile + "' : expected " + expectedDigest + " but was " + actualDigest);
 		}
+		return pos;
 	}
 
 	/**
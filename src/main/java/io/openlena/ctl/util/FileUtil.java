@@ -14,17 +14,31 @@
 
 package io.openlena.ctl.util;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.io.filefilter.TrueFileFilter;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
@@ -79,13 +93,96 @@ public class FileUtil {
 	 * @param value shel variable value
 	 */
 	public static void setShellVariable(String shellFilePath, String name, String value) {
-		String variableString = getShellVariableString(shellFilePath, name);
+		setShellVariables(shellFilePath, Collections.singletonMap(name, value));
+	}
+
+	/**
+	 * change value of variable, the variable is added at the end of the file if it is not declared
+	 *
+	 * @param shellFilePath shell file path
+	 * @param name shell variable name
+	 * @param value shel variable value
+	 */
+	public static void putShellVariable(String shellFilePath, String name, String value) {
+		putShellVariables(shellFilePath, Collections.singletonMap(name, value));
+	}
+
+	/**
+	 * change values of variables, the file is read once and replaced at once
+	 *
+	 * @param shellFilePath shell file path
+	 * @param variables shell variable names and values, in order
+	 * @param optionalNames names of variables which are skipped if they are not declared
+	 */
+	public static void setShellVariables(String shellFilePath, Map<String, String> variables, String... optionalNames) {
+		editShellVariables(shellFilePath, variables, false, Arrays.asList(optionalNames));
+	}
+
+	/**
+	 * change values of variables, the variables which are not declared are added at the end of the file
+	 *
+	 * @param shellFilePath shell file path
+	 * @param variables shell variable names and values, in order
+	 */
+	public static void putShellVariables(String shellFilePath, Map<String, String> variables) {
+		editShellVariables(shellFilePath, variables, true, Collections.<String>emptyList());
+	}
+
+	/**
+	 * change values of variables, the variables which are not declared are added in order after
+	 * the declaration of previousName
+	 *
+	 * @param shellFilePath shell file path
+	 * @param variables shell variable names and values, in order
+	 * @param previousName name of the variable the added variables follow, they are added at the
+	 * end of the file if it is not declared
+	 */
+	public static void putShellVariables(String shellFilePath, Map<String, String> variables, String previousName) {
+		ShellEnvironment environment = ShellEnvironment.load(shellFilePath);
+		for (Map.Entry<String, String> variable : variables.entrySet()) {
+			environment.put(variable.getKey(), variable.getValue(), previousName);
+			previousName = variable.getKey();
+		}
+		environment.save();
+	}
+
+	private static void editShellVariables(String shellFilePath, Map<String, String> variables, boolean append,
+			Collection<String> optionalNames) {
+		ShellEnvironment environment = ShellEnvironment.load(shellFilePath);
+		for (Map.Entry<String, String> variable : variables.entrySet()) {
+			if (append) {
+				environment.put(variable.getKey(), variable.getValue());
+			}
+			else if (!environment.set(variable.getKey(), variable.getValue()) && !optionalNames.contains(variable.getKey())) {
+				throw new LenaException("Fail to set variable '" + variable.getKey() + "' : '" + shellFilePath + "'");
+			}
+		}
+		environment.save();
+	}
 
-		if (StringUtil.isBlank(variableString)) {
-			throw new LenaException("Fail to set variable '" + name + "' : '" + shellFilePath + "'");
+	/**
+	 * Writes a file through a temporary file renamed over it, so that the file is never seen half written.
+	 * The permissions of the replaced file are kept.
+	 *
+	 * @param file File object to write
+	 * @param data String data to write
+	 */
+	static void writeStringToFileAtomically(File file, String data) {
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp-" + System.nanoTime());
+		try {
+			Files.write(tempFile.toPath(), data.getBytes("UTF-8"));
+			if (file.exists() && Files.getFileStore(tempFile.toPath()).supportsFileAttributeView(PosixFileAttributeView.class)) {
+				Files.setPosixFilePermissions(tempFile.toPath(), Files.getPosixFilePermissions(file.toPath()));
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to write file '" + file.getAbsolutePath() + "'", e);
 		}
-		else {
-			replaceText(shellFilePath, variableString, name + "=" + value);
+		finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
 		}
 	}
 
@@ -97,29 +194,51 @@ public class FileUtil {
 	 * @param file target file or directory
 	 */
 	public static void chmodF600OD700(File file) {
-		if (!file.exists()) {
-			return;
-		}
-
-		if (file.isDirectory()) {
-			for (File child : file.listFiles()) {
-				chmodF600OD700(child);
-			}
-		}
-
-		// remove all permissions
-		file.setReadable(false, false);
-		file.setWritable(false, false);
-		file.setExecutable(false, false);
+		chmod(file, PermissionRules.of("600", "700"));
+	}
 
-		// Grant read & write to owner
-		file.setReadable(true, true);
-		file.setWritable(true, true);
+	/**
+	 * Remove the write permissions of file and all files under file, the other permissions are
+	 * kept. Symbolic links are not followed. On a filesystem without POSIX permissions, files are
+	 * made read-only for everybody.
+	 *
+	 * @param file target file or directory
+	 */
+	public static void removeWritePermissions(File file) {
+		try {
+			Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) throws IOException {
+					if (!attrs.isSymbolicLink()) {
+						removeWritePermissions(path);
+					}
+					return FileVisitResult.CONTINUE;
+				}
 
-		if(file.isDirectory()){
-			file.setExecutable(true, true);
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					if (e != null) {
+						throw e;
+					}
+					removeWritePermissions(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to change permissions '" + file.getAbsolutePath() + "'", e);
 		}
+	}
 
+	private static void removeWritePermissions(Path path) throws IOException {
+		if (!Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+			path.toFile().setWritable(false, false);
+			return;
+		}
+		Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(path);
+		if (permissions.removeAll(EnumSet.of(PosixFilePermission.OWNER_WRITE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.OTHERS_WRITE))) {
+			Files.setPosixFilePermissions(path, permissions);
+		}
 	}
 
 	/**
@@ -160,52 +279,6 @@ public class FileUtil {
 		return new File(path).exists();
 	}
 
-	/**
-	 * Find the variable name that matches the parameter and return the line
-	 * exclude set (.bat) , export (.sh)
-	 *
-	 * @param shellFilePath shell file path
-	 * @param name variable name
-	 * @return variable name & value
-	 */
-	private static String getShellVariableString(String shellFilePath, String name) {
-		BufferedReader br = null;
-		String variableString = null;
-
-		String declare = "set";
-		if (shellFilePath.endsWith(".sh")) {
-			declare = "export";
-		}
-
-		try {
-			br = new BufferedReader(new FileReader(shellFilePath));
-
-			do {
-				String line = br.readLine();
-				if (line == null) {
-					break;
-				}
-
-				if (line.startsWith(declare)) {
-					String nameAndValue = line.substring(declare.length(), line.length());
-					nameAndValue = nameAndValue.trim();
-					if (nameAndValue.startsWith(name)) {
-						variableString = nameAndValue;
-						break;
-					}
-				}
-			} while (true);
-		}
-		catch (Throwable e) {
-			throw new LenaException("Fail to read file : '" + shellFilePath + "'", e);
-		}
-		finally {
-			close(br);
-		}
-
-		return variableString;
-	}
-
 	/**
 	 * The String corresponding to the target from a single file or all files in a directory is converted as a replacement.
 	 *
@@ -225,30 +298,23 @@ public class FileUtil {
 	 * @param replacement String after replace
 	 */
 	public static void replaceText(File src, CharSequence target, CharSequence replacement) {
-		if (src.isDirectory()) {
-			for (File file : src.listFiles()) {
-				replaceText(file, target, replacement);
-			}
-		}
-		else {
-			replaceTextInFile(src, target, replacement);
-		}
+		replaceText(src, Collections.singletonMap(target.toString(), replacement.toString()));
 	}
 
 	/**
-	 * The String corresponding to the target from a single file is converted as a replacement.
+	 * All the targets from a single file or all files in a directory are converted as their replacement in one pass,
+	 * see {@link TextReplacer}. Files without any target and binary files are not rewritten.
 	 *
-	 * @param file File to replace
-	 * @param target String before replace
-	 * @param replacement String after replace
+	 * @param src File or directory to replace
+	 * @param replacements Strings before replace mapped to Strings after replace
+	 * @return the number of rewritten files
 	 */
-	private static void replaceTextInFile(File file, CharSequence target, CharSequence replacement) {
+	public static int replaceText(File src, Map<String, String> replacements) {
 		try {
-			String frFileStr = readFileToString(file);
-			writeStringToFile(file, frFileStr.replace(target, replacement));
+			return new TextReplacer(replacements).replace(src, Runtime.getRuntime().availableProcessors());
 		}
-		catch (Throwable e) {
-			throw new LenaException("Failed to replace text '" + file.getAbsolutePath() + "'", e);
+		catch (IOException e) {
+			throw new LenaException("Failed to replace text '" + src.getAbsolutePath() + "'", e);
 		}
 	}
 
@@ -413,7 +479,7 @@ public class FileUtil {
 	 * @param destPath target directory path
 	 */
 	public static void copyDirectory(String srcPath, String destPath) {
-		copyDirectory(srcPath, destPath, null);
+		copyDirectory(srcPath, destPath, getDefaultCopyOptions());
 	}
 
 	/**
@@ -424,18 +490,174 @@ public class FileUtil {
 	 * @param filter the filter
 	 */
 	public static void copyDirectory(String srcPath, String destPath, FileFilter filter) {
+		CopyOptions options = getDefaultCopyOptions();
+		options.setFilter(filter);
+		copyDirectory(srcPath, destPath, options);
+	}
+
+	/**
+	 * Copy the files in the srcPath to destPath.
+	 *
+	 * @param srcPath source directory path
+	 * @param destPath target directory path
+	 * @param options the copy options
+	 * @return statistics of the copy
+	 */
+	public static CopyStatistics copyDirectory(String srcPath, String destPath, CopyOptions options) {
+		return copyDirectory(srcPath, destPath, options, new CopyStatistics());
+	}
+
+	/**
+	 * Copy the files in the srcPath to destPath, showing the progress on the console.
+	 *
+	 * @param srcPath source directory path
+	 * @param destPath target directory path
+	 * @param options the copy options
+	 * @param statistics statistics updated by the copy, may be shared by several copies
+	 * @return statistics of the copy
+	 */
+	public static CopyStatistics copyDirectory(String srcPath, String destPath, CopyOptions options, CopyStatistics statistics) {
+		CopyProgress progress = startProgress(statistics, srcPath);
 		try {
-			if (filter == null) {
-				CustomFileUtils.copyDirectory(new File(srcPath), new File(destPath), false);
-			}
-			else {
-				CustomFileUtils.copyDirectory(new File(srcPath), new File(destPath), filter, false);
+			CustomFileUtils.copyDirectory(new File(srcPath), new File(destPath), options, statistics);
+			// hard linked files share their permissions with the source
+			if (!options.isPreservePermissions()) {
+				chmod755(new File(destPath), statistics.getLinkCount() > 0);
 			}
-			chmod755(destPath);
+			return statistics;
 		}
 		catch (IOException e) {
 			throw new LenaException("Failed to copy directory '" + srcPath + "', '" + destPath + "'", e);
 		}
+		finally {
+			stopProgress(progress);
+		}
+	}
+
+	/**
+	 * Copy the files in the srcPath to several new directories, reading the source once, see
+	 * {@link CustomFileUtils#copyDirectory(File, List, CopyOptions, CopyStatistics)}.
+	 *
+	 * @param srcPath source directory path
+	 * @param destPaths target directory paths
+	 * @param options the copy options
+	 * @param statistics statistics updated by the copy
+	 * @return statistics of the copy
+	 */
+	public static CopyStatistics copyDirectory(String srcPath, List<String> destPaths, CopyOptions options, CopyStatistics statistics) {
+		CopyProgress progress = startProgress(statistics, srcPath);
+		try {
+			List<File> destDirs = new ArrayList<File>();
+			for (String destPath : destPaths) {
+				destDirs.add(new File(destPath));
+			}
+			CustomFileUtils.copyDirectory(new File(srcPath), destDirs, options, statistics);
+			if (!options.isPreservePermissions()) {
+				for (File destDir : destDirs) {
+					chmod755(destDir, false);
+				}
+			}
+			return statistics;
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to copy directory '" + srcPath + "', '" + destPaths + "'", e);
+		}
+		finally {
+			stopProgress(progress);
+		}
+	}
+
+	/**
+	 * Copy a depot directory to destPath.
+	 * When the directory does not exist, its packed form (srcPath.tar.gz, .tgz, .tar or .zip) is
+	 * extracted to destPath instead.
+	 * When filecopy.verify is true in installer.info, the files listed in the checksum manifest of
+	 * the directory ({@link ChecksumManifest}) are verified as they are copied.
+	 *
+	 * @param srcPath depot directory path
+	 * @param destPath target directory path
+	 * @param options the copy options
+	 * @return statistics of the copy
+	 */
+	public static CopyStatistics copyDepotDirectory(String srcPath, String destPath, CopyOptions options) {
+		return copyDepotDirectory(srcPath, destPath, options, new CopyStatistics());
+	}
+
+	/**
+	 * Copy a depot directory to destPath, see {@link #copyDepotDirectory(String, String, CopyOptions)}.
+	 *
+	 * @param srcPath depot directory path
+	 * @param destPath target directory path
+	 * @param options the copy options
+	 * @param statistics statistics updated by the copy, may be shared by several copies
+	 * @return statistics of the copy
+	 */
+	public static CopyStatistics copyDepotDirectory(String srcPath, String destPath, CopyOptions options, CopyStatistics statistics) {
+		ChecksumManifest manifest = options.getManifest();
+		if (manifest == null && Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.verify", "false"))) {
+			try {
+				options.setManifest(ChecksumManifest.find(srcPath));
+			}
+			catch (IOException e) {
+				throw new LenaException("Failed to read the checksum manifest of '" + srcPath + "'", e);
+			}
+		}
+		File archive = exists(srcPath) ? null : ArchiveExtractor.findArchive(srcPath);
+		if (archive == null) {
+			try {
+				return copyDirectory(srcPath, destPath, options, statistics);
+			}
+			finally {
+				options.setManifest(manifest);
+			}
+		}
+		CopyProgress progress = startProgress(statistics, archive.getPath());
+		try {
+			return ArchiveExtractor.extract(archive, new File(destPath), options, statistics);
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to extract '" + archive.getPath() + "', '" + destPath + "'", e);
+		}
+		finally {
+			stopProgress(progress);
+			options.setManifest(manifest);
+		}
+	}
+
+	private static CopyProgress startProgress(CopyStatistics statistics, String srcPath) {
+		if (!CopyProgress.isEnabled()) {
+			return null;
+		}
+		CopyProgress progress = new CopyProgress(statistics, System.out, new File(srcPath).getName());
+		progress.start();
+		return progress;
+	}
+
+	private static void stopProgress(CopyProgress progress) {
+		if (progress != null) {
+			progress.stop();
+		}
+	}
+
+	/**
+	 * Returns copy options configured in installer.info.
+	 * <ul>
+	 * <li>filecopy.parallel.threads : number of threads copying directories (default 1)</li>
+	 * <li>filecopy.preserve.permissions : copy the permissions of the source instead of setting 755 on every file (default false)</li>
+	 * <li>filecopy.preserve.owner : copy the owner and group of the source (default false)</li>
+	 * <li>filecopy.limit.bandwidth : bytes copied per second, with an optional K, M or G suffix (default no limit)</li>
+	 * <li>filecopy.limit.iops : files and directories created per second (default no limit)</li>
+	 * </ul>
+	 *
+	 * @return copy options
+	 */
+	public static CopyOptions getDefaultCopyOptions() {
+		CopyOptions options = new CopyOptions();
+		options.setThreads(InstallConfigUtil.getIntProperty("filecopy.parallel.threads", 1));
+		options.setPreservePermissions(Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.preserve.permissions", "false")));
+		options.setPreserveOwner(Boolean.parseBoolean(InstallConfigUtil.getProperty("filecopy.preserve.owner", "false")));
+		options.setRateLimiter(IoRateLimiter.create(InstallConfigUtil.getProperty("filecopy.limit.bandwidth"), InstallConfigUtil.getProperty("filecopy.limit.iops")));
+		return options;
 	}
 
 	/**
@@ -453,20 +675,32 @@ public class FileUtil {
 	 * @param file target File Object
 	 */
 	public static void chmod755(File file) {
-		if (!file.exists()) {
-			return;
-		}
+		chmod755(file, false);
+	}
 
-		if (file.isDirectory()) {
-			for (File child : file.listFiles()) {
-				chmod755(child);
-			}
-		}
+	/**
+	 * Change the permissions of path and all files under path to 755.
+	 *
+	 * @param file target File Object
+	 * @param skipLinkedFiles true if files having more than one hard link are left as they are
+	 */
+	private static void chmod755(File file, boolean skipLinkedFiles) {
+		chmod(file, PermissionRules.of("755", "755").setSkipHardLinkedFiles(skipLinkedFiles));
+	}
 
-		file.setReadable(true, false);
-		file.setWritable(false, false);
-		file.setWritable(true, true);
-		file.setExecutable(true, false);
+	/**
+	 * Apply permission rules to file and all files under file, using filecopy.parallel.threads threads.
+	 *
+	 * @param file target file or directory
+	 * @param rules the permission rules
+	 */
+	public static void chmod(File file, PermissionRules rules) {
+		try {
+			rules.apply(file, InstallConfigUtil.getIntProperty("filecopy.parallel.threads", 1));
+		}
+		catch (IOException e) {
+			throw new LenaException("Failed to change permissions '" + file.getAbsolutePath() + "'", e);
+		}
 	}
 	
 	/**
@@ -538,19 +772,10 @@ public class FileUtil {
      * Get variable in the shell.
      * @param shellFilePath shell path
      * @param name 
-     * @return value of variable
+     * @return value of variable, null if the variable is not declared
      */
 	public static String getShellVariable(String shellFilePath, String name){
-		String variableString = getShellVariableString(shellFilePath, name);
-		String nameAndValueArray[] = variableString.split("=");
-		
-		if(nameAndValueArray.length != 2){
-			return null;
-		}
-		
-		String curValue = nameAndValueArray[1].trim();
-		
-		return curValue;
+		return ShellEnvironment.load(shellFilePath).get(name);
 	}
 	
 	/**
@@ -18,6 +18,8 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Properties;
 
+import io.openlena.ctl.exception.LenaException;
+
 /**
  * Read installer.info and load them into the InstallConfigUtil object.
  *
@@ -69,4 +71,26 @@ public class InstallConfigUtil {
 
 		return properties.getProperty(key, def);
 	}
+
+	/**
+	 * returns value of the property key as int
+	 * if key doesn't exit, returns defualt value
+	 *
+	 * @param key property key
+	 * @param def defualt value
+	 * @return
+	 */
+	public static int getIntProperty(String key, int def) {
+		String value = getProperty(key);
+		if (StringUtil.isBlank(value)) {
+			return def;
+		}
+
+		try {
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e) {
+			throw new LenaException("Property '" + key + "' should be numeric : '" + value + "'", e);
+		}
+	}
 }
@@ -14,6 +14,9 @@
 
 package io.openlena.ctl.util;
 
+import java.util.Collections;
+import java.util.List;
+
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpressionException;
@@ -37,28 +40,50 @@ public class InstallInfoUtil {
 	 * @param server server object
 	 */
 	public static void addInstallInfo(Server server) {
-		String argoInstallFilePath = getInstallInfoFilePath();
+		addInstallInfo(Collections.singletonList(server));
+	}
+
+	/**
+	 * Write installation information of several servers in install-info.xml file with a single update.
+	 *
+	 * @param servers server objects
+	 */
+	public static void addInstallInfo(List<Server> servers) {
+		addInstallInfo(EnvUtil.getLenaHome(), servers);
+	}
+
+	/**
+	 * Write installation information of several servers in install-info.xml file of a lena home with a single update.
+	 *
+	 * @param lenaHome the lena home
+	 * @param servers server objects
+	 */
+	public static void addInstallInfo(String lenaHome, List<Server> servers) {
+		String argoInstallFilePath = getInstallInfoFilePath(lenaHome);
 
 		Document document = XmlUtil.createDocument(argoInstallFilePath);
 		XPath xpath = XPathFactory.newInstance().newXPath();
 		try {
-			if (existsServer(server.getId())) {
-				throw new LenaException("Server id alreay exists. '" + server.getId() + "'");
+			for (Server server : servers) {
+				if (existsServer(lenaHome, server.getId())) {
+					throw new LenaException("Server id alreay exists. '" + server.getId() + "'");
+				}
 			}
 
 			Element serversElement = (Element) xpath.evaluate("//install/servers", document, XPathConstants.NODE);
 
-			Element serverElement = document.createElement("server");
-			serverElement.appendChild(XmlUtil.createNode(document, "id", server.getId()));
-			serverElement.appendChild(XmlUtil.createNode(document, "port", server.getPort()));
-			serverElement.appendChild(XmlUtil.createNode(document, "type", server.getType()));
-			serverElement.appendChild(XmlUtil.createNode(document, "path", server.getPath()));
-
 			String timestamp = SystemUtil.getTimestamp();
-			serverElement.appendChild(XmlUtil.createNode(document, "cdate", timestamp));
-			serverElement.appendChild(XmlUtil.createNode(document, "udate", timestamp));
-
-			serversElement.appendChild(serverElement);
+			for (Server server : servers) {
+				Element serverElement = document.createElement("server");
+				serverElement.appendChild(XmlUtil.createNode(document, "id", server.getId()));
+				serverElement.appendChild(XmlUtil.createNode(document, "port", server.getPort()));
+				serverElement.appendChild(XmlUtil.createNode(document, "type", server.getType()));
+				serverElement.appendChild(XmlUtil.createNode(document, "path", server.getPath()));
+				serverElement.appendChild(XmlUtil.createNode(document, "cdate", timestamp));
+				serverElement.appendChild(XmlUtil.createNode(document, "udate", timestamp));
+
+				serversElement.appendChild(serverElement);
+			}
 
 			XmlUtil.writeXmlDocument(document, argoInstallFilePath);
 		}
@@ -73,7 +98,17 @@ public class InstallInfoUtil {
 	 * @return install -info file path
 	 */
 	public static String getInstallInfoFilePath() {
-		return FileUtil.getConcatPath(EnvUtil.getLenaHome(), "etc", "info", "install-info.xml");
+		return getInstallInfoFilePath(EnvUtil.getLenaHome());
+	}
+
+	/**
+	 * Returns install-info file path
+	 *
+	 * @param lenaHome the lena home
+	 * @return install -info file path
+	 */
+	public static String getInstallInfoFilePath(String lenaHome) {
+		return FileUtil.getConcatPath(lenaHome, "etc", "info", "install-info.xml");
 	}
 
 	/**
@@ -83,7 +118,18 @@ public class InstallInfoUtil {
 	 * @return ture if the server exists , otherwise false
 	 */
 	public static boolean existsServer(String serverId) {
-		if (!StringUtil.isBlank(getServerInstallPath(serverId))) {
+		return existsServer(EnvUtil.getLenaHome(), serverId);
+	}
+
+	/**
+	 * The Server exist or not
+	 *
+	 * @param lenaHome the lena home
+	 * @param serverId the server id
+	 * @return ture if the server exists , otherwise false
+	 */
+	public static boolean existsServer(String lenaHome, String serverId) {
+		if (!StringUtil.isBlank(XmlUtil.getValueByTagName(getServerElement(lenaHome, serverId), "path"))) {
 			return true;
 		}
 
@@ -97,17 +143,18 @@ public class InstallInfoUtil {
 	 * @return server install path
 	 */
 	public static String getServerInstallPath(String serverId) {
-		return XmlUtil.getValueByTagName(getServerElement(serverId), "path");
+		return XmlUtil.getValueByTagName(getServerElement(EnvUtil.getLenaHome(), serverId), "path");
 	}
 
 	/**
 	 * Search element of the server in install-info.xml
 	 * 
+	 * @param lenaHome the lena home
 	 * @param serverId the searver Id
 	 * @return element object
 	 */
-	private static Element getServerElement(String serverId) {
-		String argoInstallFilePath = getInstallInfoFilePath();
+	private static Element getServerElement(String lenaHome, String serverId) {
+		String argoInstallFilePath = getInstallInfoFilePath(lenaHome);
 
 		Document document = XmlUtil.createDocument(argoInstallFilePath);
 		XPath xpath = XPathFactory.newInstance().newXPath();
@@ -128,7 +175,7 @@ public class InstallInfoUtil {
 	 * @return port
 	 */
 	public static String getServicePort(String serverId) {
-		return XmlUtil.getValueByTagName(getServerElement(serverId), "port");
+		return XmlUtil.getValueByTagName(getServerElement(EnvUtil.getLenaHome(), serverId), "port");
 	}
 	
 	/**
@@ -137,7 +184,17 @@ public class InstallInfoUtil {
 	 * @return
 	 */
 	public static Server getServer(String serverId){
-		Element serverElement = getServerElement(serverId);
+		return getServer(EnvUtil.getLenaHome(), serverId);
+	}
+
+	/**
+	 * Return Server object of server id
+	 * @param lenaHome the lena home
+	 * @param serverId
+	 * @return
+	 */
+	public static Server getServer(String lenaHome, String serverId){
+		Element serverElement = getServerElement(lenaHome, serverId);
 		if(serverElement == null){
 			throw new LenaException("There is no installed server '" + serverId + "'");
 		}
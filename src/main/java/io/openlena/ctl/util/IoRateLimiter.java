@@ -0,0 +1,169 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.openlena.ctl.exception.LenaException;
+
+/**
+ * Token bucket limiting the bandwidth and the file operations per second of a copy, shared by
+ * all copy threads.
+ * <p>
+ * Each bucket holds at most 100 ms of its rate, so a copy never bursts far above the limit.
+ * Copies ask for data in chunks of {@link #getChunkSize(long)}, which is what the bucket refills
+ * in 100 ms so that the waits are short and even. Chunks stay that small even when the disk is
+ * slower than the limit: a larger chunk, once its wait is over, would be written at the speed of
+ * the disk, far above the limit.
+ */
+public class IoRateLimiter {
+	private static final long REFILL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Bucket bytes;
+	private final Bucket operations;
+	private final AtomicLong waitTime = new AtomicLong();
+
+	/**
+	 * @param bytesPerSecond bandwidth limit, 0 for none
+	 * @param operationsPerSecond file operations limit, 0 for none
+	 */
+	public IoRateLimiter(long bytesPerSecond, long operationsPerSecond) {
+		this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond) : null;
+		this.operations = operationsPerSecond > 0 ? new Bucket(operationsPerSecond) : null;
+	}
+
+	/**
+	 * @param bandwidth bandwidth limit such as 512K, 50M or 1G bytes per second, blank for none
+	 * @param iops file operations per second, blank for none
+	 * @return the limiter, null if there is no limit
+	 */
+	public static IoRateLimiter create(String bandwidth, String iops) {
+		long bytesPerSecond = parseSize(bandwidth);
+		long operationsPerSecond = parseSize(iops);
+		if (bytesPerSecond <= 0 && operationsPerSecond <= 0) {
+			return null;
+		}
+		return new IoRateLimiter(bytesPerSecond, operationsPerSecond);
+	}
+
+	/**
+	 * @param size a number with an optional K, M or G suffix (powers of 1024)
+	 * @return the number, 0 if size is blank
+	 */
+	static long parseSize(String size) {
+		if (StringUtil.isBlank(size)) {
+			return 0;
+		}
+		String value = size.trim().toUpperCase();
+		long unit = 1;
+		char suffix = value.charAt(value.length() - 1);
+		if (suffix == 'K' || suffix == 'M' || suffix == 'G') {
+			unit = suffix == 'K' ? CustomFileUtils.ONE_KB : (suffix == 'M' ? CustomFileUtils.ONE_MB : CustomFileUtils.ONE_GB);
+			value = value.substring(0, value.length() - 1);
+		}
+		try {
+			return Long.parseLong(value.trim()) * unit;
+		}
+		catch (NumberFormatException e) {
+			throw new LenaException("Invalid rate limit : '" + size + "'", e);
+		}
+	}
+
+	/**
+	 * Wait until bytes may be read or written.
+	 *
+	 * @param count number of bytes
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	public void acquireBytes(long count) throws InterruptedIOException {
+		if (bytes != null && count > 0) {
+			pause(bytes.acquire(count));
+		}
+	}
+
+	/**
+	 * Wait until a file operation, such as creating a file or a directory, may be done.
+	 *
+	 * @throws InterruptedIOException if the thread is interrupted while waiting
+	 */
+	public void acquireOperation() throws InterruptedIOException {
+		if (operations != null) {
+			pause(operations.acquire(1));
+		}
+	}
+
+	/**
+	 * @param maxChunkSize the chunk size without limit
+	 * @return how many bytes to copy before asking for more, at most what the bandwidth bucket holds
+	 */
+	public long getChunkSize(long maxChunkSize) {
+		if (bytes == null) {
+			return maxChunkSize;
+		}
+		return Math.max(1, Math.min(maxChunkSize, bytes.capacity));
+	}
+
+	/**
+	 * @return milliseconds the copy threads waited for the limit, summed over the threads
+	 */
+	public long getWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitTime.get());
+	}
+
+	private void pause(long nanos) throws InterruptedIOException {
+		if (nanos <= 0) {
+			return;
+		}
+		waitTime.addAndGet(nanos);
+		try {
+			TimeUnit.NANOSECONDS.sleep(nanos);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the copy rate limit");
+		}
+	}
+
+	private static class Bucket {
+		private final long rate;
+		private final long capacity;
+		private double tokens;
+		private long refillTime = System.nanoTime();
+
+		private Bucket(long rate) {
+			this.rate = rate;
+			this.capacity = Math.max(1, rate * REFILL_NANOS / TimeUnit.SECONDS.toNanos(1));
+			this.tokens = capacity;
+		}
+
+		/**
+		 * Take permits from the bucket, going into debt if there are not enough.
+		 *
+		 * @return nanoseconds to wait until the debt is paid back
+		 */
+		private synchronized long acquire(long permits) {
+			long now = System.nanoTime();
+			tokens = Math.min(capacity, tokens + (double) (now - refillTime) * rate / TimeUnit.SECONDS.toNanos(1));
+			refillTime = now;
+			tokens -= permits;
+			if (tokens >= 0) {
+				return 0;
+			}
+			return (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / rate);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import io.openlena.ctl.exception.LenaException;
+
+/**
+ * How a copy handles the symbolic links of its source.
+ */
+public enum LinkPolicy {
+	/**
+	 * The link is copied as a link with the same target, the target is not copied
+	 */
+	PRESERVE,
+
+	/**
+	 * The target of the link is copied in place of the link
+	 */
+	FOLLOW,
+
+	/**
+	 * The link is not copied
+	 */
+	SKIP;
+
+	/**
+	 * @param value preserve, follow or skip, in any case
+	 * @return the policy
+	 */
+	public static LinkPolicy parse(String value) {
+		try {
+			return valueOf(value.trim().toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			throw new LenaException("Invalid link policy : '" + value + "', expected preserve, follow or skip", e);
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Matches paths relative to a copy root against a list of glob patterns.
+ * <p>
+ * A pattern without '/' is matched against the file name at any depth (ex : *.jar),
+ * a pattern with '/' is matched against the whole relative path (ex : conf/**).
+ * Relative paths always use '/' as separator.
+ * <p>
+ * A pattern ending with '/**' also tells that the contents of the matching directories
+ * are matched as a whole, see {@link #matchesContents(String)}.
+ * <p>
+ * Patterns are compiled once. Literal names and paths are looked up in hash sets, '*.ext'
+ * patterns are suffix checks and 'dir/**' patterns with a literal dir are prefix lookups,
+ * so that only real globs go through a {@link PathMatcher}.
+ */
+public class PathPatternMatcher {
+	private final Set<String> names = new HashSet<String>();
+	private final List<String> nameSuffixes = new ArrayList<String>();
+	private final List<PathMatcher> nameMatchers = new ArrayList<PathMatcher>();
+	private final Set<String> paths = new HashSet<String>();
+	private final Set<String> contentDirs = new HashSet<String>();
+	private final List<PathMatcher> pathMatchers = new ArrayList<PathMatcher>();
+	private final List<PathMatcher> contentMatchers = new ArrayList<PathMatcher>();
+
+	/**
+	 * @param patterns comma separated glob patterns, may be null
+	 * @return matcher of the patterns
+	 */
+	public static PathPatternMatcher compile(String patterns) {
+		PathPatternMatcher matcher = new PathPatternMatcher();
+		if (patterns != null) {
+			for (String pattern : patterns.split(",")) {
+				matcher.add(pattern);
+			}
+		}
+		return matcher;
+	}
+
+	/**
+	 * Add a glob pattern.
+	 *
+	 * @param pattern glob pattern, blank patterns are ignored
+	 */
+	public void add(String pattern) {
+		if (StringUtil.isBlank(pattern)) {
+			return;
+		}
+		pattern = pattern.trim();
+		if (pattern.indexOf('/') < 0) {
+			if (isLiteral(pattern)) {
+				names.add(pattern);
+			}
+			else if (pattern.charAt(0) == '*' && isLiteral(pattern.substring(1))) {
+				nameSuffixes.add(pattern.substring(1));
+			}
+			else {
+				nameMatchers.add(getPathMatcher(pattern));
+			}
+			return;
+		}
+		if (isLiteral(pattern)) {
+			paths.add(pattern);
+			return;
+		}
+		if (pattern.endsWith("/**") && pattern.length() > 3) {
+			String dir = pattern.substring(0, pattern.length() - 3);
+			if (isLiteral(dir)) {
+				contentDirs.add(dir);
+				return;
+			}
+			contentMatchers.add(getPathMatcher(dir));
+		}
+		pathMatchers.add(getPathMatcher(pattern));
+	}
+
+	/**
+	 * @return true if no pattern was added
+	 */
+	public boolean isEmpty() {
+		return names.isEmpty() && nameSuffixes.isEmpty() && nameMatchers.isEmpty() && paths.isEmpty() && contentDirs.isEmpty()
+				&& pathMatchers.isEmpty();
+	}
+
+	/**
+	 * @param relativePath path relative to the copy root
+	 * @return true if any pattern matches the path
+	 */
+	public boolean matches(String relativePath) {
+		String name = relativePath.substring(relativePath.lastIndexOf('/') + 1);
+		if (names.contains(name)) {
+			return true;
+		}
+		for (String suffix : nameSuffixes) {
+			if (name.endsWith(suffix)) {
+				return true;
+			}
+		}
+		if (paths.contains(relativePath)) {
+			return true;
+		}
+		if (!contentDirs.isEmpty()) {
+			for (int i = relativePath.indexOf('/'); i > 0; i = relativePath.indexOf('/', i + 1)) {
+				if (contentDirs.contains(relativePath.substring(0, i))) {
+					return true;
+				}
+			}
+		}
+		if (!nameMatchers.isEmpty()) {
+			Path namePath = Paths.get(name);
+			for (PathMatcher matcher : nameMatchers) {
+				if (matcher.matches(namePath)) {
+					return true;
+				}
+			}
+		}
+		if (!pathMatchers.isEmpty()) {
+			Path path = Paths.get(relativePath);
+			for (PathMatcher matcher : pathMatchers) {
+				if (matcher.matches(path)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param relativeDir path of a directory relative to the copy root
+	 * @return true if a pattern ending with '/**' matches everything under the directory
+	 */
+	public boolean matchesContents(String relativeDir) {
+		if (contentDirs.contains(relativeDir)) {
+			return true;
+		}
+		if (!contentMatchers.isEmpty()) {
+			Path path = Paths.get(relativeDir);
+			for (PathMatcher matcher : contentMatchers) {
+				if (matcher.matches(path)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param pattern glob pattern
+	 * @return true if the pattern does not contain any glob special character
+	 */
+	private static boolean isLiteral(String pattern) {
+		for (int i = 0; i < pattern.length(); i++) {
+			switch (pattern.charAt(i)) {
+			case '*':
+			case '?':
+			case '[':
+			case ']':
+			case '{':
+			case '}':
+			case '\\':
+				return false;
+			default:
+				break;
+			}
+		}
+		return true;
+	}
+
+	private static PathMatcher getPathMatcher(String pattern) {
+		return FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sets the permissions, and optionally the owner, of every entry of a directory tree from a list
+ * of rules.
+ * <p>
+ * Each rule has comma separated glob patterns matched like {@link PathPatternMatcher} against the
+ * path relative to the root, a mode for files, a mode for directories and an owner. The first
+ * matching rule applies, entries matched by no rule are left as they are. A rule without
+ * patterns matches every entry, the root included.
+ * <p>
+ * The tree is walked once without following symbolic links, and the attributes read by the walk
+ * tell which entries differ from their rule, so entries already right are not written again.
+ * Each change is a single {@link Files#setPosixFilePermissions(Path, Set)} call. Files are
+ * changed in parallel, then directories from the deepest, so a directory is still open while the
+ * entries under it are changed.
+ * <p>
+ * On a filesystem without POSIX permissions, as on Windows, the modes are set through
+ * {@link File#setReadable(boolean, boolean)}, {@link File#setWritable(boolean, boolean)} and
+ * {@link File#setExecutable(boolean, boolean)}, which only know the owner and everybody : a
+ * permission of the group or the others is given to everybody. Every matching entry is then
+ * changed, as its mode cannot be compared.
+ */
+public class PermissionRules {
+	// entries changed by one task before it is split
+	private static final int ENTRIES_PER_TASK = 64;
+
+	private final List<Rule> rules = new ArrayList<Rule>();
+	private boolean skipHardLinkedFiles;
+
+	/**
+	 * @param fileMode octal mode of the files (ex : 600)
+	 * @param dirMode octal mode of the directories (ex : 700)
+	 * @return rules giving the modes to every entry
+	 */
+	public static PermissionRules of(String fileMode, String dirMode) {
+		return new PermissionRules().add(null, fileMode, dirMode);
+	}
+
+	/**
+	 * Add a rule, see {@link #add(String, String, String, String)}.
+	 *
+	 * @param patterns comma separated glob patterns, null to match every entry
+	 * @param fileMode octal mode of the matching files, null to leave it as it is
+	 * @param dirMode octal mode of the matching directories, null to leave it as it is
+	 * @return this rules
+	 */
+	public PermissionRules add(String patterns, String fileMode, String dirMode) {
+		return add(patterns, fileMode, dirMode, null);
+	}
+
+	/**
+	 * Add a rule, applied when no previously added rule matches.
+	 *
+	 * @param patterns comma separated glob patterns, null to match every entry
+	 * @param fileMode octal mode of the matching files, null to leave it as it is
+	 * @param dirMode octal mode of the matching directories, null to leave it as it is
+	 * @param owner name of the owner of the matching entries, null to leave it as it is
+	 * @return this rules
+	 */
+	public PermissionRules add(String patterns, String fileMode, String dirMode, String owner) {
+		rules.add(new Rule(patterns == null ? null : PathPatternMatcher.compile(patterns), toPermissions(fileMode),
+				toPermissions(dirMode), owner));
+		return this;
+	}
+
+	/**
+	 * @param skipHardLinkedFiles true if files having more than one hard link are left as they are,
+	 *        as they share their permissions with the other links
+	 * @return this rules
+	 */
+	public PermissionRules setSkipHardLinkedFiles(boolean skipHardLinkedFiles) {
+		this.skipHardLinkedFiles = skipHardLinkedFiles;
+		return this;
+	}
+
+	/**
+	 * Apply the rules to a directory tree.
+	 *
+	 * @param root a directory, or a single file matched as the root. Nothing is done if it does
+	 *        not exist or is a symbolic link.
+	 * @param threads number of entries changed at the same time
+	 * @return the number of changed entries
+	 * @throws IOException if the tree cannot be walked, an owner is unknown, or an entry cannot be changed
+	 */
+	public int apply(File root, int threads) throws IOException {
+		final Path rootPath = root.toPath();
+		if (!Files.exists(rootPath, LinkOption.NOFOLLOW_LINKS) || CustomFileUtils.isSymlink(rootPath)) {
+			return 0;
+		}
+
+		final boolean posix = isPosix(rootPath);
+		final List<Change> files = new ArrayList<Change>();
+		final List<Change> dirs = new ArrayList<Change>();
+		Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				addChange(dirs, dir, getRelativePath(rootPath, dir), attrs, posix);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				// the target of a link is not part of the tree
+				if (!attrs.isSymbolicLink() && !(skipHardLinkedFiles && CustomFileUtils.isHardLinked(file.toFile()))) {
+					addChange(files, file, getRelativePath(rootPath, file), attrs, posix);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		ChangeTask task = new ChangeTask(files, 0, files.size());
+		if (threads > 1 && files.size() > ENTRIES_PER_TASK) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.invoke(task);
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		else {
+			task.compute();
+		}
+		if (task.failure != null) {
+			throw task.failure;
+		}
+
+		// directories are walked before their entries
+		for (int i = dirs.size() - 1; i >= 0; i--) {
+			dirs.get(i).apply();
+		}
+		return files.size() + dirs.size();
+	}
+
+	/**
+	 * @param path an entry of the tree
+	 * @return true if the filesystem of path has POSIX permissions
+	 * @throws IOException if the filesystem cannot be read
+	 */
+	boolean isPosix(Path path) throws IOException {
+		return Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class);
+	}
+
+	/**
+	 * Add the change of an entry to changes, unless the entry already follows its rule.
+	 */
+	private void addChange(List<Change> changes, Path path, String relativePath, BasicFileAttributes attrs, boolean posix) throws IOException {
+		Rule rule = getRule(relativePath);
+		if (rule == null) {
+			return;
+		}
+		Set<PosixFilePermission> permissions = attrs.isDirectory() ? rule.dirPermissions : rule.filePermissions;
+		UserPrincipal owner = rule.getOwner(path);
+		if (permissions == null && owner == null) {
+			return;
+		}
+
+		if (posix) {
+			PosixFileAttributes posixAttrs = attrs instanceof PosixFileAttributes ? (PosixFileAttributes) attrs
+					: Files.readAttributes(path, PosixFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+			if (permissions != null && permissions.equals(posixAttrs.permissions())) {
+				permissions = null;
+			}
+			if (owner != null && owner.equals(posixAttrs.owner())) {
+				owner = null;
+			}
+		}
+		else if (owner != null && owner.equals(Files.getOwner(path, LinkOption.NOFOLLOW_LINKS))) {
+			owner = null;
+		}
+		if (permissions != null || owner != null) {
+			changes.add(new Change(path, permissions, owner, posix));
+		}
+	}
+
+	private Rule getRule(String relativePath) {
+		for (Rule rule : rules) {
+			if (rule.patterns == null || (!relativePath.isEmpty() && rule.patterns.matches(relativePath))) {
+				return rule;
+			}
+		}
+		return null;
+	}
+
+	private static String getRelativePath(Path root, Path path) {
+		return root.relativize(path).toString().replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * @param mode octal mode, may be null
+	 * @return the permissions of the mode, null if mode is null
+	 */
+	private static Set<PosixFilePermission> toPermissions(String mode) {
+		if (mode == null) {
+			return null;
+		}
+		try {
+			int value = Integer.parseInt(mode.trim(), 8);
+			if (value < 0 || value > 0777) {
+				throw new IllegalArgumentException("Invalid file mode : '" + mode + "'");
+			}
+			return ArchiveExtractor.toPermissions(value);
+		}
+		catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid file mode : '" + mode + "'", e);
+		}
+	}
+
+	/**
+	 * A rule, matching entries by their relative path.
+	 */
+	private static class Rule {
+		private final PathPatternMatcher patterns;
+		private final Set<PosixFilePermission> filePermissions;
+		private final Set<PosixFilePermission> dirPermissions;
+		private final String ownerName;
+		private UserPrincipal owner;
+
+		private Rule(PathPatternMatcher patterns, Set<PosixFilePermission> filePermissions, Set<PosixFilePermission> dirPermissions,
+				String ownerName) {
+			this.patterns = patterns;
+			this.filePermissions = filePermissions;
+			this.dirPermissions = dirPermissions;
+			this.ownerName = ownerName;
+		}
+
+		/**
+		 * @return the owner, looked up once, null if the rule does not set it
+		 */
+		private UserPrincipal getOwner(Path path) throws IOException {
+			if (ownerName != null && owner == null) {
+				owner = path.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(ownerName);
+			}
+			return owner;
+		}
+	}
+
+	/**
+	 * The change of an entry.
+	 */
+	private static class Change {
+		private final Path path;
+		private final Set<PosixFilePermission> permissions;
+		private final UserPrincipal owner;
+		private final boolean posix;
+
+		private Change(Path path, Set<PosixFilePermission> permissions, UserPrincipal owner, boolean posix) {
+			this.path = path;
+			this.permissions = permissions;
+			this.owner = owner;
+			this.posix = posix;
+		}
+
+		private void apply() throws IOException {
+			// the owner is changed first, as changing it may clear the setuid and setgid bits
+			if (owner != null) {
+				Files.setOwner(path, owner);
+			}
+			if (permissions != null && posix) {
+				Files.setPosixFilePermissions(path, permissions);
+			}
+			else if (permissions != null) {
+				// File only knows the owner and everybody
+				boolean everybodyRead = permissions.contains(PosixFilePermission.GROUP_READ) || permissions.contains(PosixFilePermission.OTHERS_READ);
+				boolean everybodyWrite = permissions.contains(PosixFilePermission.GROUP_WRITE) || permissions.contains(PosixFilePermission.OTHERS_WRITE);
+				boolean everybodyExecute = permissions.contains(PosixFilePermission.GROUP_EXECUTE) || permissions.contains(PosixFilePermission.OTHERS_EXECUTE);
+				File file = path.toFile();
+				file.setReadable(false, false);
+				file.setWritable(false, false);
+				file.setExecutable(false, false);
+				if (everybodyRead || permissions.contains(PosixFilePermission.OWNER_READ)) {
+					file.setReadable(true, !everybodyRead);
+				}
+				if (everybodyWrite || permissions.contains(PosixFilePermission.OWNER_WRITE)) {
+					file.setWritable(true, !everybodyWrite);
+				}
+				if (everybodyExecute || permissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
+					file.setExecutable(true, !everybodyExecute);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Applies a range of changes, split in halves run in parallel.
+	 */
+	private static class ChangeTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Change> changes;
+		private final int from;
+		private final int to;
+		private volatile IOException failure;
+
+		private ChangeTask(List<Change> changes, int from, int to) {
+			this.changes = changes;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > ENTRIES_PER_TASK && getPool() != null) {
+				int middle = (from + to) >>> 1;
+				ChangeTask left = new ChangeTask(changes, from, middle);
+				ChangeTask right = new ChangeTask(changes, middle, to);
+				invokeAll(left, right);
+				failure = left.failure != null ? left.failure : right.failure;
+				return;
+			}
+			for (int i = from; i < to && failure == null; i++) {
+				try {
+					changes.get(i).apply();
+				}
+				catch (IOException e) {
+					failure = new IOException("Failed to change permissions '" + changes.get(i).path + "'", e);
+				}
+			}
+		}
+	}
+}
@@ -37,7 +37,18 @@ public class ReleaseInfoUtil {
 	 * @return depot path
 	 */
 	public static String getDepotPath(String serverType) {
-		return FileUtil.getConcatPath(EnvUtil.getLenaHome(), "depot", serverType, getModuleVersion(serverType));
+		return getDepotPath(EnvUtil.getLenaHome(), serverType);
+	}
+
+	/**
+	 * Search the depot path corresponding to the server type
+	 *
+	 * @param lenaHome the lena home
+	 * @param serverType the server type
+	 * @return depot path
+	 */
+	public static String getDepotPath(String lenaHome, String serverType) {
+		return FileUtil.getConcatPath(lenaHome, "depot", serverType, getModuleVersion(lenaHome, serverType));
 	}
 
 	/**
@@ -47,7 +58,18 @@ public class ReleaseInfoUtil {
 	 * @return module version
 	 */
 	public static String getModuleVersion(String serverType) {
-		String version = XmlUtil.getValueByTagName(getModuleElement(serverType), "version");
+		return getModuleVersion(EnvUtil.getLenaHome(), serverType);
+	}
+
+	/**
+	 * Search Module version of the server type
+	 *
+	 * @param lenaHome the lena home
+	 * @param serverType the server type
+	 * @return module version
+	 */
+	public static String getModuleVersion(String lenaHome, String serverType) {
+		String version = XmlUtil.getValueByTagName(getModuleElement(lenaHome, serverType), "version");
 
 		if (version == null || "".equals(version.trim())) {
 			throw new LenaException(serverType + " is incorrect");
@@ -59,11 +81,12 @@ public class ReleaseInfoUtil {
 	/**
 	 * Returns the module element in the release-info.xml file.
 	 *
+	 * @param lenaHome the lena home
 	 * @param serverType Server Type
 	 * @return Element Object
 	 */
-	private static Element getModuleElement(String serverType) {
-		Document document = XmlUtil.createDocument(getReleaseInfoFilePath());
+	private static Element getModuleElement(String lenaHome, String serverType) {
+		Document document = XmlUtil.createDocument(getReleaseInfoFilePath(lenaHome));
 		XPath xpath = XPathFactory.newInstance().newXPath();
 		Element element = null;
 		try {
@@ -0,0 +1,412 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import io.openlena.ctl.exception.LenaException;
+
+/**
+ * Streams a server directory to another host over TCP, without an intermediate archive file.
+ * <p>
+ * The sender connects to a receiving lena-ctl and sends a request describing the server. The
+ * receiver accepts it by telling where to extract the server, or refuses it with a message.
+ * The server is then sent as a tar.gz stream written by {@link ArchiveWriter} and extracted as
+ * it arrives by {@link ArchiveExtractor}.
+ * <p>
+ * The stream is cut in chunks followed by one SHA-256 digest of the whole stream, and every 1MB
+ * gzip member carries its own CRC32. There is no digest per entry : the entries are extracted as
+ * they arrive, into the staging directory given by the receiver, with the checks of
+ * {@link ArchiveExtractor} keeping them inside it, and the digest is checked once the extraction
+ * ends. The receiver completes the server only once the digest matches, and discards the whole
+ * staging directory otherwise. It answers the sender with the result.
+ * <p>
+ * The digest only detects a corrupted stream, it does not authenticate the sender : anyone
+ * reaching the port can send a stream with a matching digest. The transfer is not encrypted
+ * either. The receiver checks the request, with a shared token for instance, and listens on a
+ * trusted interface, such as the loopback interface reached through an SSH tunnel.
+ */
+public class ServerTransfer {
+	private static final String PROTOCOL = "LENA-TRANSFER/1";
+	private static final String READY = "READY";
+	private static final String OK = "OK";
+	private static final String ERROR = "ERROR ";
+	private static final String ARCHIVE_NAME = "server.tar.gz";
+	private static final String DIGEST_ALGORITHM = "SHA-256";
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int MAX_REQUEST_SIZE = 64 * 1024;
+	private static final int TIMEOUT_MILLIS = (int) TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * The receiving side of a transfer.
+	 */
+	public interface Receiver {
+		/**
+		 * Check a request before the server is sent.
+		 *
+		 * @param request the description of the sent server
+		 * @return the staging directory to extract the server to, which is not used as a server
+		 *         before {@link #complete(Properties, CopyStatistics)}
+		 * @throws LenaException to refuse the request, its message is sent back
+		 */
+		File accept(Properties request);
+
+		/**
+		 * Complete the server once it is extracted and verified.
+		 *
+		 * @param request the description of the sent server
+		 * @param statistics statistics of the extraction
+		 */
+		void complete(Properties request, CopyStatistics statistics);
+
+		/**
+		 * Remove what was extracted of an accepted transfer which failed.
+		 *
+		 * @param request the description of the sent server
+		 */
+		void discard(Properties request);
+	}
+
+	/**
+	 * Send a server directory to a receiver.
+	 *
+	 * @param host host of the receiver
+	 * @param port port of the receiver
+	 * @param request the description of the server, given to {@link Receiver#accept(Properties)}
+	 * @param srcDir the server directory
+	 * @param options the copy options, with the exclusions and the link policy of the transfer
+	 * @param threads number of threads compressing the stream
+	 * @return statistics of the sent files
+	 * @throws LenaException if the receiver refused the request or failed to complete the server
+	 * @throws IOException if the transfer fails
+	 */
+	public static CopyStatistics send(String host, int port, Properties request, File srcDir, CopyOptions options, int threads)
+			throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), TIMEOUT_MILLIS);
+			socket.setSoTimeout(TIMEOUT_MILLIS);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK_SIZE));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+			ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+			request.store(requestBytes, null);
+			out.writeUTF(PROTOCOL);
+			out.writeInt(requestBytes.size());
+			requestBytes.writeTo(out);
+			out.flush();
+			readStatus(in, READY);
+
+			ChunkedOutputStream chunked = new ChunkedOutputStream(out);
+			ArchiveWriter writer = ArchiveWriter.open(chunked, true, threads);
+			CopyStatistics statistics;
+			try {
+				statistics = writer.addDirectory(srcDir, options, new CopyStatistics());
+				writer.finish();
+			}
+			finally {
+				writer.close();
+			}
+			chunked.finish();
+			readStatus(in, OK);
+			return statistics;
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Receive one server. The server is extracted into the directory given by
+	 * {@link Receiver#accept(Properties)}, then the digest of the stream is checked before
+	 * {@link Receiver#complete(Properties, CopyStatistics)}. A transfer which fails is discarded.
+	 *
+	 * @param serverSocket the socket the sender connects to
+	 * @param options the copy options used to extract the server
+	 * @param receiver checks the request and completes the server
+	 * @return statistics of the received files
+	 * @throws LenaException if the request was refused
+	 * @throws IOException if the transfer fails or the stream does not match its digest
+	 */
+	public static CopyStatistics receive(ServerSocket serverSocket, CopyOptions options, Receiver receiver) throws IOException {
+		Socket socket = serverSocket.accept();
+		try {
+			socket.setSoTimeout(TIMEOUT_MILLIS);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), CHUNK_SIZE));
+
+			if (!PROTOCOL.equals(in.readUTF())) {
+				throw new IOException("Unknown transfer protocol from " + socket.getRemoteSocketAddress());
+			}
+			int length = in.readInt();
+			if (length < 0 || length > MAX_REQUEST_SIZE) {
+				throw new IOException("Invalid transfer request from " + socket.getRemoteSocketAddress());
+			}
+			byte[] requestBytes = new byte[length];
+			in.readFully(requestBytes);
+			Properties request = new Properties();
+			request.load(new ByteArrayInputStream(requestBytes));
+
+			File destDir;
+			try {
+				destDir = receiver.accept(request);
+			}
+			catch (RuntimeException e) {
+				writeStatus(out, ERROR + e.getMessage());
+				throw e;
+			}
+			writeStatus(out, READY);
+
+			boolean completed = false;
+			try {
+				ChunkedInputStream chunked = new ChunkedInputStream(in);
+				CopyStatistics statistics = ArchiveExtractor.extract(chunked, ARCHIVE_NAME, destDir, options, new CopyStatistics());
+				chunked.verify();
+				receiver.complete(request, statistics);
+				completed = true;
+				writeStatus(out, OK);
+				return statistics;
+			}
+			catch (IOException e) {
+				writeError(out, e);
+				throw e;
+			}
+			catch (RuntimeException e) {
+				writeError(out, e);
+				throw e;
+			}
+			finally {
+				if (!completed) {
+					receiver.discard(request);
+				}
+			}
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	private static void readStatus(DataInputStream in, String expected) throws IOException {
+		String status = in.readUTF();
+		if (status.startsWith(ERROR)) {
+			throw new LenaException(status.substring(ERROR.length()));
+		}
+		if (!expected.equals(status)) {
+			throw new IOException("Unexpected transfer status : " + status);
+		}
+	}
+
+	private static void writeStatus(DataOutputStream out, String status) throws IOException {
+		// writeUTF is limited to 64KB
+		out.writeUTF(status.length() > 1024 ? status.substring(0, 1024) : status);
+		out.flush();
+	}
+
+	private static void writeError(DataOutputStream out, Exception failure) {
+		try {
+			writeStatus(out, ERROR + failure.getMessage());
+		}
+		catch (IOException e) {
+			// the sender is gone
+		}
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes length prefixed chunks, a chunk of length 0 and the digest of the chunks.
+	 */
+	private static class ChunkedOutputStream extends OutputStream {
+		private final DataOutputStream output;
+		private final MessageDigest digest = newDigest();
+		private final byte[] chunk = new byte[CHUNK_SIZE];
+		private int count;
+
+		private ChunkedOutputStream(DataOutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == chunk.length) {
+				writeChunk();
+			}
+			chunk[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (count == 0 && len >= chunk.length) {
+				// large writes are sent as they are
+				digest.update(b, off, len);
+				output.writeInt(len);
+				output.write(b, off, len);
+				return;
+			}
+			while (len > 0) {
+				if (count == chunk.length) {
+					writeChunk();
+				}
+				int length = Math.min(len, chunk.length - count);
+				System.arraycopy(b, off, chunk, count, length);
+				count += length;
+				off += length;
+				len -= length;
+			}
+		}
+
+		private void writeChunk() throws IOException {
+			if (count > 0) {
+				digest.update(chunk, 0, count);
+				output.writeInt(count);
+				output.write(chunk, 0, count);
+				count = 0;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writeChunk();
+			output.flush();
+		}
+
+		/**
+		 * Keeps the socket open, the end of the stream is written by {@link #finish()}.
+		 */
+		@Override
+		public void close() throws IOException {
+			writeChunk();
+		}
+
+		private void finish() throws IOException {
+			writeChunk();
+			output.writeInt(0);
+			output.write(digest.digest());
+			output.flush();
+		}
+	}
+
+	/**
+	 * Reads the chunks written by {@link ChunkedOutputStream} and checks their digest.
+	 */
+	private static class ChunkedInputStream extends InputStream {
+		private final DataInputStream input;
+		private final MessageDigest digest = newDigest();
+		private int remaining;
+		private boolean ended;
+
+		private ChunkedInputStream(DataInputStream input) {
+			this.input = input;
+		}
+
+		/**
+		 * @return false at the end of the chunks
+		 */
+		private boolean nextChunk() throws IOException {
+			while (remaining == 0 && !ended) {
+				remaining = input.readInt();
+				if (remaining < 0) {
+					throw new IOException("Invalid chunk length " + remaining);
+				}
+				if (remaining == 0) {
+					byte[] expected = new byte[digest.getDigestLength()];
+					input.readFully(expected);
+					ended = true;
+					if (!MessageDigest.isEqual(expected, digest.digest())) {
+						throw new IOException("Checksum mismatch of the received stream");
+					}
+				}
+			}
+			return !ended;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (!nextChunk()) {
+				return -1;
+			}
+			int count = input.read(b, off, Math.min(len, remaining));
+			if (count < 0) {
+				throw new IOException("Unexpected end of the transfer");
+			}
+			digest.update(b, off, count);
+			remaining -= count;
+			return count;
+		}
+
+		/**
+		 * GZIPInputStream only reads the next gzip member when bytes are available, so a chunk
+		 * boundary must not look like the end of the stream.
+		 */
+		@Override
+		public int available() throws IOException {
+			if (ended) {
+				return 0;
+			}
+			return Math.max(remaining, 1);
+		}
+
+		/**
+		 * Read what the extraction left, up to the digest, and check it.
+		 *
+		 * @throws IOException if the stream does not match its digest
+		 */
+		private void verify() throws IOException {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			while (read(buffer, 0, buffer.length) >= 0) {
+				// the end of the tar archive and of the last gzip member
+			}
+		}
+
+		/**
+		 * Keeps the socket open, the status is written after the extraction.
+		 */
+		@Override
+		public void close() {
+		}
+	}
+}
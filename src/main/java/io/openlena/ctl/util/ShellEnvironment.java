@@ -0,0 +1,372 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.openlena.ctl.exception.LenaException;
+
+/**
+ * Variables declared in a server shell file, env.sh with 'export NAME=value' or env.bat with
+ * 'set NAME=value'.
+ * <p>
+ * The file is parsed once into its lines, and the first declaration of every variable is indexed
+ * by its exact name. Values are kept as written, quotes included. Changing a variable only
+ * rewrites the value of its declaration, so comments, blank lines, spacing and line separators of
+ * the file are kept.
+ * <p>
+ * Parsed files are cached by path and parsed again only when their modification time, change
+ * time, size or file key changes, so commands reading many servers do not parse the same file
+ * twice. Times are compared at the precision of the filesystem, not in milliseconds.
+ */
+public class ShellEnvironment {
+	private static final Pattern DECLARATION = Pattern.compile("(export|set)\\s+([A-Za-z_][A-Za-z0-9_]*)=(.*?)\\s*");
+
+	private static final Map<String, Parsed> CACHE = new ConcurrentHashMap<String, Parsed>();
+
+	private final File file;
+	private final String declare;
+	private final List<Line> lines;
+	private final Map<String, Integer> declarations;
+	private boolean modified;
+
+	private ShellEnvironment(File file, String declare, List<Line> lines, Map<String, Integer> declarations) {
+		this.file = file;
+		this.declare = declare;
+		this.lines = new ArrayList<Line>(lines);
+		this.declarations = new HashMap<String, Integer>(declarations);
+	}
+
+	/**
+	 * Load a shell file, from the cache if it did not change since it was parsed.
+	 *
+	 * @param shellFilePath shell file path
+	 * @return the variables of the file, which can be changed and saved
+	 */
+	public static ShellEnvironment load(String shellFilePath) {
+		File file = new File(shellFilePath).getAbsoluteFile();
+		FileState state;
+		try {
+			state = FileState.read(file);
+		}
+		catch (IOException e) {
+			throw new LenaException("Fail to read file : '" + file.getPath() + "'", e);
+		}
+
+		Parsed parsed = CACHE.get(file.getPath());
+		if (parsed == null || !parsed.state.matches(state)) {
+			parsed = parse(file, state);
+			CACHE.put(file.getPath(), parsed);
+		}
+		return new ShellEnvironment(file, getDeclare(file.getName()), parsed.lines, parsed.declarations);
+	}
+
+	/**
+	 * Parse the content of a shell file which is not saved, such as a template being copied.
+	 *
+	 * @param content the content of the file
+	 * @param fileName name of the file, env.sh or env.bat
+	 * @return the variables of the content, {@link #getContent()} returns the changed content
+	 */
+	public static ShellEnvironment parse(String content, String fileName) {
+		String declare = getDeclare(fileName);
+		List<Line> lines = new ArrayList<Line>();
+		Map<String, Integer> declarations = new HashMap<String, Integer>();
+		parseLines(content, declare, lines, declarations);
+		return new ShellEnvironment(null, declare, lines, declarations);
+	}
+
+	/**
+	 * @param fileName name of a shell file
+	 * @return true for the files parsed by this class, *.sh and *.bat
+	 */
+	public static boolean isShellFile(String fileName) {
+		return fileName.endsWith(".sh") || fileName.endsWith(".bat");
+	}
+
+	private static String getDeclare(String fileName) {
+		return fileName.endsWith(".sh") ? "export" : "set";
+	}
+
+	private static Parsed parse(File file, FileState state) {
+		String content;
+		try {
+			content = CustomFileUtils.readFileToString(file, "UTF-8");
+		}
+		catch (IOException e) {
+			throw new LenaException("Fail to read file : '" + file.getPath() + "'", e);
+		}
+		if (content == null) {
+			content = "";
+		}
+
+		List<Line> lines = new ArrayList<Line>();
+		Map<String, Integer> declarations = new HashMap<String, Integer>();
+		parseLines(content, getDeclare(file.getName()), lines, declarations);
+		return new Parsed(state, Collections.unmodifiableList(lines), Collections.unmodifiableMap(declarations));
+	}
+
+	private static void parseLines(String content, String declare, List<Line> lines, Map<String, Integer> declarations) {
+		int start = 0;
+		while (start < content.length()) {
+			int end = content.indexOf('\n', start);
+			end = end < 0 ? content.length() : end + 1;
+			int textEnd = end;
+			while (textEnd > start && (content.charAt(textEnd - 1) == '\n' || content.charAt(textEnd - 1) == '\r')) {
+				textEnd--;
+			}
+			Line line = Line.parse(content.substring(start, textEnd), content.substring(textEnd, end), declare);
+			if (line.name != null && !declarations.containsKey(line.name)) {
+				declarations.put(line.name, lines.size());
+			}
+			lines.add(line);
+			start = end;
+		}
+	}
+
+	/**
+	 * @param name variable name
+	 * @return the value of the first declaration of the variable, or null if it is not declared
+	 */
+	public String get(String name) {
+		Integer index = declarations.get(name);
+		return index == null ? null : lines.get(index).getValue();
+	}
+
+	/**
+	 * @param name variable name
+	 * @return true if the variable is declared
+	 */
+	public boolean contains(String name) {
+		return declarations.containsKey(name);
+	}
+
+	/**
+	 * @return names of the declared variables
+	 */
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(declarations.keySet());
+	}
+
+	/**
+	 * Change the value of the first declaration of a variable.
+	 *
+	 * @param name variable name
+	 * @param value variable value
+	 * @return false if the variable is not declared
+	 */
+	public boolean set(String name, String value) {
+		Integer index = declarations.get(name);
+		if (index == null) {
+			return false;
+		}
+		lines.set(index, lines.get(index).withValue(value));
+		modified = true;
+		return true;
+	}
+
+	/**
+	 * Change the value of a variable, the variable is declared at the end of the file if it is not declared.
+	 *
+	 * @param name variable name
+	 * @param value variable value
+	 */
+	public void put(String name, String value) {
+		if (set(name, value)) {
+			return;
+		}
+		int last = lines.size() - 1;
+		if (last >= 0 && lines.get(last).separator.isEmpty()) {
+			lines.set(last, lines.get(last).withSeparator(FileUtil.lineSeparator));
+		}
+		declarations.put(name, lines.size());
+		lines.add(Line.parse(declare + " " + name + "=" + value, "", declare));
+		modified = true;
+	}
+
+	/**
+	 * Change the value of a variable, the variable is declared after the first declaration of
+	 * previousName if it is not declared, or at the end of the file if previousName is not declared either.
+	 *
+	 * @param name variable name
+	 * @param value variable value
+	 * @param previousName name of the variable declared before it
+	 */
+	public void put(String name, String value, String previousName) {
+		Integer previous = declarations.get(previousName);
+		if (previous == null || set(name, value)) {
+			put(name, value);
+			return;
+		}
+		int index = previous + 1;
+		Line previousLine = lines.get(previous);
+		if (previousLine.separator.isEmpty()) {
+			lines.set(previous, previousLine.withSeparator(FileUtil.lineSeparator));
+		}
+		for (Map.Entry<String, Integer> declaration : declarations.entrySet()) {
+			if (declaration.getValue() >= index) {
+				declaration.setValue(declaration.getValue() + 1);
+			}
+		}
+		declarations.put(name, index);
+		lines.add(index, Line.parse(declare + " " + name + "=" + value, previousLine.separator, declare));
+		modified = true;
+	}
+
+	/**
+	 * Write the file if a variable was changed. The file is replaced at once and keeps its permissions.
+	 */
+	public void save() {
+		if (file == null) {
+			throw new IllegalStateException("The parsed content has no file");
+		}
+		if (!modified) {
+			return;
+		}
+		FileUtil.writeStringToFileAtomically(file, getContent());
+		modified = false;
+
+		try {
+			CACHE.put(file.getPath(), new Parsed(FileState.read(file), Collections.unmodifiableList(new ArrayList<Line>(lines)),
+					Collections.unmodifiableMap(new HashMap<String, Integer>(declarations))));
+		}
+		catch (IOException e) {
+			CACHE.remove(file.getPath());
+		}
+	}
+
+	/**
+	 * @return the content of the file with the changed variables
+	 */
+	public String getContent() {
+		StringBuilder content = new StringBuilder();
+		for (Line line : lines) {
+			content.append(line.text).append(line.separator);
+		}
+		return content.toString();
+	}
+
+	/**
+	 * A line of the file, with its separator.
+	 */
+	private static class Line {
+		private final String text;
+		private final String separator;
+		private final String name;
+		private final int valueStart;
+		private final int valueEnd;
+
+		private Line(String text, String separator, String name, int valueStart, int valueEnd) {
+			this.text = text;
+			this.separator = separator;
+			this.name = name;
+			this.valueStart = valueStart;
+			this.valueEnd = valueEnd;
+		}
+
+		private static Line parse(String text, String separator, String declare) {
+			if (text.startsWith(declare)) {
+				Matcher matcher = DECLARATION.matcher(text);
+				if (matcher.matches() && matcher.group(1).equals(declare)) {
+					return new Line(text, separator, matcher.group(2), matcher.start(3), matcher.end(3));
+				}
+			}
+			return new Line(text, separator, null, -1, -1);
+		}
+
+		private String getValue() {
+			return text.substring(valueStart, valueEnd);
+		}
+
+		private Line withValue(String value) {
+			String changed = text.substring(0, valueStart) + value + text.substring(valueEnd);
+			return new Line(changed, separator, name, valueStart, valueStart + value.length());
+		}
+
+		private Line withSeparator(String separator) {
+			return new Line(text, separator, name, valueStart, valueEnd);
+		}
+	}
+
+	/**
+	 * Lines of a parsed file and the state of the file when it was parsed.
+	 */
+	private static class Parsed {
+		private final FileState state;
+		private final List<Line> lines;
+		private final Map<String, Integer> declarations;
+
+		private Parsed(FileState state, List<Line> lines, Map<String, Integer> declarations) {
+			this.state = state;
+			this.lines = lines;
+			this.declarations = declarations;
+		}
+	}
+
+	/**
+	 * The attributes telling that a file changed. The change time is updated by every write, even
+	 * one which restores the modification time.
+	 */
+	private static class FileState {
+		private final long lastModified;
+		private final long size;
+		private final Object fileKey;
+		// null when the filesystem has no unix attributes
+		private final Object changeTime;
+
+		private FileState(BasicFileAttributes attributes, Object changeTime) {
+			this.lastModified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+			this.size = attributes.size();
+			this.fileKey = attributes.fileKey();
+			this.changeTime = changeTime;
+		}
+
+		private static FileState read(File file) throws IOException {
+			Path path = file.toPath();
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			Object changeTime;
+			try {
+				changeTime = Files.getAttribute(path, "unix:ctime");
+			}
+			catch (UnsupportedOperationException e) {
+				changeTime = null;
+			}
+			catch (IllegalArgumentException e) {
+				changeTime = null;
+			}
+			return new FileState(attributes, changeTime);
+		}
+
+		private boolean matches(FileState state) {
+			return lastModified == state.lastModified && size == state.size
+					&& (fileKey == null ? state.fileKey == null : fileKey.equals(state.fileKey))
+					&& (changeTime == null ? state.changeTime == null : changeTime.equals(state.changeTime));
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.openlena.ctl.exception.LenaException;
+
+/**
+ * Directory of a server built aside in .[name].staging, next to the target directory so that
+ * both are on the same filesystem, and published with an atomic rename.
+ * <p>
+ * A failed install never leaves a partial server directory: the staging directory is renamed to
+ * .[name].trash-[nanos] and deleted in the background, so the install can be retried at once.
+ * <p>
+ * An install holds a lock on .[name].lock until it publishes or discards its staging directory,
+ * so that a concurrent install of the same directory fails instead of trashing it. The lock file
+ * is deleted while it is held, after a byte is written to it: an install which locks a file that
+ * is not empty opens the lock file again.
+ * <p>
+ * A resumable staging directory is kept when the install fails or is killed, together with the
+ * {@link CopyCheckpoint} of its copy in .[name].checkpoint, and the next install of the same
+ * directory resumes the copy.
+ * <p>
+ * Nothing is cleaned up when lena-ctl exits. A killed install leaves its lock file and its
+ * staging directory, and an exiting lena-ctl leaves the trash it was deleting. They are reclaimed
+ * by the next install in the same root directory, which deletes the trash directories and the
+ * lock files nobody holds, with their staging directory unless it is resumable. A resumable
+ * staging directory and its checkpoint are kept until the same directory is installed again.
+ */
+public class StagedDirectory {
+	private static final Logger LOGGER = LoggerFactory.getLogger(StagedDirectory.class);
+
+	private static final String STAGING_SUFFIX = ".staging";
+	private static final String TRASH_SUFFIX = ".trash-";
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+	private static final String LOCK_SUFFIX = ".lock";
+
+	private final File target;
+	private final File staging;
+	private final File checkpointFile;
+	private final File lockFile;
+	private FileChannel lockChannel;
+	private CopyCheckpoint checkpoint;
+	private boolean published;
+
+	private StagedDirectory(File target) {
+		this.target = target;
+		this.staging = new File(target.getParentFile(), "." + target.getName() + STAGING_SUFFIX);
+		this.checkpointFile = new File(target.getParentFile(), "." + target.getName() + CHECKPOINT_SUFFIX);
+		this.lockFile = new File(target.getParentFile(), "." + target.getName() + LOCK_SUFFIX);
+	}
+
+	/**
+	 * Prepare the staging directory of targetPath.
+	 *
+	 * @param targetPath the directory to install, which must not exist
+	 * @return the staged directory
+	 */
+	public static StagedDirectory create(String targetPath) {
+		return create(targetPath, false);
+	}
+
+	/**
+	 * Prepare the staging directory of targetPath.
+	 *
+	 * @param targetPath the directory to install, which must not exist
+	 * @param resume true to resume the copy of a failed or killed install, and to keep the staging
+	 * directory for the next install if this one fails
+	 * @return the staged directory
+	 * @throws LenaException if the target exists or another install of it is running
+	 */
+	public static StagedDirectory create(String targetPath, boolean resume) {
+		File target = new File(targetPath).getAbsoluteFile();
+		if (target.exists()) {
+			throw new LenaException(targetPath + " already exists.");
+		}
+		StagedDirectory stagedDirectory = new StagedDirectory(target);
+		stagedDirectory.lock();
+		if (target.exists()) {
+			// published by the install which held the lock
+			stagedDirectory.unlock();
+			throw new LenaException(targetPath + " already exists.");
+		}
+		boolean resumable = resume && stagedDirectory.checkpointFile.isFile();
+		// left by a killed install
+		if (stagedDirectory.staging.exists() && !resumable) {
+			moveToTrash(stagedDirectory.staging, target.getName());
+		}
+		if (stagedDirectory.checkpointFile.exists() && !resumable) {
+			FileUtil.delete(stagedDirectory.checkpointFile);
+		}
+		reclaimTrash(target.getParentFile());
+		if (resume) {
+			try {
+				stagedDirectory.checkpoint = CopyCheckpoint.open(stagedDirectory.checkpointFile);
+			}
+			catch (IOException e) {
+				stagedDirectory.unlock();
+				throw new LenaException("Failed to open '" + stagedDirectory.checkpointFile.getPath() + "'", e);
+			}
+		}
+		return stagedDirectory;
+	}
+
+	/**
+	 * Lock .[name].lock, the lock is released when the process exits.
+	 *
+	 * @throws LenaException if another install holds the lock
+	 */
+	private void lock() {
+		while (true) {
+			FileLock lock = null;
+			try {
+				Files.createDirectories(lockFile.getParentFile().toPath());
+				lockChannel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+				lock = lockChannel.tryLock();
+				if (lock != null && lockChannel.size() == 0) {
+					return;
+				}
+			}
+			catch (OverlappingFileLockException e) {
+				// held by this process
+			}
+			catch (IOException e) {
+				unlock();
+				throw new LenaException("Failed to lock '" + lockFile.getPath() + "'", e);
+			}
+			unlock();
+			if (lock == null) {
+				throw new LenaException("Another install of " + target.getPath() + " is running.");
+			}
+			// deleted by the install which held it, see deleteLockFile
+		}
+	}
+
+	/**
+	 * Release the lock, closing the channel releases it.
+	 */
+	private void unlock() {
+		if (lockChannel != null) {
+			IOUtils.closeQuietly(lockChannel);
+			lockChannel = null;
+		}
+	}
+
+	/**
+	 * Delete the lock file and release the lock, if it is still held.
+	 */
+	private void releaseLock() {
+		if (lockChannel != null) {
+			deleteLockFile(lockFile, lockChannel);
+			unlock();
+		}
+	}
+
+	/**
+	 * @return the path where the server is built
+	 */
+	public String getPath() {
+		return staging.getPath();
+	}
+
+	/**
+	 * @return the path of the installed server
+	 */
+	public String getTargetPath() {
+		return target.getPath();
+	}
+
+	/**
+	 * @return the checkpoint of the copy to the staging directory, null if the install is not resumable
+	 */
+	public CopyCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Rename the staging directory to the target directory.
+	 */
+	public void publish() {
+		closeCheckpoint();
+		try {
+			Files.move(staging.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			published = true;
+			if (checkpointFile.exists()) {
+				FileUtil.delete(checkpointFile);
+			}
+			releaseLock();
+		}
+		catch (IOException e) {
+			if (target.exists()) {
+				throw new LenaException(target.getPath() + " already exists.", e);
+			}
+			throw new LenaException("Failed to publish '" + staging.getPath() + "', '" + target.getPath() + "'", e);
+		}
+	}
+
+	/**
+	 * Roll back: move the staging directory, or the target directory when it was already
+	 * published, to the trash and delete it in the background. The staging directory of a
+	 * resumable install is kept for the next install.
+	 */
+	public void discard() {
+		boolean resumable = checkpoint != null && !published;
+		closeCheckpoint();
+		if (resumable) {
+			releaseLock();
+			return;
+		}
+		File dir = published ? target : staging;
+		published = false;
+		if (dir.exists()) {
+			moveToTrash(dir, target.getName());
+		}
+		if (checkpointFile.exists()) {
+			FileUtil.delete(checkpointFile);
+		}
+		releaseLock();
+	}
+
+	private void closeCheckpoint() {
+		if (checkpoint != null) {
+			IOUtils.closeQuietly(checkpoint);
+			checkpoint = null;
+		}
+	}
+
+	private static void moveToTrash(File dir, String name) {
+		File trash = new File(dir.getParentFile(), "." + name + TRASH_SUFFIX + System.nanoTime());
+		try {
+			Files.move(dir.toPath(), trash.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			LOGGER.debug("Failed to move '" + dir + "' to the trash", e);
+			FileUtil.delete(dir);
+			return;
+		}
+		deleteInBackground(trash);
+	}
+
+	/**
+	 * Delete a lock file held by channel. The byte written to it tells an install which opened it
+	 * before it was deleted to open it again, instead of running along with an install which
+	 * locks the new lock file.
+	 */
+	private static void deleteLockFile(File lockFile, FileChannel channel) {
+		try {
+			channel.write(ByteBuffer.wrap(new byte[] { 1 }), 0);
+			Files.deleteIfExists(lockFile.toPath());
+		}
+		catch (IOException e) {
+			// kept, an empty lock file is reused by the next install
+			LOGGER.debug("Failed to delete '" + lockFile + "'", e);
+		}
+	}
+
+	private static void reclaimTrash(File rootDir) {
+		File[] files = rootDir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.getName().startsWith(".") && (file.getName().contains(TRASH_SUFFIX) || file.getName().endsWith(LOCK_SUFFIX));
+			}
+		});
+		if (files != null) {
+			for (File file : files) {
+				if (file.getName().endsWith(LOCK_SUFFIX)) {
+					reclaimLockFile(file);
+				}
+				else {
+					deleteInBackground(file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Delete a lock file left by a killed install, with its staging directory unless it is
+	 * resumable. A lock file held by a running install is kept.
+	 */
+	private static void reclaimLockFile(File lockFile) {
+		String name = lockFile.getName().substring(1, lockFile.getName().length() - LOCK_SUFFIX.length());
+		FileChannel channel = null;
+		try {
+			channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE);
+			FileLock lock = channel.tryLock();
+			if (lock == null || channel.size() > 0) {
+				return;
+			}
+			File staging = new File(lockFile.getParentFile(), "." + name + STAGING_SUFFIX);
+			File checkpointFile = new File(lockFile.getParentFile(), "." + name + CHECKPOINT_SUFFIX);
+			if (staging.exists() && !checkpointFile.isFile()) {
+				moveToTrash(staging, name);
+			}
+			deleteLockFile(lockFile, channel);
+		}
+		catch (OverlappingFileLockException e) {
+			// held by this process
+		}
+		catch (NoSuchFileException e) {
+			// deleted by another install
+		}
+		catch (IOException e) {
+			LOGGER.debug("Failed to reclaim '" + lockFile + "'", e);
+		}
+		finally {
+			IOUtils.closeQuietly(channel);
+		}
+	}
+
+	/**
+	 * The thread is a daemon, lena-ctl does not wait for a large trash to be deleted. What is
+	 * left when the JVM exits is deleted by the next install, see {@link #reclaimTrash(File)}.
+	 */
+	private static void deleteInBackground(final File trash) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					FileUtil.delete(trash);
+				}
+				catch (LenaException e) {
+					// another install may be deleting it, or the next one will
+					LOGGER.debug("Failed to delete '" + trash + "'", e);
+				}
+			}
+		}, "trash-delete");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -74,4 +74,26 @@ public class StringUtil {
 		}
 		return true;
 	}
+
+	/**
+	 * Escape a value to be written as a JSON string.
+	 *
+	 * @param value the value
+	 * @return the value with quotes, backslashes and control characters escaped
+	 */
+	public static String escapeJson(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				escaped.append('\\').append(c);
+			}
+			else if (c < 0x20) {
+				escaped.append(String.format("\\u%04x", (int) c));
+			}
+			else {
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
 }
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Renders template files while they are copied or extracted, so that a rendered file is read and
+ * written once.
+ * <ul>
+ * <li>env.sh at the root gets the {@link CopyOptions#getShellVariables()}, env.bat is left to
+ * the caller as the variables are given with the values of env.sh.</li>
+ * <li>files matching {@link CopyOptions#getSubstitutionIncludes()} get their substitutions,
+ * binaries excepted.</li>
+ * </ul>
+ * Other files are copied as they are by the caller.
+ */
+class TemplateRenderer {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String SHELL_FILE = "env.sh";
+
+	private TemplateRenderer() {
+	}
+
+	/**
+	 * @param relativePath path of the file relative to the copied directory
+	 * @param options the copy options
+	 * @return true if the file is rendered instead of being copied
+	 */
+	static boolean isTemplate(String relativePath, CopyOptions options) {
+		return isShellTemplate(relativePath, options) || isSubstituted(relativePath, options);
+	}
+
+	/**
+	 * Render a file.
+	 *
+	 * @param input the template, not closed
+	 * @param output the rendered file, not closed
+	 * @param relativePath path of the file relative to the copied directory
+	 * @param options the copy options
+	 * @throws IOException if the file cannot be copied or a shell variable is not declared
+	 */
+	static void render(InputStream input, OutputStream output, String relativePath, CopyOptions options) throws IOException {
+		if (isShellTemplate(relativePath, options)) {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			IOUtils.copyLarge(input, buffer);
+			ShellEnvironment environment = ShellEnvironment.parse(new String(buffer.toByteArray(), UTF_8), relativePath);
+			for (Map.Entry<String, String> variable : options.getShellVariables().entrySet()) {
+				if (!environment.set(variable.getKey(), variable.getValue())) {
+					throw new IOException("Fail to set variable '" + variable.getKey() + "' : '" + relativePath + "'");
+				}
+			}
+			input = new ByteArrayInputStream(environment.getContent().getBytes(UTF_8));
+		}
+
+		if (!isSubstituted(relativePath, options)) {
+			IOUtils.copyLarge(input, output);
+			return;
+		}
+		BufferedInputStream buffered = new BufferedInputStream(input, TextReplacer.CHUNK_SIZE);
+		if (isBinary(buffered)) {
+			IOUtils.copyLarge(buffered, output);
+		}
+		else {
+			options.getSubstitutionReplacer().replace(buffered, output);
+		}
+	}
+
+	private static boolean isShellTemplate(String relativePath, CopyOptions options) {
+		return options.getShellVariables() != null && SHELL_FILE.equals(relativePath);
+	}
+
+	private static boolean isSubstituted(String relativePath, CopyOptions options) {
+		return options.getSubstitutionReplacer() != null && !options.getSubstitutionReplacer().isEmpty()
+				&& options.getSubstitutionIncludes() != null && options.getSubstitutionIncludes().matches(relativePath);
+	}
+
+	private static boolean isBinary(BufferedInputStream input) throws IOException {
+		byte[] head = new byte[TextReplacer.BINARY_SNIFF_SIZE];
+		input.mark(head.length);
+		int count = 0;
+		int length;
+		while (count < head.length && (length = input.read(head, count, head.length - count)) > 0) {
+			count += length;
+		}
+		input.reset();
+		return TextReplacer.isBinary(head, count);
+	}
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2021 LENA Development Team.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.openlena.ctl.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replaces many strings at once in files or streams.
+ * <p>
+ * The UTF-8 bytes of every target are compiled into one Aho-Corasick automaton, so the text is
+ * read once whatever the number of targets, in chunks of {@link #CHUNK_SIZE} bytes. Matches are
+ * replaced from left to right, the longest target winning when several start at the same
+ * position, and replacements are not searched again. Matching bytes instead of decoded text
+ * gives the same result for UTF-8 text and leaves any other byte untouched.
+ * <p>
+ * A file is rewritten only if a target is found, through a temporary file renamed over it, so
+ * untouched files keep their content and date, and a hard linked file is never changed through
+ * its other links. Files with a NUL byte in their first chunk are binaries and skipped.
+ * Directories are walked without following symbolic links and their files are processed in
+ * parallel.
+ */
+public class TextReplacer {
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	static final int BINARY_SNIFF_SIZE = 8000;
+	private static final int FILES_PER_TASK = 16;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// goto function of the automaton, 256 entries per state
+	private final int[] transitions;
+	// length of the state prefix
+	private final int[] depths;
+	// target matched at the state, -1 if none
+	private final int[] matches;
+	// state of the longest proper suffix
+	private final int[] failures;
+	// the state itself or its longest suffix state matching a target, -1 if none
+	private final int[] matchLinks;
+	private final byte[][] targets;
+	private final byte[][] replacements;
+
+	/**
+	 * @param replacements targets mapped to their replacement, empty targets are ignored
+	 */
+	public TextReplacer(Map<String, String> replacements) {
+		List<byte[]> targetList = new ArrayList<byte[]>();
+		List<byte[]> replacementList = new ArrayList<byte[]>();
+		int stateCount = 1;
+		for (Map.Entry<String, String> replacement : replacements.entrySet()) {
+			if (replacement.getKey() != null && replacement.getKey().length() > 0) {
+				targetList.add(replacement.getKey().getBytes(UTF_8));
+				replacementList.add(replacement.getValue().getBytes(UTF_8));
+				stateCount += targetList.get(targetList.size() - 1).length;
+			}
+		}
+		this.targets = targetList.toArray(new byte[targetList.size()][]);
+		this.replacements = replacementList.toArray(new byte[replacementList.size()][]);
+
+		// trie of the targets
+		int[] trie = new int[stateCount * 256];
+		Arrays.fill(trie, -1);
+		depths = new int[stateCount];
+		matches = new int[stateCount];
+		Arrays.fill(matches, -1);
+		int states = 1;
+		for (int i = 0; i < targets.length; i++) {
+			int state = 0;
+			for (byte b : targets[i]) {
+				int next = trie[state * 256 + (b & 0xff)];
+				if (next < 0) {
+					next = states++;
+					trie[state * 256 + (b & 0xff)] = next;
+					depths[next] = depths[state] + 1;
+				}
+				state = next;
+			}
+			matches[state] = i;
+		}
+
+		// failure links breadth first, turning the trie into a complete goto function
+		transitions = trie;
+		matchLinks = new int[stateCount];
+		failures = new int[stateCount];
+		Queue<Integer> queue = new ArrayDeque<Integer>();
+		matchLinks[0] = -1;
+		for (int b = 0; b < 256; b++) {
+			int next = transitions[b];
+			if (next < 0) {
+				transitions[b] = 0;
+			}
+			else {
+				failures[next] = 0;
+				matchLinks[next] = matches[next] >= 0 ? next : -1;
+				queue.add(next);
+			}
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			for (int b = 0; b < 256; b++) {
+				int next = transitions[state * 256 + b];
+				int fallback = transitions[failures[state] * 256 + b];
+				if (next < 0) {
+					transitions[state * 256 + b] = fallback;
+				}
+				else {
+					failures[next] = fallback;
+					matchLinks[next] = matches[next] >= 0 ? next : matchLinks[fallback];
+					queue.add(next);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if there is no target to replace
+	 */
+	public boolean isEmpty() {
+		return targets.length == 0;
+	}
+
+	/**
+	 * Copy a stream, replacing the targets.
+	 *
+	 * @param input the text to read, not closed
+	 * @param output the replaced text, not closed
+	 * @return the number of replacements
+	 * @throws IOException if the stream cannot be read or written
+	 */
+	public long replace(InputStream input, OutputStream output) throws IOException {
+		Replacement replacement = new Replacement(output);
+		byte[] buffer = new byte[CHUNK_SIZE];
+		int count;
+		while ((count = input.read(buffer)) >= 0) {
+			replacement.write(buffer, 0, count);
+		}
+		replacement.finish();
+		return replacement.count;
+	}
+
+	/**
+	 * Replace the targets in a file, or in all files of a directory.
+	 *
+	 * @param src a file, or a directory walked without following symbolic links
+	 * @param threads number of files replaced at the same time
+	 * @return the number of rewritten files
+	 * @throws IOException if a file cannot be read or rewritten
+	 */
+	public int replace(File src, int threads) throws IOException {
+		if (isEmpty()) {
+			return 0;
+		}
+		if (!src.isDirectory()) {
+			// a file given explicitly is rewritten through its links
+			return replaceFile(src.toPath().toRealPath()) ? 1 : 0;
+		}
+
+		final List<Path> files = new ArrayList<Path>();
+		Files.walkFileTree(src.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				if (attributes.isRegularFile() && attributes.size() > 0) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		ReplaceFilesTask task = new ReplaceFilesTask(files, 0, files.size());
+		if (threads > 1 && files.size() > FILES_PER_TASK) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				pool.invoke(task);
+			}
+			finally {
+				pool.shutdown();
+			}
+		}
+		else {
+			task.compute();
+		}
+		if (task.failure != null) {
+			throw task.failure;
+		}
+		return task.rewritten.get();
+	}
+
+	/**
+	 * @return true if the file was rewritten
+	 */
+	private boolean replaceFile(Path file) throws IOException {
+		FileOutput output = new FileOutput(file);
+		InputStream input = new FileInputStream(file.toFile());
+		try {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			Replacement replacement = new Replacement(output);
+			boolean first = true;
+			int count;
+			while ((count = input.read(buffer)) >= 0) {
+				if (first && isBinary(buffer, count)) {
+					return false;
+				}
+				first = false;
+				replacement.write(buffer, 0, count);
+			}
+			replacement.finish();
+			return output.commit();
+		}
+		finally {
+			input.close();
+			output.close();
+		}
+	}
+
+	static boolean isBinary(byte[] buffer, int count) {
+		for (int i = 0; i < Math.min(count, BINARY_SNIFF_SIZE); i++) {
+			if (buffer[i] == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replacement of one stream.
+	 * <p>
+	 * Only the bytes which may still be part of a match are kept pending, at most the length of
+	 * the longest target. The best match found is replaced once no match starting before it or
+	 * at the same position can end later, and the bytes after it are matched again.
+	 */
+	private class Replacement {
+		private final OutputStream output;
+		private byte[] pending = new byte[64];
+		private int pendingLength;
+		private int state;
+		// best match in pending, -1 if none
+		private int matchStart = -1;
+		private int matchTarget;
+		private long count;
+
+		private Replacement(OutputStream output) {
+			this.output = output;
+		}
+
+		private void write(byte[] b, int off, int len) throws IOException {
+			int flushed = 0;
+			for (int i = off; i < off + len; i++) {
+				if (pendingLength == 0 && state == 0 && transitions[b[i] & 0xff] == 0) {
+					// fast path, the byte starts no target
+					continue;
+				}
+				output.write(b, off + flushed, i - off - flushed);
+				flushed = i - off + 1;
+				push(b[i]);
+			}
+			output.write(b, off + flushed, len - flushed);
+		}
+
+		private void push(byte b) throws IOException {
+			if (pendingLength == pending.length) {
+				pending = Arrays.copyOf(pending, pending.length * 2);
+			}
+			pending[pendingLength++] = b;
+			step(pendingLength - 1);
+		}
+
+		private void step(int index) throws IOException {
+			state = transitions[state * 256 + (pending[index] & 0xff)];
+			int suffixStart = index - depths[state] + 1;
+			if (matchStart >= 0 && suffixStart > matchStart) {
+				replaceMatch();
+				return;
+			}
+			for (int link = matchLinks[state]; link >= 0; link = matchLinks[failures[link]]) {
+				int target = matches[link];
+				int start = index - targets[target].length + 1;
+				if (matchStart < 0 || start < matchStart || (start == matchStart && targets[target].length > targets[matchTarget].length)) {
+					matchStart = start;
+					matchTarget = target;
+				}
+			}
+			if (matchStart < 0 && suffixStart > 0) {
+				// the bytes before the suffix can no longer be part of a match
+				output.write(pending, 0, suffixStart);
+				System.arraycopy(pending, suffixStart, pending, 0, pendingLength - suffixStart);
+				pendingLength -= suffixStart;
+			}
+		}
+
+		private void replaceMatch() throws IOException {
+			int end = matchStart + targets[matchTarget].length;
+			output.write(pending, 0, matchStart);
+			if (count == 0 && output instanceof FileOutput) {
+				((FileOutput) output).open();
+			}
+			output.write(replacements[matchTarget]);
+			count++;
+
+			byte[] rest = Arrays.copyOfRange(pending, end, pendingLength);
+			pendingLength = 0;
+			state = 0;
+			matchStart = -1;
+			for (byte b : rest) {
+				push(b);
+			}
+		}
+
+		private void finish() throws IOException {
+			while (matchStart >= 0) {
+				replaceMatch();
+			}
+			output.write(pending, 0, pendingLength);
+			pendingLength = 0;
+			state = 0;
+		}
+	}
+
+	/**
+	 * Output of a replaced file. Nothing is written until the first replacement, then the
+	 * unchanged beginning is copied from the file itself to a temporary file which replaces the
+	 * file when committed.
+	 */
+	private class FileOutput extends OutputStream {
+		private final Path file;
+		private Path tempFile;
+		private OutputStream output;
+		private long unchanged;
+
+		private FileOutput(Path file) {
+			this.file = file;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (output == null) {
+				unchanged += len;
+			}
+			else {
+				output.write(b, off, len);
+			}
+		}
+
+		/**
+		 * Start the rewrite, called before the first replacement is written.
+		 */
+		private void open() throws IOException {
+			tempFile = file.resolveSibling("." + file.getFileName() + ".replace-" + System.nanoTime());
+			FileOutputStream fileOutput = new FileOutputStream(tempFile.toFile());
+			output = fileOutput;
+			FileChannel source = FileChannel.open(file);
+			try {
+				long position = 0;
+				while (position < unchanged) {
+					position += source.transferTo(position, unchanged - position, fileOutput.getChannel());
+				}
+			}
+			finally {
+				source.close();
+			}
+			output = new BufferedOutputStream(fileOutput, CHUNK_SIZE);
+		}
+
+		/**
+		 * @return true if the file was replaced
+		 */
+		private boolean commit() throws IOException {
+			if (output == null) {
+				return false;
+			}
+			output.close();
+			output = null;
+			if (Files.getFileStore(file).supportsFileAttributeView(PosixFileAttributeView.class)) {
+				Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(file));
+			}
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			tempFile = null;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (output != null) {
+				output.close();
+				output = null;
+			}
+			if (tempFile != null) {
+				Files.deleteIfExists(tempFile);
+			}
+		}
+	}
+
+	/**
+	 * Replaces a range of files, split in halves run in parallel.
+	 */
+	private class ReplaceFilesTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<Path> files;
+		private final int from;
+		private final int to;
+		private final AtomicInteger rewritten;
+		private volatile IOException failure;
+
+		private ReplaceFilesTask(List<Path> files, int from, int to) {
+			this(files, from, to, new AtomicInteger());
+		}
+
+		private ReplaceFilesTask(List<Path> files, int from, int to, AtomicInteger rewritten) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.rewritten = rewritten;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > FILES_PER_TASK && getPool() != null) {
+				int middle = (from + to) >>> 1;
+				ReplaceFilesTask left = new ReplaceFilesTask(files, from, middle, rewritten);
+				ReplaceFilesTask right = new ReplaceFilesTask(files, middle, to, rewritten);
+				invokeAll(left, right);
+				failure = left.failure != null ? left.failure : right.failure;
+				return;
+			}
+			for (int i = from; i < to && failure == null; i++) {
+				try {
+					if (replaceFile(files.get(i))) {
+						rewritten.incrementAndGet();
+					}
+				}
+				catch (IOException e) {
+					failure = new IOException("Failed to replace text '" + files.get(i) + "'", e);
+				}
+			}
+		}
+	}
+}
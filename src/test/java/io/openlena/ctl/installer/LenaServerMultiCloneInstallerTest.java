@@ -0,0 +1,141 @@
+package io.openlena.ctl.installer;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+import io.openlena.ctl.util.CipherUtil;
+import io.openlena.ctl.util.CustomFileUtils;
+import io.openlena.ctl.util.EnvUtil;
+import io.openlena.ctl.util.FileUtil;
+import io.openlena.ctl.util.InstallInfoUtil;
+import io.openlena.ctl.util.ShellEnvironment;
+
+import static org.junit.Assert.*;
+
+public class LenaServerMultiCloneInstallerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File installInfoFile;
+	private File releaseInfoFile;
+	private File source;
+
+	@Before
+	public void setUp() throws Exception {
+		source = new File(folder.getRoot(), "lena_was-8080");
+		CustomFileUtils.writeStringToFile(new File(source, "env.sh"), "#!/bin/sh\nexport SERVER_ID=lena_was-8080\nexport SERVICE_PORT=8080\n"
+				+ "export INSTALL_PATH=" + source.getPath() + "\nexport JVM_ROUTE=node8080\nexport AJP_SECRET=secret\n", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "logs/catalina.out"), "log", "UTF-8");
+
+		installInfoFile = new File(InstallInfoUtil.getInstallInfoFilePath());
+		FileUtil.writeStringToFile(installInfoFile, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+				+ "<install>\n"
+				+ "  <servers>\n"
+				+ "    <server><id>lena_was-8080</id><port>8080</port><type>lena-was</type><path>" + source.getPath() + "</path></server>\n"
+				+ "  </servers>\n"
+				+ "</install>");
+		releaseInfoFile = new File(FileUtil.getConcatPath(EnvUtil.getLenaHome(), "etc", "info", "release-info.xml"));
+		FileUtil.writeStringToFile(releaseInfoFile, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+				+ "<release><depot><modules><module><id>lena-was</id><version>1.0.0</version></module></modules></depot></release>");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtil.delete(installInfoFile);
+		FileUtil.delete(releaseInfoFile);
+	}
+
+	@Test
+	public void testParseCloneTargets() {
+		LenaServerMultiCloneInstaller installer = newInstaller(null);
+		LinkedHashMap<String, String> targets = installer.parseCloneTargets(" lena_was-8091:8091, ,lena_was.8090:8090,");
+		assertArrayEquals(new String[] { "lena_was-8091", "lena_was.8090" }, targets.keySet().toArray());
+		assertEquals("8091", targets.get("lena_was-8091"));
+		assertEquals("8090", targets.get("lena_was.8090"));
+
+		for (String invalid : new String[] { null, " , ", "lena_was-8090", ":8090", " :8090", "-x:8090", "../x:8090", "a/b:8090", "lena_was-8090:port",
+				"lena_was-8090:8090,lena_was-8090:8091" }) {
+			try {
+				installer.parseCloneTargets(invalid);
+				fail(invalid);
+			}
+			catch (LenaException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testExecute() throws Exception {
+		newInstaller(null).execute(new String[0]);
+
+		for (String port : new String[] { "8090", "8091" }) {
+			File clone = new File(folder.getRoot(), "lena_was-" + port);
+			ShellEnvironment environment = ShellEnvironment.load(new File(clone, "env.sh").getPath());
+			assertEquals("lena_was-" + port, environment.get("SERVER_ID"));
+			assertEquals(port, environment.get("SERVICE_PORT"));
+			assertEquals(clone.getPath(), environment.get("INSTALL_PATH"));
+			assertEquals(CipherUtil.md5("lena_was-" + port), environment.get("AJP_SECRET"));
+			assertTrue(new File(clone, "conf/server.xml").isFile());
+			assertFalse(new File(clone, "logs/catalina.out").exists());
+			assertFalse(new File(folder.getRoot(), ".lena_was-" + port + ".staging").exists());
+
+			assertEquals(clone.getPath(), InstallInfoUtil.getServerInstallPath("lena_was-" + port));
+		}
+	}
+
+	@Test
+	public void testFailureDiscardsPublishedTargets() throws Exception {
+		final File conflict = new File(folder.getRoot(), "lena_was-8091");
+		LenaServerCloneInstaller cloneInstaller = new LenaWasServerCloneInstaller(InstallerCommandType.CLONE, InstallerServerType.LENA_WAS) {
+			@Override
+			protected void configureServer(String serverPath, String targetPath, String cloneServerId, String cloneServicePort) {
+				super.configureServer(serverPath, targetPath, cloneServerId, cloneServicePort);
+				// installed meanwhile, the second target fails to publish after the first one is published
+				FileUtil.writeStringToFile(new File(conflict, "env.sh"), "");
+			}
+		};
+		try {
+			newInstaller(cloneInstaller).execute(new String[0]);
+			fail();
+		}
+		catch (LenaException e) {
+			// expected
+		}
+
+		assertFalse(new File(folder.getRoot(), "lena_was-8090").exists());
+		assertFalse(new File(folder.getRoot(), ".lena_was-8090.staging").exists());
+		assertFalse(new File(folder.getRoot(), ".lena_was-8091.staging").exists());
+		assertTrue(new File(conflict, "env.sh").isFile());
+		assertFalse(InstallInfoUtil.existsServer("lena_was-8090"));
+		assertFalse(InstallInfoUtil.existsServer("lena_was-8091"));
+		assertTrue(new File(source, "env.sh").isFile());
+	}
+
+	private LenaServerMultiCloneInstaller newInstaller(LenaServerCloneInstaller cloneInstaller) {
+		if (cloneInstaller == null) {
+			cloneInstaller = new LenaWasServerCloneInstaller(InstallerCommandType.CLONE, InstallerServerType.LENA_WAS);
+		}
+		return new LenaServerMultiCloneInstaller(InstallerCommandType.MULTICLONE, InstallerServerType.LENA_WAS, cloneInstaller) {
+			@Override
+			protected HashMap<String, String> getMultiCloneInfoFromUser() {
+				HashMap<String, String> commandMap = new HashMap<String, String>();
+				commandMap.put("SERVER_ID", "lena_was-8080");
+				commandMap.put("CLONE_SERVERS", "lena_was-8090:8090,lena_was-8091:8091");
+				return commandMap;
+			}
+		};
+	}
+}
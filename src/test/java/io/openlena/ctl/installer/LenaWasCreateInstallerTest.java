@@ -2,13 +2,19 @@ package io.openlena.ctl.installer;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 
 import io.openlena.ctl.type.InstallerCommandType;
 import io.openlena.ctl.type.InstallerServerType;
 import io.openlena.ctl.util.CustomFileUtils;
+import io.openlena.ctl.util.EnvUtil;
+import io.openlena.ctl.util.FileUtil;
+import io.openlena.ctl.util.InstallInfoUtil;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -51,6 +57,79 @@ public class LenaWasCreateInstallerTest {
 
 	}
 
+	@Test
+	public void testSharedLayout() throws Exception {
+		String lenaHome = EnvUtil.getLenaHome();
+		File module = new File(FileUtil.getConcatPath(lenaHome, "depot", "lena-was", "1.0.0", "module"));
+		File template = new File(FileUtil.getConcatPath(lenaHome, "depot", "lena-was", "1.0.0", "template", "base"));
+		File engine = new File(FileUtil.getConcatPath(lenaHome, "engines", "lena-was-1.0.0"));
+		File servers = new File(FileUtil.getConcatPath(lenaHome, "servers"));
+		File releaseInfoFile = new File(FileUtil.getConcatPath(lenaHome, "etc", "info", "release-info.xml"));
+		File installInfoFile = new File(InstallInfoUtil.getInstallInfoFilePath());
+		try {
+			FileUtil.writeStringToFile(new File(module, "bin/catalina.sh"), "#!/bin/sh\n");
+			FileUtil.writeStringToFile(new File(module, "lib/catalina.jar"), "jar");
+			FileUtil.writeStringToFile(new File(module, "conf/server.xml"), "<Server/>");
+			FileUtil.mkdirs(new File(module, "logs").getPath());
+			FileUtil.writeStringToFile(new File(template, "env.sh"), "#!/bin/sh\nexport JAVA_HOME=\nexport LENA_HOME=\nexport SERVER_ID=\n"
+					+ "export SERVICE_PORT=\nexport INSTALL_PATH=\nexport WAS_USER=\nexport JVM_ROUTE=\nexport AJP_ADDRESS=\nexport AJP_SECRET=\n"
+					+ "export CATALINA_OUT=${CATALINA_BASE}/logs/catalina.out\n");
+			FileUtil.writeStringToFile(releaseInfoFile, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+					+ "<release><depot><modules><module><id>lena-was</id><version>1.0.0</version></module></modules></depot></release>");
+			FileUtil.writeStringToFile(installInfoFile, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+					+ "<install><servers></servers></install>");
+
+			for (String port : new String[] { "8080", "8081" }) {
+				newSharedLayoutInstaller("lena_was-" + port, port).execute(new String[0]);
+
+				File server = new File(servers, "lena_was-" + port);
+				String env = FileUtil.readFileToString(new File(server, "env.sh"));
+				String serverPath = FileUtil.getConcatPath(lenaHome, "servers", "lena_was-" + port);
+				String enginePath = FileUtil.getConcatPath(lenaHome, "engines", "lena-was-1.0.0");
+				assertTrue(env, env.contains("export INSTALL_PATH=" + serverPath + "\nexport CATALINA_HOME=" + enginePath
+						+ "\nexport CATALINA_BASE=${INSTALL_PATH}\nexport WAS_USER="));
+				assertTrue(env, env.endsWith("export CATALINA_OUT=${CATALINA_BASE}/logs/catalina.out\n"));
+				assertTrue(new File(server, "conf/server.xml").isFile());
+				assertTrue(Files.getPosixFilePermissions(new File(server, "logs").toPath()).contains(PosixFilePermission.OWNER_WRITE));
+				assertFalse(new File(server, "lib").exists());
+				assertEquals(serverPath, InstallInfoUtil.getServerInstallPath("lena_was-" + port));
+			}
+
+			// published once, without write permissions
+			assertEquals("jar", FileUtil.readFileToString(new File(engine, "lib/catalina.jar")));
+			for (String path : new String[] { "", "lib", "lib/catalina.jar", "bin/catalina.sh" }) {
+				Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(new File(engine, path).toPath());
+				assertFalse(path, permissions.contains(PosixFilePermission.OWNER_WRITE));
+				assertFalse(path, permissions.contains(PosixFilePermission.GROUP_WRITE));
+				assertFalse(path, permissions.contains(PosixFilePermission.OTHERS_WRITE));
+			}
+			assertTrue(Files.getPosixFilePermissions(new File(engine, "bin/catalina.sh").toPath()).contains(PosixFilePermission.OWNER_EXECUTE));
+		}
+		finally {
+			chmod(engine, 775, true);
+			for (File file : new File[] { new File(FileUtil.getConcatPath(lenaHome, "depot")), engine.getParentFile(), servers, releaseInfoFile, installInfoFile }) {
+				FileUtil.delete(file);
+			}
+		}
+	}
+
+	private LenaWasCreateInstaller newSharedLayoutInstaller(final String serverId, final String servicePort) {
+		return new LenaWasCreateInstaller(InstallerCommandType.CREATE, InstallerServerType.LENA_WAS) {
+			@Override
+			protected boolean isSharedLayout() {
+				return true;
+			}
+
+			@Override
+			public HashMap<String, String> getServerInfoFromUser() {
+				HashMap<String, String> commandMap = new HashMap<String, String>();
+				commandMap.put("SERVER_ID", serverId);
+				commandMap.put("SERVICE_PORT", servicePort);
+				return commandMap;
+			}
+		};
+	}
+
 	@Test
 	public void testGetServerInfoFromUser() {
 		String id = "server_id";
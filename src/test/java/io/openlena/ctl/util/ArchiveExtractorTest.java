@@ -0,0 +1,246 @@
+package io.openlena.ctl.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.openlena.ctl.exception.PartialCopyException;
+
+import static org.junit.Assert.*;
+
+public class ArchiveExtractorTest {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void testExtractTarGz() throws IOException {
+		File archive = temporaryFolder.newFile("template.tar.gz");
+		OutputStream output = new GZIPOutputStream(new FileOutputStream(archive));
+		try {
+			writeTarEntry(output, "./bin/", '5', 0750, null, null);
+			writeTarEntry(output, "./bin/start.sh", '0', 0750, "#!/bin/sh\n", null);
+			writeTarEntry(output, "./conf/server.xml", '0', 0600, "<Server port=\"@PORT@\"/>", null);
+			writeTarEntry(output, "./conf/link.xml", '2', 0777, null, "server.xml");
+			writeTarEntry(output, "./logs/old.log", '0', 0644, "old", null);
+			output.write(new byte[1024]);
+		}
+		finally {
+			output.close();
+		}
+
+		CopyOptions options = new CopyOptions();
+		options.setPreservePermissions(true);
+		options.setExcludes(PathPatternMatcher.compile("logs/**"));
+		options.setSubstitutions(PathPatternMatcher.compile("*.xml"), Collections.singletonMap("@PORT@", "8080"));
+		File destDir = new File(temporaryFolder.getRoot(), "server");
+		CopyStatistics statistics = ArchiveExtractor.extract(archive, destDir, options);
+
+		assertEquals(2, statistics.getFileCount());
+		assertEquals(1, statistics.getLinkCount());
+		assertEquals("<Server port=\"8080\"/>", FileUtils.readFileToString(new File(destDir, "conf/server.xml"), "UTF-8"));
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(new File(destDir, "conf/server.xml").toPath())));
+		assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(new File(destDir, "bin").toPath())));
+		assertEquals("server.xml", Files.readSymbolicLink(new File(destDir, "conf/link.xml").toPath()).toString());
+		assertFalse(new File(destDir, "logs").exists());
+	}
+
+	@Test
+	public void testExtractZip() throws IOException {
+		File archive = temporaryFolder.newFile("module.zip");
+		ZipOutputStream output = new ZipOutputStream(new FileOutputStream(archive));
+		try {
+			output.putNextEntry(new ZipEntry("lib/"));
+			output.putNextEntry(new ZipEntry("lib/a.jar"));
+			output.write("jar".getBytes(UTF_8));
+			output.closeEntry();
+		}
+		finally {
+			output.close();
+		}
+
+		File destDir = new File(temporaryFolder.getRoot(), "server");
+		CopyStatistics statistics = ArchiveExtractor.extract(archive, destDir, new CopyOptions());
+
+		assertEquals(1, statistics.getFileCount());
+		assertEquals(3, statistics.getByteCount());
+		// zip entries have no mode, files get 755 like copied files
+		assertEquals("rwxr-xr-x", PosixFilePermissions.toString(Files.getPosixFilePermissions(new File(destDir, "lib/a.jar").toPath())));
+	}
+
+	@Test(expected = PartialCopyException.class)
+	public void testRejectsEntryOutsideDestination() throws IOException {
+		File archive = temporaryFolder.newFile("evil.tar");
+		OutputStream output = new FileOutputStream(archive);
+		try {
+			writeTarEntry(output, "../evil.sh", '0', 0755, "evil", null);
+		}
+		finally {
+			output.close();
+		}
+		ArchiveExtractor.extract(archive, new File(temporaryFolder.getRoot(), "server"), new CopyOptions());
+	}
+
+	@Test
+	public void testRejectsLinkOutsideDestination() throws IOException {
+		File outside = temporaryFolder.newFolder("outside");
+		File archive = temporaryFolder.newFile("evil.tar");
+		OutputStream output = new FileOutputStream(archive);
+		try {
+			writeTarEntry(output, "./conf", '2', 0777, null, "../outside");
+			writeTarEntry(output, "./conf/evil.sh", '0', 0755, "evil", null);
+		}
+		finally {
+			output.close();
+		}
+		File destDir = new File(temporaryFolder.getRoot(), "server");
+		try {
+			ArchiveExtractor.extract(archive, destDir, new CopyOptions());
+			fail();
+		}
+		catch (PartialCopyException e) {
+			assertEquals("./conf", e.getFailedPath());
+		}
+		assertFalse(Files.exists(new File(destDir, "conf").toPath(), LinkOption.NOFOLLOW_LINKS));
+		assertFalse(new File(outside, "evil.sh").exists());
+	}
+
+	@Test(expected = PartialCopyException.class)
+	public void testRejectsAbsoluteLink() throws IOException {
+		File archive = temporaryFolder.newFile("evil.tar");
+		OutputStream output = new FileOutputStream(archive);
+		try {
+			writeTarEntry(output, "./conf", '2', 0777, null, temporaryFolder.getRoot().getAbsolutePath());
+		}
+		finally {
+			output.close();
+		}
+		ArchiveExtractor.extract(archive, new File(temporaryFolder.getRoot(), "server"), new CopyOptions());
+	}
+
+	@Test
+	public void testDoesNotWriteThroughExistingLinks() throws IOException {
+		File outside = temporaryFolder.newFolder("outside");
+		File secret = new File(outside, "secret");
+		FileUtils.writeStringToFile(secret, "secret", "UTF-8");
+		// left in the destination, by a previous extraction for instance
+		File destDir = temporaryFolder.newFolder("server");
+		Files.createSymbolicLink(new File(destDir, "conf").toPath(), outside.toPath());
+		Files.createSymbolicLink(new File(destDir, "start.sh").toPath(), secret.toPath());
+
+		File archive = temporaryFolder.newFile("evil.tar");
+		OutputStream output = new FileOutputStream(archive);
+		try {
+			writeTarEntry(output, "./start.sh", '0', 0755, "evil", null);
+		}
+		finally {
+			output.close();
+		}
+		ArchiveExtractor.extract(archive, destDir, new CopyOptions());
+		assertEquals("evil", FileUtils.readFileToString(new File(destDir, "start.sh"), "UTF-8"));
+		assertFalse(Files.isSymbolicLink(new File(destDir, "start.sh").toPath()));
+		assertEquals("secret", FileUtils.readFileToString(secret, "UTF-8"));
+
+		for (String[] entry : new String[][] { { "./conf/evil.sh", "0", null }, { "./evil", "1", "conf/secret" } }) {
+			output = new FileOutputStream(archive);
+			try {
+				writeTarEntry(output, entry[0], entry[1].charAt(0), 0755, entry[2] == null ? "evil" : null, entry[2]);
+			}
+			finally {
+				output.close();
+			}
+			try {
+				ArchiveExtractor.extract(archive, destDir, new CopyOptions());
+				fail(entry[0]);
+			}
+			catch (PartialCopyException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("outside of the destination"));
+			}
+		}
+		assertFalse(new File(outside, "evil.sh").exists());
+		assertFalse(new File(destDir, "evil").exists());
+		assertEquals("secret", FileUtils.readFileToString(secret, "UTF-8"));
+	}
+
+	@Test
+	public void testRejectsInvalidPaxHeader() throws IOException {
+		for (String pax : new String[] { "99999 path=a\n", "-5 path=a\n", "abc path=a\n", "14 patha-only\n", "4 p\n" }) {
+			File archive = new File(temporaryFolder.getRoot(), "evil.tar");
+			OutputStream output = new FileOutputStream(archive);
+			try {
+				writeTarEntry(output, "./PaxHeaders/a", 'x', 0644, pax, null);
+				writeTarEntry(output, "./a", '0', 0644, "a", null);
+			}
+			finally {
+				output.close();
+			}
+			try {
+				ArchiveExtractor.extract(archive, new File(temporaryFolder.getRoot(), "server"), new CopyOptions());
+				fail(pax);
+			}
+			catch (IOException e) {
+				assertEquals("Invalid pax header", e.getMessage());
+			}
+		}
+	}
+
+	@Test
+	public void testFindArchive() throws IOException {
+		String dirPath = new File(temporaryFolder.getRoot(), "module").getPath();
+		assertNull(ArchiveExtractor.findArchive(dirPath));
+		File archive = temporaryFolder.newFile("module.tgz");
+		assertEquals(archive, ArchiveExtractor.findArchive(dirPath));
+	}
+
+	private static void writeTarEntry(OutputStream output, String name, char type, int mode, String contents, String linkName) throws IOException {
+		byte[] data = contents == null ? new byte[0] : contents.getBytes(UTF_8);
+		byte[] header = new byte[512];
+		putString(header, 0, name);
+		putString(header, 100, String.format("%07o", mode));
+		putString(header, 108, "0000000");
+		putString(header, 116, "0000000");
+		putString(header, 124, String.format("%011o", data.length));
+		putString(header, 136, String.format("%011o", System.currentTimeMillis() / 1000));
+		header[156] = (byte) type;
+		if (linkName != null) {
+			putString(header, 157, linkName);
+		}
+		putString(header, 257, "ustar");
+		putString(header, 263, "00");
+		for (int i = 148; i < 156; i++) {
+			header[i] = ' ';
+		}
+		long checksum = 0;
+		for (byte b : header) {
+			checksum += b & 0xff;
+		}
+		putString(header, 148, String.format("%06o", checksum));
+
+		ByteArrayOutputStream entry = new ByteArrayOutputStream();
+		entry.write(header);
+		entry.write(data);
+		entry.write(new byte[(512 - data.length % 512) % 512]);
+		output.write(entry.toByteArray());
+	}
+
+	private static void putString(byte[] header, int offset, String value) {
+		byte[] bytes = value.getBytes(UTF_8);
+		System.arraycopy(bytes, 0, header, offset, bytes.length);
+	}
+}
@@ -0,0 +1,82 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ArchiveWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWriteAndExtract() throws Exception {
+		File source = folder.newFolder("lena_was-8080");
+		CustomFileUtils.writeStringToFile(new File(source, "env.sh"), "SERVER_ID=lena_was-8080", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "logs/catalina.out"), "log", "UTF-8");
+		String longName = "webapps/ROOT/WEB-INF/classes/io/openlena/sample/very/deep/package/name/for/a/long/tar/entry/Sample.class";
+		CustomFileUtils.writeStringToFile(new File(source, longName), "class", "UTF-8");
+		// several compressed blocks
+		byte[] large = new byte[3 * 1024 * 1024 + 17];
+		new Random(1).nextBytes(large);
+		new File(source, "lib").mkdirs();
+		Files.write(new File(source, "lib/large.jar").toPath(), large);
+		Files.setPosixFilePermissions(new File(source, "conf/server.xml").toPath(), PosixFilePermissions.fromString("rw-------"));
+		Files.createSymbolicLink(new File(source, "lib/current.jar").toPath(), new File("large.jar").toPath());
+
+		CopyOptions options = new CopyOptions();
+		options.setExcludes(PathPatternMatcher.compile("logs/**"));
+		options.setLinkPolicy(LinkPolicy.PRESERVE);
+		File archive = new File(folder.getRoot(), "export/lena_was-8080.tar.gz");
+		ArchiveWriter writer = ArchiveWriter.open(archive, 4);
+		try {
+			writer.addEntry(".info", "id=lena_was-8080".getBytes("UTF-8"));
+			CopyStatistics statistics = writer.addDirectory(source, options, new CopyStatistics());
+			assertEquals(4, statistics.getFileCount());
+			assertEquals(1, statistics.getSymlinkCount());
+			writer.finish();
+		}
+		finally {
+			writer.close();
+		}
+		assertTrue(archive.isFile());
+		assertEquals(1, archive.getParentFile().list().length);
+
+		File target = new File(folder.getRoot(), "lena_was-8090");
+		CopyOptions extractOptions = new CopyOptions();
+		extractOptions.setPreservePermissions(true);
+		extractOptions.setPreserveFileDate(true);
+		ArchiveExtractor.extract(archive, target, extractOptions);
+
+		assertEquals("id=lena_was-8080", CustomFileUtils.readFileToString(new File(target, ".info"), "UTF-8"));
+		assertEquals("<Server/>", CustomFileUtils.readFileToString(new File(target, "conf/server.xml"), "UTF-8"));
+		assertEquals("class", CustomFileUtils.readFileToString(new File(target, longName), "UTF-8"));
+		assertArrayEquals(large, Files.readAllBytes(new File(target, "lib/large.jar").toPath()));
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(new File(target, "conf/server.xml").toPath())));
+		assertEquals(new File(source, "env.sh").lastModified() / 1000, new File(target, "env.sh").lastModified() / 1000);
+		assertEquals("large.jar", Files.readSymbolicLink(new File(target, "lib/current.jar").toPath()).toString());
+		assertTrue(new File(target, "logs").isDirectory());
+		assertFalse(new File(target, "logs/catalina.out").exists());
+	}
+
+	@Test
+	public void testUnfinishedArchiveIsDeleted() throws Exception {
+		File source = folder.newFolder("source");
+		CustomFileUtils.writeStringToFile(new File(source, "env.sh"), "SERVER_ID=", "UTF-8");
+		File archive = new File(folder.getRoot(), "source.tar");
+		ArchiveWriter writer = ArchiveWriter.open(archive, 1);
+		writer.addDirectory(source, new CopyOptions(), new CopyStatistics());
+		writer.close();
+
+		assertFalse(archive.exists());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+}
@@ -0,0 +1,78 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class CopyCheckpointTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReopen() throws Exception {
+		File file = new File(folder.getRoot(), ".lena_was-8090.checkpoint");
+		CopyCheckpoint checkpoint = CopyCheckpoint.open(file);
+		checkpoint.add("lib/a.jar", 10, 1000);
+		checkpoint.add("conf/server xml", 20, 2000);
+		checkpoint.close();
+
+		checkpoint = CopyCheckpoint.open(file);
+		assertEquals(2, checkpoint.getCompletedCount());
+		assertTrue(checkpoint.isCompleted("lib/a.jar", 10, 1000));
+		assertTrue(checkpoint.isCompleted("conf/server xml", 20, 2000));
+		// the source changed
+		assertFalse(checkpoint.isCompleted("lib/a.jar", 10, 1001));
+		assertFalse(checkpoint.isCompleted("lib/b.jar", 10, 1000));
+		checkpoint.close();
+	}
+
+	@Test
+	public void testIgnoresCutLine() throws Exception {
+		File file = new File(folder.getRoot(), ".lena_was-8090.checkpoint");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("10 1000 lib/a.jar\n20 2000 lib/b.j".getBytes("UTF-8"));
+		out.close();
+
+		CopyCheckpoint checkpoint = CopyCheckpoint.open(file);
+		assertTrue(checkpoint.isCompleted("lib/a.jar", 10, 1000));
+		assertFalse(checkpoint.isCompleted("lib/b.j", 20, 2000));
+		checkpoint.add("lib/b.jar", 20, 2000);
+		checkpoint.close();
+
+		checkpoint = CopyCheckpoint.open(file);
+		assertEquals(2, checkpoint.getCompletedCount());
+		assertTrue(checkpoint.isCompleted("lib/b.jar", 20, 2000));
+		checkpoint.close();
+	}
+
+	@Test
+	public void testResumeCopy() throws Exception {
+		File source = folder.newFolder("source");
+		CustomFileUtils.writeStringToFile(new File(source, "lib/a.jar"), "a", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "lib/b.jar"), "b", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "env.sh"), "SERVER_ID=", "UTF-8");
+		File target = new File(folder.getRoot(), "target");
+		File file = new File(folder.getRoot(), ".target.checkpoint");
+
+		CopyOptions options = new CopyOptions();
+		options.setCheckpoint(CopyCheckpoint.open(file));
+		CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, options);
+		options.getCheckpoint().close();
+		assertEquals(3, statistics.getFileCount());
+
+		// interrupted before b.jar was copied completely
+		CustomFileUtils.writeStringToFile(new File(target, "lib/b.jar"), "", "UTF-8");
+		options.setCheckpoint(CopyCheckpoint.open(file));
+		statistics = CustomFileUtils.copyDirectory(source, target, options);
+		options.getCheckpoint().close();
+		assertEquals(1, statistics.getFileCount());
+		assertEquals(2, statistics.getUnchangedCount());
+		assertEquals("b", CustomFileUtils.readFileToString(new File(target, "lib/b.jar"), "UTF-8"));
+	}
+}
@@ -0,0 +1,78 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.openlena.ctl.exception.LenaException;
+
+import static org.junit.Assert.*;
+
+public class CopyPlanTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPlanMatchesCopy() throws Exception {
+		File source = folder.newFolder("source");
+		CustomFileUtils.writeStringToFile(new File(source, "lib/a.jar"), "aaaa", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "logs/catalina.out"), "log", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "lena.pid"), "1", "UTF-8");
+		Files.createSymbolicLink(new File(source, "conf-link").toPath(), new File(source, "conf").toPath());
+
+		CopyOptions options = new CopyOptions();
+		PathPatternMatcher excludes = PathPatternMatcher.compile("logs/**");
+		excludes.add("*.pid");
+		options.setExcludes(excludes);
+		options.setLinkPolicy(LinkPolicy.PRESERVE);
+		CopyPlan plan = CustomFileUtils.planCopy(source, options);
+		CopyStatistics statistics = CustomFileUtils.copyDirectory(source, new File(folder.getRoot(), "target"), options);
+
+		assertEquals(statistics.getFileCount(), plan.getFileCount());
+		assertEquals(statistics.getByteCount(), plan.getByteCount());
+		// source, lib, conf and logs kept empty
+		assertEquals(4, plan.getDirectoryCount());
+		assertEquals(2 + 4 + 1, plan.getRequiredInodes());
+		assertEquals((2 + 4) * CopyPlan.BLOCK_SIZE, plan.getRequiredSpace());
+
+		options.setLinkPolicy(LinkPolicy.FOLLOW);
+		plan = CustomFileUtils.planCopy(source, options);
+		assertEquals(3, plan.getFileCount());
+		assertEquals(5, plan.getDirectoryCount());
+
+		options.setLinkPolicy(LinkPolicy.SKIP);
+		plan = CustomFileUtils.planCopy(source, options);
+		assertEquals(2 + 4, plan.getRequiredInodes());
+	}
+
+	@Test
+	public void testEstimate() {
+		CopyPlan plan = new CopyPlan();
+		plan.addFile(3000);
+		plan.addFile(5000);
+		assertEquals(-1, plan.estimateMillis(0));
+		assertEquals(8000, plan.estimateMillis(1000));
+		assertEquals(3 * CopyPlan.BLOCK_SIZE, plan.getRequiredSpace());
+	}
+
+	@Test
+	public void testCheckCapacity() throws Exception {
+		CopyPlan plan = new CopyPlan();
+		plan.addFile(1024);
+		plan.checkCapacity(new File(folder.getRoot(), "servers/lena_was-8090").getPath(), 2);
+
+		plan.addFile(Long.MAX_VALUE / 4);
+		try {
+			plan.checkCapacity(new File(folder.getRoot(), "servers/lena_was-8090").getPath(), 1);
+			fail("The target cannot hold the copy");
+		}
+		catch (LenaException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("Not enough space"));
+		}
+	}
+}
@@ -0,0 +1,37 @@
+package io.openlena.ctl.util;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CopyStatisticsTest {
+
+	@Test
+	public void testSlowestFiles() {
+		CopyStatistics statistics = new CopyStatistics();
+		for (int i = 1; i <= 20; i++) {
+			statistics.addTransferTime("lib/" + i + ".jar", i, i * 1000000L);
+		}
+
+		List<CopyStatistics.SlowFile> slowestFiles = statistics.getSlowestFiles();
+		assertEquals(CopyStatistics.SLOWEST_FILES, slowestFiles.size());
+		assertEquals("lib/20.jar", slowestFiles.get(0).getPath());
+		assertEquals(20, slowestFiles.get(0).getMillis());
+		assertEquals("lib/16.jar", slowestFiles.get(4).getPath());
+		assertEquals(210, statistics.getTransferMillis());
+	}
+
+	@Test
+	public void testToJson() {
+		CopyStatistics statistics = new CopyStatistics();
+		statistics.addFile(10);
+		statistics.addTransferTime("conf/\"server\".xml", 10, 2000000L);
+		statistics.finish();
+
+		String json = statistics.toJson();
+		assertTrue(json.startsWith("{\"files\":1,\"bytes\":10,"));
+		assertTrue(json.contains("\"slowestFiles\":[{\"path\":\"conf/\\\"server\\\".xml\",\"bytes\":10,\"millis\":2}]"));
+	}
+}
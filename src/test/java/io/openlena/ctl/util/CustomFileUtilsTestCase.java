@@ -20,14 +20,23 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.io.DirectoryWalker;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.FileFilterUtils;
 import org.apache.commons.io.filefilter.NameFileFilter;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
 
+import io.openlena.ctl.exception.PartialCopyException;
 import io.openlena.ctl.util.testtools.FileBasedTestCase;
 
 /**
@@ -289,6 +298,328 @@ public class CustomFileUtilsTestCase extends FileBasedTestCase {
         CustomFileUtils.deleteDirectory(target);
     }
 
+    public void testCopyDirectoryParallel() throws Exception {
+        File grandParentDir = new File(getTestDirectory(), "grandparent");
+        File parentDir      = new File(grandParentDir, "parent");
+        File childDir       = new File(parentDir, "child");
+        createFilesForTestCopyDirectory(grandParentDir, parentDir, childDir);
+        new File(parentDir, "child2").setLastModified(1000000001000L);
+
+        File destDir = new File(getTestDirectory(), "copydest");
+        CopyOptions options = new CopyOptions();
+        options.setThreads(4);
+        options.setPreserveFileDate(true);
+
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(grandParentDir, destDir, options);
+        assertEquals(6, statistics.getFileCount());
+        assertEquals(6, statistics.getDirectoryCount());
+        assertEquals(LIST_WALKER.list(grandParentDir).size(), LIST_WALKER.list(destDir).size());
+        assertEquals("File 6 in grandChild2", CustomFileUtils.readFileToString(new File(destDir, "parent/child2/grandChild2/file6.txt"), "UTF8"));
+        assertEquals(1000000001000L, new File(destDir, "parent/child2").lastModified());
+    }
+
+    public void testCopyDirectoryParallelFailure() throws Exception {
+        File grandParentDir = new File(getTestDirectory(), "grandparent");
+        File parentDir      = new File(grandParentDir, "parent");
+        File childDir       = new File(parentDir, "child");
+        createFilesForTestCopyDirectory(grandParentDir, parentDir, childDir);
+
+        // a directory where a file has to be copied
+        File destDir = new File(getTestDirectory(), "copydest");
+        new File(destDir, "parent/child/file3.txt").mkdirs();
+
+        CopyOptions options = new CopyOptions();
+        options.setThreads(4);
+        try {
+            CustomFileUtils.copyDirectory(grandParentDir, destDir, options);
+            fail();
+        } catch (PartialCopyException ex) {
+            assertEquals(new File(childDir, "file3.txt").getPath(), ex.getFailedPath());
+            assertTrue(ex.getCopiedFiles() < 6);
+        }
+    }
+
+    public void testCopyDirectoryHardLink() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        File jar = new File(source, "lib/engine.jar");
+        File conf = new File(source, "conf/server.xml");
+        CustomFileUtils.writeStringToFile(jar, "engine", "UTF8");
+        CustomFileUtils.writeStringToFile(conf, "<Server/>", "UTF8");
+
+        CopyOptions options = new CopyOptions();
+        options.setHardLinkIncludes(PathPatternMatcher.compile("*.jar,*.xml"));
+        options.setHardLinkExcludes(PathPatternMatcher.compile("conf/**"));
+
+        File target = new File(getTestDirectory(), "target");
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(1, statistics.getLinkCount());
+        assertEquals(1, statistics.getFileCount());
+        assertTrue(Files.isSameFile(jar.toPath(), new File(target, "lib/engine.jar").toPath()));
+        assertFalse(Files.isSameFile(conf.toPath(), new File(target, "conf/server.xml").toPath()));
+
+        // copying over a linked file must not change the source
+        File overlay = new File(getTestDirectory(), "overlay");
+        CustomFileUtils.writeStringToFile(new File(overlay, "lib/engine.jar"), "patched", "UTF8");
+        CustomFileUtils.copyDirectory(overlay, target, false);
+        assertEquals("engine", CustomFileUtils.readFileToString(jar, "UTF8"));
+        assertEquals("patched", CustomFileUtils.readFileToString(new File(target, "lib/engine.jar"), "UTF8"));
+    }
+
+    public void testCopyDirectoryPreservePermissions() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        File script = new File(source, "bin/start.sh");
+        File conf = new File(source, "conf");
+        CustomFileUtils.writeStringToFile(script, "#!/bin/sh", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(conf, "server.xml"), "<Server/>", "UTF8");
+        if (Files.getFileStore(source.toPath()).supportsFileAttributeView("posix") == false) {
+            return;
+        }
+        Files.setPosixFilePermissions(script.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+        Files.setPosixFilePermissions(conf.toPath(), PosixFilePermissions.fromString("rwx------"));
+
+        CopyOptions options = new CopyOptions();
+        options.setPreservePermissions(true);
+        File target = new File(getTestDirectory(), "target");
+        CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(new File(target, "bin/start.sh").toPath())));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(new File(target, "conf").toPath())));
+    }
+
+    public void testCopyDirectoryFollowsSymlinks() throws Exception {
+        File shared = new File(getTestDirectory(), "shared");
+        CustomFileUtils.writeStringToFile(new File(shared, "app/index.html"), "index", "UTF8");
+        File source = new File(getTestDirectory(), "source");
+        source.mkdirs();
+        try {
+            Files.createSymbolicLink(new File(source, "webapps").toPath(), shared.toPath());
+            Files.createSymbolicLink(new File(source, "index.html").toPath(), new File(shared, "app/index.html").toPath());
+        } catch (UnsupportedOperationException ex) {
+            return;
+        }
+
+        File target = new File(getTestDirectory(), "target");
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, new CopyOptions());
+        assertEquals(2, statistics.getFileCount());
+        assertFalse(Files.isSymbolicLink(new File(target, "webapps").toPath()));
+        assertFalse(Files.isSymbolicLink(new File(target, "index.html").toPath()));
+        assertEquals("index", CustomFileUtils.readFileToString(new File(target, "webapps/app/index.html"), "UTF8"));
+        assertEquals("index", CustomFileUtils.readFileToString(new File(target, "index.html"), "UTF8"));
+    }
+
+    public void testCopyDirectorySync() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        File serverXml = new File(source, "conf/server.xml");
+        File engineJar = new File(source, "lib/engine.jar");
+        CustomFileUtils.writeStringToFile(serverXml, "<Server/>", "UTF8");
+        CustomFileUtils.writeStringToFile(engineJar, "engine", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(source, "lib/old.jar"), "old", "UTF8");
+        new File(source, "logs").mkdirs();
+
+        File target = new File(getTestDirectory(), "target");
+        CopyOptions options = new CopyOptions();
+        options.setSync(true);
+        options.setFilter(FileFilterUtils.notFileFilter(new WildcardFileFilter("*.pid")));
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(3, statistics.getFileCount());
+
+        CustomFileUtils.writeStringToFile(serverXml, "<Server port=\"8005\"/>", "UTF8");
+        CustomFileUtils.forceDelete(new File(source, "lib/old.jar"));
+        CustomFileUtils.writeStringToFile(new File(source, "lib/new.jar"), "new", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(target, "logs/server.pid"), "1234", "UTF8");
+        assertEquals(Arrays.asList("lib/old.jar"), CustomFileUtils.listExtraneous(source, target, options));
+
+        statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(2, statistics.getFileCount());
+        assertEquals(1, statistics.getUnchangedCount());
+        assertEquals(1, statistics.getDeletedCount());
+        assertEquals("<Server port=\"8005\"/>", CustomFileUtils.readFileToString(new File(target, "conf/server.xml"), "UTF8"));
+        assertEquals("new", CustomFileUtils.readFileToString(new File(target, "lib/new.jar"), "UTF8"));
+        assertFalse(new File(target, "lib/old.jar").exists());
+        assertTrue(new File(target, "logs/server.pid").exists());
+
+        // same size and date, only the checksum tells the difference
+        CustomFileUtils.writeStringToFile(new File(target, "lib/engine.jar"), "ENGINE", "UTF8");
+        new File(target, "lib/engine.jar").setLastModified(engineJar.lastModified());
+        options.setChecksum(true);
+        statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(1, statistics.getFileCount());
+        assertEquals("engine", CustomFileUtils.readFileToString(new File(target, "lib/engine.jar"), "UTF8"));
+    }
+
+    public void testCopyDirectoryExcludes() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(source, "logs/2021/catalina.out"), "log", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(source, "java_pid1.hprof"), "dump", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(source, "work/Catalina/index_jsp.class"), "jsp", "UTF8");
+
+        File target = new File(getTestDirectory(), "target");
+        CopyOptions options = new CopyOptions();
+        options.setExcludes(PathPatternMatcher.compile("logs/**,*.hprof,work"));
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(1, statistics.getFileCount());
+        assertTrue(new File(target, "conf/server.xml").exists());
+        // contents excluded, the directory is kept
+        assertTrue(new File(target, "logs").isDirectory());
+        assertEquals(0, new File(target, "logs").list().length);
+        assertFalse(new File(target, "java_pid1.hprof").exists());
+        assertFalse(new File(target, "work").exists());
+
+        // excluded entries of the destination are kept by a sync
+        CustomFileUtils.writeStringToFile(new File(target, "logs/catalina.out"), "clone log", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(target, "java_pid2.hprof"), "dump", "UTF8");
+        options.setSync(true);
+        assertTrue(CustomFileUtils.listExtraneous(source, target, options).isEmpty());
+        statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(0, statistics.getDeletedCount());
+        assertTrue(new File(target, "logs/catalina.out").exists());
+        assertTrue(new File(target, "java_pid2.hprof").exists());
+    }
+
+    public void testCopyDirectoryToNestedDirectory() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF8");
+        File target = new File(source, "backup/copy");
+
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, new CopyOptions());
+        assertEquals(1, statistics.getFileCount());
+        assertTrue(new File(target, "conf/server.xml").exists());
+        assertTrue(new File(target, "backup").isDirectory());
+        assertFalse(new File(target, "backup/copy").exists());
+    }
+
+    public void testCopyDirectoryBySize() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        source.mkdirs();
+        createFile(new File(source, "empty.txt"), 0);
+        createFile(new File(source, "server.xml"), 2048);
+        createFile(new File(source, "lib.jar"), 300 * 1024);
+
+        File target = new File(getTestDirectory(), "target");
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, new CopyOptions());
+        assertEquals(3, statistics.getFileCount());
+        assertEquals(2, statistics.getBufferedFileCount());
+        assertEquals(1, statistics.getTransferredFileCount());
+        assertEquals(2048, new File(target, "server.xml").length());
+        assertEquals(300 * 1024, new File(target, "lib.jar").length());
+        assertTrue(FileUtils.contentEquals(new File(source, "server.xml"), new File(target, "server.xml")));
+        assertTrue(FileUtils.contentEquals(new File(source, "lib.jar"), new File(target, "lib.jar")));
+    }
+
+    public void testCopyDirectoryToSeveralTargets() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        new File(source, "conf").mkdirs();
+        new File(source, "lib").mkdirs();
+        createFile(new File(source, "conf/server.xml"), 2048);
+        // larger than the buffer of a copy to several targets
+        createFile(new File(source, "lib/lib.jar"), 2300 * 1024);
+        new File(source, "logs").mkdirs();
+
+        List<File> targets = new ArrayList<File>();
+        targets.add(new File(getTestDirectory(), "target1"));
+        targets.add(new File(getTestDirectory(), "target2"));
+        targets.add(new File(getTestDirectory(), "target3"));
+        CopyOptions options = new CopyOptions();
+        options.setPreserveFileDate(true);
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, targets, options, new CopyStatistics());
+        assertEquals(6, statistics.getFileCount());
+        for (File target : targets) {
+            assertTrue(new File(target, "logs").isDirectory());
+            assertTrue(FileUtils.contentEquals(new File(source, "conf/server.xml"), new File(target, "conf/server.xml")));
+            assertTrue(FileUtils.contentEquals(new File(source, "lib/lib.jar"), new File(target, "lib/lib.jar")));
+            assertEquals(new File(source, "lib/lib.jar").lastModified(), new File(target, "lib/lib.jar").lastModified());
+        }
+
+        options.setSync(true);
+        try {
+            CustomFileUtils.copyDirectory(source, targets, options, new CopyStatistics());
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void testCopyDirectoryLinkPolicy() throws Exception {
+        File shared = new File(getTestDirectory(), "shared");
+        shared.mkdirs();
+        createFile(new File(shared, "catalina.out"), 4096);
+        File source = new File(getTestDirectory(), "source");
+        source.mkdirs();
+        createFile(new File(source, "env.sh"), 10);
+        Files.createSymbolicLink(new File(source, "logs").toPath(), shared.toPath());
+        Files.createSymbolicLink(new File(source, "env.link").toPath(), new File("env.sh").toPath());
+
+        CopyOptions options = new CopyOptions();
+        options.setLinkPolicy(LinkPolicy.PRESERVE);
+        File target = new File(getTestDirectory(), "preserved");
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(1, statistics.getFileCount());
+        assertEquals(2, statistics.getSymlinkCount());
+        assertTrue(CustomFileUtils.isSymlink(new File(target, "logs")));
+        assertEquals(shared.toPath(), Files.readSymbolicLink(new File(target, "logs").toPath()));
+        assertEquals(new File("env.sh").toPath(), Files.readSymbolicLink(new File(target, "env.link").toPath()));
+
+        options.setLinkPolicy(LinkPolicy.SKIP);
+        target = new File(getTestDirectory(), "skipped");
+        statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(1, statistics.getFileCount());
+        assertFalse(Files.exists(new File(target, "logs").toPath(), LinkOption.NOFOLLOW_LINKS));
+
+        options.setLinkPolicy(LinkPolicy.FOLLOW);
+        target = new File(getTestDirectory(), "followed");
+        statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(3, statistics.getFileCount());
+        assertFalse(CustomFileUtils.isSymlink(new File(target, "logs")));
+        assertEquals(4096, new File(target, "logs/catalina.out").length());
+    }
+
+    public void testCopyDirectorySparseFile() throws Exception {
+        File source = new File(getTestDirectory(), "source");
+        source.mkdirs();
+        // 70 MB with 1 MB of data in the middle, the rest is a hole
+        RandomAccessFile data = new RandomAccessFile(new File(source, "data.db"), "rw");
+        data.setLength(70 * CustomFileUtils.ONE_MB);
+        data.seek(30 * CustomFileUtils.ONE_MB);
+        byte[] block = new byte[(int) CustomFileUtils.ONE_MB];
+        Arrays.fill(block, (byte) 'x');
+        data.write(block);
+        data.close();
+
+        File target = new File(getTestDirectory(), "target");
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, new CopyOptions());
+        assertEquals(1, statistics.getLargeFileCount());
+        assertEquals(69 * CustomFileUtils.ONE_MB, statistics.getSparseByteCount());
+        assertEquals(70 * CustomFileUtils.ONE_MB, new File(target, "data.db").length());
+        assertTrue(FileUtils.contentEquals(new File(source, "data.db"), new File(target, "data.db")));
+    }
+
+    public void testCopyDirectoryVerifiesManifest() throws Exception {
+        File source = new File(getTestDirectory(), "module");
+        CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF8");
+        CustomFileUtils.writeStringToFile(new File(source, "lib/a.jar"), "jar", "UTF8");
+        File manifestFile = new File(getTestDirectory(), "module.sha256");
+        // sha256 of "jar", conf/server.xml is not listed
+        CustomFileUtils.writeStringToFile(manifestFile,
+                "0163f1eea7894350060624d315234d40c508ab251ba121714e234503045faadd *./lib/a.jar\n", "UTF8");
+
+        File target = new File(getTestDirectory(), "target");
+        CopyOptions options = new CopyOptions();
+        options.setManifest(ChecksumManifest.find(source.getPath()));
+        CopyStatistics statistics = CustomFileUtils.copyDirectory(source, target, options);
+        assertEquals(2, statistics.getFileCount());
+        assertEquals(1, statistics.getVerifiedCount());
+
+        CustomFileUtils.writeStringToFile(new File(source, "lib/a.jar"), "corrupted", "UTF8");
+        CustomFileUtils.deleteDirectory(target);
+        try {
+            CustomFileUtils.copyDirectory(source, target, options);
+            fail("Expected a checksum mismatch");
+        } catch (final PartialCopyException e) {
+            assertTrue(e.getMessage().contains("Checksum mismatch"));
+            assertFalse(new File(target, "lib/a.jar").exists());
+        }
+    }
+
     private void createFilesForTestCopyDirectory(File grandParentDir, File parentDir, File childDir) throws Exception {
         File childDir2 = new File(parentDir, "child2");
         File grandChildDir = new File(childDir, "grandChild");
@@ -2,8 +2,12 @@ package io.openlena.ctl.util;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import io.openlena.ctl.exception.LenaException;
 import io.openlena.ctl.util.testtools.FileBasedTestCase;
@@ -101,6 +105,53 @@ public class FileUtilTest extends FileBasedTestCase {
 		assertEquals("Fail to set variable '" + variable + "' : '" + testFile2.getPath() + "'", exception.getMessage());
 	}
 
+	/**
+	 * test FileUtil.putShellVariable
+	 */
+	@Test
+	public void testPutShellVariable() {
+		String defualtData = "export CATALINA_HOME=/engn/tomcat";
+		File testFile = new File(top, "test.sh");
+		FileUtil.writeStringToFile(testFile, defualtData);
+
+		// variable exist in shell file
+		FileUtil.putShellVariable(testFile.getPath(), "CATALINA_HOME", "/depot/lena-was/module");
+		// variable doesn't exist in shell file
+		FileUtil.putShellVariable(testFile.getPath(), "CATALINA_BASE", "${INSTALL_PATH}");
+
+		assertEquals("export CATALINA_HOME=/depot/lena-was/module" + FileUtil.lineSeparator + "export CATALINA_BASE=${INSTALL_PATH}", FileUtil.readFileToString(testFile));
+	}
+
+	/**
+	 * test FileUtil.setShellVariables
+	 */
+	@Test
+	public void testSetShellVariables() throws IOException {
+		String defaultData = "#!/bin/sh\r\nexport SERVER_ID=\r\nexport SERVICE_PORT=8080  \r\n# SERVER_ID=\r\nexport INSTALL_PATH=/engn\r\n";
+		File testFile = new File(top, "env.sh");
+		FileUtil.writeStringToFile(testFile, defaultData);
+		Files.setPosixFilePermissions(testFile.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+
+		Map<String, String> variables = new LinkedHashMap<String, String>();
+		variables.put("SERVER_ID", "lena_was-8090");
+		variables.put("SERVICE_PORT", "8090");
+		variables.put("JVM_ROUTE", "node1");
+		variables.put("INSTALL_PATH", "/engn/servers/lena_was-8090");
+		FileUtil.setShellVariables(testFile.getPath(), variables, "JVM_ROUTE");
+
+		assertEquals("#!/bin/sh\r\nexport SERVER_ID=lena_was-8090\r\nexport SERVICE_PORT=8090  \r\n# SERVER_ID=\r\nexport INSTALL_PATH=/engn/servers/lena_was-8090\r\n",
+				FileUtil.readFileToString(testFile));
+		assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(testFile.toPath())));
+		assertEquals(1, top.list().length);
+
+		// nothing is written if a variable is not declared
+		variables.put("AJP_SECRET", "secret");
+		String data = FileUtil.readFileToString(testFile);
+		LenaException exception = assertThrows(LenaException.class, () -> FileUtil.setShellVariables(testFile.getPath(), variables));
+		assertEquals("Fail to set variable 'JVM_ROUTE' : '" + testFile.getPath() + "'", exception.getMessage());
+		assertEquals(data, FileUtil.readFileToString(testFile));
+	}
+
 	/**
 	 * test FileUtil.setShellVariable - file not exist exception case
 	 */
@@ -3,6 +3,7 @@ package io.openlena.ctl.util;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.xml.xpath.XPath;
@@ -113,6 +114,43 @@ public class InstallInfoUtilTest extends FileBasedTestCase {
 
 	}
 
+	@Test
+	public void testAddInstallInfoOfSeveralServers() {
+		File installInfoFile = new File(InstallInfoUtil.getInstallInfoFilePath());
+		FileUtil.writeStringToFile(installInfoFile, "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+				+ "<install>\n"
+				+ "  <servers>\n"
+				+ "  </servers>\n"
+				+ "</install>");
+
+		List<Server> servers = new ArrayList<Server>();
+		for (String port : new String[] { "8090", "8091" }) {
+			Server server = new Server();
+			server.setId("lena_was-" + port);
+			server.setPort(port);
+			server.setType("lena-was");
+			server.setPath(top.getPath() + File.separator + "lena_was-" + port);
+			servers.add(server);
+		}
+		InstallInfoUtil.addInstallInfo(servers);
+		assertEquals("8090", InstallInfoUtil.getServicePort("lena_was-8090"));
+		assertEquals("8091", InstallInfoUtil.getServicePort("lena_was-8091"));
+
+		// a registered id fails the whole update
+		Server server = new Server();
+		server.setId("lena_was-8092");
+		server.setPort("8092");
+		server.setType("lena-was");
+		server.setPath(top.getPath() + File.separator + "lena_was-8092");
+		try {
+			InstallInfoUtil.addInstallInfo(Arrays.asList(server, servers.get(1)));
+			fail();
+		}
+		catch (LenaException e) {
+			assertFalse(InstallInfoUtil.existsServer("lena_was-8092"));
+		}
+	}
+
 	@Test
 	public void testGetInstallInfoFilePath() throws IOException {
 		File temp = new File(InstallInfoUtil.getInstallInfoFilePath());
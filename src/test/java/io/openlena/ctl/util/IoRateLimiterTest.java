@@ -0,0 +1,79 @@
+package io.openlena.ctl.util;
+
+import org.junit.Test;
+
+import io.openlena.ctl.exception.LenaException;
+
+import static org.junit.Assert.*;
+
+public class IoRateLimiterTest {
+
+	@Test
+	public void testParseSize() {
+		assertEquals(0, IoRateLimiter.parseSize(null));
+		assertEquals(100, IoRateLimiter.parseSize("100"));
+		assertEquals(512 * 1024, IoRateLimiter.parseSize("512k"));
+		assertEquals(50L * 1024 * 1024, IoRateLimiter.parseSize(" 50M "));
+		assertEquals(1024L * 1024 * 1024, IoRateLimiter.parseSize("1G"));
+	}
+
+	@Test(expected = LenaException.class)
+	public void testParseInvalidSize() {
+		IoRateLimiter.parseSize("fast");
+	}
+
+	@Test
+	public void testNoLimit() {
+		assertNull(IoRateLimiter.create("", null));
+	}
+
+	@Test
+	public void testLimitsBandwidth() throws Exception {
+		// 1 MB/s, a bucket of 100 KB
+		IoRateLimiter limiter = new IoRateLimiter(1024 * 1024, 0);
+		assertEquals(1024 * 1024 / 10, limiter.getChunkSize(30 * 1024 * 1024));
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 4; i++) {
+			limiter.acquireBytes(100 * 1024);
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		// the first 100 KB are in the bucket, the next 300 KB take about 300 ms
+		assertTrue("took " + millis + " ms", millis >= 250);
+		assertTrue(limiter.getWaitMillis() >= 250);
+	}
+
+	@Test
+	public void testBoundsPeakRateAfterIdleSecond() throws Exception {
+		// 1 MB/s, a bucket of 100 KB
+		IoRateLimiter limiter = new IoRateLimiter(1024 * 1024, 0);
+		limiter.acquireBytes(100 * 1024);
+		// no copy waited for a second, as when the disk is slower than the limit
+		Thread.sleep(1100);
+		assertEquals(1024 * 1024 / 10, limiter.getChunkSize(30 * 1024 * 1024));
+
+		long start = System.nanoTime();
+		for (long copied = 0; copied < 400 * 1024;) {
+			long chunkSize = limiter.getChunkSize(30 * 1024 * 1024);
+			limiter.acquireBytes(chunkSize);
+			copied += chunkSize;
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		// only the bucket goes through at once, the next 300 KB take about 300 ms
+		assertTrue("took " + millis + " ms", millis >= 250);
+	}
+
+	@Test
+	public void testLimitsOperations() throws Exception {
+		IoRateLimiter limiter = new IoRateLimiter(0, 100);
+		long start = System.nanoTime();
+		for (int i = 0; i < 30; i++) {
+			limiter.acquireOperation();
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		// 10 operations are in the bucket, the next 20 take about 200 ms
+		assertTrue("took " + millis + " ms", millis >= 150);
+		// bandwidth is not limited
+		assertEquals(30 * 1024 * 1024, limiter.getChunkSize(30 * 1024 * 1024));
+	}
+}
@@ -0,0 +1,129 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Per entry cost of the copy exclusion check on a tree of 100k files.
+ * <p>
+ * Not run by the unit tests. Run it after <code>mvn test-compile</code> with
+ * <pre>
+ * mvn -q dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) io.openlena.ctl.util.PathPatternMatcherBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(PathPatternMatcherBenchmark.ENTRIES)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathPatternMatcherBenchmark {
+	static final int DIRECTORIES = 100;
+	static final int FILES_PER_DIRECTORY = 1000;
+	static final int ENTRIES = DIRECTORIES * FILES_PER_DIRECTORY;
+	static final String EXCLUDES = "logs/**,temp/**,work/**,*.hprof,*.pid";
+
+	private File root;
+	private List<File> files;
+	private List<String> relativePaths;
+	private List<String> exclusionList;
+	private List<PathMatcher> globMatchers;
+	private PathPatternMatcher matcher;
+
+	@Setup
+	public void setUp() throws IOException {
+		root = new File(System.getProperty("java.io.tmpdir"), "lena-ctl-benchmark-" + System.nanoTime());
+		files = new ArrayList<File>(ENTRIES);
+		relativePaths = new ArrayList<String>(ENTRIES);
+		exclusionList = new ArrayList<String>(DIRECTORIES);
+		File destDir = new File(root, "copy");
+		for (int i = 0; i < DIRECTORIES; i++) {
+			File dir = new File(root, "dir" + i);
+			dir.mkdirs();
+			exclusionList.add(new File(destDir, dir.getName()).getCanonicalPath());
+			for (int j = 0; j < FILES_PER_DIRECTORY; j++) {
+				File file = new File(dir, "file" + j + ".txt");
+				file.createNewFile();
+				files.add(file);
+				relativePaths.add(dir.getName() + "/" + file.getName());
+			}
+		}
+
+		globMatchers = new ArrayList<PathMatcher>();
+		for (String pattern : EXCLUDES.split(",")) {
+			globMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+		}
+		matcher = PathPatternMatcher.compile(EXCLUDES);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		CustomFileUtils.deleteDirectory(root);
+	}
+
+	/**
+	 * The former IO-141 check : canonical path of every entry looked up in a list.
+	 */
+	@Benchmark
+	public void canonicalPathList(Blackhole blackhole) throws IOException {
+		for (File file : files) {
+			blackhole.consume(exclusionList.contains(file.getCanonicalPath()));
+		}
+	}
+
+	/**
+	 * Every pattern as a glob {@link PathMatcher}, on the whole path and on the name.
+	 */
+	@Benchmark
+	public void globMatchers(Blackhole blackhole) {
+		for (String relativePath : relativePaths) {
+			Path path = Paths.get(relativePath);
+			Path name = path.getFileName();
+			boolean matches = false;
+			for (PathMatcher globMatcher : globMatchers) {
+				matches |= globMatcher.matches(path) || globMatcher.matches(name);
+			}
+			blackhole.consume(matches);
+		}
+	}
+
+	/**
+	 * The compiled matcher and the nested destination check used by the copy.
+	 */
+	@Benchmark
+	public void compiledMatcher(Blackhole blackhole) {
+		for (String relativePath : relativePaths) {
+			blackhole.consume(relativePath.equals("copy") || matcher.matches(relativePath));
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PathPatternMatcherBenchmark.class.getSimpleName()).build()).run();
+	}
+}
@@ -0,0 +1,57 @@
+package io.openlena.ctl.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PathPatternMatcherTest {
+
+	@Test
+	public void testMatches() {
+		PathPatternMatcher matcher = PathPatternMatcher.compile("*.jar, conf/**,env.sh");
+
+		// name patterns match at any depth
+		assertTrue(matcher.matches("a.jar"));
+		assertTrue(matcher.matches("lib/ext/a.jar"));
+		assertTrue(matcher.matches("env.sh"));
+		assertTrue(matcher.matches("bin/env.sh"));
+
+		// path patterns match the whole relative path
+		assertTrue(matcher.matches("conf/server.xml"));
+		assertTrue(matcher.matches("conf/Catalina/localhost/ROOT.xml"));
+		assertFalse(matcher.matches("webapps/conf/server.xml"));
+		assertFalse(matcher.matches("lib/a.jar.bak"));
+	}
+
+	@Test
+	public void testMatchesContents() {
+		PathPatternMatcher matcher = PathPatternMatcher.compile("logs/**,*.hprof,work");
+
+		assertTrue(matcher.matchesContents("logs"));
+		assertFalse(matcher.matches("logs"));
+		assertFalse(matcher.matchesContents("work"));
+		assertFalse(matcher.matchesContents("conf/logs"));
+	}
+
+	@Test
+	public void testCompiledPatterns() {
+		PathPatternMatcher matcher = PathPatternMatcher.compile("*.so.*,conf/context.xml,webapps/ROOT/**,**/cache/**,j?r");
+
+		assertTrue(matcher.matches("lib/libapr.so.1"));
+		assertTrue(matcher.matches("conf/context.xml"));
+		assertFalse(matcher.matches("conf/server.xml"));
+		assertTrue(matcher.matches("webapps/ROOT/WEB-INF/web.xml"));
+		assertFalse(matcher.matches("webapps/ROOT"));
+		assertFalse(matcher.matches("webapps/ROOT2/index.html"));
+		assertTrue(matcher.matches("work/cache/a"));
+		assertTrue(matcher.matchesContents("work/cache"));
+		assertTrue(matcher.matches("bin/jar"));
+	}
+
+	@Test
+	public void testEmpty() {
+		assertTrue(PathPatternMatcher.compile(null).isEmpty());
+		assertTrue(PathPatternMatcher.compile(" , ").isEmpty());
+		assertFalse(PathPatternMatcher.compile(null).matches("a.jar"));
+	}
+}
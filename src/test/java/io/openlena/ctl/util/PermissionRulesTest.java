@@ -0,0 +1,112 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class PermissionRulesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testApplyRules() throws Exception {
+		File root = folder.newFolder("lena_was-8090");
+		for (int i = 0; i < 200; i++) {
+			CustomFileUtils.writeStringToFile(new File(root, "conf/sub" + (i % 5) + "/file" + i + ".xml"), "<Server/>", "UTF-8");
+		}
+		File script = new File(root, "bin/start.sh");
+		CustomFileUtils.writeStringToFile(script, "#!/bin/sh", "UTF-8");
+		File env = new File(root, "env.sh");
+		CustomFileUtils.writeStringToFile(env, "export SERVER_ID=lena_was-8090", "UTF-8");
+		File outside = new File(folder.getRoot(), "shared.xml");
+		CustomFileUtils.writeStringToFile(outside, "<Shared/>", "UTF-8");
+		Files.setPosixFilePermissions(outside.toPath(), PosixFilePermissions.fromString("rw-rw-rw-"));
+		Files.createSymbolicLink(new File(root, "conf/shared.xml").toPath(), outside.toPath());
+		File linked = new File(root, "conf/linked.xml");
+		Files.createLink(linked.toPath(), outside.toPath());
+
+		PermissionRules.of("777", "777").setSkipHardLinkedFiles(true).apply(root, 1);
+		PermissionRules rules = new PermissionRules().add("conf,conf/**", "600", "700").add("bin/*.sh", "750", null).add("bin", null, "755")
+				.setSkipHardLinkedFiles(true);
+		// 200 files, conf and its 5 sub directories, the script and bin
+		assertEquals(208, rules.apply(root, 4));
+
+		assertEquals("rw-------", getPermissions(new File(root, "conf/sub3/file8.xml")));
+		assertEquals("rwx------", getPermissions(new File(root, "conf/sub3")));
+		assertEquals("rwx------", getPermissions(new File(root, "conf")));
+		assertEquals("rwxr-x---", getPermissions(script));
+		assertEquals("rwxr-xr-x", getPermissions(new File(root, "bin")));
+		assertEquals("rwxrwxrwx", getPermissions(root));
+		assertEquals("rwxrwxrwx", getPermissions(env));
+		// outside of the tree or shared with it
+		assertEquals("rw-rw-rw-", getPermissions(outside));
+		assertTrue(Files.isSymbolicLink(new File(root, "conf/shared.xml").toPath()));
+
+		// entries already right are not changed again
+		assertEquals(0, rules.apply(root, 4));
+		Files.setPosixFilePermissions(script.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+		assertEquals(1, rules.apply(root, 1));
+		assertEquals("rwxr-x---", getPermissions(script));
+	}
+
+	@Test
+	public void testRootAndOwner() throws Exception {
+		File file = folder.newFile("server.xml");
+		Files.setPosixFilePermissions(file.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+		String owner = Files.getOwner(file.toPath()).getName();
+
+		// patterns never match the root
+		assertEquals(0, new PermissionRules().add("*", "600", "700").apply(file, 1));
+		assertEquals(1, PermissionRules.of("644", "755").add(null, "600", "700", owner).apply(file, 1));
+		assertEquals("rw-r--r--", getPermissions(file));
+		assertEquals(0, new PermissionRules().add(null, null, null, owner).apply(file, 1));
+		assertEquals(0, PermissionRules.of("644", "755").apply(new File(folder.getRoot(), "missing"), 1));
+
+		try {
+			PermissionRules.of("644", "9");
+			fail("9 is not an octal mode");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals("Invalid file mode : '9'", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testApplyWithoutPosixPermissions() throws Exception {
+		File root = folder.newFolder("lena_was-8090");
+		File server = new File(root, "conf/server.xml");
+		CustomFileUtils.writeStringToFile(server, "<Server/>", "UTF-8");
+		File script = new File(root, "bin/start.sh");
+		CustomFileUtils.writeStringToFile(script, "#!/bin/sh", "UTF-8");
+		PermissionRules.of("777", "777").apply(root, 1);
+
+		PermissionRules rules = new PermissionRules() {
+			@Override
+			boolean isPosix(Path path) {
+				return false;
+			}
+		}.add("conf,conf/**", "600", "700").add("bin/*.sh", "750", null);
+		// modes cannot be compared, every matching entry is changed
+		assertEquals(3, rules.apply(root, 1));
+		assertEquals(3, rules.apply(root, 1));
+
+		assertEquals("rw-------", getPermissions(server));
+		assertEquals("rwx------", getPermissions(new File(root, "conf")));
+		// the group permissions are given to everybody
+		assertEquals("rwxr-xr-x", getPermissions(script));
+		assertEquals("rwxrwxrwx", getPermissions(root));
+	}
+
+	private static String getPermissions(File file) throws Exception {
+		Path path = file.toPath();
+		return PosixFilePermissions.toString(Files.getPosixFilePermissions(path));
+	}
+}
@@ -0,0 +1,272 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.openlena.ctl.common.vo.Server;
+import io.openlena.ctl.exception.LenaException;
+import io.openlena.ctl.installer.LenaServerCloneInstaller;
+import io.openlena.ctl.installer.LenaServerReceiveInstaller;
+import io.openlena.ctl.installer.LenaServerSendInstaller;
+import io.openlena.ctl.installer.LenaWasServerCloneInstaller;
+import io.openlena.ctl.type.InstallerCommandType;
+import io.openlena.ctl.type.InstallerServerType;
+
+import static org.junit.Assert.*;
+
+public class ServerTransferTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ExecutorService executor;
+	private ServerSocket serverSocket;
+
+	@Before
+	public void setUp() throws Exception {
+		executor = Executors.newSingleThreadExecutor();
+		serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testSendToAnotherLenaHome() throws Exception {
+		File sourceHome = folder.newFolder("host1");
+		File targetHome = folder.newFolder("host2");
+		File source = new File(sourceHome, "servers/lena_was-8080");
+		CustomFileUtils.writeStringToFile(new File(source, "env.sh"),
+				"export SERVER_ID=lena_was-8080\nexport INSTALL_PATH=" + source.getPath() + "\n", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "logs/catalina.out"), "log", "UTF-8");
+		// several gzip members
+		byte[] large = new byte[3 * 1024 * 1024 + 17];
+		new Random(1).nextBytes(large);
+		new File(source, "lib").mkdirs();
+		Files.write(new File(source, "lib/large.jar").toPath(), large);
+
+		final File target = new File(targetHome, "servers/lena_was-8090");
+		final StagedDirectory stagedDirectory = StagedDirectory.create(target.getPath());
+		Future<CopyStatistics> received = executor.submit(new Callable<CopyStatistics>() {
+			@Override
+			public CopyStatistics call() throws Exception {
+				CopyOptions options = new CopyOptions();
+				options.setPreservePermissions(true);
+				return ServerTransfer.receive(serverSocket, options, new ServerTransfer.Receiver() {
+					public File accept(Properties request) {
+						assertEquals("lena_was-8090", request.getProperty("clone.id"));
+						return new File(stagedDirectory.getPath());
+					}
+
+					public void complete(Properties request, CopyStatistics statistics) {
+						String envPath = FileUtil.getConcatPath(stagedDirectory.getPath(), "env.sh");
+						FileUtil.setShellVariable(envPath, "SERVER_ID", request.getProperty("clone.id"));
+						FileUtil.setShellVariable(envPath, "INSTALL_PATH", target.getPath());
+						stagedDirectory.publish();
+					}
+
+					public void discard(Properties request) {
+						stagedDirectory.discard();
+					}
+				});
+			}
+		});
+
+		Properties request = new Properties();
+		request.setProperty("clone.id", "lena_was-8090");
+		CopyOptions options = new CopyOptions();
+		options.setExcludes(PathPatternMatcher.compile("logs/**"));
+		CopyStatistics sent = ServerTransfer.send("localhost", serverSocket.getLocalPort(), request, source, options, 2);
+
+		CopyStatistics statistics = received.get(30, TimeUnit.SECONDS);
+		assertEquals(3, sent.getFileCount());
+		assertEquals(3, statistics.getFileCount());
+		assertArrayEquals(large, Files.readAllBytes(new File(target, "lib/large.jar").toPath()));
+		assertEquals("<Server/>", CustomFileUtils.readFileToString(new File(target, "conf/server.xml"), "UTF-8"));
+		assertEquals("lena_was-8090", FileUtil.getShellVariable(FileUtil.getConcatPath(target.getPath(), "env.sh"), "SERVER_ID"));
+		assertEquals(target.getPath(), FileUtil.getShellVariable(FileUtil.getConcatPath(target.getPath(), "env.sh"), "INSTALL_PATH"));
+		assertTrue(new File(target, "logs").isDirectory());
+		assertFalse(new File(target, "logs/catalina.out").exists());
+	}
+
+	@Test
+	public void testInstallersSendToAnotherLenaHome() throws Exception {
+		final File sourceHome = folder.newFolder("host1");
+		final File targetHome = folder.newFolder("host2");
+		File source = new File(sourceHome, "servers/lena_was-8080");
+		CustomFileUtils.writeStringToFile(new File(source, "env.sh"), "#!/bin/sh\nexport SERVER_ID=lena_was-8080\nexport SERVICE_PORT=8080\n"
+				+ "export INSTALL_PATH=" + source.getPath() + "\nexport JVM_ROUTE=node8080\nexport AJP_SECRET=secret\n", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "conf/server.xml"), "<Server/>", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(source, "logs/catalina.out"), "log", "UTF-8");
+		writeLenaHome(sourceHome, "<server><id>lena_was-8080</id><port>8080</port><type>lena-was</type><path>" + source.getPath()
+				+ "</path><version>1.0.0</version></server>");
+		writeLenaHome(targetHome, "");
+		final int port = serverSocket.getLocalPort();
+		serverSocket.close();
+
+		// refused without the token of the receiver
+		Future<?> received = receive(targetHome, port);
+		try {
+			send(sourceHome, port, "wrong-token");
+			fail();
+		}
+		catch (LenaException e) {
+			assertEquals("Invalid transfer token", e.getMessage());
+		}
+		try {
+			received.get(30, TimeUnit.SECONDS);
+			fail();
+		}
+		catch (ExecutionException e) {
+			// expected
+		}
+		File target = new File(targetHome, "servers/lena_was-8090");
+		assertFalse(target.exists());
+		assertFalse(InstallInfoUtil.existsServer(targetHome.getPath(), "lena_was-8090"));
+
+		received = receive(targetHome, port);
+		send(sourceHome, port, "token");
+		received.get(30, TimeUnit.SECONDS);
+
+		// configured by the clone installer of the receiver
+		ShellEnvironment environment = ShellEnvironment.load(new File(target, "env.sh").getPath());
+		assertEquals("lena_was-8090", environment.get("SERVER_ID"));
+		assertEquals("8090", environment.get("SERVICE_PORT"));
+		assertEquals(FileUtil.getConcatPath(targetHome.getPath(), "servers", "lena_was-8090"), environment.get("INSTALL_PATH"));
+		assertEquals(SystemUtil.getDefaultJvmRoute("8090"), environment.get("JVM_ROUTE"));
+		assertEquals(CipherUtil.md5("lena_was-8090"), environment.get("AJP_SECRET"));
+		assertEquals("<Server/>", CustomFileUtils.readFileToString(new File(target, "conf/server.xml"), "UTF-8"));
+		assertFalse(new File(target, "logs/catalina.out").exists());
+
+		Server server = InstallInfoUtil.getServer(targetHome.getPath(), "lena_was-8090");
+		assertEquals(FileUtil.getConcatPath(targetHome.getPath(), "servers", "lena_was-8090"), server.getPath());
+		assertEquals("8090", server.getPort());
+		assertEquals("lena-was", server.getType());
+		assertFalse(InstallInfoUtil.existsServer(sourceHome.getPath(), "lena_was-8090"));
+	}
+
+	private static void writeLenaHome(File lenaHome, String servers) {
+		FileUtil.writeStringToFile(new File(InstallInfoUtil.getInstallInfoFilePath(lenaHome.getPath())),
+				"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n<install><servers>" + servers + "</servers></install>");
+		FileUtil.writeStringToFile(new File(lenaHome, "etc/info/release-info.xml"), "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>\n"
+				+ "<release><depot><modules><module><id>lena-was</id><version>1.0.0</version></module></modules></depot></release>");
+	}
+
+	private Future<?> receive(final File lenaHome, final int port) {
+		final LenaServerCloneInstaller cloneInstaller = new LenaWasServerCloneInstaller(InstallerCommandType.CLONE, InstallerServerType.LENA_WAS);
+		return executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				new LenaServerReceiveInstaller(InstallerCommandType.RECEIVE, InstallerServerType.LENA_WAS, cloneInstaller) {
+					@Override
+					protected String getLenaHome() {
+						return lenaHome.getPath();
+					}
+
+					@Override
+					protected String getTransferToken() {
+						return "token";
+					}
+
+					@Override
+					protected HashMap<String, String> getReceiveInfoFromUser() {
+						HashMap<String, String> commandMap = new HashMap<String, String>();
+						commandMap.put("LISTEN_PORT", String.valueOf(port));
+						return commandMap;
+					}
+				}.execute(new String[0]);
+			}
+		});
+	}
+
+	private static void send(final File lenaHome, final int port, final String token) throws InterruptedException {
+		LenaServerSendInstaller installer = new LenaServerSendInstaller(InstallerCommandType.SEND, InstallerServerType.LENA_WAS) {
+			@Override
+			protected String getLenaHome() {
+				return lenaHome.getPath();
+			}
+
+			@Override
+			protected String getTransferToken() {
+				return token;
+			}
+
+			@Override
+			protected HashMap<String, String> getSendInfoFromUser() {
+				HashMap<String, String> commandMap = new HashMap<String, String>();
+				commandMap.put("SERVER_ID", "lena_was-8080");
+				commandMap.put("CLONE_SERVER_ID", "lena_was-8090");
+				commandMap.put("CLONE_SERVICE_PORT", "8090");
+				commandMap.put("RECEIVER", "127.0.0.1:" + port);
+				return commandMap;
+			}
+		};
+		for (int attempt = 1;; attempt++) {
+			try {
+				installer.execute(new String[0]);
+				return;
+			}
+			catch (LenaException e) {
+				// the receiver is not listening yet
+				if (!(e.getCause() instanceof ConnectException) || attempt == 100) {
+					throw e;
+				}
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	@Test
+	public void testRefusedRequest() throws Exception {
+		File source = folder.newFolder("lena_was-8080");
+		CustomFileUtils.writeStringToFile(new File(source, "env.sh"), "SERVER_ID=lena_was-8080", "UTF-8");
+		executor.submit(new Callable<CopyStatistics>() {
+			@Override
+			public CopyStatistics call() throws Exception {
+				return ServerTransfer.receive(serverSocket, new CopyOptions(), new ServerTransfer.Receiver() {
+					public File accept(Properties request) {
+						throw new LenaException("lena_was-8090 already exists.");
+					}
+
+					public void complete(Properties request, CopyStatistics statistics) {
+						fail("The request was refused");
+					}
+
+					public void discard(Properties request) {
+						fail("Nothing was received");
+					}
+				});
+			}
+		});
+
+		try {
+			ServerTransfer.send("localhost", serverSocket.getLocalPort(), new Properties(), source, new CopyOptions(), 1);
+			fail("The receiver refused the request");
+		}
+		catch (LenaException e) {
+			assertEquals("lena_was-8090 already exists.", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ShellEnvironmentTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testExactNames() throws Exception {
+		File envFile = new File(folder.getRoot(), "env.sh");
+		FileUtil.writeStringToFile(envFile, "#!/bin/sh\n# export SERVER_ID=commented\nexport SERVER_ID_SUFFIX=-1\n"
+				+ "export SERVER_ID=lena_was-8080\nexport JAVA_OPTS=\"-Da=b -Dc=d\"\nexport SERVER_ID=second\nSERVICE_PORT=8080\n");
+
+		ShellEnvironment environment = ShellEnvironment.load(envFile.getPath());
+		assertEquals("-1", environment.get("SERVER_ID_SUFFIX"));
+		assertEquals("lena_was-8080", environment.get("SERVER_ID"));
+		assertEquals("\"-Da=b -Dc=d\"", environment.get("JAVA_OPTS"));
+		assertNull(environment.get("SERVICE_PORT"));
+		assertNull(environment.get("SERVER"));
+		assertEquals(3, environment.getNames().size());
+	}
+
+	@Test
+	public void testChangesKeepFormatting() throws Exception {
+		File envFile = new File(folder.getRoot(), "env.bat");
+		FileUtil.writeStringToFile(envFile, "@echo off\r\nset SERVER_ID=lena_web-7180  \r\n\r\nrem set SERVICE_PORT=\r\nset SERVICE_PORT=7180");
+
+		ShellEnvironment environment = ShellEnvironment.load(envFile.getPath());
+		assertTrue(environment.set("SERVER_ID", "lena_web-7190"));
+		assertTrue(environment.set("SERVICE_PORT", "7190"));
+		assertFalse(environment.set("DOC_ROOT", "/engn/htdocs"));
+		environment.put("LOG_HOME", "/logs");
+		assertEquals("/logs", environment.get("LOG_HOME"));
+		environment.save();
+
+		assertEquals("@echo off\r\nset SERVER_ID=lena_web-7190  \r\n\r\nrem set SERVICE_PORT=\r\nset SERVICE_PORT=7190" + FileUtil.lineSeparator
+				+ "set LOG_HOME=/logs", FileUtil.readFileToString(envFile));
+	}
+
+	@Test
+	public void testPutAfterVariable() throws Exception {
+		File envFile = new File(folder.getRoot(), "env.sh");
+		FileUtil.writeStringToFile(envFile, "export INSTALL_PATH=/servers/a\r\nexport LOG_HOME=${CATALINA_BASE}/logs");
+
+		ShellEnvironment environment = ShellEnvironment.load(envFile.getPath());
+		environment.put("CATALINA_HOME", "/engines/a", "INSTALL_PATH");
+		environment.put("CATALINA_BASE", "${INSTALL_PATH}", "CATALINA_HOME");
+		environment.put("LOG_HOME", "/logs", "INSTALL_PATH");
+		environment.put("JAVA_OPTS", "-Xmx1g", "UNKNOWN");
+		environment.save();
+
+		assertEquals("export INSTALL_PATH=/servers/a\r\nexport CATALINA_HOME=/engines/a\r\nexport CATALINA_BASE=${INSTALL_PATH}\r\n"
+				+ "export LOG_HOME=/logs" + FileUtil.lineSeparator + "export JAVA_OPTS=-Xmx1g", FileUtil.readFileToString(envFile));
+		environment = ShellEnvironment.load(envFile.getPath());
+		assertEquals("/logs", environment.get("LOG_HOME"));
+		assertEquals("/engines/a", environment.get("CATALINA_HOME"));
+	}
+
+	@Test
+	public void testModifiedFileIsParsedAgain() throws Exception {
+		File envFile = new File(folder.getRoot(), "env.sh");
+		FileUtil.writeStringToFile(envFile, "export SERVER_ID=lena_was-8080\n");
+		assertEquals("lena_was-8080", ShellEnvironment.load(envFile.getPath()).get("SERVER_ID"));
+
+		// an unsaved change is not seen by the next load
+		ShellEnvironment environment = ShellEnvironment.load(envFile.getPath());
+		environment.set("SERVER_ID", "changed");
+		assertEquals("lena_was-8080", ShellEnvironment.load(envFile.getPath()).get("SERVER_ID"));
+
+		FileUtil.writeStringToFile(envFile, "export SERVER_ID=lena_was-8090\nexport SERVICE_PORT=8090\n");
+		assertEquals("lena_was-8090", ShellEnvironment.load(envFile.getPath()).get("SERVER_ID"));
+
+		FileUtil.setShellVariable(envFile.getPath(), "SERVICE_PORT", "8100");
+		assertEquals("8100", ShellEnvironment.load(envFile.getPath()).get("SERVICE_PORT"));
+		assertEquals("export SERVER_ID=lena_was-8090\nexport SERVICE_PORT=8100\n", FileUtil.readFileToString(envFile));
+	}
+
+	@Test
+	public void testRewriteKeepingDateAndSizeIsParsedAgain() throws Exception {
+		File envFile = new File(folder.getRoot(), "env.sh");
+		FileUtil.writeStringToFile(envFile, "export SERVICE_PORT=8080\n");
+		FileTime lastModified = Files.getLastModifiedTime(envFile.toPath());
+		assertEquals("8080", ShellEnvironment.load(envFile.getPath()).get("SERVICE_PORT"));
+
+		// same file, size and modification time, only the change time differs
+		FileUtil.writeStringToFile(envFile, "export SERVICE_PORT=8090\n");
+		Files.setLastModifiedTime(envFile.toPath(), lastModified);
+		assertEquals("8090", ShellEnvironment.load(envFile.getPath()).get("SERVICE_PORT"));
+	}
+}
@@ -0,0 +1,111 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.openlena.ctl.exception.LenaException;
+
+import static org.junit.Assert.*;
+
+public class StagedDirectoryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testPublish() throws Exception {
+		File target = new File(folder.getRoot(), "lena_was-8080");
+		StagedDirectory stagedDirectory = StagedDirectory.create(target.getPath());
+		File staging = new File(stagedDirectory.getPath());
+		assertEquals(new File(folder.getRoot(), ".lena_was-8080.staging"), staging);
+
+		CustomFileUtils.writeStringToFile(new File(staging, "env.sh"), "SERVER_ID=lena_was-8080\n", "UTF-8");
+		assertFalse(target.exists());
+		stagedDirectory.publish();
+		assertFalse(staging.exists());
+		assertTrue(new File(target, "env.sh").isFile());
+	}
+
+	@Test
+	public void testDiscard() throws Exception {
+		File target = new File(folder.getRoot(), "lena_was-8080");
+		StagedDirectory stagedDirectory = StagedDirectory.create(target.getPath());
+		File staging = new File(stagedDirectory.getPath());
+		CustomFileUtils.writeStringToFile(new File(staging, "env.sh"), "", "UTF-8");
+		stagedDirectory.discard();
+		assertFalse(staging.exists());
+		assertFalse(target.exists());
+
+		// retried at once
+		stagedDirectory = StagedDirectory.create(target.getPath());
+		CustomFileUtils.writeStringToFile(new File(stagedDirectory.getPath(), "env.sh"), "", "UTF-8");
+		stagedDirectory.publish();
+		stagedDirectory.discard();
+		assertFalse(target.exists());
+	}
+
+	@Test
+	public void testReclaimsKilledInstall() throws Exception {
+		File target = new File(folder.getRoot(), "lena_was-8080");
+		File staging = new File(folder.getRoot(), ".lena_was-8080.staging");
+		CustomFileUtils.writeStringToFile(new File(staging, "lib/partial.jar"), "", "UTF-8");
+
+		StagedDirectory stagedDirectory = StagedDirectory.create(target.getPath());
+		assertFalse(staging.exists());
+		assertEquals(staging.getPath(), stagedDirectory.getPath());
+	}
+
+	@Test
+	public void testReclaimsLockFiles() throws Exception {
+		File killedStaging = new File(folder.getRoot(), ".lena_web-8180.staging");
+		CustomFileUtils.writeStringToFile(new File(killedStaging, "conf/httpd.conf"), "", "UTF-8");
+		File killedLock = folder.newFile(".lena_web-8180.lock");
+		File resumableStaging = new File(folder.getRoot(), ".lena_web-8280.staging");
+		CustomFileUtils.writeStringToFile(new File(resumableStaging, "conf/httpd.conf"), "", "UTF-8");
+		folder.newFile(".lena_web-8280.checkpoint");
+		File resumableLock = folder.newFile(".lena_web-8280.lock");
+		StagedDirectory running = StagedDirectory.create(new File(folder.getRoot(), "lena_was-8081").getPath());
+
+		StagedDirectory stagedDirectory = StagedDirectory.create(new File(folder.getRoot(), "lena_was-8080").getPath());
+		assertFalse(killedLock.exists());
+		assertFalse(killedStaging.exists());
+		assertFalse(resumableLock.exists());
+		assertTrue(new File(resumableStaging, "conf/httpd.conf").isFile());
+		// held by the running installs
+		assertTrue(new File(folder.getRoot(), ".lena_was-8081.lock").isFile());
+		assertTrue(new File(folder.getRoot(), ".lena_was-8080.lock").isFile());
+
+		stagedDirectory.discard();
+		running.discard();
+		assertFalse(new File(folder.getRoot(), ".lena_was-8080.lock").exists());
+		assertFalse(new File(folder.getRoot(), ".lena_was-8081.lock").exists());
+	}
+
+	@Test
+	public void testConcurrentInstall() throws Exception {
+		File target = new File(folder.getRoot(), "lena_was-8080");
+		StagedDirectory stagedDirectory = StagedDirectory.create(target.getPath());
+		File staging = new File(stagedDirectory.getPath());
+		CustomFileUtils.writeStringToFile(new File(staging, "lib/engine.jar"), "", "UTF-8");
+		try {
+			StagedDirectory.create(target.getPath());
+			fail();
+		}
+		catch (LenaException e) {
+			// the running install keeps its staging directory
+			assertTrue(new File(staging, "lib/engine.jar").isFile());
+		}
+		stagedDirectory.publish();
+		assertTrue(new File(target, "lib/engine.jar").isFile());
+		assertFalse(new File(folder.getRoot(), ".lena_was-8080.lock").exists());
+	}
+
+	@Test(expected = LenaException.class)
+	public void testTargetExists() throws Exception {
+		File target = folder.newFolder("lena_was-8080");
+		StagedDirectory.create(target.getPath());
+	}
+}
@@ -0,0 +1,87 @@
+package io.openlena.ctl.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class TemplateRendererTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRenderWhileCopying() throws Exception {
+		File template = folder.newFolder("template");
+		CustomFileUtils.writeStringToFile(new File(template, "env.sh"),
+				"#!/bin/sh\nexport SERVER_ID=\nexport SERVICE_PORT=8080\nexport LOG_HOME=${INSTALL_PATH}/logs\n", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(template, "conf/server.xml"),
+				"<Server port=\"${LENA_SERVICE_PORT}\" name=\"${LENA_SERVER_ID}\" home=\"${LENA_HOME}\"/>", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(template, "lib/readme.txt"), "${LENA_SERVER_ID}", "UTF-8");
+		byte[] keystore = "\0${LENA_SERVER_ID}".getBytes("UTF-8");
+		Files.write(new File(template, "conf/keystore.jks").toPath(), keystore);
+
+		Map<String, String> variables = new LinkedHashMap<String, String>();
+		variables.put("SERVER_ID", "lena_was-8090");
+		variables.put("SERVICE_PORT", "8090");
+		Map<String, String> placeholders = new LinkedHashMap<String, String>();
+		placeholders.put("${LENA_SERVER_ID}", "lena_was-8090");
+		placeholders.put("${LENA_SERVICE_PORT}", "8090");
+		CopyOptions options = new CopyOptions();
+		options.setShellVariables(variables);
+		options.setSubstitutions(PathPatternMatcher.compile("env.sh,conf/**"), placeholders);
+
+		File target = new File(folder.getRoot(), "lena_was-8090");
+		CopyStatistics statistics = CustomFileUtils.copyDirectory(template, target, options);
+
+		assertEquals("#!/bin/sh\nexport SERVER_ID=lena_was-8090\nexport SERVICE_PORT=8090\nexport LOG_HOME=${INSTALL_PATH}/logs\n",
+				CustomFileUtils.readFileToString(new File(target, "env.sh"), "UTF-8"));
+		assertEquals("<Server port=\"8090\" name=\"lena_was-8090\" home=\"${LENA_HOME}\"/>",
+				CustomFileUtils.readFileToString(new File(target, "conf/server.xml"), "UTF-8"));
+		assertEquals("${LENA_SERVER_ID}", CustomFileUtils.readFileToString(new File(target, "lib/readme.txt"), "UTF-8"));
+		assertArrayEquals(keystore, Files.readAllBytes(new File(target, "conf/keystore.jks").toPath()));
+		assertEquals(4, statistics.getFileCount());
+		assertEquals(3, statistics.getRenderedFileCount());
+		assertEquals(new File(target, "env.sh").length() + new File(target, "conf/server.xml").length() + keystore.length + 17,
+				statistics.getByteCount());
+	}
+
+	@Test
+	public void testUndeclaredVariable() throws Exception {
+		File template = folder.newFolder("template");
+		CustomFileUtils.writeStringToFile(new File(template, "env.sh"), "export SERVER_ID=\n", "UTF-8");
+		CopyOptions options = new CopyOptions();
+		options.setShellVariables(Collections.singletonMap("JVM_ROUTE", "node1"));
+
+		try {
+			CustomFileUtils.copyDirectory(template, new File(folder.getRoot(), "target"), options);
+			fail("JVM_ROUTE is not declared");
+		}
+		catch (IOException e) {
+			assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("JVM_ROUTE"));
+		}
+	}
+
+	@Test
+	public void testEnvBatIsCopiedAsItIs() throws Exception {
+		File template = folder.newFolder("template");
+		CustomFileUtils.writeStringToFile(new File(template, "env.sh"), "export JVM_ROUTE=\n", "UTF-8");
+		CustomFileUtils.writeStringToFile(new File(template, "env.bat"), "set SERVER_ID=\r\n", "UTF-8");
+		CopyOptions options = new CopyOptions();
+		options.setShellVariables(Collections.singletonMap("JVM_ROUTE", "node1"));
+
+		File target = new File(folder.getRoot(), "target");
+		CopyStatistics statistics = CustomFileUtils.copyDirectory(template, target, options);
+		assertEquals("export JVM_ROUTE=node1\n", CustomFileUtils.readFileToString(new File(target, "env.sh"), "UTF-8"));
+		assertEquals("set SERVER_ID=\r\n", CustomFileUtils.readFileToString(new File(target, "env.bat"), "UTF-8"));
+		assertEquals(1, statistics.getRenderedFileCount());
+	}
+}
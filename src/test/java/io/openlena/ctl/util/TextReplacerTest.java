@@ -0,0 +1,130 @@
+package io.openlena.ctl.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class TextReplacerTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLeftmostLongest() throws Exception {
+		Map<String, String> replacements = new LinkedHashMap<String, String>();
+		replacements.put("bc", "1");
+		replacements.put("abcd", "2");
+		replacements.put("ab", "3");
+		replacements.put("c", "4");
+		replacements.put("/engn/servers/lena_was-8080", "/engn/servers/lena_was-8090");
+		replacements.put("lena_was-8080", "lena_was-8090");
+
+		assertEquals("2", replace(replacements, "abcd", 1024));
+		assertEquals("34x", replace(replacements, "abcx", 1024));
+		assertEquals("34e", replace(replacements, "abce", 1024));
+		assertEquals("x1e", replace(replacements, "xbce", 1024));
+		assertEquals("INSTALL_PATH=/engn/servers/lena_was-8090\nSERVER_ID=lena_was-8090\n",
+				replace(replacements, "INSTALL_PATH=/engn/servers/lena_was-8080\nSERVER_ID=lena_was-8080\n", 3));
+		assertEquals("서버 lena_was-8090", replace(replacements, "서버 lena_was-8080", 2));
+	}
+
+	@Test
+	public void testMatchesReference() throws Exception {
+		Random random = new Random(7);
+		for (int round = 0; round < 500; round++) {
+			Map<String, String> replacements = new LinkedHashMap<String, String>();
+			for (int i = random.nextInt(6); i >= 0; i--) {
+				replacements.put(randomText(random, 1 + random.nextInt(4)), randomText(random, random.nextInt(3)).toUpperCase());
+			}
+			String text = randomText(random, random.nextInt(200));
+			assertEquals(text + " " + replacements, reference(text, replacements), replace(replacements, text, 1 + random.nextInt(8)));
+		}
+	}
+
+	@Test
+	public void testReplaceFiles() throws Exception {
+		File root = folder.newFolder("lena_was-8090");
+		for (int i = 0; i < 40; i++) {
+			CustomFileUtils.writeStringToFile(new File(root, "conf/file" + i + ".xml"), "<Server path=\"/engn/servers/lena_was-8080\"/>", "UTF-8");
+		}
+		File untouched = new File(root, "conf/untouched.properties");
+		CustomFileUtils.writeStringToFile(untouched, "port=8090", "UTF-8");
+		untouched.setLastModified(untouched.lastModified() - 60000);
+		long lastModified = untouched.lastModified();
+		File binary = new File(root, "lib/native.so");
+		binary.getParentFile().mkdirs();
+		Files.write(binary.toPath(), "\0/engn/servers/lena_was-8080".getBytes("UTF-8"));
+		File script = new File(root, "bin/start.sh");
+		CustomFileUtils.writeStringToFile(script, "cd /engn/servers/lena_was-8080", "UTF-8");
+		Files.setPosixFilePermissions(script.toPath(), PosixFilePermissions.fromString("rwxr-x---"));
+		File outside = new File(folder.getRoot(), "shared.xml");
+		CustomFileUtils.writeStringToFile(outside, "/engn/servers/lena_was-8080", "UTF-8");
+		Files.createSymbolicLink(new File(root, "conf/shared.xml").toPath(), outside.toPath());
+
+		Map<String, String> replacements = new LinkedHashMap<String, String>();
+		replacements.put("/engn/servers/lena_was-8080", "/engn/servers/lena_was-8090");
+		assertEquals(41, new TextReplacer(replacements).replace(root, 4));
+
+		assertEquals("<Server path=\"/engn/servers/lena_was-8090\"/>", CustomFileUtils.readFileToString(new File(root, "conf/file39.xml"), "UTF-8"));
+		assertEquals(lastModified, untouched.lastModified());
+		assertEquals("\0/engn/servers/lena_was-8080", new String(Files.readAllBytes(binary.toPath()), "UTF-8"));
+		assertEquals("cd /engn/servers/lena_was-8090", CustomFileUtils.readFileToString(script, "UTF-8"));
+		assertEquals("rwxr-x---", PosixFilePermissions.toString(Files.getPosixFilePermissions(script.toPath())));
+		assertEquals("/engn/servers/lena_was-8080", CustomFileUtils.readFileToString(outside, "UTF-8"));
+		assertTrue(Files.isSymbolicLink(new File(root, "conf/shared.xml").toPath()));
+		assertEquals(42, new File(root, "conf").list().length);
+	}
+
+	private static String replace(Map<String, String> replacements, String text, final int readSize) throws Exception {
+		InputStream input = new ByteArrayInputStream(text.getBytes("UTF-8")) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, readSize));
+			}
+		};
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		new TextReplacer(replacements).replace(input, output);
+		return new String(output.toByteArray(), "UTF-8");
+	}
+
+	private static String reference(String text, Map<String, String> replacements) {
+		StringBuilder result = new StringBuilder();
+		int i = 0;
+		while (i < text.length()) {
+			String longest = null;
+			for (String target : replacements.keySet()) {
+				if (text.startsWith(target, i) && (longest == null || target.length() > longest.length())) {
+					longest = target;
+				}
+			}
+			if (longest == null) {
+				result.append(text.charAt(i++));
+			}
+			else {
+				result.append(replacements.get(longest));
+				i += longest.length();
+			}
+		}
+		return result.toString();
+	}
+
+	private static String randomText(Random random, int length) {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < length; i++) {
+			text.append((char) ('a' + random.nextInt(3)));
+		}
+		return text.toString();
+	}
+}